@@ -0,0 +1,301 @@
+package com.simplecamera.application.simplecamera;
+
+import android.graphics.Bitmap;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.CancellationToken;
+import com.simplecamera.application.simplecamera.kernel.ImageStatistics;
+import com.simplecamera.application.simplecamera.kernel.LabConverter;
+import com.simplecamera.application.simplecamera.kernel.Pipeline;
+import com.simplecamera.application.simplecamera.kernel.PixelKernels;
+import com.simplecamera.application.simplecamera.kernel.StripKernel;
+import com.simplecamera.application.simplecamera.kernel.StripSink;
+import com.simplecamera.application.simplecamera.kernel.StripSource;
+import com.simplecamera.application.simplecamera.kernel.StripStreamer;
+import com.simplecamera.application.simplecamera.kernel.ThresholdKernels;
+
+import java.io.IOException;
+
+/**
+ *   The image analysis options offered by the "Analyze Picture" dialog
+ *   of MenuActivity, declared in the same order as the items of the
+ *   "options" string array so that a selected list position maps
+ *   directly onto an Analysis.
+ */
+
+public enum Analysis implements Pipeline.Composition
+{
+    ORIGINAL, GRAYSCALE, BINARY, BINARY_OTSU, BINARY_ADAPTIVE, CIELAB, RED_GREEN, BLUE_YELLOW, RED_GREEN_BINARY;
+
+    /**
+     *   The global gray value threshold used for "Make Binary".
+     */
+
+    public static final int BINARY_THRESHOLD = 119;
+
+    /**
+     *   The sensitivity to local contrast used for "Make Binary (Adaptive)".
+     */
+
+    public static final double SAUVOLA_K = 0.2;
+
+    /**
+     *   The encoded a* level of a neutral gray, above which "Make R-G
+     *   Binary" makes a pixel white.
+     */
+
+    public static final int NEUTRAL_LEVEL = 128;
+
+    /**
+     *   The shorter side, in pixels, of the smallest capture an analysis
+     *   of gray levels needs, since its result is shown at about the size
+     *   of the screen.
+     */
+
+    public static final int LUMA_DETAIL = 720;
+
+    /**
+     *   The shorter side of the smallest capture a colour analysis needs.
+     *   JPEG keeps the chroma of a picture at half its resolution either
+     *   way, so twice LUMA_DETAIL gives a* and b* the same detail.
+     */
+
+    public static final int CHROMA_DETAIL = 2 * LUMA_DETAIL;
+
+    /**
+     *   Chooses the window radius of "Make Binary (Adaptive)" for an image,
+     *   as a fixed fraction of its shorter side, so that the result does
+     *   not depend on the resolution the image was decoded at.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @return
+     *       The radius, between 7 and ThresholdKernels.MAX_SAUVOLA_RADIUS.
+     */
+
+    public static int adaptiveRadius(int width, int height)
+    {
+        return Math.max(7, Math.min(ThresholdKernels.MAX_SAUVOLA_RADIUS, Math.min(width, height) / 24));
+    }
+
+    /**
+     *   Finds the detail this analysis needs from a capture, for choosing
+     *   the smallest picture size which provides it.
+     *
+     *   @return
+     *       The least number of pixels along the shorter side of the
+     *       picture: CHROMA_DETAIL for the analyses of a* and b*, and
+     *       LUMA_DETAIL otherwise.
+     */
+
+    public int getRequiredShortSide()
+    {
+        switch (this)
+        {
+            case CIELAB:
+            case RED_GREEN:
+            case BLUE_YELLOW:
+            case RED_GREEN_BINARY:
+                return CHROMA_DETAIL;
+            default:
+                return LUMA_DETAIL;
+        }
+    }
+
+    /**
+     *   Finds the Analysis for a position in the "options" array.
+     *
+     *   @param position
+     *       The checked item position of the options list.
+     *
+     *   @return
+     *       The matching Analysis.
+     */
+
+    public static Analysis fromOption(int position)
+    {
+        return values()[position];
+    }
+
+    /**
+     *   Builds this analysis as a chain of per-pixel Pipeline stages. The
+     *   analyses with a dedicated, cached BitmapManager operation keep
+     *   using it; one which is only a composition, like RED_GREEN_BINARY,
+     *   needs nothing more than a case here.
+     *
+     *   @param source
+     *       The source node of a Pipeline.
+     *
+     *   @return
+     *       The node holding the result, or null for an analysis which
+     *       is not a composition of per-pixel stages.
+     */
+
+    public Pipeline.Node compose(Pipeline.Node source)
+    {
+        switch (this)
+        {
+            case GRAYSCALE:
+                return source.gray();
+            case CIELAB:
+                return source.lab();
+            case RED_GREEN:
+                return source.lab().channel(ImageStatistics.Channel.A);
+            case BLUE_YELLOW:
+                return source.lab().channel(ImageStatistics.Channel.B);
+            case RED_GREEN_BINARY:
+                return source.lab().channel(ImageStatistics.Channel.A).threshold(NEUTRAL_LEVEL + 1);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     *   Runs this analysis on the Bitmap held by a BitmapManager. A
+     *   source too large to be decoded in full is streamed instead, by
+     *   BitmapManager.stream(), except for BINARY_ADAPTIVE whose windows
+     *   would cross the edges of the strips.
+     *
+     *   @param manager
+     *       The BitmapManager holding the image to analyze.
+     *
+     *   @param token
+     *       A token which abandons the analysis once cancelled, or null.
+     *
+     *   @return
+     *       A new Bitmap holding the result, or the managed Bitmap itself
+     *       for ORIGINAL unless it was streamed.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the analysis completes.
+     */
+
+    public Bitmap apply(BitmapManager manager, CancellationToken token)
+    {
+        if (this != BINARY_ADAPTIVE && manager.shouldStream())
+            return manager.stream(this, token);
+
+        switch (this)
+        {
+            case GRAYSCALE:
+                return manager.turnGray(token);
+            case BINARY:
+                return manager.turnBinary(BINARY_THRESHOLD, token);
+            case BINARY_OTSU:
+                return manager.turnBinaryOtsu(token);
+            case BINARY_ADAPTIVE:
+                int radius = adaptiveRadius(manager.getSourceWidth(), manager.getSourceHeight());
+                return manager.turnBinarySauvola(radius, SAUVOLA_K, token);
+            case CIELAB:
+                return manager.convertToLAB(token);
+            case RED_GREEN:
+                return manager.extractRG(token);
+            case BLUE_YELLOW:
+                return manager.extractBY(token);
+            default:
+                Pipeline.Node composed = compose(new Pipeline().source());
+                return composed != null ? manager.render(name(), composed, null, token) : manager.decodeSource();
+        }
+    }
+
+    /**
+     *   Runs this analysis on an image streamed a strip at a time, for
+     *   captures too large to be decoded in full. BINARY_OTSU reads the
+     *   source twice, once to choose its threshold and once to apply it.
+     *
+     *   @param source
+     *       The image to analyze, for example a StripDecoder.
+     *
+     *   @param sink
+     *       The receiver of the result, for example a PnmWriter.
+     *
+     *   @param streamer
+     *       The StripStreamer which sets the height of the strips.
+     *
+     *   @param token
+     *       A token which abandons the analysis once cancelled, or null.
+     *
+     *   @throws IOException
+     *       If the source cannot be read or the sink cannot be written.
+     *
+     *   @throws IllegalArgumentException
+     *       For BINARY_ADAPTIVE, whose windows would cross the edges of
+     *       the strips.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the analysis completes.
+     */
+
+    public void stream(StripSource source, StripSink sink, StripStreamer streamer, CancellationToken token)
+            throws IOException
+    {
+        if (this == BINARY_ADAPTIVE)
+            throw new IllegalArgumentException(this + " cannot be streamed");
+
+        final int threshold = this == BINARY_OTSU ? streamOtsuThreshold(source, streamer, token) : BINARY_THRESHOLD;
+        Pipeline.Node composed = compose(new Pipeline().source());
+        final StripKernel composedKernel = composed != null ? composed.asStripKernel() : null;
+
+        streamer.stream(source, new StripKernel()
+        {
+            public void processRows(ArgbImage src, ArgbImage dst, int firstRow, int lastRow)
+            {
+                switch (Analysis.this)
+                {
+                    case GRAYSCALE:
+                        PixelKernels.toGray(src, dst, firstRow, lastRow);
+                        break;
+                    case BINARY:
+                    case BINARY_OTSU:
+                        PixelKernels.binarize(src, dst, threshold, firstRow, lastRow);
+                        break;
+                    case CIELAB:
+                        LabConverter.toLab(src, dst, firstRow, lastRow);
+                        break;
+                    case RED_GREEN:
+                        LabConverter.extractA(src, dst, firstRow, lastRow);
+                        break;
+                    case BLUE_YELLOW:
+                        LabConverter.extractB(src, dst, firstRow, lastRow);
+                        break;
+                    default:
+                        if (composedKernel != null)
+                        {
+                            composedKernel.processRows(src, dst, firstRow, lastRow);
+                            break;
+                        }
+                        for (int y = firstRow; y < lastRow; y++)
+                            System.arraycopy(src.getPixels(), y * src.getStride(), dst.getPixels(), y * dst.getStride(),
+                                    src.getWidth());
+                }
+            }
+        }, sink, token);
+    }
+
+    private static int streamOtsuThreshold(StripSource source, StripStreamer streamer, CancellationToken token)
+            throws IOException
+    {
+        final int [] histogram = new int[256];
+
+        streamer.stream(source, new StripKernel()
+        {
+            public void processRows(ArgbImage src, ArgbImage dst, int firstRow, int lastRow)
+            {
+                int [] bins = new int[256];
+                ThresholdKernels.histogram(src, bins, firstRow, lastRow);
+
+                synchronized (histogram)
+                {
+                    for (int level = 0; level < 256; level++)
+                        histogram[level] += bins[level];
+                }
+            }
+        }, null, token);
+
+        return ThresholdKernels.otsu(histogram);
+    }
+}
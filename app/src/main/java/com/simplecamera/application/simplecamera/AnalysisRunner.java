@@ -0,0 +1,305 @@
+package com.simplecamera.application.simplecamera;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.simplecamera.application.simplecamera.kernel.CancellationToken;
+import com.simplecamera.application.simplecamera.kernel.DiskResultCache;
+import com.simplecamera.application.simplecamera.kernel.ProgressListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *   Runs Analysis jobs on a BitmapManager away from the main thread and
+ *   hands their progress and results back to the main thread.
+ *
+ *   Jobs run one at a time on a single background thread, which is
+ *   also the only thread that touches the BitmapManager. Submitting a
+ *   new job cancels the one in flight, and every job is stamped with a
+ *   generation number so that a result which arrives after it has been
+ *   superseded goes back to the BitmapManager's pool instead of being
+ *   delivered.
+ *
+ *   Apart from the Callback methods, which are always invoked on the
+ *   main thread, every method of this class must be called from the
+ *   main thread.
+ */
+
+public class AnalysisRunner
+{
+    /**
+     *   Receives the outcome of submitted jobs on the main thread.
+     */
+
+    public interface Callback
+    {
+        void onProgress(Analysis analysis, int percent);
+        void onResult(Analysis analysis, Bitmap result);
+        void onFailure(Analysis analysis, RuntimeException error);
+    }
+
+    private final BitmapManager manager;
+    private final Callback callback;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private CancellationToken currentToken;
+    private int generation;
+
+    public AnalysisRunner(BitmapManager manager, Callback callback)
+    {
+        this.manager = manager;
+        this.callback = callback;
+    }
+
+    /**
+     *   Opens the disk cache of the BitmapManager on the background
+     *   thread, since opening it scans the cache directory. Jobs submitted
+     *   afterwards use it; if it cannot be opened, results are only
+     *   cached in memory.
+     *
+     *   @param directory
+     *       The directory of the cache.
+     *
+     *   @param maxBytes
+     *       The size the cache is trimmed to.
+     */
+
+    public void openDiskCache(final File directory, final long maxBytes)
+    {
+        worker.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    manager.setDiskCache(new DiskResultCache(directory, maxBytes));
+                }
+                catch (IOException e)
+                {
+                    // Results are then only cached in memory, for the current picture.
+                }
+            }
+        });
+    }
+
+    /**
+     *   Replaces the image that future jobs analyze. Any job in flight is
+     *   cancelled, and the swap happens on the background thread once
+     *   that job has let go of the previous image, which is recycled.
+     *
+     *   @param newMap
+     *       The new image to analyze, which the runner takes ownership of.
+     */
+
+    public void setSource(final Bitmap newMap)
+    {
+        cancel();
+
+        worker.execute(new Runnable()
+        {
+            public void run() { replaceSource(newMap, null, null); }
+        });
+    }
+
+    /**
+     *   Replaces the image that future jobs analyze with the one stored in
+     *   a file. The file is decoded at full resolution by the first job
+     *   that needs its pixels, so a capture which is only ever previewed,
+     *   or whose results are all in the disk cache of the BitmapManager,
+     *   is never decoded in full.
+     *
+     *   @param path
+     *       The path of the image file.
+     */
+
+    public void setSourceFile(final String path)
+    {
+        cancel();
+
+        worker.execute(new Runnable()
+        {
+            public void run() { replaceSource(null, path, null); }
+        });
+    }
+
+    /**
+     *   Replaces the image that future jobs analyze with an encoded image
+     *   held in memory, which is decoded at full resolution by the first
+     *   job that needs it.
+     *
+     *   @param jpeg
+     *       The encoded image, which must not be modified afterwards.
+     */
+
+    public void setSourceJpeg(final byte [] jpeg)
+    {
+        cancel();
+
+        worker.execute(new Runnable()
+        {
+            public void run() { replaceSource(null, null, jpeg); }
+        });
+    }
+
+    /**
+     *   Starts an analysis, cancelling whichever one is still running.
+     *
+     *   @param analysis
+     *       The analysis to run.
+     */
+
+    public void submit(final Analysis analysis)
+    {
+        cancel();
+
+        final int jobGeneration = generation;
+        final CancellationToken token = new CancellationToken();
+        currentToken = token;
+
+        worker.execute(new Runnable()
+        {
+            public void run() { runJob(analysis, token, jobGeneration); }
+        });
+    }
+
+    /**
+     *   Cancels the job in flight, if any. Its result will not be
+     *   delivered.
+     */
+
+    public void cancel()
+    {
+        generation++;
+
+        if (currentToken != null)
+        {
+            currentToken.cancel();
+            currentToken = null;
+        }
+    }
+
+    /**
+     *   Cancels the job in flight and stops the background thread. The
+     *   runner cannot be used afterwards.
+     */
+
+    public void shutdown()
+    {
+        cancel();
+        worker.shutdown();
+    }
+
+    /**
+     *   Hands a delivered result back for reuse by later jobs, once it is
+     *   no longer displayed. The Bitmap is returned to the BitmapManager
+     *   on the background thread; after shutdown() it is simply left to
+     *   the garbage collector.
+     *
+     *   @param result
+     *       A Bitmap passed to Callback.onResult(), or null.
+     */
+
+    public void release(final Bitmap result)
+    {
+        if (result == null || worker.isShutdown())
+            return;
+
+        worker.execute(new Runnable()
+        {
+            public void run() { manager.releaseResult(result); }
+        });
+    }
+
+    private void replaceSource(Bitmap newMap, String path, byte [] jpeg)
+    {
+        Bitmap previous = manager.getBitmap();
+
+        if (path != null)
+            manager.setSourceFile(path);
+        else if (jpeg != null)
+            manager.setSourceJpeg(jpeg);
+        else
+            manager.setBitmap(newMap);
+
+        if (previous != null && previous != newMap)
+            previous.recycle();
+    }
+
+    private void runJob(final Analysis analysis, final CancellationToken token, final int jobGeneration)
+    {
+        if (token.isCancelled())
+            return;
+
+        final AtomicInteger lastPercent = new AtomicInteger(-1);
+
+        manager.setProgressListener(new ProgressListener()
+        {
+            public void onProgress(int rowsDone, int totalRows)
+            {
+                final int percent = (int)(100L * rowsDone / totalRows);
+                int last = lastPercent.get();
+
+                if (percent > last && lastPercent.compareAndSet(last, percent))
+                    mainHandler.post(new Runnable()
+                    {
+                        public void run()
+                        {
+                            if (jobGeneration == generation)
+                                callback.onProgress(analysis, percent);
+                        }
+                    });
+            }
+        });
+
+        try
+        {
+            final Bitmap result = analysis.apply(manager, token);
+
+            mainHandler.post(new Runnable()
+            {
+                public void run()
+                {
+                    if (jobGeneration == generation && !token.isCancelled())
+                        callback.onResult(analysis, result);
+                    else
+                        release(result);
+                }
+            });
+        }
+        catch (CancellationException e)
+        {
+            // A newer job superseded this one; there is nothing to deliver.
+        }
+        catch (final RuntimeException e)
+        {
+            mainHandler.post(new Runnable()
+            {
+                public void run()
+                {
+                    if (jobGeneration == generation)
+                        callback.onFailure(analysis, e);
+                }
+            });
+        }
+        finally
+        {
+            manager.setProgressListener(null);
+
+            /*
+
+                New results are written to the disk cache only now, so
+                that the result above reaches the screen first.
+
+            */
+
+            manager.flushDiskWrites();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.simplecamera.application.simplecamera;
+
+import android.graphics.Bitmap;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.ImageCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ *   An ImageCodec which decodes the JPEG and PNG captures of the device
+ *   through BitmapFactory and writes results as PNG, so that a binary or
+ *   channel image keeps its exact levels. Captures are subsampled to the
+ *   detail the analysis needs, as BitmapManager.stream() does for single
+ *   images, since a full resolution capture held as a Bitmap and as an
+ *   ArgbImage at once may not fit in the heap of a small device.
+ */
+
+public class BitmapCodec implements ImageCodec
+{
+    private final int shortSide;
+
+    /**
+     *   @param shortSide
+     *       The least length of the shorter side of a decoded capture,
+     *       such as Analysis.getRequiredShortSide(), or 0 to decode
+     *       captures at full resolution.
+     */
+
+    public BitmapCodec(int shortSide)
+    {
+        this.shortSide = shortSide;
+    }
+
+    public boolean canDecode(String fileName)
+    {
+        String name = fileName.toLowerCase(Locale.US);
+
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png");
+    }
+
+    public ArgbImage decode(File file) throws IOException
+    {
+        Bitmap decoded = ImageDecoder.decodeFull(file.getPath(), shortSide);
+        if (decoded == null)
+            throw new IOException("Unable to decode " + file);
+
+        ArgbImage image = new ArgbImage(decoded.getWidth(), decoded.getHeight());
+        decoded.getPixels(image.getPixels(), 0, image.getStride(), 0, 0, image.getWidth(), image.getHeight());
+        decoded.recycle();
+
+        return image;
+    }
+
+    public byte [] encode(ArgbImage image, boolean gray) throws IOException
+    {
+        Bitmap bitmap = Bitmap.createBitmap(image.getPixels(), 0, image.getStride(), image.getWidth(), image.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try
+        {
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out))
+                throw new IOException("Unable to encode a " + image.getWidth() + "x" + image.getHeight() + " image");
+        }
+        finally
+        {
+            bitmap.recycle();
+        }
+
+        return out.toByteArray();
+    }
+
+    public String getExtension(boolean gray) { return "png"; }
+}
@@ -1,200 +1,1860 @@
 package com.simplecamera.application.simplecamera;
 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Paint;
-import android.support.v4.graphics.ColorUtils;
+import android.graphics.BitmapFactory;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.BitMask;
+import com.simplecamera.application.simplecamera.kernel.CancellationToken;
+import com.simplecamera.application.simplecamera.kernel.DerivedImageCache;
+import com.simplecamera.application.simplecamera.kernel.DiskResultCache;
+import com.simplecamera.application.simplecamera.kernel.GrayImage;
+import com.simplecamera.application.simplecamera.kernel.ImageBuffer;
+import com.simplecamera.application.simplecamera.kernel.ImageRegion;
+import com.simplecamera.application.simplecamera.kernel.ImageStatistics;
+import com.simplecamera.application.simplecamera.kernel.IntegralImage;
+import com.simplecamera.application.simplecamera.kernel.LabConverter;
+import com.simplecamera.application.simplecamera.kernel.Metrics;
+import com.simplecamera.application.simplecamera.kernel.Pipeline;
+import com.simplecamera.application.simplecamera.kernel.PixelBufferPool;
+import com.simplecamera.application.simplecamera.kernel.PixelKernels;
+import com.simplecamera.application.simplecamera.kernel.ProgressListener;
+import com.simplecamera.application.simplecamera.kernel.RowKernel;
+import com.simplecamera.application.simplecamera.kernel.StripStreamer;
+import com.simplecamera.application.simplecamera.kernel.ThresholdKernels;
+import com.simplecamera.application.simplecamera.kernel.TiledExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BitmapManager
 {
+    /*
+
+        Names under which derived images are cached.
+
+    */
+
+    private static final String GRAY = "gray", BINARY = "binary", LAB = "lab";
+    private static final String RED_GREEN_CHANNEL = "rgChannel", BLUE_YELLOW_CHANNEL = "byChannel";
+    private static final String ADAPTIVE_MEAN = "adaptiveMean", SAUVOLA = "sauvola";
+    private static final String STATISTICS = "statistics";
+
+    /*
+
+        Names under which Metrics times the pass of every operation,
+        the reads of source pixels and the writes of results into
+        Bitmaps, and counts the hits and misses of the caches. Each is
+        a compile-time constant, so naming costs nothing while metrics
+        are off.
+
+    */
+
+    private static final String METRIC = "bitmap.";
+    private static final String OTSU_METRIC = "bitmap.otsu", INTEGRAL_METRIC = "bitmap.integral";
+    private static final String PIPELINE_METRIC = "bitmap.pipeline", READ_METRIC = "bitmap.read";
+    private static final String TO_BITMAP_METRIC = "bitmap.toBitmap", RESULT_BYTES_METRIC = "bitmap.resultBytes";
+    private static final String PIXEL_BUFFER_METRIC = "bitmap.pixelBufferBytes";
+    private static final String MEMORY_HIT_METRIC = "bitmap.memoryHit", DISK_HIT_METRIC = "bitmap.diskHit";
+    private static final String MISS_METRIC = "bitmap.miss";
+    private static final String REGION_METRIC = "bitmap.decodeRegion", STREAM_METRIC = "bitmap.stream";
+
+    /**
+     *   The number of rows of a single-channel result expanded to ARGB at
+     *   a time on its way into a Bitmap.
+     */
+
+    private static final int EXPAND_ROWS = 64;
+
+    /**
+     *   Hands out a distinct generation to every source Bitmap of every
+     *   BitmapManager, so that a cache shared between managers can never
+     *   confuse the results of two sources.
+     */
+
+    private static final AtomicLong generations = new AtomicLong();
+
     private Bitmap bitmap;
+    private long generation = generations.incrementAndGet();
+
+    /**
+     *   The file, or encoded bytes, bitmap is decoded from by the first
+     *   operation which reads its pixels, and the digest of that source
+     *   which keys its results in diskCache, computed when first needed.
+     */
+
+    private String sourcePath;
+    private byte [] sourceJpeg;
+    private String sourceDigest;
+
+    /**
+     *   The dimensions of the encoded source, read from its header by the
+     *   first call which needs them, or 0 until then.
+     */
+
+    private int sourceWidth, sourceHeight;
+
+    /**
+     *   A scratch buffer of packed ARGB pixels which is reused by every
+     *   operation, so that repeated transforms of the same capture do
+     *   not allocate a fresh width * height array each time.
+     */
+
+    private int [] pixelBuffer;
+
+    /**
+     *   The pools every result is drawn from. Pixel arrays go back to
+     *   bufferPool when their image leaves the cache, and result Bitmaps
+     *   go back to bitmapPool when the caller releases them, so that a
+     *   steady stream of transforms of same-sized captures allocates
+     *   nothing.
+     */
+
+    private final PixelBufferPool bufferPool = new PixelBufferPool();
+    private final BitmapPool bitmapPool = new BitmapPool();
+
+    private final DerivedImageCache.EvictionListener releaseOnEviction = new DerivedImageCache.EvictionListener()
+    {
+        public void onEvicted(DerivedImageCache.Key key, ImageBuffer image)
+        {
+            if (!pendingWrites.containsValue(image))
+                bufferPool.release(image);
+        }
+    };
+
+    /**
+     *   The executor which spreads every transform over the available
+     *   cores in bands of rows.
+     */
+
+    private TiledExecutor executor = TiledExecutor.getDefault();
+
+    /**
+     *   The listener told about the progress of every transform, which
+     *   may be null.
+     */
+
+    private ProgressListener progressListener;
+
+    /**
+     *   Results of earlier transforms of the current bitmap, bounded to
+     *   an eighth of the heap by default.
+     */
+
+    private DerivedImageCache cache;
+
+    /**
+     *   Results of earlier transforms of every capture, kept across
+     *   restarts, or null. Only results of a source set from a file or
+     *   encoded bytes are kept, since a bare Bitmap has no content to
+     *   address them by.
+     */
+
+    private DiskResultCache diskCache;
+
+    /**
+     *   Results waiting to be written to diskCache by flushDiskWrites(),
+     *   under the digest of the source they were computed from, and
+     *   whether results are written behind at all. A result waiting to
+     *   be written is not returned to bufferPool until it has been.
+     */
+
+    private final Map<DerivedImageCache.Key, ImageBuffer> pendingWrites = new LinkedHashMap<>();
+    private String pendingDigest;
+    private boolean writeBehind = true;
+
+    /**
+     *   The number of source pixels above which an encoded source is
+     *   analyzed by stream() rather than decoded in full: by default,
+     *   those whose ARGB copy would take a quarter of the heap.
+     */
+
+    private long streamingPixels = Runtime.getRuntime().maxMemory() / 16;
+
+    public BitmapManager() { this(null); }
+
+    public BitmapManager(Bitmap refMap)
+    {
+        bitmap = refMap;
+        setCache(new DerivedImageCache(Runtime.getRuntime().maxMemory() / 8));
+    }
+
+    /**
+     *   Replaces the Bitmap which every operation transforms, dropping
+     *   the cached results of the previous one.
+     *
+     *   @param newMap
+     *       The new Bitmap. The caller keeps ownership of it, as of the
+     *       previous one, and is responsible for recycling it once no
+     *       operation uses it any more; BitmapManager never recycles it.
+     */
+
+    public void setBitmap(Bitmap newMap)
+    {
+        replaceSource(newMap, null, null);
+    }
+
+    /**
+     *   Replaces the Bitmap which every operation transforms with the
+     *   image stored in a file. The file is only decoded, at full
+     *   resolution, by the first operation whose result is neither in
+     *   the cache nor in the disk cache, so reopening a capture whose
+     *   results are on disk decodes nothing. The decoded Bitmap is then
+     *   returned by getBitmap(), and is the caller's to recycle like one
+     *   passed to setBitmap().
+     *
+     *   @param path
+     *       The path of the image file.
+     */
+
+    public void setSourceFile(String path)
+    {
+        replaceSource(null, path, null);
+    }
+
+    /**
+     *   Variant of setSourceFile() for an encoded image held in memory.
+     *
+     *   @param jpeg
+     *       The encoded image, which must not be modified afterwards.
+     */
+
+    public void setSourceJpeg(byte [] jpeg)
+    {
+        replaceSource(null, null, jpeg);
+    }
+
+    private void replaceSource(Bitmap newMap, String path, byte [] jpeg)
+    {
+        flushDiskWrites();
+
+        bitmap = newMap;
+        sourcePath = path;
+        sourceJpeg = jpeg;
+        sourceDigest = null;
+        sourceWidth = sourceHeight = 0;
+
+        generation = generations.incrementAndGet();
+        cache.evictOlderThan(generation);
+    }
+
+    /**
+     *   @return
+     *       The Bitmap every operation transforms, or null if it has not
+     *       been set or not been decoded yet.
+     */
+
+    public Bitmap getBitmap() { return bitmap; }
+
+    /**
+     *   @return
+     *       The width of the source image, which is read once from the
+     *       header of an encoded source that has not been decoded yet, or
+     *       -1 if there is no readable source.
+     */
+
+    public int getSourceWidth() { return getSourceSize(true); }
+    public int getSourceHeight() { return getSourceSize(false); }
+
+    private int getSourceSize(boolean width)
+    {
+        if (bitmap != null)
+            return width ? bitmap.getWidth() : bitmap.getHeight();
+        if (sourcePath == null && sourceJpeg == null)
+            return -1;
+
+        if (sourceWidth == 0)
+        {
+            BitmapFactory.Options bounds = sourceJpeg != null ? ImageDecoder.probe(sourceJpeg)
+                    : ImageDecoder.probe(sourcePath);
+            sourceWidth = bounds.outWidth;
+            sourceHeight = bounds.outHeight;
+        }
+
+        return width ? sourceWidth : sourceHeight;
+    }
+
+    /**
+     *   Decodes the source at full resolution if that has not been done
+     *   yet. The encoded source is dropped once it has been decoded and
+     *   digested.
+     *
+     *   @return
+     *       The Bitmap every operation transforms.
+     *
+     *   @throws IllegalStateException
+     *       If there is no source or it cannot be decoded.
+     */
+
+    public Bitmap decodeSource()
+    {
+        if (bitmap == null && (sourcePath != null || sourceJpeg != null))
+        {
+            if (diskCache != null)
+                sourceDigest();
+
+            bitmap = sourceJpeg != null ? ImageDecoder.decodeFull(sourceJpeg) : ImageDecoder.decodeFull(sourcePath);
+            sourcePath = null;
+            sourceJpeg = null;
+        }
+
+        if (bitmap == null)
+            throw new IllegalStateException("Unable to decode the picture");
+
+        return bitmap;
+    }
+
+    /**
+     *   Determines whether the source is too large to be decoded in
+     *   full, so that analyses should stream() it instead.
+     *
+     *   @return
+     *       true if the source has not been decoded and has more pixels
+     *       than the streaming threshold.
+     */
+
+    public boolean shouldStream()
+    {
+        return bitmap == null && (sourcePath != null || sourceJpeg != null)
+                && (long) getSourceWidth() * getSourceHeight() > streamingPixels;
+    }
+
+    public void setStreamingPixels(long pixels) { streamingPixels = pixels; }
+    public long getStreamingPixels() { return streamingPixels; }
+
+    /**
+     *   Runs an analysis on the encoded source a strip of rows at a time,
+     *   without decoding it in full, and keeps a subsampled copy of the
+     *   result which still has the detail the analysis needs along the
+     *   shorter side. Peak memory is bounded by the strips and the
+     *   subsampled result rather than by the size of the source. Streamed
+     *   results are not cached.
+     *
+     *   @param analysis
+     *       The analysis to run, which must support Analysis.stream().
+     *
+     *   @param token
+     *       A token which abandons the analysis once cancelled, or null.
+     *
+     *   @return
+     *       A pooled Bitmap holding the subsampled result, owned by the
+     *       caller until it is passed to releaseResult().
+     *
+     *   @throws IllegalStateException
+     *       If the source cannot be decoded.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the analysis completes.
+     */
+
+    public Bitmap stream(Analysis analysis, CancellationToken token)
+    {
+        int width = getSourceWidth(), height = getSourceHeight();
+        int factor = Math.max(1, Math.min(width, height) / analysis.getRequiredShortSide());
+        Bitmap.Config config = analysis == Analysis.ORIGINAL || analysis == Analysis.CIELAB
+                ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+
+        SubsampledBitmapSink sink = new SubsampledBitmapSink(bitmapPool, factor, config);
+        StripDecoder decoder = openSource(null);
+        long start = Metrics.start(STREAM_METRIC);
+        boolean done = false;
+
+        try
+        {
+            analysis.stream(decoder, sink, new StripStreamer(executor, StripStreamer.DEFAULT_STRIP_ROWS), token);
+            done = true;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to decode the picture", e);
+        }
+        finally
+        {
+            decoder.recycle();
+            Metrics.stop(STREAM_METRIC, start, (long) width * height);
+            if (!done)
+                sink.discard();
+        }
+
+        return sink.getBitmap();
+    }
+
+    public void setExecutor(TiledExecutor newExecutor) { executor = newExecutor; }
+    public TiledExecutor getExecutor() { return executor; }
+
+    public void setProgressListener(ProgressListener listener) { progressListener = listener; }
+
+    public void setCache(DerivedImageCache newCache)
+    {
+        cache = newCache;
+        cache.setEvictionListener(releaseOnEviction);
+    }
+
+    public DerivedImageCache getCache() { return cache; }
+
+    public void setDiskCache(DiskResultCache newCache)
+    {
+        flushDiskWrites();
+        diskCache = newCache;
+    }
+
+    public DiskResultCache getDiskCache() { return diskCache; }
+
+    /**
+     *   @param behind
+     *       Whether new results are only written to the disk cache by
+     *       flushDiskWrites(), so that writing them does not delay the
+     *       result they belong to, rather than as soon as they are
+     *       computed. true by default.
+     */
+
+    public void setWriteBehind(boolean behind)
+    {
+        writeBehind = behind;
+        if (!behind)
+            flushDiskWrites();
+    }
+
+    public boolean isWriteBehind() { return writeBehind; }
+
+    /**
+     *   Writes the results computed since the last call to the disk
+     *   cache, and returns those which have since left the memory cache
+     *   to bufferPool. AnalysisRunner calls this once it has handed a
+     *   result over; it also happens whenever the source changes.
+     */
+
+    public void flushDiskWrites()
+    {
+        for (Map.Entry<DerivedImageCache.Key, ImageBuffer> pending : pendingWrites.entrySet())
+        {
+            if (diskCache != null)
+                diskCache.putImage(pendingDigest, pending.getKey(), pending.getValue());
+            if (!cache.contains(pending.getKey()))
+                bufferPool.release(pending.getValue());
+        }
+
+        pendingWrites.clear();
+    }
+
+    public PixelBufferPool getBufferPool() { return bufferPool; }
+    public BitmapPool getBitmapPool() { return bitmapPool; }
+
+    /**
+     *   Hands a Bitmap returned by one of the operations back to the
+     *   pool, so that a later operation can reuse it. The Bitmap must no
+     *   longer be displayed or used once it has been released.
+     *
+     *   @param result
+     *       A Bitmap returned by an operation. The managed Bitmap itself,
+     *       and null, are ignored.
+     */
+
+    public void releaseResult(Bitmap result)
+    {
+        if (result != bitmap)
+            bitmapPool.release(result);
+    }
+
+    /**
+     *   Manipulates a copy of the member Bitmap, bitmap, so
+     *   that the copy is an grayscale (or intensity) image
+     *   of the original, assuming that the original is an
+     *   RGB (or truecolor) image.
+     *
+     *   @return
+     *       A Bitmap object which is an grayscale image of
+     *       the the truecolor member Bitmap, bitmap.
+     */
+
+    public Bitmap turnGray() { return turnGray(null); }
+
+    /**
+     *   Cancellable variant of turnGray().
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public Bitmap turnGray(CancellationToken token)
+    {
+        return turnGray(null, token);
+    }
+
+    /**
+     *   Region of interest variant of turnGray(CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public Bitmap turnGray(ImageRegion region, CancellationToken token)
+    {
+        return toBitmap(key(GRAY, region), computeGray(region, token), Bitmap.Config.RGB_565);
+    }
+
+    /**
+     *   Computes the grayscale (or intensity) image of the member
+     *   Bitmap, bitmap, as a single-channel image holding one byte per
+     *   pixel rather than as a Bitmap.
+     *
+     *   @return
+     *       The gray levels of bitmap, which turnGray() displays.
+     *       The image may be shared with the cache and must not be
+     *       modified, and its memory may be reused by the next operation
+     *       or setBitmap().
+     */
+
+    public GrayImage computeGray() { return computeGray(null, null); }
+
+    /**
+     *   Region of interest and cancellable variant of computeGray().
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it.
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public GrayImage computeGray(ImageRegion region, CancellationToken token)
+    {
+        DerivedImageCache.Key key = key(GRAY, region);
+        GrayImage gray = (GrayImage) lookup(key);
+
+        if (gray == null)
+        {
+            final ArgbImage source = sourcePixels(region);
+            final GrayImage result = bufferPool.acquireGray(source.getWidth(), source.getHeight());
+
+            run(METRIC + GRAY, source.getWidth(), source.getHeight(), new RowKernel()
+            {
+                public void processRows(int firstRow, int lastRow)
+                {
+                    PixelKernels.toGray(source, result, firstRow, lastRow);
+                }
+            }, token);
+
+            store(key, result);
+            gray = result;
+        }
+
+        return gray;
+    }
+
+    /**
+     *   Manipulates a copy of the member Bitmap, bitmap, so
+     *   that the copy is a binary image of the original whose
+     *   white pixels had an original intensity greater than or
+     *   equal to the int parameter, threshold, and whose black
+     *   pixels had an original intensity less than the threshold.
+     *
+     *   @param threshold
+     *      The gray value threshold which defines which pixels
+     *      in the binary transformation should be white and which
+     *      should be black.
+     *
+     *   @return
+     *       A binary image of the orginal member Bitmap, bitmap.
+     */
+
+    public Bitmap turnBinary(int threshold) { return turnBinary(threshold, null); }
+
+    /**
+     *   Cancellable variant of turnBinary(int).
+     *
+     *   @param threshold
+     *      The gray value threshold of the binary transformation.
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public Bitmap turnBinary(int threshold, CancellationToken token)
+    {
+        return turnBinary(threshold, null, token);
+    }
+
+    /**
+     *   Region of interest variant of turnBinary(int, CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public Bitmap turnBinary(int threshold, ImageRegion region, CancellationToken token)
+    {
+        return toBitmap(key(BINARY, region, threshold), computeBinary(threshold, region, token), Bitmap.Config.RGB_565);
+    }
+
+    /**
+     *   Computes the binary image of the member Bitmap, bitmap, as a
+     *   mask packed one bit per pixel rather than as a Bitmap.
+     *
+     *   @param threshold
+     *      The gray value threshold of the binary transformation.
+     *
+     *   @return
+     *       The pixels which turnBinary(int) makes white.
+     *       The image may be shared with the cache and must not be
+     *       modified, and its memory may be reused by the next operation
+     *       or setBitmap().
+     */
+
+    public BitMask computeBinary(int threshold) { return computeBinary(threshold, null, null); }
+
+    /**
+     *   Region of interest and cancellable variant of computeBinary(int).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it.
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public BitMask computeBinary(final int threshold, ImageRegion region, CancellationToken token)
+    {
+        DerivedImageCache.Key key = key(BINARY, region, threshold);
+        BitMask binary = (BitMask) lookup(key);
+
+        if (binary == null)
+        {
+            final GrayImage gray = (GrayImage) cache.get(key(GRAY, region));
+            final ArgbImage source = gray != null ? null : sourcePixels(region);
+            final ImageBuffer input = gray != null ? gray : source;
+            final BitMask result = new BitMask(input.getWidth(), input.getHeight());
+
+            run(METRIC + BINARY, input.getWidth(), input.getHeight(), new RowKernel()
+            {
+                public void processRows(int firstRow, int lastRow)
+                {
+                    if (gray != null)
+                        PixelKernels.binarize(gray, result, threshold, firstRow, lastRow);
+                    else
+                        PixelKernels.binarize(source, result, threshold, firstRow, lastRow);
+                }
+            }, token);
+
+            store(key, result);
+            binary = result;
+        }
+
+        return binary;
+    }
+
+    /**
+     *   Computes a global gray value threshold for the member Bitmap,
+     *   bitmap, by Otsu's method, which separates the intensities of the
+     *   image into the two classes that differ the most.
+     *
+     *   @return
+     *       The threshold, suitable for turnBinary(int).
+     */
+
+    public int computeOtsuThreshold() { return computeOtsuThreshold(null); }
+
+    /**
+     *   Cancellable variant of computeOtsuThreshold().
+     *
+     *   @param token
+     *       A token which abandons the computation once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the computation completes.
+     */
+
+    public int computeOtsuThreshold(CancellationToken token)
+    {
+        return computeOtsuThreshold(null, token);
+    }
+
+    /**
+     *   Region of interest variant of computeOtsuThreshold(CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap whose intensities choose the
+     *       threshold, or null for all of it.
+     */
+
+    public int computeOtsuThreshold(ImageRegion region, CancellationToken token)
+    {
+        final GrayImage luma = computeGray(region, token);
+        final int [] histogram = new int[256];
+
+        run(OTSU_METRIC, luma.getWidth(), luma.getHeight(), new RowKernel()
+        {
+            public void processRows(int firstRow, int lastRow)
+            {
+                int [] bins = new int[256];
+                ThresholdKernels.histogram(luma, bins, firstRow, lastRow);
+
+                synchronized (histogram)
+                {
+                    for (int level = 0; level < 256; level++)
+                        histogram[level] += bins[level];
+                }
+            }
+        }, token);
+
+        return ThresholdKernels.otsu(histogram);
+    }
+
+    /**
+     *   Manipulates a copy of the member Bitmap, bitmap, so
+     *   that the copy is a binary image of the original whose
+     *   threshold is chosen by computeOtsuThreshold() rather
+     *   than by the caller.
+     *
+     *   @return
+     *       A binary image of the orginal member Bitmap, bitmap.
+     */
+
+    public Bitmap turnBinaryOtsu() { return turnBinaryOtsu(null); }
+
+    /**
+     *   Cancellable variant of turnBinaryOtsu().
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public Bitmap turnBinaryOtsu(CancellationToken token)
+    {
+        return turnBinaryOtsu(null, token);
+    }
+
+    /**
+     *   Region of interest variant of turnBinaryOtsu(CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public Bitmap turnBinaryOtsu(ImageRegion region, CancellationToken token)
+    {
+        return turnBinary(computeOtsuThreshold(region, token), region, token);
+    }
+
+    /**
+     *   Computes the binary image of turnBinaryOtsu() as a mask packed
+     *   one bit per pixel.
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it.
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public BitMask computeBinaryOtsu(ImageRegion region, CancellationToken token)
+    {
+        return computeBinary(computeOtsuThreshold(region, token), region, token);
+    }
+
+    /**
+     *   Manipulates a copy of the member Bitmap, bitmap, so
+     *   that the copy is a binary image of the original whose
+     *   white pixels are at least as bright as the mean of their
+     *   surroundings, less offset. Unlike turnBinary(int), this
+     *   copes with lighting which varies across the image.
+     *
+     *   @param radius
+     *       The distance from a pixel to the edges of the square
+     *       window whose mean it is compared with.
+     *
+     *   @param offset
+     *       The amount by which a pixel may fall below the mean
+     *       of its window and still become white.
+     *
+     *   @return
+     *       A binary image of the orginal member Bitmap, bitmap.
+     */
+
+    public Bitmap turnBinaryAdaptive(int radius, int offset) { return turnBinaryAdaptive(radius, offset, null); }
+
+    /**
+     *   Cancellable variant of turnBinaryAdaptive(int, int).
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public Bitmap turnBinaryAdaptive(int radius, int offset, CancellationToken token)
+    {
+        return turnBinaryAdaptive(radius, offset, null, token);
+    }
+
+    /**
+     *   Region of interest variant of turnBinaryAdaptive(int, int, CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public Bitmap turnBinaryAdaptive(int radius, int offset, ImageRegion region, CancellationToken token)
+    {
+        return toBitmap(key(ADAPTIVE_MEAN, region, radius, offset),
+                computeBinaryAdaptive(radius, offset, region, token), Bitmap.Config.RGB_565);
+    }
+
+    /**
+     *   Computes the binary image of turnBinaryAdaptive(int, int) as a
+     *   mask packed one bit per pixel.
+     *
+     *   @param radius
+     *       The distance from a pixel to the edges of the square
+     *       window whose mean it is compared with.
+     *
+     *   @param offset
+     *       The amount by which a pixel may fall below the mean
+     *       of its window and still become white.
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it.
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public BitMask computeBinaryAdaptive(final int radius, final int offset, ImageRegion region,
+                                         CancellationToken token)
+    {
+        DerivedImageCache.Key key = key(ADAPTIVE_MEAN, region, radius, offset);
+
+        return localThresholdMask(key, METRIC + ADAPTIVE_MEAN, region, false, new LocalThreshold()
+        {
+            public void apply(GrayImage luma, IntegralImage integral, BitMask result, int firstRow, int lastRow)
+            {
+                ThresholdKernels.adaptiveMean(luma, integral, result, radius, offset, firstRow, lastRow);
+            }
+        }, token);
+    }
+
+    /**
+     *   Manipulates a copy of the member Bitmap, bitmap, so
+     *   that the copy is a binary image of the original made by
+     *   Sauvola's method, which compares every pixel with the mean
+     *   and the contrast of its surroundings. It keeps evenly lit
+     *   background white, which suits pictures of documents.
+     *
+     *   @param radius
+     *       The distance from a pixel to the edges of its square
+     *       window, at most ThresholdKernels.MAX_SAUVOLA_RADIUS.
+     *
+     *   @param k
+     *       The sensitivity to the local contrast, typically 0.2
+     *       to 0.5.
+     *
+     *   @return
+     *       A binary image of the orginal member Bitmap, bitmap.
+     */
+
+    public Bitmap turnBinarySauvola(int radius, double k) { return turnBinarySauvola(radius, k, null); }
+
+    /**
+     *   Cancellable variant of turnBinarySauvola(int, double).
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public Bitmap turnBinarySauvola(int radius, double k, CancellationToken token)
+    {
+        return turnBinarySauvola(radius, k, null, token);
+    }
+
+    /**
+     *   Region of interest variant of turnBinarySauvola(int, double, CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public Bitmap turnBinarySauvola(int radius, double k, ImageRegion region, CancellationToken token)
+    {
+        return toBitmap(key(SAUVOLA, region, radius, (int) Math.round(k * 1000)),
+                computeBinarySauvola(radius, k, region, token), Bitmap.Config.RGB_565);
+    }
+
+    /**
+     *   Computes the binary image of turnBinarySauvola(int, double) as a
+     *   mask packed one bit per pixel.
+     *
+     *   @param radius
+     *       The distance from a pixel to the edges of its square
+     *       window, at most ThresholdKernels.MAX_SAUVOLA_RADIUS.
+     *
+     *   @param k
+     *       The sensitivity to the local contrast, typically 0.2
+     *       to 0.5.
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it.
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public BitMask computeBinarySauvola(final int radius, final double k, ImageRegion region,
+                                        CancellationToken token)
+    {
+        DerivedImageCache.Key key = key(SAUVOLA, region, radius, (int) Math.round(k * 1000));
+
+        return localThresholdMask(key, METRIC + SAUVOLA, region, true, new LocalThreshold()
+        {
+            public void apply(GrayImage luma, IntegralImage integral, BitMask result, int firstRow, int lastRow)
+            {
+                ThresholdKernels.sauvola(luma, integral, result, radius, k, firstRow, lastRow);
+            }
+        }, token);
+    }
+
+    /**
+     *   Manipulates a copy of the member Bitmap, bitmap, so
+     *   that the the copy becomes a transformation of the original
+     *   image from the RGB colorspace to the CIE L*a*b colorspace,
+     *   assuming that bitmap is using the RGB image representation.
+     *
+     *   @return
+     *       A copy of the member Bitmap, bitmap, which has
+     *       been transformed into the CIE L*a*b representation.
+     *
+     *       The values previously stored in the red, green, and blue
+     *       channels now represent the luminosity, a, and b channels,
+     *       respectively.
+     */
+
+    public Bitmap convertToLAB() { return convertToLAB(null); }
+
+    /**
+     *   Cancellable variant of convertToLAB().
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public Bitmap convertToLAB(CancellationToken token)
+    {
+        return convertToLAB(null, token);
+    }
+
+    /**
+     *   Region of interest variant of convertToLAB(CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public Bitmap convertToLAB(ImageRegion region, CancellationToken token)
+    {
+        DerivedImageCache.Key key = key(LAB, region);
+
+        return toBitmap(key, labImage(region, token), sourceConfig());
+    }
+
+    /**
+     *   Manipulates a copy of the member Bitmap, bitmap, so
+     *   that the the copy becomes a the a (or Red-Green) channel
+     *   of the CIE L*a*b colorspace representation of the original.
+     *
+     *   @return
+     *       A copy of the member Bitmap, bitmap, which
+     *       contains the Red-Green channel of the CIE L*a*b
+     *       colorspace representation of bitmap.
+     *
+     *       This image is an intensity image.
+     */
+
+    public Bitmap extractRG() { return extractRG(null); }
+
+    /**
+     *   Cancellable variant of extractRG().
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public Bitmap extractRG(CancellationToken token)
+    {
+        return extractRG(null, token);
+    }
+
+    /**
+     *   Region of interest variant of extractRG(CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public Bitmap extractRG(ImageRegion region, CancellationToken token)
+    {
+        return toBitmap(key(RED_GREEN_CHANNEL, region), extractRGChannel(region, token), sourceConfig());
+    }
+
+    /**
+     *   Manipulates a copy of the member Bitmap, bitmap, so
+     *   that the the copy becomes a the b (or Blue-Yellow) channel
+     *   of the CIE L*a*b colorspace representation of the original.
+     *
+     *   @return
+     *       A copy of the member Bitmap, bitmap, which
+     *       contains the Blue-Yellow channel of the CIE L*a*b
+     *       colorspace representation of bitmap.
+     *
+     *       This image is an intensity image.
+     */
+
+    public Bitmap extractBY() { return extractBY(null); }
+
+    /**
+     *   Cancellable variant of extractBY().
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public Bitmap extractBY(CancellationToken token)
+    {
+        return extractBY(null, token);
+    }
+
+    /**
+     *   Region of interest variant of extractBY(CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public Bitmap extractBY(ImageRegion region, CancellationToken token)
+    {
+        return toBitmap(key(BLUE_YELLOW_CHANNEL, region), extractBYChannel(region, token), sourceConfig());
+    }
+
+    /**
+     *   Computes only the a (or Red-Green) channel of the CIE L*a*b
+     *   colorspace representation of the member Bitmap, bitmap, in a
+     *   single pass, without building the full L*a*b image.
+     *
+     *   @return
+     *       A single-channel image holding one byte per pixel, encoded
+     *       as a + 128 like the green channel of convertToLAB(). The
+     *       image may be shared with the cache and must not be modified,
+     *       and its memory may be reused by the next operation or
+     *       setBitmap().
+     */
 
-    public BitmapManager() { bitmap = null; }
-    public BitmapManager(Bitmap refMap) { bitmap = refMap; }
+    public GrayImage extractRGChannel() { return extractRGChannel(null); }
 
-    public void setBitmap(Bitmap newMap)
+    /**
+     *   Cancellable variant of extractRGChannel().
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public GrayImage extractRGChannel(CancellationToken token)
     {
-        bitmap.recycle();
-        bitmap = newMap;
+        return extractRGChannel(null, token);
     }
 
-    public Bitmap getBitmap() { return bitmap; }
+    /**
+     *   Region of interest variant of extractRGChannel(CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
+     */
+
+    public GrayImage extractRGChannel(ImageRegion region, CancellationToken token)
+    {
+        return channelImage(RED_GREEN_CHANNEL, region, 8, token);
+    }
 
     /**
-     *   Manipulates a copy of the member Bitmap, bitmap, so
-     *   that the copy is an grayscale (or intensity) image
-     *   of the original, assuming that the original is an
-     *   RGB (or truecolor) image.
+     *   Computes only the b (or Blue-Yellow) channel of the CIE L*a*b
+     *   colorspace representation of the member Bitmap, bitmap, in a
+     *   single pass, without building the full L*a*b image.
      *
      *   @return
-     *       A Bitmap object which is an grayscale image of
-     *       the the truecolor member Bitmap, bitmap.
+     *       A single-channel image holding one byte per pixel, encoded
+     *       as b + 128 like the blue channel of convertToLAB(). The
+     *       image may be shared with the cache and must not be modified,
+     *       and its memory may be reused by the next operation or
+     *       setBitmap().
+     */
+
+    public GrayImage extractBYChannel() { return extractBYChannel(null); }
+
+    /**
+     *   Cancellable variant of extractBYChannel().
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the transform completes.
+     */
+
+    public GrayImage extractBYChannel(CancellationToken token)
+    {
+        return extractBYChannel(null, token);
+    }
+
+    /**
+     *   Region of interest variant of extractBYChannel(CancellationToken).
+     *
+     *   @param region
+     *       The region of the member Bitmap to transform, or null for
+     *       all of it. Only the pixels of the region are read, and the
+     *       result is the size of the region.
      */
 
-    public Bitmap turnGray()
+    public GrayImage extractBYChannel(ImageRegion region, CancellationToken token)
     {
-        Bitmap outMap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.RGB_565);
-        Canvas grayCanvas = new Canvas(outMap);
+        return channelImage(BLUE_YELLOW_CHANNEL, region, 0, token);
+    }
 
-        Paint grayPaint = new Paint();
-        ColorMatrix colormap = new ColorMatrix();
-        colormap.setSaturation(0);
+    /**
+     *   Runs a Pipeline over the member Bitmap, bitmap, filling all of
+     *   its outputs in a single pass. Pipeline results are not cached.
+     *
+     *   @param pipeline
+     *       The pipeline to run.
+     *
+     *   @param region
+     *       The region of the member Bitmap to read, or null for all of
+     *       it. The outputs are the size of the region.
+     *
+     *   @param token
+     *       A token which abandons the run once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the run completes.
+     */
 
-        grayPaint.setColorFilter(new ColorMatrixColorFilter(colormap));
-        grayCanvas.drawBitmap(bitmap, 0, 0, grayPaint);
+    public void evaluate(Pipeline pipeline, ImageRegion region, CancellationToken token)
+    {
+        ArgbImage source = sourcePixels(region);
+        long start = Metrics.start(PIPELINE_METRIC);
 
-        return outMap;
+        try
+        {
+            pipeline.run(source, executor, token);
+        }
+        finally
+        {
+            Metrics.stop(PIPELINE_METRIC, start, (long) source.getWidth() * source.getHeight());
+        }
     }
 
     /**
-     *   Manipulates a copy of the member Bitmap, bitmap, so
-     *   that the copy is a binary image of the original whose
-     *   white pixels had an original intensity greater than or
-     *   equal to the int parameter, threshold, and whose black
-     *   pixels had an original intensity less than the threshold.
+     *   Computes a node of a Pipeline over the member Bitmap, bitmap, and
+     *   returns it as a Bitmap, so that an analysis composed of per-pixel
+     *   stages takes a single pass and only materialises its result.
+     *   The result is kept as a BitMask, GrayImage or ArgbImage output,
+     *   which is added to the pipeline of node, depending on the Format
+     *   of node.
      *
-     *   @param threshold
-     *      The gray value threshold which defines which pixels
-     *      in the binary transformation should be white and which
-     *      should be black.
+     *   @param node
+     *       The node to display.
+     *
+     *   @param region
+     *       The region of the member Bitmap to read, or null for all of it.
+     *
+     *   @param token
+     *       A token which abandons the run once cancelled, or null.
      *
      *   @return
-     *       A binary image of the orginal member Bitmap, bitmap.
+     *       A new Bitmap of the node, in RGB_565 for a GRAY or BINARY node
+     *       and in the configuration of bitmap otherwise.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the run completes.
+     */
+
+    public Bitmap render(Pipeline.Node node, ImageRegion region, CancellationToken token)
+    {
+        return toBitmap(null, renderImage(node, region, token), renderConfig(node));
+    }
+
+    /**
+     *   Variant of render() whose result is cached under a name, and so
+     *   kept across restarts when there is a disk cache. A cached result
+     *   is displayed without running the pipeline at all.
+     *
+     *   @param operation
+     *       A name which identifies the composition of node, as long as
+     *       the composition does not change.
+     *
+     *   @param node
+     *       The node to display, whose pipeline must not be run again
+     *       since the result may be adopted by the cache.
+     */
+
+    public Bitmap render(String operation, Pipeline.Node node, ImageRegion region, CancellationToken token)
+    {
+        DerivedImageCache.Key key = key(operation, region);
+        ImageBuffer image = lookup(key);
+
+        if (image == null)
+        {
+            image = renderImage(node, region, token);
+            store(key, image);
+        }
+
+        return toBitmap(key, image, renderConfig(node));
+    }
+
+    private ImageBuffer renderImage(Pipeline.Node node, ImageRegion region, CancellationToken token)
+    {
+        Pipeline.Output<? extends ImageBuffer> output;
+
+        if (node.getFormat() == Pipeline.Format.BINARY)
+            output = node.toMask();
+        else if (node.getFormat() == Pipeline.Format.GRAY)
+            output = node.toGray();
+        else
+            output = node.toArgb();
+
+        evaluate(node.getPipeline(), region, token);
+
+        return output.get();
+    }
+
+    private Bitmap.Config renderConfig(Pipeline.Node node)
+    {
+        Pipeline.Format format = node.getFormat();
+
+        return format == Pipeline.Format.BINARY || format == Pipeline.Format.GRAY ? Bitmap.Config.RGB_565
+                : sourceConfig();
+    }
+
+    /**
+     *   Gathers histograms of the gray levels and of the L*, a* and b*
+     *   channels of the member Bitmap, bitmap, together with their
+     *   means, variances, extremes and percentiles, in a single pass.
+     *
+     *   @return
+     *       The statistics of the whole image.
+     */
+
+    public ImageStatistics computeStatistics() { return computeStatistics(null, null); }
+
+    /**
+     *   Variant of computeStatistics() restricted to a region of interest.
+     *
+     *   The pass reuses a cached L*a*b* image of the region when there
+     *   is one. Otherwise it converts the region to L*a*b* on the way and
+     *   caches the result, so that a later convertToLAB() or extractRG()
+     *   of the same region costs no further conversion.
+     *
+     *   @param region
+     *       The region to gather statistics for, or null for the whole
+     *       image. Only the pixels of the region are read.
+     *
+     *   @param token
+     *       A token which abandons the computation once cancelled, or null.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the computation completes.
      */
 
-    public Bitmap turnBinary(int threshold)
+    public ImageStatistics computeStatistics(ImageRegion region, CancellationToken token)
     {
-        Bitmap outMap = turnGray();
-        int width = outMap.getWidth(), height = outMap.getHeight();
+        DerivedImageCache.Key statisticsKey = key(STATISTICS, region);
+        if (diskCache != null && sourceDigest() != null)
+        {
+            ImageStatistics stored = diskCache.getStatistics(sourceDigest, statisticsKey);
+            if (stored != null)
+                return stored;
+        }
 
-        int [] pixArray = new int[width * height];
-        outMap.getPixels(pixArray, 0, width, 0, 0, width, height);
+        DerivedImageCache.Key labKey = key(LAB, region);
+        final ArgbImage source = sourcePixels(region);
+        final ArgbImage cachedLab = (ArgbImage) cache.get(labKey);
+        final ArgbImage lab = cachedLab == null ? bufferPool.acquireArgb(source.getWidth(), source.getHeight()) : null;
+        final ImageStatistics statistics = new ImageStatistics();
 
-        for (int i = 0; i < width; i++)
-            for (int j = 0; j < height; j++)
+        run(METRIC + STATISTICS, source.getWidth(), source.getHeight(), new RowKernel()
+        {
+            public void processRows(int firstRow, int lastRow)
             {
-                if (Color.red(pixArray[i + j*width]) < threshold)
-                    outMap.setPixel(i, j, Color.BLACK);
+                ImageStatistics band = new ImageStatistics();
+
+                if (cachedLab != null)
+                    band.accumulateFromLab(source, cachedLab, null, firstRow, lastRow);
                 else
-                    outMap.setPixel(i, j, Color.WHITE);
+                    band.accumulateAndConvert(source, lab, null, firstRow, lastRow);
+
+                synchronized (statistics)
+                {
+                    statistics.merge(band);
+                }
             }
+        }, token);
 
-        return outMap;
+        if (lab != null && !store(labKey, lab) && !pendingWrites.containsKey(labKey))
+            bufferPool.release(lab);
+        if (diskCache != null && sourceDigest() != null)
+            diskCache.putStatistics(sourceDigest, statisticsKey, statistics);
+
+        return statistics;
     }
 
     /**
-     *   Manipulates a copy of the member Bitmap, bitmap, so
-     *   that the the copy becomes a transformation of the original
-     *   image from the RGB colorspace to the CIE L*a*b colorspace,
-     *   assuming that bitmap is using the RGB image representation.
+     *   A thresholding kernel which reads the statistics of every pixel's
+     *   window from an IntegralImage.
+     */
+
+    private interface LocalThreshold
+    {
+        void apply(GrayImage luma, IntegralImage integral, BitMask result, int firstRow, int lastRow);
+    }
+
+    /**
+     *   Runs a LocalThreshold over the intensities of the member Bitmap.
+     *   The summed-area tables are built in one pass and left to the
+     *   garbage collector once the result is done, rather than returned
+     *   to bufferPool, where a full-resolution pair would otherwise stay
+     *   pinned long after the mask has been cached.
+     *
+     *   @param key
+     *       The key of the result.
+     *
+     *   @param metric
+     *       The name under which the thresholding pass is timed.
+     *
+     *   @param withSquares
+     *       Whether the kernel needs sums of squares.
+     *
+     *   @param kernel
+     *       The thresholding kernel.
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
      *
      *   @return
-     *       A copy of the member Bitmap, bitmap, which has
-     *       been transformed into the CIE L*a*b representation.
+     *       The binary mask, which may be shared with the cache.
+     */
+
+    private BitMask localThresholdMask(DerivedImageCache.Key key, String metric, ImageRegion region,
+                                       boolean withSquares, final LocalThreshold kernel, CancellationToken token)
+    {
+        BitMask binary = (BitMask) lookup(key);
+
+        if (binary == null)
+        {
+            final GrayImage luma = computeGray(region, token);
+            int width = luma.getWidth(), height = luma.getHeight();
+            final IntegralImage integral = new IntegralImage(width, height, withSquares);
+            final BitMask result = new BitMask(width, height);
+
+            long start = Metrics.start(INTEGRAL_METRIC);
+
+            try
+            {
+                integral.compute(luma);
+            }
+            finally
+            {
+                Metrics.stop(INTEGRAL_METRIC, start, (long) width * height);
+            }
+
+            run(metric, width, height, new RowKernel()
+            {
+                public void processRows(int firstRow, int lastRow)
+                {
+                    kernel.apply(luma, integral, result, firstRow, lastRow);
+                }
+            }, token);
+
+            store(key, result);
+            binary = result;
+        }
+
+        return binary;
+    }
+
+    private ArgbImage labImage(ImageRegion region, CancellationToken token)
+    {
+        DerivedImageCache.Key key = key(LAB, region);
+        ArgbImage lab = (ArgbImage) lookup(key);
+
+        if (lab == null)
+        {
+            final ArgbImage source = sourcePixels(region);
+            final ArgbImage result = bufferPool.acquireArgb(source.getWidth(), source.getHeight());
+
+            run(METRIC + LAB, source.getWidth(), source.getHeight(), new RowKernel()
+            {
+                public void processRows(int firstRow, int lastRow)
+                {
+                    LabConverter.toLab(source, result, firstRow, lastRow);
+                }
+            }, token);
+
+            store(key, result);
+            lab = result;
+        }
+
+        return lab;
+    }
+
+    /**
+     *   Produces the a* or b* channel as a single-channel image, reusing
+     *   a cached L*a*b* image when there is one.
      *
-     *       The values previously stored in the red, green, and blue
-     *       channels now represent the luminosity, a, and b channels,
-     *       respectively.
+     *   @param operation
+     *       RED_GREEN_CHANNEL or BLUE_YELLOW_CHANNEL.
+     *
+     *   @param shift
+     *       The bit position of the channel in an encoded L*a*b* pixel.
+     *
+     *   @param token
+     *       A token which abandons the transform once cancelled, or null.
+     *
+     *   @return
+     *       The channel image, which may be shared with the cache.
      */
 
-    public Bitmap convertToLAB()
+    private GrayImage channelImage(String operation, ImageRegion region, final int shift, CancellationToken token)
     {
-        Bitmap outMap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
-        int width = outMap.getWidth(), height = outMap.getHeight();
+        DerivedImageCache.Key key = key(operation, region);
+        GrayImage channel = (GrayImage) lookup(key);
 
-        double [] outLAB = {0, 0, 0};
+        if (channel == null)
+        {
+            final ArgbImage lab = (ArgbImage) cache.get(key(LAB, region));
+            final ArgbImage source = lab != null ? lab : sourcePixels(region);
+            final GrayImage result = bufferPool.acquireGray(source.getWidth(), source.getHeight());
 
-        int [] pixArray = new int[width * height];
-        bitmap.getPixels(pixArray, 0, width, 0, 0, width, height);
+            String metric = shift == 8 ? METRIC + RED_GREEN_CHANNEL : METRIC + BLUE_YELLOW_CHANNEL;
 
-        for (int i = 0; i < width; i++)
-            for (int j = 0; j < height; j++)
+            run(metric, source.getWidth(), source.getHeight(), new RowKernel()
             {
-                ColorUtils.colorToLAB(pixArray[i + j * width], outLAB);
+                public void processRows(int firstRow, int lastRow)
+                {
+                    if (lab != null)
+                        PixelKernels.copyChannel(lab, result, shift, firstRow, lastRow);
+                    else if (shift == 8)
+                        LabConverter.extractA(source, result, firstRow, lastRow);
+                    else
+                        LabConverter.extractB(source, result, firstRow, lastRow);
+                }
+            }, token);
 
-                /*
+            store(key, result);
+            channel = result;
+        }
 
-                    Convert all L*a*b* values to conform to the range
-                    specifications required by bitmap images.
+        return channel;
+    }
+
+    /**
+     *   Looks up a result of the current source, first in cache and then
+     *   in diskCache, from which it is promoted into cache.
+     *
+     *   @return
+     *       The result, which may be shared with the cache, or null if it
+     *       has to be computed.
+     */
 
-                */
+    private ImageBuffer lookup(DerivedImageCache.Key key)
+    {
+        ImageBuffer image = cache.get(key);
 
-                outMap.setPixel(i, j, Color.argb(Color.alpha(pixArray[i + j * width]), (int)(outLAB[0] * 255 / 100.0),
-                        (int)(outLAB[1] + 128), (int)(outLAB[2] + 128)));
+        if (image != null)
+            Metrics.count(MEMORY_HIT_METRIC, 1);
+        else if (diskCache != null && sourceDigest() != null)
+        {
+            image = diskCache.getImage(sourceDigest, key);
+            if (image != null)
+            {
+                Metrics.count(DISK_HIT_METRIC, 1);
+                cache.put(key, image);
             }
+        }
 
-        return outMap;
+        if (image == null)
+            Metrics.count(MISS_METRIC, 1);
+
+        return image;
     }
 
     /**
-     *   Manipulates a copy of the member Bitmap, bitmap, so
-     *   that the the copy becomes a the a (or Red-Green) channel
-     *   of the CIE L*a*b colorspace representation of the original.
+     *   Caches a newly computed result of the current source, and writes
+     *   it to diskCache either straight away or, when writing behind, at
+     *   the next flushDiskWrites().
      *
      *   @return
-     *       A copy of the member Bitmap, bitmap, which
-     *       contains the Red-Green channel of the CIE L*a*b
-     *       colorspace representation of bitmap.
+     *       Whether the result was kept in the memory cache.
+     */
+
+    private boolean store(DerivedImageCache.Key key, ImageBuffer image)
+    {
+        boolean cached = cache.put(key, image);
+
+        if (diskCache == null || sourceDigest() == null)
+            return cached;
+
+        if (writeBehind)
+        {
+            pendingDigest = sourceDigest;
+            pendingWrites.put(key, image);
+        }
+        else
+            diskCache.putImage(sourceDigest, key, image);
+
+        return cached;
+    }
+
+    /**
+     *   Digests the encoded source the first time its results are looked
+     *   up, so that a source which is never analyzed is never read twice.
      *
-     *       This image is an intensity image.
+     *   @return
+     *       The digest of the source, or null if it has none or the file
+     *       cannot be read, in which case only cache is used. A failed
+     *       digest is remembered as an empty string.
      */
 
-    public Bitmap extractRG()
+    private String sourceDigest()
     {
-        Bitmap outMap = convertToLAB();
+        if (sourceDigest == null)
+        {
+            sourceDigest = "";
 
-        ColorMatrix colormap = new ColorMatrix(new float[]
+            if (sourceJpeg != null)
+                sourceDigest = DiskResultCache.digest(sourceJpeg);
+            else if (sourcePath != null)
+            {
+                try
                 {
-                        0, 1, 0, 0, 0,
-                        0, 1, 0, 0, 0,
-                        0, 1, 0, 0, 0,
-                        0, 0, 0, 1, 0
-                });
+                    sourceDigest = DiskResultCache.digest(new File(sourcePath));
+                }
+                catch (IOException e)
+                {
+                    // The results of this source are only cached in memory.
+                }
+            }
+        }
 
-        Canvas redCanvas = new Canvas(outMap);
-        Paint redPaint = new Paint();
+        return sourceDigest.isEmpty() ? null : sourceDigest;
+    }
 
-        redPaint.setColorFilter(new ColorMatrixColorFilter(colormap));
-        redCanvas.drawBitmap(outMap, 0, 0, redPaint);
+    /**
+     *   The configuration of results in colour, which is that of bitmap
+     *   or, when bitmap has not been decoded, the ARGB_8888 it would be
+     *   decoded to.
+     */
 
-        return outMap;
+    private Bitmap.Config sourceConfig()
+    {
+        return bitmap != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
     }
 
     /**
-     *   Manipulates a copy of the member Bitmap, bitmap, so
-     *   that the the copy becomes a the b (or Blue-Yellow) channel
-     *   of the CIE L*a*b colorspace representation of the original.
+     *   Runs a kernel over every row of a width by height image on
+     *   executor, timing the pass under metric with its pixel count, so
+     *   that Metrics reports the rate of every operation in megapixels
+     *   per second.
+     */
+
+    private void run(String metric, int width, int height, RowKernel kernel, CancellationToken token)
+    {
+        long start = Metrics.start(metric);
+
+        try
+        {
+            executor.execute(height, kernel, token, progressListener);
+        }
+        finally
+        {
+            Metrics.stop(metric, start, (long) width * height);
+        }
+    }
+
+    /**
+     *   Builds the cache key of a result of the current bitmap, which
+     *   includes the bounds of the region it was computed for.
+     */
+
+    private DerivedImageCache.Key key(String operation, ImageRegion region, int... parameters)
+    {
+        if (region == null)
+            return new DerivedImageCache.Key(generation, operation, parameters);
+
+        int [] all = Arrays.copyOf(parameters, parameters.length + 4);
+        all[parameters.length] = region.getLeft();
+        all[parameters.length + 1] = region.getTop();
+        all[parameters.length + 2] = region.getRight();
+        all[parameters.length + 3] = region.getBottom();
+
+        return new DerivedImageCache.Key(generation, operation, all);
+    }
+
+    /**
+     *   Reads the pixels of a region of the source. A region of a source
+     *   which has not been decoded yet is decoded on its own through a
+     *   BitmapRegionDecoder, so that an analysis of a small part of a
+     *   large capture never decodes all of it.
+     *
+     *   @param region
+     *       The region to read, or null for the whole source.
      *
      *   @return
-     *       A copy of the member Bitmap, bitmap, which
-     *       contains the Blue-Yellow channel of the CIE L*a*b
-     *       colorspace representation of bitmap.
+     *       An ArgbImage the size of region holding its pixels, valid
+     *       until the next operation.
+     */
+
+    private ArgbImage sourcePixels(ImageRegion region)
+    {
+        if (bitmap != null || region == null || (sourcePath == null && sourceJpeg == null))
+            return readPixels(decodeSource(), region);
+
+        ArgbImage image = pixelImage(region.getWidth(), region.getHeight());
+        StripDecoder decoder = openSource(region);
+        long start = Metrics.start(REGION_METRIC);
+
+        try
+        {
+            decoder.read(0, image);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to decode the picture", e);
+        }
+        finally
+        {
+            decoder.recycle();
+            Metrics.stop(REGION_METRIC, start, (long) region.getWidth() * region.getHeight());
+        }
+
+        return image;
+    }
+
+    /**
+     *   Opens the encoded source for decoding in strips.
      *
-     *       This image is an intensity image.
+     *   @param region
+     *       The region to decode, or null for the whole source.
+     *
+     *   @throws IllegalStateException
+     *       If the source cannot be opened.
+     */
+
+    private StripDecoder openSource(ImageRegion region)
+    {
+        try
+        {
+            return sourceJpeg != null ? new StripDecoder(sourceJpeg, region) : new StripDecoder(sourcePath, region);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to decode the picture", e);
+        }
+    }
+
+    /**
+     *   Wraps the reusable pixelBuffer, resized if necessary, as an image.
+     */
+
+    private ArgbImage pixelImage(int width, int height)
+    {
+        if (pixelBuffer == null || pixelBuffer.length != width * height)
+        {
+            if (pixelBuffer != null)
+                bufferPool.release(pixelBuffer);
+            pixelBuffer = bufferPool.acquireInts(width * height);
+            Metrics.gauge(PIXEL_BUFFER_METRIC, 4L * pixelBuffer.length);
+        }
+
+        return new ArgbImage(pixelBuffer, width, height, width);
+    }
+
+    /**
+     *   Copies the pixels of a region of a Bitmap into an ArgbImage
+     *   backed by the reusable pixelBuffer with a single bulk getPixels()
+     *   call. The returned image is only valid until the next operation.
+     *
+     *   @param source
+     *       The Bitmap to read.
+     *
+     *   @param region
+     *       The region to read, or null for the whole Bitmap.
+     *
+     *   @return
+     *       An ArgbImage the size of region holding its pixels.
+     */
+
+    private ArgbImage readPixels(Bitmap source, ImageRegion region)
+    {
+        int left = 0, top = 0, width = source.getWidth(), height = source.getHeight();
+
+        if (region != null)
+        {
+            if (region.getRight() > width || region.getBottom() > height)
+                throw new IllegalArgumentException("Region " + region + " is outside of the "
+                        + width + "x" + height + " image");
+
+            left = region.getLeft();
+            top = region.getTop();
+            width = region.getWidth();
+            height = region.getHeight();
+        }
+
+        ArgbImage image = pixelImage(width, height);
+        long start = Metrics.start(READ_METRIC);
+
+        try
+        {
+            source.getPixels(image.getPixels(), 0, image.getStride(), left, top, width, height);
+        }
+        finally
+        {
+            Metrics.stop(READ_METRIC, start, (long) width * height);
+        }
+
+        return image;
+    }
+
+    /**
+     *   Copies an image into a Bitmap drawn from bitmapPool. An ArgbImage
+     *   is written with a single bulk setPixels() call; a GrayImage or a
+     *   BitMask is only expanded to ARGB here, at the display edge, a few
+     *   rows at a time through a pooled strip, so the full-size result
+     *   is never held as ints. An image which did not fit into the cache
+     *   is no longer needed afterwards and goes back to bufferPool.
+     *
+     *   @param key
+     *       The key under which image was cached, or null for an image
+     *       which the manager does not own and must not release.
+     *
+     *   @param image
+     *       The pixels to write: an ArgbImage, GrayImage or BitMask.
+     *
+     *   @param config
+     *       The Bitmap.Config of the Bitmap to return.
+     *
+     *   @return
+     *       A pooled Bitmap holding the pixels of image, owned by the
+     *       caller until it is passed to releaseResult().
      */
 
-    public Bitmap extractBY()
+    private Bitmap toBitmap(DerivedImageCache.Key key, ImageBuffer image, Bitmap.Config config)
     {
-        Bitmap outMap = convertToLAB();
+        int width = image.getWidth(), height = image.getHeight();
+        long start = Metrics.start(TO_BITMAP_METRIC);
+        Bitmap outMap;
+
+        try
+        {
+            outMap = bitmapPool.acquire(width, height, config);
+            Metrics.gauge(RESULT_BYTES_METRIC, (long) outMap.getRowBytes() * height);
+
+            if (image instanceof ArgbImage)
+            {
+                ArgbImage argb = (ArgbImage) image;
+                outMap.setPixels(argb.getPixels(), 0, argb.getStride(), 0, 0, width, height);
+            }
+            else
+            {
+                int rows = Math.min(EXPAND_ROWS, height);
+                int [] buffer = bufferPool.acquireInts(width * rows);
 
-        ColorMatrix colormap = new ColorMatrix(new float[]
+                for (int top = 0; top < height; top += rows)
                 {
-                        0, 0, 1, 0, 0,
-                        0, 0, 1, 0, 0,
-                        0, 0, 1, 0, 0,
-                        0, 0, 0, 1, 0
-                });
+                    int stripHeight = Math.min(rows, height - top);
+                    ArgbImage strip = new ArgbImage(buffer, width, stripHeight, width);
 
-        Canvas blueCanvas = new Canvas(outMap);
-        Paint bluePaint = new Paint();
+                    if (image instanceof GrayImage)
+                        ((GrayImage) image).toArgbStrip(top, strip);
+                    else
+                        ((BitMask) image).toArgbStrip(top, strip);
 
-        bluePaint.setColorFilter(new ColorMatrixColorFilter(colormap));
-        blueCanvas.drawBitmap(outMap, 0, 0, bluePaint);
+                    outMap.setPixels(buffer, 0, width, 0, top, width, stripHeight);
+                }
+
+                bufferPool.release(buffer);
+            }
 
+            if (key != null && !cache.contains(key) && !pendingWrites.containsKey(key))
+                bufferPool.release(image);
+        }
+        finally
+        {
+            Metrics.stop(TO_BITMAP_METRIC, start, (long) width * height);
+        }
 
         return outMap;
     }
-}
\ No newline at end of file
+}
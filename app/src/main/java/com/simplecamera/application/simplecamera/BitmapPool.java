@@ -0,0 +1,112 @@
+package com.simplecamera.application.simplecamera;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+/**
+ *   A pool of mutable Bitmaps which lets the results of repeated
+ *   transforms reuse the native memory of earlier results instead of
+ *   creating a new Bitmap every time.
+ *
+ *   A Bitmap handed out by acquire() belongs to the caller until it is
+ *   passed back to release(), after which the caller must no longer
+ *   draw it or hold it in a View. Bitmaps are matched by exact width,
+ *   height and configuration, and their pixels are undefined when
+ *   acquired. Both methods may be called from any thread.
+ */
+
+public class BitmapPool
+{
+    public static final int DEFAULT_MAX_FREE = 2;
+
+    private final ArrayList<Bitmap> free = new ArrayList<>();
+    private final int maxFree;
+    private long allocations;
+
+    /**
+     *   @param maxFree
+     *       The largest number of free Bitmaps the pool holds on to.
+     *       Bitmaps released beyond this are recycled, oldest first.
+     */
+
+    public BitmapPool(int maxFree)
+    {
+        if (maxFree < 0)
+            throw new IllegalArgumentException("The pool cannot hold " + maxFree + " bitmaps");
+
+        this.maxFree = maxFree;
+    }
+
+    public BitmapPool() { this(DEFAULT_MAX_FREE); }
+
+    /**
+     *   Hands out a mutable Bitmap, reusing a free one of the same size
+     *   and configuration if there is one.
+     *
+     *   @param width
+     *       The width of the Bitmap in pixels.
+     *
+     *   @param height
+     *       The height of the Bitmap in pixels.
+     *
+     *   @param config
+     *       The Bitmap.Config of the Bitmap.
+     *
+     *   @return
+     *       A Bitmap with undefined pixels.
+     */
+
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config)
+    {
+        for (int i = free.size() - 1; i >= 0; i--)
+        {
+            Bitmap candidate = free.get(i);
+
+            if (candidate.getWidth() == width && candidate.getHeight() == height
+                    && candidate.getConfig() == config)
+                return free.remove(i);
+        }
+
+        allocations++;
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     *   Returns a Bitmap to the pool. Immutable and recycled Bitmaps are
+     *   ignored.
+     *
+     *   @param bitmap
+     *       The Bitmap, which must not be used afterwards.
+     */
+
+    public synchronized void release(Bitmap bitmap)
+    {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || free.contains(bitmap))
+            return;
+
+        if (maxFree == 0)
+        {
+            bitmap.recycle();
+            return;
+        }
+
+        if (free.size() == maxFree)
+            free.remove(0).recycle();
+        free.add(bitmap);
+    }
+
+    /**
+     *   Recycles every free Bitmap.
+     */
+
+    public synchronized void clear()
+    {
+        for (Bitmap bitmap : free)
+            bitmap.recycle();
+        free.clear();
+    }
+
+    public synchronized int getFreeCount() { return free.size(); }
+    public synchronized long getAllocationCount() { return allocations; }
+}
@@ -1,21 +1,27 @@
 package com.simplecamera.application.simplecamera;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.app.AppCompatActivity;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
 import android.widget.Button;
-import android.app.Activity;
+import android.widget.ImageView;
 import android.hardware.Camera;
-import android.hardware.Camera.PictureCallback;;
 import android.content.Intent;
 import android.widget.Toast;
+
+import com.simplecamera.application.simplecamera.kernel.CaptureWriter;
+import com.simplecamera.application.simplecamera.kernel.FrameRateMeter;
+import com.simplecamera.application.simplecamera.kernel.Metrics;
+import com.simplecamera.application.simplecamera.kernel.ResolutionPolicy;
+
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.Locale;
 
 /**
  *   An Activity class extending the AppCompatActivity class and
@@ -26,9 +32,27 @@ import java.util.List;
  *   the application is installed and a useable sdcard is installed.
  *
  *   The start of this Activity is designed to be initiated by a call to
- *   startActivityForResult() in a managing Activity class. When a picture is
- *   taken, it is stored into the sdcard and the directory to that specific
- *   location is returned to the managing Activity for retrieval.
+ *   startActivityForResult() in a managing Activity class, which may name
+ *   the Analysis it plans to run under "analysis key" so that pictures
+ *   are taken with just the detail that analysis needs. When a picture is
+ *   taken, it is handed to the managing Activity in memory through
+ *   CaptureHandoff while it is stored into the sdcard in the background, and
+ *   the directory to that specific location is returned to the managing
+ *   Activity for retrieval.
+ *
+ *   The "burstButton" starts a burst instead, which keeps taking pictures
+ *   as fast as the camera allows until it is pressed again. Every picture
+ *   of a burst is queued to a bounded background writer which drops
+ *   pictures rather than stall the camera once storage falls behind, and
+ *   the names of all of the stored pictures are returned together.
+ *
+ *   The "liveButton" cycles through the analyses of the "Analyze Picture"
+ *   dialog, which are then run on every preview frame the analysis can
+ *   keep up with and shown in the "liveOverlay" ImageView.
+ *
+ *   The camera itself is opened, configured and released by a
+ *   CameraController on its own thread, so none of the lifecycle and
+ *   surface callbacks below wait for the camera hardware.
  *
  *   @author Natalie Wong
  *   @version 1.0
@@ -38,12 +62,12 @@ import java.util.List;
 public class CameraActivity extends AppCompatActivity implements SurfaceHolder.Callback
 {
     /**
-     *   The private Camera object to provide the
-     *   means to capture images from the device's
+     *   The private CameraController object to provide
+     *   the means to capture images from the device's
      *   physical camera hardware.
      */
 
-    private Camera theCamera;
+    private CameraController theCamera;
 
     /**
      *   The private SurfaceHolder object for
@@ -54,12 +78,50 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
     private SurfaceHolder theHolder;
 
     /**
-     *   The private Camera.PictureCallback object to
-     *   process the onPictureTaken() method for storing
+     *   The private CameraController.PictureListener object
+     *   to process the onPictureTaken() method for storing
      *   a captured image and finishing this Activity.
      */
 
-    private Camera.PictureCallback jpegCallback;
+    private CameraController.PictureListener jpegCallback;
+
+    /**
+     *   Reports failed background writes on the main thread, after this
+     *   Activity may already have finished.
+     */
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     *   The number of burst pictures which may wait to be written before
+     *   further pictures are dropped.
+     */
+
+    private static final int BURST_QUEUE_CAPACITY = 4;
+
+    private static final String PICTURE_METRIC = "capture.onPictureTaken", JPEG_BYTES_METRIC = "capture.jpegBytes";
+
+    /**
+     *   The state of the burst in progress: whether another picture
+     *   should be taken, the writer and frame rate meter of the burst,
+     *   and the names of the pictures queued so far.
+     */
+
+    private boolean bursting;
+    private long burstStart;
+    private CaptureWriter burstWriter;
+    private FrameRateMeter burstMeter;
+    private ArrayList<String> burstNames;
+    private Button burstButton;
+
+    /**
+     *   Runs the Analysis chosen with the "liveButton" on the preview
+     *   frames, on the camera thread of theCamera, and shows the results
+     *   in the "liveOverlay" ImageView.
+     */
+
+    private PreviewAnalyzer previewAnalyzer;
+    private Button liveButton;
 
     /**
      *  Generates the user interface, initializes OnClickListeners
@@ -84,53 +146,55 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
         theHolder.addCallback(this);
         theHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
 
-        jpegCallback = new PictureCallback()
+        theCamera = new CameraController(Camera.CameraInfo.CAMERA_FACING_BACK,
+                (ImageView) findViewById(R.id.liveOverlay), new CameraController.Listener()
         {
-            public void onPictureTaken(byte[] pictureData, Camera localCamera)
+            public void onCameraError(String message)
             {
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
 
-                FileOutputStream out = null;
-                String fileName = String.format("/sdcard/SimpleCamera/%d.jpg", System.currentTimeMillis());
-
-                File targetDir = new File("/sdcard/SimpleCamera");
-                if (!targetDir.isDirectory())
-                    if (!targetDir.mkdir())
-                    {
-                        Toast.makeText(getApplicationContext(), "Unable to take picture.", Toast.LENGTH_LONG).show();
-                        setResult(RESULT_CANCELED);
-
-                        finish();
-                    }
+        jpegCallback = new CameraController.PictureListener()
+        {
+            public void onPictureTaken(byte[] pictureData)
+            {
+                if (isFinishing())
+                    return;
 
-                try
+                if (burstWriter != null)
                 {
-                    out = new FileOutputStream(fileName);
-                    out.write(pictureData);
-                    out.close();
+                    onBurstPicture(pictureData);
+                    return;
+                }
 
-                    Toast.makeText(getApplicationContext(), "Picture taken successfully.", Toast.LENGTH_LONG).show();
+                long start = Metrics.start(PICTURE_METRIC);
+                Metrics.gauge(JPEG_BYTES_METRIC, pictureData.length);
+                String fileName = String.format("/sdcard/SimpleCamera/%d.jpg", System.currentTimeMillis());
 
-                    Intent activityData = new Intent();
-                    activityData.putExtra("filename key", fileName);
+                /*
 
-                    setResult(RESULT_OK, activityData);
-                }
+                    The picture is handed to MenuActivity in memory and
+                    written to the sdcard in the background, so returning
+                    to the menu never waits for storage.
 
-                catch (FileNotFoundException e)
-                {
-                    Toast.makeText(getApplicationContext(), "Unable to take picture.", Toast.LENGTH_LONG).show();
+                */
 
-                    setResult(RESULT_CANCELED);
+                try
+                {
+                    CaptureHandoff.put(fileName, pictureData);
+                    CaptureWriter.getDefault().write(new File(fileName), pictureData, saveFailureListener);
                 }
-
-                catch (IOException e)
+                finally
                 {
-                    Toast.makeText(getApplicationContext(), "Unable to take picture.", Toast.LENGTH_LONG).show();
-
-                    setResult(RESULT_CANCELED);
+                    Metrics.stop(PICTURE_METRIC, start);
                 }
 
-                finish();
+                Toast.makeText(getApplicationContext(), "Picture taken successfully.", Toast.LENGTH_LONG).show();
+
+                ArrayList<String> fileNames = new ArrayList<>();
+                fileNames.add(fileName);
+                returnPictures(fileNames);
             }
 
         };
@@ -140,50 +204,189 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
         {
             public void onClick(View v)
             {
-                theCamera.takePicture(null, null, jpegCallback);
+                if (burstWriter == null)
+                    theCamera.takePicture(jpegCallback);
+            }
+        });
+
+        previewAnalyzer = theCamera.getPreviewAnalyzer();
+
+        /*
+
+            Pictures are taken at the smallest size which gives the
+            analysis the managing Activity plans to run the detail it
+            needs, in the aspect ratio of the preview.
+
+        */
+
+        String plannedAnalysis = getIntent().getStringExtra("analysis key");
+        Analysis analysis = plannedAnalysis != null ? Analysis.valueOf(plannedAnalysis) : Analysis.ORIGINAL;
+        theCamera.setPicturePolicy(ResolutionPolicy.minimumDetail(analysis.getRequiredShortSide(), 0));
+        liveButton = (Button) findViewById(R.id.liveButton);
+        liveButton.setOnClickListener(new View.OnClickListener()
+        {
+            public void onClick(View v)
+            {
+                Analysis[] analyses = Analysis.values();
+                Analysis next = analyses[(previewAnalyzer.getAnalysis().ordinal() + 1) % analyses.length];
+
+                previewAnalyzer.setAnalysis(next);
+                liveButton.setText(next == Analysis.ORIGINAL ? "Live: Off"
+                        : "Live: " + getResources().getStringArray(R.array.options)[next.ordinal()]);
+            }
+        });
+
+        burstButton = (Button) findViewById(R.id.burstButton);
+        burstButton.setOnClickListener(new View.OnClickListener()
+        {
+            public void onClick(View v)
+            {
+                if (burstWriter == null)
+                    startBurst();
+                else
+                    bursting = false;
             }
         });
     }
 
     /**
-     *   Generates the display surface when a SurfaceHolder object is created.
-     *
-     *   @param holder
-     *       The SurfaceHolder object which is being created.
+     *   Reports failed background writes with a Toast.
      */
 
-    public void surfaceCreated(SurfaceHolder holder)
+    private final CaptureWriter.Listener saveFailureListener = new CaptureWriter.Listener()
     {
-        try
+        public void onWritten(File file) {}
+
+        public void onFailed(File file, IOException error)
         {
-            if (theCamera != null)
+            mainHandler.post(new Runnable()
             {
-                theCamera.release();
-                theCamera = null;
-            }
-
-            theCamera = Camera.open(Camera.CameraInfo.CAMERA_FACING_BACK);
+                public void run()
+                {
+                    Toast.makeText(getApplicationContext(), "Unable to save picture.", Toast.LENGTH_LONG).show();
+                }
+            });
         }
-        catch (RuntimeException e)
-        {
-            Toast.makeText(getApplicationContext(), "Unable to connect to camera.", Toast.LENGTH_LONG).show();
+    };
+
+    /**
+     *   Starts taking pictures back to back until the burstButton is
+     *   pressed again.
+     */
+
+    private void startBurst()
+    {
+        if (theCamera.getState() != CameraController.State.PREVIEWING)
             return;
+
+        bursting = true;
+        burstStart = System.currentTimeMillis();
+        burstWriter = new CaptureWriter(BURST_QUEUE_CAPACITY, CaptureWriter.OverflowPolicy.DROP);
+        burstMeter = new FrameRateMeter();
+        burstNames = new ArrayList<>();
+
+        burstButton.setText("Stop");
+        theCamera.takePicture(jpegCallback);
+    }
+
+    /**
+     *   Queues a picture of the burst for writing and takes the next one
+     *   straight away, or ends the burst if it has been stopped.
+     *
+     *   @param pictureData
+     *       The JPEG data of the picture.
+     */
+
+    private void onBurstPicture(byte[] pictureData)
+    {
+        String fileName = String.format(Locale.US, "/sdcard/SimpleCamera/%d_%03d.jpg",
+                burstStart, burstMeter.getFrameCount());
+
+        burstMeter.frame();
+
+        if (burstWriter.write(new File(fileName), pictureData, saveFailureListener) != null)
+        {
+            burstNames.add(fileName);
+            CaptureHandoff.put(fileName, pictureData);
         }
 
-        theCamera.setParameters(getLowResolutionParams(theCamera));
-        theCamera.setDisplayOrientation(90);
+        burstButton.setText(String.format(Locale.US, "Stop  %d @ %.1f fps  queue %d",
+                burstMeter.getFrameCount(), burstMeter.getFramesPerSecond(), burstWriter.getQueueDepth()));
 
-        try
+        if (bursting)
         {
-            theCamera.setPreviewDisplay(theHolder);
-            theCamera.startPreview();
+            /*
+
+                The preview stops while a picture is taken, and
+                theCamera starts it again before taking the next one.
+
+            */
+
+            theCamera.takePicture(jpegCallback);
         }
-        catch (Exception e)
+        else
+            finishBurst();
+    }
+
+    /**
+     *   Reports the sustained frame rate, the deepest the write queue got
+     *   and the number of dropped pictures of the burst, and returns the
+     *   stored pictures to the managing Activity.
+     */
+
+    private void finishBurst()
+    {
+        bursting = false;
+        burstWriter.shutdown();
+        burstButton.setText("Burst");
+
+        Toast.makeText(getApplicationContext(), String.format(Locale.US,
+                "%d pictures at %.1f fps, %d dropped, write queue peaked at %d.",
+                burstMeter.getFrameCount(), burstMeter.getFramesPerSecond(),
+                burstWriter.getDroppedCount(), burstWriter.getMaxQueueDepth()), Toast.LENGTH_LONG).show();
+
+        ArrayList<String> fileNames = burstNames;
+        burstWriter = null;
+        burstNames = null;
+        returnPictures(fileNames);
+    }
+
+    /**
+     *   Finishes this Activity, returning the names of the pictures taken.
+     *   The most recent one is also returned under "filename key" on its
+     *   own, for callers which only show a single picture.
+     *
+     *   @param fileNames
+     *       The names of the pictures, in the order they were taken.
+     */
+
+    private void returnPictures(ArrayList<String> fileNames)
+    {
+        if (fileNames.isEmpty())
+            setResult(RESULT_CANCELED);
+        else
         {
-            Toast.makeText(getApplicationContext(), "Unable to start camera preview.", Toast.LENGTH_LONG).show();
+            Intent activityData = new Intent();
+            activityData.putExtra("filename key", fileNames.get(fileNames.size() - 1));
+            activityData.putStringArrayListExtra("filenames key", fileNames);
+
+            setResult(RESULT_OK, activityData);
         }
+
+        finish();
     }
 
+    /**
+     *   Generates the display surface when a SurfaceHolder object is created.
+     *   The preview starts in surfaceChanged(), which always follows with
+     *   the size of the surface that the preview size is chosen for.
+     *
+     *   @param holder
+     *       The SurfaceHolder object which is being created.
+     */
+
+    public void surfaceCreated(SurfaceHolder holder) {}
+
     /**
      *   Destroys the surface of a SurfaceHolder object when it is being
      *   destroyed.
@@ -194,17 +397,13 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
 
     public void surfaceDestroyed(SurfaceHolder holder)
     {
-        if (theCamera != null)
-        {
-            theCamera.stopPreview();
-            theCamera.release();
-            theCamera = null;
-        }
+        theCamera.clearSurface();
     }
 
     /**
      *   Handles changes in the properties of the surface of a
-     *   SurfaceHolder object.
+     *   SurfaceHolder object. A running preview is only restarted if the
+     *   size of the surface has changed.
      *
      *   @param holder
      *       The SurfaceHolder object whose surface needs readjustment.
@@ -223,70 +422,52 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
     {
         if (theHolder.getSurface() == null) return;
 
-        theCamera.stopPreview();
-
-        try
-        {
-            theCamera.setPreviewDisplay(theHolder);
-            theCamera.startPreview();
-        }
-        catch (Exception e)
-        {
-            Toast.makeText(getApplicationContext(), "Unable to start camera preview.", Toast.LENGTH_LONG).show();
-        }
+        theCamera.setSurface(holder, width, height);
     }
 
     /**
      *   Handles the event where the user leaves,
      *   but does not terminate this Activity and unlocks
-     *   the camera being used.
+     *   the camera being used. A burst in progress ends
+     *   here, since closing the camera abandons the picture
+     *   it is waiting for, and the pictures queued so far
+     *   are returned.
      */
 
     protected void onPause()
     {
         super.onPause();
 
-        if (theCamera != null)
-        {
-            theCamera.release();
-            theCamera = null;
-        }
+        if (burstWriter != null)
+            finishBurst();
+
+        theCamera.close();
     }
 
     /**
      *   Handles the event where the user resumes
      *   the Activity which was previously paused and
-     *   restarts and relocks the camera.
+     *   restarts and relocks the camera. The camera is
+     *   opened here, while the surface is still being
+     *   created, and its preview starts once both are ready.
      */
 
     protected void onResume()
     {
         super.onResume();
 
-        if (theCamera == null)
-        {
-            try
-            {
-                theCamera = Camera.open(Camera.CameraInfo.CAMERA_FACING_BACK);
-            }
-            catch (RuntimeException e)
-            {
-                Toast.makeText(getApplicationContext(), "Unable to connect to camera.", Toast.LENGTH_LONG).show();
-                return;
-            }
+        theCamera.open();
+    }
 
-            theCamera.setDisplayOrientation(90);
+    /**
+     *   Releases the camera and stops the live analysis of
+     *   the preview for good when this Activity is destroyed.
+     */
 
-            try
-            {
-                theCamera.setPreviewDisplay(theHolder);
-                theCamera.startPreview();
-            }
-            catch (Exception e)
-            {
-                Toast.makeText(getApplicationContext(), "Unable to start camera preview.", Toast.LENGTH_LONG).show();
-            }
-        }
+    protected void onDestroy()
+    {
+        theCamera.release();
+        super.onDestroy();
     }
 
     /**
@@ -299,32 +480,4 @@ public class CameraActivity extends AppCompatActivity implements SurfaceHolder.C
         setResult(RESULT_CANCELED);
         finish();
     }
-
-    /**
-     *   Retrieves the Camera.Parameters for the lowest camera
-     *   resolution on the camera.
-     *
-     *   @param localCamera
-     *       The Camera object whose support sizes should be
-     *       inspected.
-     *
-     *   @return
-     *       A Camera.Parameters object containing the parameters
-     *       for the lowest supported camera resolution.
-     */
-
-    private Camera.Parameters getLowResolutionParams(Camera localCamera)
-    {
-        Camera.Parameters params = localCamera.getParameters();
-        List<Camera.Size> supportedSizes = params.getSupportedPictureSizes();
-        Camera.Size lowResolution = supportedSizes.get(0);
-
-        for (int i = 1; i < supportedSizes.size(); i++)
-            if (lowResolution.height > supportedSizes.get(i).height)
-                lowResolution = supportedSizes.get(i);
-
-        params.setPictureSize(lowResolution.width, lowResolution.height);
-
-        return params;
-    }
 }
@@ -0,0 +1,494 @@
+package com.simplecamera.application.simplecamera;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.widget.ImageView;
+
+import com.simplecamera.application.simplecamera.kernel.LatencyMeter;
+import com.simplecamera.application.simplecamera.kernel.Metrics;
+import com.simplecamera.application.simplecamera.kernel.ResolutionPolicy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *   Owns a Camera on a dedicated background thread, so that opening,
+ *   configuring and releasing it never blocks the main thread, and
+ *   drives it through a single state machine so that it is opened once
+ *   however the Activity and surface callbacks interleave.
+ *
+ *   The camera is opened as soon as open() is called, typically from
+ *   onResume(), while the preview surface is still being created, and
+ *   the preview starts as soon as both are ready. The preview and
+ *   picture sizes are then chosen by ResolutionPolicy: the preview just
+ *   covers the surface, and the picture follows a settable policy.
+ *   Preview frames and pictures are delivered on the camera thread. The
+ *   attached PreviewAnalyzer hands each frame to its own worker thread
+ *   to be analyzed, and pictures are handed on to the main thread.
+ *
+ *   Three latencies are measured and logged: opening and configuring
+ *   the camera, the time from open() to the first preview frame, and
+ *   the time from takePicture() to the JPEG callback.
+ *
+ *   Every public method may be called from any thread, but is intended
+ *   for the main thread; listeners are always invoked on the main thread.
+ */
+
+public class CameraController
+{
+    private static final String TAG = "CameraController";
+    private static final String OPEN_METRIC = "camera.open", FIRST_FRAME_METRIC = "camera.firstFrame";
+    private static final String SHUTTER_METRIC = "camera.shutter";
+
+    /**
+     *   The states of the camera. Only the camera thread changes state.
+     *   CLOSED cameras move to OPEN on open(), OPEN ones to PREVIEWING
+     *   once there is a surface, PREVIEWING ones to CAPTURING while a
+     *   picture is taken and back to OPEN afterwards, since taking a
+     *   picture stops the preview. close() returns to CLOSED from any of
+     *   them, and release() ends in RELEASED for good.
+     */
+
+    public enum State { CLOSED, OPEN, PREVIEWING, CAPTURING, RELEASED }
+
+    /**
+     *   Told about failures, on the main thread.
+     */
+
+    public interface Listener
+    {
+        void onCameraError(String message);
+    }
+
+    /**
+     *   Receives a picture, on the main thread.
+     */
+
+    public interface PictureListener
+    {
+        void onPictureTaken(byte [] jpeg);
+    }
+
+    private final int cameraId;
+    private final PreviewAnalyzer previewAnalyzer;
+    private final Listener listener;
+    private final HandlerThread thread = new HandlerThread("CameraThread");
+    private final Handler cameraHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final LatencyMeter openMeter = new LatencyMeter("open");
+    private final LatencyMeter firstFrameMeter = new LatencyMeter("first preview frame");
+    private final LatencyMeter shutterMeter = new LatencyMeter("shutter to picture");
+
+    /*
+
+        Touched only by the camera thread, apart from reads of state.
+
+    */
+
+    private volatile State state = State.CLOSED;
+    private Camera camera;
+    private Camera.Parameters parameters;
+    private SurfaceHolder surface;
+    private int surfaceWidth, surfaceHeight;
+    private long openRequestNanos;
+
+    /**
+     *   The policy which chooses the picture size, among the sizes which
+     *   match the aspect ratio of the preview.
+     */
+
+    private ResolutionPolicy picturePolicy = ResolutionPolicy.minimumDetail(Analysis.LUMA_DETAIL, 0);
+
+    /**
+     *   The sizes the camera supports, which are read the first time it
+     *   is opened, and the sizes chosen for the current surface.
+     */
+
+    private List<ResolutionPolicy.Size> pictureSizes, previewSizes;
+    private ResolutionPolicy.Size pictureSize, previewSize;
+
+    /**
+     *   Starts the camera thread, and creates the PreviewAnalyzer which
+     *   runs on it.
+     *
+     *   @param cameraId
+     *       The id of the camera to open, such as
+     *       Camera.CameraInfo.CAMERA_FACING_BACK.
+     *
+     *   @param overlay
+     *       The view which shows the analyzed preview frames.
+     *
+     *   @param listener
+     *       The listener told about failures.
+     */
+
+    public CameraController(int cameraId, ImageView overlay, Listener listener)
+    {
+        this.cameraId = cameraId;
+        this.listener = listener;
+
+        thread.start();
+        cameraHandler = new Handler(thread.getLooper());
+        previewAnalyzer = new PreviewAnalyzer(overlay, cameraHandler);
+    }
+
+    public State getState() { return state; }
+    public PreviewAnalyzer getPreviewAnalyzer() { return previewAnalyzer; }
+
+    public LatencyMeter getOpenMeter() { return openMeter; }
+    public LatencyMeter getFirstFrameMeter() { return firstFrameMeter; }
+    public LatencyMeter getShutterMeter() { return shutterMeter; }
+
+    /**
+     *   Opens and configures the camera, unless it is already open, and
+     *   starts the preview if there is a surface.
+     */
+
+    public void open()
+    {
+        final long requestNanos = System.nanoTime();
+
+        cameraHandler.post(new Runnable()
+        {
+            public void run() { openCamera(requestNanos); }
+        });
+    }
+
+    /**
+     *   Chooses the policy for the picture size from the next time the
+     *   preview starts, such as one providing the detail an analysis
+     *   needs.
+     *
+     *   @param policy
+     *       The policy, which is applied to the picture sizes matching
+     *       the aspect ratio of the preview.
+     */
+
+    public void setPicturePolicy(final ResolutionPolicy policy)
+    {
+        cameraHandler.post(new Runnable()
+        {
+            public void run() { picturePolicy = policy; }
+        });
+    }
+
+    /**
+     *   Sets the surface the preview is shown on, and starts the preview
+     *   if the camera is open. Setting the surface again while the
+     *   preview runs, as surfaceChanged() does, only restarts the preview
+     *   if the size of the surface has changed.
+     *
+     *   @param holder
+     *       The holder of the surface.
+     *
+     *   @param width
+     *       The width of the surface.
+     *
+     *   @param height
+     *       The height of the surface.
+     */
+
+    public void setSurface(final SurfaceHolder holder, final int width, final int height)
+    {
+        cameraHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                boolean resized = width != surfaceWidth || height != surfaceHeight;
+
+                surface = holder;
+                surfaceWidth = width;
+                surfaceHeight = height;
+
+                if (state == State.PREVIEWING && resized)
+                {
+                    previewAnalyzer.detach();
+                    camera.stopPreview();
+                    state = State.OPEN;
+                }
+
+                startPreview();
+            }
+        });
+    }
+
+    /**
+     *   Stops the preview because its surface is going away. The camera
+     *   stays open.
+     */
+
+    public void clearSurface()
+    {
+        cameraHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                surface = null;
+
+                if (camera != null)
+                {
+                    previewAnalyzer.detach();
+                    if (state == State.PREVIEWING)
+                        camera.stopPreview();
+                    state = State.OPEN;
+                }
+            }
+        });
+    }
+
+    /**
+     *   Takes a picture, restarting the preview first if an earlier
+     *   picture stopped it. The sizes are chosen again on a restart, so
+     *   that a new picture policy takes effect, but the PreviewAnalyzer
+     *   stays attached unless the preview size changed, so a burst does
+     *   not reallocate its buffers for every picture. Requests made while
+     *   the camera is closed or another picture is being taken are
+     *   ignored.
+     *
+     *   @param pictureListener
+     *       The listener which receives the JPEG data.
+     */
+
+    public void takePicture(final PictureListener pictureListener)
+    {
+        cameraHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                if (state == State.OPEN && surface != null)
+                {
+                    ResolutionPolicy.Size lastPreview = previewSize;
+
+                    try
+                    {
+                        configure();
+                        if (!previewSize.equals(lastPreview))
+                            previewAnalyzer.attach(camera, previewSize.getWidth(), previewSize.getHeight(), null);
+                        camera.startPreview();
+                        state = State.PREVIEWING;
+                    }
+                    catch (RuntimeException e)
+                    {
+                        previewAnalyzer.detach();
+                        fail("Unable to start camera preview.");
+                        return;
+                    }
+                }
+                if (state != State.PREVIEWING)
+                    return;
+
+                final long shutterNanos = System.nanoTime();
+                state = State.CAPTURING;
+
+                try
+                {
+                    camera.takePicture(null, null, new Camera.PictureCallback()
+                    {
+                        public void onPictureTaken(final byte [] data, Camera localCamera)
+                        {
+                            if (localCamera != camera)
+                                return;
+
+                            stop(shutterMeter, SHUTTER_METRIC, shutterNanos);
+                            state = State.OPEN;
+
+                            mainHandler.post(new Runnable()
+                            {
+                                public void run() { pictureListener.onPictureTaken(data); }
+                            });
+                        }
+                    });
+                }
+                catch (RuntimeException e)
+                {
+                    state = State.PREVIEWING;
+                    fail("Unable to take picture.");
+                }
+            }
+        });
+    }
+
+    /**
+     *   Stops the preview and releases the camera, as onPause() must. The
+     *   camera can be opened again.
+     */
+
+    public void close()
+    {
+        cameraHandler.post(new Runnable()
+        {
+            public void run() { closeCamera(); }
+        });
+    }
+
+    /**
+     *   Releases the camera, stops the PreviewAnalyzer and ends the camera
+     *   thread once every earlier request has been carried out. The
+     *   controller cannot be used afterwards.
+     */
+
+    public void release()
+    {
+        cameraHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                closeCamera();
+                previewAnalyzer.shutdown();
+                state = State.RELEASED;
+                thread.quit();
+            }
+        });
+    }
+
+    private void openCamera(long requestNanos)
+    {
+        if (state != State.CLOSED)
+            return;
+
+        long startNanos = System.nanoTime();
+
+        try
+        {
+            camera = Camera.open(cameraId);
+            parameters = camera.getParameters();
+            camera.setDisplayOrientation(90);
+
+            if (pictureSizes == null)
+            {
+                pictureSizes = sizes(parameters.getSupportedPictureSizes());
+                previewSizes = sizes(parameters.getSupportedPreviewSizes());
+            }
+            pictureSize = previewSize = null;
+        }
+        catch (RuntimeException e)
+        {
+            if (camera != null)
+            {
+                camera.release();
+                camera = null;
+            }
+            fail("Unable to connect to camera.");
+            return;
+        }
+
+        stop(openMeter, OPEN_METRIC, startNanos);
+        openRequestNanos = requestNanos;
+        state = State.OPEN;
+
+        startPreview();
+    }
+
+    /**
+     *   Starts the preview once the camera is open and there is a surface.
+     */
+
+    private void startPreview()
+    {
+        if (state != State.OPEN || surface == null || surface.getSurface() == null)
+            return;
+
+        final long requestNanos = openRequestNanos;
+        openRequestNanos = 0;
+
+        Runnable onFirstFrame = requestNanos == 0 ? null : new Runnable()
+        {
+            public void run()
+            {
+                stop(firstFrameMeter, FIRST_FRAME_METRIC, requestNanos);
+            }
+        };
+
+        try
+        {
+            configure();
+            camera.setPreviewDisplay(surface);
+            previewAnalyzer.attach(camera, previewSize.getWidth(), previewSize.getHeight(), onFirstFrame);
+            camera.startPreview();
+            state = State.PREVIEWING;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            previewAnalyzer.detach();
+            fail("Unable to start camera preview.");
+        }
+    }
+
+    private void closeCamera()
+    {
+        if (camera == null)
+            return;
+
+        previewAnalyzer.detach();
+        if (state == State.PREVIEWING || state == State.CAPTURING)
+            camera.stopPreview();
+        camera.release();
+
+        camera = null;
+        parameters = null;
+        state = State.CLOSED;
+    }
+
+    /**
+     *   Chooses the preview size for the surface and the picture size for
+     *   the preview, and sets them if they have changed. The preview is
+     *   the smallest size covering the surface in its aspect ratio, so
+     *   no frame holds more pixels than can be shown or analyzed.
+     */
+
+    private void configure()
+    {
+        ResolutionPolicy.Size newPreview = ResolutionPolicy.minimumDetail(Math.min(surfaceWidth, surfaceHeight),
+                Math.max(surfaceWidth, surfaceHeight)).matchingAspect(surfaceWidth, surfaceHeight).choose(previewSizes);
+        ResolutionPolicy.Size newPicture = picturePolicy.matchingAspect(newPreview.getWidth(), newPreview.getHeight())
+                .choose(pictureSizes);
+
+        if (newPreview.equals(previewSize) && newPicture.equals(pictureSize))
+            return;
+
+        parameters.setPreviewSize(newPreview.getWidth(), newPreview.getHeight());
+        parameters.setPictureSize(newPicture.getWidth(), newPicture.getHeight());
+        camera.setParameters(parameters);
+
+        previewSize = newPreview;
+        pictureSize = newPicture;
+        Log.i(TAG, "preview " + previewSize + " for a " + surfaceWidth + "x" + surfaceHeight + " surface, picture "
+                + pictureSize);
+    }
+
+    private static List<ResolutionPolicy.Size> sizes(List<Camera.Size> cameraSizes)
+    {
+        List<ResolutionPolicy.Size> sizes = new ArrayList<>();
+
+        for (Camera.Size size : cameraSizes)
+            sizes.add(new ResolutionPolicy.Size(size.width, size.height));
+
+        return sizes;
+    }
+
+    /**
+     *   Ends an interval of one of the meters, which is recorded in
+     *   Metrics as well so that it appears in Metrics.dump() next to the
+     *   capture and analysis timings, and logged.
+     */
+
+    private static void stop(LatencyMeter meter, String metric, long startNanos)
+    {
+        Metrics.record(metric, meter.stop(startNanos));
+        Log.i(TAG, meter.toString());
+    }
+
+    private void fail(final String message)
+    {
+        mainHandler.post(new Runnable()
+        {
+            public void run() { listener.onCameraError(message); }
+        });
+    }
+}
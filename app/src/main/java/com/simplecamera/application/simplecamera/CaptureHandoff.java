@@ -0,0 +1,62 @@
+package com.simplecamera.application.simplecamera;
+
+/**
+ *   Carries the JPEG bytes of the most recent capture from CameraActivity
+ *   to MenuActivity within the process, so that MenuActivity can decode
+ *   them straight from memory instead of reading back the file, which
+ *   may not even have been written yet.
+ *
+ *   Only the file name travels through the result Intent, since Intent
+ *   extras are copied through the binder and are limited in size. The
+ *   bytes are handed over here under that name; if the process has been
+ *   restarted in between, take() finds nothing and the file is read
+ *   instead.
+ */
+
+public final class CaptureHandoff
+{
+    private static String pendingName;
+    private static byte [] pendingJpeg;
+
+    private CaptureHandoff() {}
+
+    /**
+     *   Leaves the bytes of a capture to be picked up, replacing any
+     *   capture which has not been picked up yet.
+     *
+     *   @param fileName
+     *       The name of the file the capture is being written to.
+     *
+     *   @param jpeg
+     *       The encoded capture, which is handed over without copying.
+     */
+
+    public static synchronized void put(String fileName, byte [] jpeg)
+    {
+        pendingName = fileName;
+        pendingJpeg = jpeg;
+    }
+
+    /**
+     *   Picks up the bytes of a capture, which are then no longer held here.
+     *
+     *   @param fileName
+     *       The name of the file the capture is being written to.
+     *
+     *   @return
+     *       The encoded capture, or null if no capture of that name is
+     *       waiting.
+     */
+
+    public static synchronized byte [] take(String fileName)
+    {
+        if (pendingName == null || !pendingName.equals(fileName))
+            return null;
+
+        byte [] jpeg = pendingJpeg;
+        pendingName = null;
+        pendingJpeg = null;
+
+        return jpeg;
+    }
+}
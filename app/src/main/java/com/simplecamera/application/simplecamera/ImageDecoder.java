@@ -0,0 +1,243 @@
+package com.simplecamera.application.simplecamera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.simplecamera.application.simplecamera.kernel.Metrics;
+
+/**
+ *   Decodes captured images in two stages: a bounds-only probe which
+ *   reads just the header of the file, followed by a decode sized for
+ *   what the image is needed for.
+ *
+ *   A capture shown in previewImage only needs as many pixels as the
+ *   view has, so decodeForDisplay() subsamples it by a power of two and
+ *   decodes it without an alpha channel, which takes a fraction of the
+ *   time and memory of a full ARGB_8888 decode. decodeFull() produces
+ *   the full resolution ARGB_8888 Bitmap the analyses work on, and is
+ *   only run when an analysis is actually requested.
+ *
+ *   Every method is available both for image files and for encoded
+ *   images already held in memory. Probes and decodes are timed by
+ *   Metrics, which also keeps the size of the last decoded Bitmap.
+ */
+
+public final class ImageDecoder
+{
+    private static final String PROBE_METRIC = "decode.probe", DISPLAY_METRIC = "decode.display";
+    private static final String FULL_METRIC = "decode.full", BYTES_METRIC = "decode.bytes";
+
+    private ImageDecoder() {}
+
+    /**
+     *   Reads the dimensions of an image file without decoding its pixels.
+     *
+     *   @param path
+     *       The path of the image file.
+     *
+     *   @return
+     *       Options whose outWidth and outHeight hold the dimensions of
+     *       the image, or -1 if the file could not be read.
+     */
+
+    public static BitmapFactory.Options probe(String path)
+    {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        decode(PROBE_METRIC, path, null, bounds);
+
+        return bounds;
+    }
+
+    /**
+     *   Reads the dimensions of an encoded image without decoding its
+     *   pixels.
+     *
+     *   @param data
+     *       The encoded image.
+     *
+     *   @return
+     *       Options whose outWidth and outHeight hold the dimensions of
+     *       the image, or -1 if the data could not be read.
+     */
+
+    public static BitmapFactory.Options probe(byte [] data)
+    {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        decode(PROBE_METRIC, null, data, bounds);
+
+        return bounds;
+    }
+
+    /**
+     *   Finds the largest power of two by which an image can be
+     *   subsampled while still covering the requested size in both
+     *   dimensions, as BitmapFactory.Options.inSampleSize expects.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @param reqWidth
+     *       The width the decoded image should cover, or 0 for no limit.
+     *
+     *   @param reqHeight
+     *       The height the decoded image should cover, or 0 for no limit.
+     *
+     *   @return
+     *       The sample size, which is 1 when the image should not be
+     *       subsampled.
+     */
+
+    public static int computeSampleSize(int width, int height, int reqWidth, int reqHeight)
+    {
+        if (reqWidth <= 0 || reqHeight <= 0)
+            return 1;
+
+        int sampleSize = 1;
+
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight)
+            sampleSize *= 2;
+
+        return sampleSize;
+    }
+
+    /**
+     *   Decodes an image subsampled to roughly the size it is displayed at.
+     *
+     *   @param path
+     *       The path of the image file.
+     *
+     *   @param reqWidth
+     *       The width of the view the image is displayed in, in pixels of
+     *       the image's own orientation.
+     *
+     *   @param reqHeight
+     *       The height of the view the image is displayed in, in pixels of
+     *       the image's own orientation.
+     *
+     *   @param config
+     *       The preferred Bitmap.Config, such as RGB_565 for opaque
+     *       photographs.
+     *
+     *   @return
+     *       The decoded Bitmap, or null if the file could not be decoded.
+     */
+
+    public static Bitmap decodeForDisplay(String path, int reqWidth, int reqHeight, Bitmap.Config config)
+    {
+        return decodeForDisplay(path, null, probe(path), reqWidth, reqHeight, config);
+    }
+
+    /**
+     *   In-memory variant of decodeForDisplay(String, int, int, Bitmap.Config).
+     */
+
+    public static Bitmap decodeForDisplay(byte [] data, int reqWidth, int reqHeight, Bitmap.Config config)
+    {
+        return decodeForDisplay(null, data, probe(data), reqWidth, reqHeight, config);
+    }
+
+    /**
+     *   Decodes an image at full resolution in ARGB_8888, as every
+     *   BitmapManager operation expects.
+     *
+     *   @param path
+     *       The path of the image file.
+     *
+     *   @return
+     *       The decoded Bitmap, or null if the file could not be
+     *       decoded.
+     */
+
+    public static Bitmap decodeFull(String path)
+    {
+        return decode(FULL_METRIC, path, null, fullOptions());
+    }
+
+    /**
+     *   In-memory variant of decodeFull(String).
+     */
+
+    public static Bitmap decodeFull(byte [] data)
+    {
+        return decode(FULL_METRIC, null, data, fullOptions());
+    }
+
+    /**
+     *   Decodes an image in ARGB_8888 like decodeFull(String), but
+     *   subsampled by the largest power of two which keeps its shorter
+     *   side at least a given length, for analyses which need no more
+     *   detail than that.
+     *
+     *   @param path
+     *       The path of the image file.
+     *
+     *   @param shortSide
+     *       The least length of the shorter side of the decoded image, or
+     *       0 to decode at full resolution.
+     *
+     *   @return
+     *       The decoded Bitmap, or null if the file could not be
+     *       decoded.
+     */
+
+    public static Bitmap decodeFull(String path, int shortSide)
+    {
+        BitmapFactory.Options bounds = probe(path);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+            return null;
+
+        BitmapFactory.Options options = fullOptions();
+        options.inSampleSize = computeSampleSize(bounds.outWidth, bounds.outHeight, shortSide, shortSide);
+
+        return decode(FULL_METRIC, path, null, options);
+    }
+
+    private static Bitmap decodeForDisplay(String path, byte [] data, BitmapFactory.Options bounds,
+                                           int reqWidth, int reqHeight, Bitmap.Config config)
+    {
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0)
+            return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = computeSampleSize(bounds.outWidth, bounds.outHeight, reqWidth, reqHeight);
+        options.inPreferredConfig = config;
+
+        return decode(DISPLAY_METRIC, path, data, options);
+    }
+
+    private static BitmapFactory.Options fullOptions()
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        return options;
+    }
+
+    private static Bitmap decode(String metric, String path, byte [] data, BitmapFactory.Options options)
+    {
+        long start = Metrics.start(metric);
+        Bitmap decoded = null;
+
+        try
+        {
+            if (data != null)
+                decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            else
+                decoded = BitmapFactory.decodeFile(path, options);
+        }
+        finally
+        {
+            Metrics.stop(metric, start, decoded == null ? 0 : (long) decoded.getWidth() * decoded.getHeight());
+        }
+
+        if (decoded != null)
+            Metrics.gauge(BYTES_METRIC, decoded.getByteCount());
+
+        return decoded;
+    }
+}
@@ -3,18 +3,33 @@ package com.simplecamera.application.simplecamera;
 
 import android.content.Context;
 import android.content.DialogInterface;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.widget.Toast;
 
+import com.simplecamera.application.simplecamera.kernel.BatchAnalyzer;
+import com.simplecamera.application.simplecamera.kernel.CancellationToken;
+import com.simplecamera.application.simplecamera.kernel.Metrics;
+import com.simplecamera.application.simplecamera.kernel.Pipeline;
+import com.simplecamera.application.simplecamera.kernel.TiledExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  *   An Activity class extending the AppCompatActivity class
  *   which provides the main menu of the "Treat with CARE" application
@@ -57,9 +72,35 @@ import android.widget.Toast;
 public class MenuActivity extends AppCompatActivity
 {
     private final static int MENUACTIVITY_REQUESTCODE = 42;
+    private final static String CAPTURE_DIRECTORY = "/sdcard/SimpleCamera";
+    private final static long RESULT_CACHE_BYTES = 256L * 1024 * 1024;
+    private final static String CAPTURE_PATH_KEY = "capture path";
     private ImageView startImage, previewImage;
-    private Bitmap theImage;
+    private ProgressBar analysisProgress;
+    private Bitmap theImage, analysisResult;
     private BitmapManager mapMan;
+    private AnalysisRunner analysisRunner;
+
+    /**
+     *   The analysis chosen last, which CameraActivity chooses the size of
+     *   the next picture for.
+     */
+
+    private Analysis plannedAnalysis = Analysis.ORIGINAL;
+
+    /**
+     *   The token of the batch analysis of all captures in progress, or
+     *   null if there is none. Only one batch runs at a time, since two
+     *   would write the same result files.
+     */
+
+    private CancellationToken batchToken;
+
+    /**
+     *   The thread batches run on, which is shut down with this Activity.
+     */
+
+    private final ExecutorService batchExecutor = Executors.newSingleThreadExecutor();
 
     protected void onCreate(Bundle savedInstanceState)
     {
@@ -69,9 +110,67 @@ public class MenuActivity extends AppCompatActivity
         final Context context = this;
         startImage = (ImageView)findViewById(R.id.startImage);
         previewImage = (ImageView)findViewById(R.id.previewImage);
+        analysisProgress = (ProgressBar)findViewById(R.id.analysisProgress);
         Button newPictureButton = (Button)findViewById(R.id.newPictureButton);
         Button analyzePictureButton = (Button)findViewById(R.id.analyzePictureButton);
 
+        /*
+
+            Metrics stay on in production, where they cost a few
+            nanoseconds per operation, and are shown by a long press on
+            previewImage.
+
+        */
+
+        Metrics.setTracer(new SystemTracer());
+        Metrics.setEnabled(true);
+
+        previewImage.setOnLongClickListener(new View.OnLongClickListener()
+        {
+            public boolean onLongClick(View v)
+            {
+                new AlertDialog.Builder(context, R.style.AlertTheme)
+                        .setTitle("Metrics")
+                        .setMessage(Metrics.dump())
+                        .setNegativeButton("Close", new DialogInterface.OnClickListener()
+                        {
+                            public void onClick(DialogInterface dialog, int which) { dialog.dismiss(); }
+                        })
+                        .setPositiveButton("Reset", new DialogInterface.OnClickListener()
+                        {
+                            public void onClick(DialogInterface dialog, int which) { Metrics.reset(); }
+                        })
+                        .show();
+
+                return true;
+            }
+        });
+
+        mapMan = new BitmapManager();
+
+        analysisRunner = new AnalysisRunner(mapMan, new AnalysisRunner.Callback()
+        {
+            public void onProgress(Analysis analysis, int percent)
+            {
+                analysisProgress.setProgress(percent);
+            }
+
+            public void onResult(Analysis analysis, Bitmap result)
+            {
+                analysisProgress.setVisibility(ProgressBar.INVISIBLE);
+                previewImage.setImageBitmap(result);
+                showingAnalysisResult(result);
+            }
+
+            public void onFailure(Analysis analysis, RuntimeException error)
+            {
+                analysisProgress.setVisibility(ProgressBar.INVISIBLE);
+                Toast.makeText(getApplicationContext(), "Unable to analyze picture.", Toast.LENGTH_LONG).show();
+            }
+        });
+
+        analysisRunner.openDiskCache(new File(getCacheDir(), "results"), RESULT_CACHE_BYTES);
+
         newPictureButton.setOnClickListener(new View.OnClickListener()
         {
             public void onClick(View v)
@@ -79,6 +178,7 @@ public class MenuActivity extends AppCompatActivity
                 Toast.makeText(getApplicationContext(), "Launching camera...", Toast.LENGTH_LONG).show();
 
                 Intent switchActivities = new Intent(getApplicationContext(), CameraActivity.class);
+                switchActivities.putExtra("analysis key", plannedAnalysis.name());
                 startActivityForResult(switchActivities, MENUACTIVITY_REQUESTCODE);
             }
         });
@@ -105,19 +205,30 @@ public class MenuActivity extends AppCompatActivity
                             public void onClick(DialogInterface dialog, int which)
                             {
                                 int selectedItem = ((AlertDialog)dialog).getListView().getCheckedItemPosition();
+                                Analysis analysis = Analysis.fromOption(selectedItem);
+
+                                /*
+
+                                    The analysis runs in the background; choosing
+                                    another option cancels it and its result is
+                                    never shown.
+
+                                */
 
-                                if (selectedItem == 0)
+                                if (analysis == Analysis.ORIGINAL)
+                                {
+                                    analysisRunner.cancel();
+                                    analysisProgress.setVisibility(ProgressBar.INVISIBLE);
                                     previewImage.setImageBitmap(theImage);
-                                else if (selectedItem == 1)
-                                    previewImage.setImageBitmap(mapMan.turnGray());
-                                else if (selectedItem == 2)
-                                    previewImage.setImageBitmap(mapMan.turnBinary(119));
-                                else if (selectedItem == 3)
-                                    previewImage.setImageBitmap(mapMan.convertToLAB());
-                                else if (selectedItem == 4)
-                                    previewImage.setImageBitmap(mapMan.extractRG());
+                                    showingAnalysisResult(null);
+                                }
                                 else
-                                    previewImage.setImageBitmap(mapMan.extractBY());
+                                {
+                                    plannedAnalysis = analysis;
+                                    analysisProgress.setProgress(0);
+                                    analysisProgress.setVisibility(ProgressBar.VISIBLE);
+                                    analysisRunner.submit(analysis);
+                                }
 
                                 dialog.dismiss();
                             }
@@ -125,6 +236,136 @@ public class MenuActivity extends AppCompatActivity
             }
 
         });
+
+        /*
+
+            A long press runs the chosen analysis over every capture
+            in CAPTURE_DIRECTORY instead of the current picture.
+
+        */
+
+        analyzePictureButton.setOnLongClickListener(new View.OnLongClickListener()
+        {
+            public boolean onLongClick(View v)
+            {
+                AlertDialog.Builder bobTheBuilder = new AlertDialog.Builder(context, R.style.AlertTheme);
+                bobTheBuilder.setTitle("Analyze All Captures")
+                        .setSingleChoiceItems(R.array.options, 0 ,null)
+                        .setNegativeButton("Cancel", new DialogInterface.OnClickListener()
+                        {
+                            public void onClick(DialogInterface dialog, int which) { dialog.dismiss(); }
+                        })
+                        .setPositiveButton("Submit", new DialogInterface.OnClickListener()
+                        {
+                            public void onClick(DialogInterface dialog, int which)
+                            {
+                                int selectedItem = ((AlertDialog)dialog).getListView().getCheckedItemPosition();
+
+                                analyzeAllCaptures(Analysis.fromOption(selectedItem));
+                                dialog.dismiss();
+                            }
+                        }).show();
+
+                return true;
+            }
+        });
+
+        restoreCapture();
+    }
+
+    /**
+     *   Shows the capture this Activity showed last, after a restart of
+     *   the app or when it is recreated, so that its analyses are read
+     *   back from the disk cache instead of being computed again. The
+     *   capture is decoded once previewImage has been laid out, unless a
+     *   new picture has arrived in the meantime.
+     */
+
+    private void restoreCapture()
+    {
+        final String path = getPreferences(MODE_PRIVATE).getString(CAPTURE_PATH_KEY, null);
+
+        if (path == null || !new File(path).isFile())
+            return;
+
+        previewImage.post(new Runnable()
+        {
+            public void run()
+            {
+                if (theImage == null)
+                    showCapture(path, null);
+            }
+        });
+    }
+
+    /**
+     *   Runs an analysis over every capture in CAPTURE_DIRECTORY on
+     *   batchExecutor, writing each result next to its capture. Captures
+     *   are decoded one at a time, subsampled to the detail the analysis
+     *   needs, so that a batch fits in the heap of a small device.
+     *   Captures analyzed by an earlier batch are skipped, so a batch
+     *   which was interrupted can simply be started again. A batch is
+     *   cancelled when this Activity is destroyed.
+     *
+     *   @param analysis
+     *       The analysis to run, which must be a Pipeline composition.
+     */
+
+    private void analyzeAllCaptures(final Analysis analysis)
+    {
+        if (analysis.compose(new Pipeline().source()) == null)
+        {
+            Toast.makeText(getApplicationContext(), "This analysis cannot be run on all captures.",
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        if (batchToken != null)
+        {
+            Toast.makeText(getApplicationContext(), "Captures are already being analyzed.", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        String name = analysis.name().toLowerCase(Locale.US).replace('_', '-');
+        final CancellationToken token = new CancellationToken();
+        final BatchAnalyzer batch = new BatchAnalyzer(new BitmapCodec(analysis.getRequiredShortSide()),
+                Collections.singletonMap(name, analysis), TiledExecutor.getDefault(), 1, 1);
+
+        Toast.makeText(getApplicationContext(), "Analyzing all captures...", Toast.LENGTH_LONG).show();
+        batchToken = token;
+
+        batchExecutor.execute(new Runnable()
+        {
+            public void run()
+            {
+                String message;
+
+                try
+                {
+                    message = "Analyzed captures: " + batch.run(new File(CAPTURE_DIRECTORY), null, token);
+                }
+                catch (CancellationException e)
+                {
+                    message = null;
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    message = "Unable to analyze captures.";
+                }
+
+                final String result = message;
+                runOnUiThread(new Runnable()
+                {
+                    public void run()
+                    {
+                        if (batchToken == token)
+                            batchToken = null;
+                        if (result != null)
+                            Toast.makeText(getApplicationContext(), result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
     }
 
     protected void onActivityResult(int requestCode, int resultCode, Intent activityData)
@@ -132,22 +373,109 @@ public class MenuActivity extends AppCompatActivity
         if (requestCode == MENUACTIVITY_REQUESTCODE && resultCode == Activity.RESULT_OK)
         {
             String fileName = activityData.getStringExtra("filename key");
+            ArrayList<String> fileNames = activityData.getStringArrayListExtra("filenames key");
+
+            if (!showCapture(fileName, CaptureHandoff.take(fileName)))
+            {
+                Toast.makeText(getApplicationContext(), "Unable to load picture.", Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            getPreferences(MODE_PRIVATE).edit().putString(CAPTURE_PATH_KEY, fileName).apply();
+
+            if (fileNames != null && fileNames.size() > 1)
+                Toast.makeText(getApplicationContext(), "Showing the last of " + fileNames.size() + " pictures.",
+                        Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     *   Displays a capture in previewImage and makes it the source of
+     *   the next analysis.
+     *
+     *   @param fileName
+     *       The path of the capture.
+     *
+     *   @param jpeg
+     *       The encoded capture when CameraActivity handed it over in
+     *       memory, or null to read it from fileName.
+     *
+     *   @return
+     *       false if the capture could not be decoded, in which case the
+     *       previous one stays on display.
+     */
 
-            if (theImage != null)
-                theImage.recycle();
+    private boolean showCapture(String fileName, byte [] jpeg)
+    {
+        Bitmap previousImage = theImage;
+
+        /*
 
-            theImage = BitmapFactory.decodeFile(fileName);
+            Only a preview sized copy is decoded here, straight from
+            the bytes CameraActivity handed over when it still has
+            them, since the file may not have been written yet.
+            previewImage is rotated by 90 degrees, so its height
+            covers the width of the image and vice versa. The full
+            resolution image is decoded in the background once an
+            analysis needs it.
 
-            if (mapMan == null)
-                mapMan = new BitmapManager(theImage);
-            else
-                mapMan.setBitmap(theImage);
+        */
 
-            if (startImage.getVisibility() != ImageView.INVISIBLE)
-                startImage.setVisibility(ImageView.INVISIBLE);
+        if (jpeg != null)
+            theImage = ImageDecoder.decodeForDisplay(jpeg,
+                    previewImage.getHeight(), previewImage.getWidth(), Bitmap.Config.RGB_565);
+        else
+            theImage = ImageDecoder.decodeForDisplay(fileName,
+                    previewImage.getHeight(), previewImage.getWidth(), Bitmap.Config.RGB_565);
 
-            previewImage.setImageBitmap(theImage);
-            previewImage.setRotation(90);
+        if (theImage == null)
+        {
+            theImage = previousImage;
+            return false;
         }
+
+        if (startImage.getVisibility() != ImageView.INVISIBLE)
+            startImage.setVisibility(ImageView.INVISIBLE);
+
+        analysisProgress.setVisibility(ProgressBar.INVISIBLE);
+        previewImage.setImageBitmap(theImage);
+        previewImage.setRotation(90);
+        showingAnalysisResult(null);
+
+        if (previousImage != null)
+            previousImage.recycle();
+
+        if (jpeg != null)
+            analysisRunner.setSourceJpeg(jpeg);
+        else
+            analysisRunner.setSourceFile(fileName);
+
+        return true;
+    }
+
+    /**
+     *   Records which analysis result previewImage now displays and hands
+     *   the one it displayed before back to analysisRunner, so that the
+     *   next analysis can reuse its memory.
+     *
+     *   @param result
+     *       The result now displayed, or null if previewImage shows the
+     *       captured image itself.
+     */
+
+    private void showingAnalysisResult(Bitmap result)
+    {
+        if (analysisResult != null && analysisResult != result)
+            analysisRunner.release(analysisResult);
+        analysisResult = result;
+    }
+
+    protected void onDestroy()
+    {
+        if (batchToken != null)
+            batchToken.cancel();
+        batchExecutor.shutdown();
+        analysisRunner.shutdown();
+        super.onDestroy();
     }
 }
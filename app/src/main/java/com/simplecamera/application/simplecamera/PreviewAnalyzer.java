@@ -0,0 +1,388 @@
+package com.simplecamera.application.simplecamera;
+
+import android.graphics.Bitmap;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.BitMask;
+import com.simplecamera.application.simplecamera.kernel.GrayImage;
+import com.simplecamera.application.simplecamera.kernel.IntegralImage;
+import com.simplecamera.application.simplecamera.kernel.Nv21Image;
+import com.simplecamera.application.simplecamera.kernel.Pipeline;
+import com.simplecamera.application.simplecamera.kernel.RowKernel;
+import com.simplecamera.application.simplecamera.kernel.StripKernel;
+import com.simplecamera.application.simplecamera.kernel.ThresholdKernels;
+import com.simplecamera.application.simplecamera.kernel.TiledExecutor;
+import com.simplecamera.application.simplecamera.kernel.YuvKernels;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *   Runs an Analysis on the live preview frames of a Camera and shows the
+ *   results in an overlay ImageView.
+ *
+ *   Frames arrive through Camera.setPreviewCallbackWithBuffer() in a small
+ *   ring of preallocated NV21 buffers, and are analyzed straight from
+ *   their Y and UV planes by YuvKernels on a background thread. Only one
+ *   frame is analyzed at a time: a frame which arrives while the previous
+ *   one is still being analyzed is handed straight back to the camera,
+ *   so the camera thread never waits and late frames are dropped rather
+ *   than queued.
+ *
+ *   Results are written into one of two Bitmaps in turn, so the overlay
+ *   keeps drawing one while the next is filled in; the next frame is
+ *   only taken once the overlay has swapped to the last result. A frame
+ *   which fails to be analyzed is dropped. Apart from
+ *   setAnalysis(), which is called from the main thread, every method
+ *   must be called from the thread which opened the Camera, which is
+ *   also the thread the frames are delivered on; the overlay is only
+ *   touched on the main thread.
+ */
+
+public class PreviewAnalyzer implements Camera.PreviewCallback
+{
+    /**
+     *   The number of preview buffers handed to the camera.
+     */
+
+    public static final int RING_SIZE = 3;
+
+    private static final String TAG = "PreviewAnalyzer";
+
+    private final ImageView overlay;
+    private final Handler handler;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final TiledExecutor executor = TiledExecutor.getDefault();
+
+    private Camera camera;
+    private volatile Analysis analysis = Analysis.ORIGINAL;
+    private Analysis composedAnalysis = Analysis.ORIGINAL;
+    private Runnable firstFrameListener;
+    private int width, height, generation;
+    private boolean busy;
+    private int processedFrames, droppedFrames;
+
+    private ArgbImage result;
+    private IntegralImage integral;
+    private BitMask mask;
+    private StripKernel composition;
+    private final Bitmap [] outputs = new Bitmap[2];
+    private int nextOutput;
+
+    /**
+     *   @param overlay
+     *       The view which shows the results.
+     *
+     *   @param cameraHandler
+     *       A Handler of the thread which opens the Camera.
+     */
+
+    public PreviewAnalyzer(ImageView overlay, Handler cameraHandler)
+    {
+        this.overlay = overlay;
+        this.handler = cameraHandler;
+    }
+
+    /**
+     *   Chooses the analysis to run on the preview. ORIGINAL turns the
+     *   analysis off and hides the overlay.
+     *
+     *   @param newAnalysis
+     *       The analysis to run.
+     */
+
+    public void setAnalysis(Analysis newAnalysis)
+    {
+        analysis = newAnalysis;
+
+        if (newAnalysis == Analysis.ORIGINAL)
+            overlay.setVisibility(ImageView.INVISIBLE);
+    }
+
+    public Analysis getAnalysis() { return analysis; }
+    public int getProcessedFrames() { return processedFrames; }
+    public int getDroppedFrames() { return droppedFrames; }
+
+    /**
+     *   Starts receiving the preview frames of a camera, allocating the
+     *   buffer ring for its preview size. The preview itself is started
+     *   by the caller.
+     *
+     *   @param newCamera
+     *       The camera, whose preview format must be NV21.
+     *
+     *   @param previewWidth
+     *       The width of the preview frames of the camera.
+     *
+     *   @param previewHeight
+     *       The height of the preview frames.
+     *
+     *   @param onFirstFrame
+     *       Run on the camera thread when the first frame arrives, or null.
+     */
+
+    public void attach(Camera newCamera, int previewWidth, int previewHeight, Runnable onFirstFrame)
+    {
+        detach();
+        firstFrameListener = onFirstFrame;
+
+        camera = newCamera;
+        width = previewWidth;
+        height = previewHeight;
+        busy = false;
+
+        /*
+
+            A frame of the previous size may still be in the works, so
+            its images are left to the garbage collector rather than
+            reused or recycled.
+
+        */
+
+        if (result == null || result.getWidth() != width || result.getHeight() != height)
+        {
+            result = new ArgbImage(width, height);
+            integral = null;
+            mask = null;
+            outputs[0] = outputs[1] = null;
+        }
+
+        for (int i = 0; i < RING_SIZE; i++)
+            camera.addCallbackBuffer(new byte[Nv21Image.getBufferSize(width, height)]);
+        camera.setPreviewCallbackWithBuffer(this);
+    }
+
+    /**
+     *   Stops receiving preview frames. A frame still being analyzed is
+     *   discarded.
+     */
+
+    public void detach()
+    {
+        generation++;
+
+        if (camera != null)
+        {
+            camera.setPreviewCallbackWithBuffer(null);
+            camera = null;
+        }
+    }
+
+    /**
+     *   Detaches from the camera and stops the background thread. The
+     *   analyzer cannot be used afterwards.
+     */
+
+    public void shutdown()
+    {
+        detach();
+        worker.shutdown();
+
+        overlay.post(new Runnable()
+        {
+            public void run() { overlay.setImageBitmap(null); }
+        });
+    }
+
+    public void onPreviewFrame(final byte[] data, Camera localCamera)
+    {
+        if (data == null || localCamera != camera)
+            return;
+
+        if (firstFrameListener != null)
+        {
+            Runnable listener = firstFrameListener;
+            firstFrameListener = null;
+            listener.run();
+        }
+
+        final Analysis frameAnalysis = analysis;
+
+        if (busy || frameAnalysis == Analysis.ORIGINAL)
+        {
+            if (busy)
+                droppedFrames++;
+            localCamera.addCallbackBuffer(data);
+            return;
+        }
+
+        busy = true;
+
+        if (frameAnalysis != composedAnalysis)
+        {
+            Pipeline.Node composed = frameAnalysis.compose(new Pipeline().source());
+            composition = composed != null ? composed.asStripKernel() : null;
+            composedAnalysis = frameAnalysis;
+        }
+
+        if (frameAnalysis == Analysis.BINARY_ADAPTIVE && integral == null)
+        {
+            integral = new IntegralImage(width, height, true);
+            mask = new BitMask(width, height);
+        }
+
+        final int frameGeneration = generation;
+        final Bitmap output = output(nextOutput);
+        final Nv21Image frame = new Nv21Image(data, width, height);
+        final ArgbImage target = result;
+        final IntegralImage frameIntegral = integral;
+        final BitMask frameMask = mask;
+        final StripKernel frameComposition = composition;
+
+        worker.execute(new Runnable()
+        {
+            public void run()
+            {
+                Bitmap analyzed = null;
+
+                try
+                {
+                    analyze(frameAnalysis, frame, target, frameIntegral, frameMask, frameComposition);
+                    output.setPixels(target.getPixels(), 0, target.getStride(), 0, 0, target.getWidth(), target.getHeight());
+                    analyzed = output;
+                }
+                catch (RuntimeException e)
+                {
+                    Log.w(TAG, "Unable to analyze a preview frame.", e);
+                }
+                finally
+                {
+                    final Bitmap shown = analyzed;
+
+                    handler.post(new Runnable()
+                    {
+                        public void run() { show(frameGeneration, data, shown); }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     *   Returns the buffer of an analyzed frame to the camera, on the
+     *   camera thread, and hands the result to the overlay on the main
+     *   thread. The other Bitmap becomes the next output, and the next
+     *   frame is taken, only once the overlay has swapped, so that the
+     *   Bitmap it is drawing is never written to.
+     *
+     *   @param output
+     *       The result, or null if the frame could not be analyzed.
+     */
+
+    private void show(final int frameGeneration, byte[] data, final Bitmap output)
+    {
+        if (frameGeneration != generation)
+            return;
+
+        camera.addCallbackBuffer(data);
+
+        if (output == null)
+        {
+            busy = false;
+            return;
+        }
+
+        processedFrames++;
+
+        overlay.post(new Runnable()
+        {
+            public void run()
+            {
+                if (analysis != Analysis.ORIGINAL)
+                {
+                    overlay.setImageBitmap(output);
+                    overlay.setVisibility(ImageView.VISIBLE);
+                }
+
+                handler.post(new Runnable()
+                {
+                    public void run() { swapped(frameGeneration); }
+                });
+            }
+        });
+    }
+
+    private void swapped(int frameGeneration)
+    {
+        if (frameGeneration != generation)
+            return;
+
+        nextOutput ^= 1;
+        busy = false;
+    }
+
+    private void analyze(final Analysis kernel, final Nv21Image frame, final ArgbImage target,
+                         final IntegralImage integral, final BitMask mask, final StripKernel composition)
+    {
+        final GrayImage luma = frame.getLumaPlane();
+        final int radius = Analysis.adaptiveRadius(frame.getWidth(), frame.getHeight());
+        int otsuThreshold = 0;
+
+        /*
+
+            The automatic modes first gather statistics of the whole
+            luma plane: a histogram for Otsu's threshold, or the
+            summed-area tables for the local windows.
+
+        */
+
+        if (kernel == Analysis.BINARY_OTSU)
+        {
+            int [] histogram = new int[256];
+            ThresholdKernels.histogram(luma, histogram, 0, luma.getHeight());
+            otsuThreshold = ThresholdKernels.otsu(histogram);
+        }
+        else if (kernel == Analysis.BINARY_ADAPTIVE)
+            integral.compute(luma);
+
+        final int threshold = otsuThreshold;
+
+        executor.execute(frame.getHeight(), new RowKernel()
+        {
+            public void processRows(int firstRow, int lastRow)
+            {
+                switch (kernel)
+                {
+                    case GRAYSCALE:
+                        YuvKernels.toGray(frame, target, firstRow, lastRow);
+                        break;
+                    case BINARY:
+                        YuvKernels.binarize(frame, target, Analysis.BINARY_THRESHOLD, firstRow, lastRow);
+                        break;
+                    case BINARY_OTSU:
+                        YuvKernels.binarize(frame, target, threshold, firstRow, lastRow);
+                        break;
+                    case BINARY_ADAPTIVE:
+                        ThresholdKernels.sauvola(luma, integral, mask, radius, Analysis.SAUVOLA_K, firstRow, lastRow);
+                        mask.toArgb(target, firstRow, lastRow);
+                        break;
+                    case CIELAB:
+                        YuvKernels.toLab(frame, target, firstRow, lastRow);
+                        break;
+                    case RED_GREEN:
+                        YuvKernels.extractA(frame, target, firstRow, lastRow);
+                        break;
+                    case BLUE_YELLOW:
+                        YuvKernels.extractB(frame, target, firstRow, lastRow);
+                        break;
+                    default:
+                        YuvKernels.toArgb(frame, target, firstRow, lastRow);
+                        if (composition != null)
+                            composition.processRows(target, target, firstRow, lastRow);
+                }
+            }
+        }, null);
+    }
+
+    private Bitmap output(int index)
+    {
+        if (outputs[index] == null)
+            outputs[index] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+        return outputs[index];
+    }
+}
@@ -0,0 +1,135 @@
+package com.simplecamera.application.simplecamera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.ImageRegion;
+import com.simplecamera.application.simplecamera.kernel.StripSource;
+
+import java.io.IOException;
+
+/**
+ *   A StripSource which decodes a JPEG a strip of rows at a time through
+ *   a BitmapRegionDecoder, so that a capture of any resolution can be
+ *   streamed through a StripStreamer without ever being decoded in full.
+ *
+ *   On API 16 and above every strip is decoded into the same Bitmap, so
+ *   the decoder holds a single strip of pixels besides its own state.
+ *   The decoder must be recycled once the stream is done.
+ */
+
+public class StripDecoder implements StripSource
+{
+    private final BitmapRegionDecoder decoder;
+    private final ImageRegion region;
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private final Rect bounds = new Rect();
+    private Bitmap strip;
+
+    /**
+     *   Opens an image file.
+     *
+     *   @param path
+     *       The path of the image file.
+     *
+     *   @param region
+     *       The region of the image to stream, or null for all of it.
+     *
+     *   @throws IOException
+     *       If the file cannot be opened or is not a supported format.
+     */
+
+    public StripDecoder(String path, ImageRegion region) throws IOException
+    {
+        this(BitmapRegionDecoder.newInstance(path, false), region);
+    }
+
+    /**
+     *   Opens an encoded image already held in memory.
+     *
+     *   @param data
+     *       The encoded image.
+     *
+     *   @param region
+     *       The region of the image to stream, or null for all of it.
+     *
+     *   @throws IOException
+     *       If the data is not a supported format.
+     */
+
+    public StripDecoder(byte [] data, ImageRegion region) throws IOException
+    {
+        this(BitmapRegionDecoder.newInstance(data, 0, data.length, false), region);
+    }
+
+    private StripDecoder(BitmapRegionDecoder decoder, ImageRegion region)
+    {
+        if (region == null)
+            region = new ImageRegion(0, 0, decoder.getWidth(), decoder.getHeight());
+        else if (region.getRight() > decoder.getWidth() || region.getBottom() > decoder.getHeight())
+        {
+            decoder.recycle();
+            throw new IllegalArgumentException("Region " + region + " is outside of the "
+                    + decoder.getWidth() + "x" + decoder.getHeight() + " image");
+        }
+
+        this.decoder = decoder;
+        this.region = region;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+    }
+
+    public int getWidth() { return region.getWidth(); }
+    public int getHeight() { return region.getHeight(); }
+
+    public void read(int top, ArgbImage dst) throws IOException
+    {
+        int width = dst.getWidth(), height = dst.getHeight();
+
+        bounds.set(region.getLeft(), region.getTop() + top, region.getLeft() + width, region.getTop() + top + height);
+
+        /*
+
+            A reused Bitmap keeps its size, so the last, shorter strip is
+            decoded into the top rows of the Bitmap of the first.
+
+        */
+
+        if (Build.VERSION.SDK_INT >= 16)
+            options.inBitmap = strip;
+
+        Bitmap decoded = decoder.decodeRegion(bounds, options);
+        if (decoded == null)
+            throw new IOException("Unable to decode rows " + bounds.top + " to " + bounds.bottom);
+
+        decoded.getPixels(dst.getPixels(), 0, dst.getStride(), 0, 0, width, height);
+
+        if (decoded != strip)
+        {
+            if (strip != null)
+                strip.recycle();
+            strip = Build.VERSION.SDK_INT >= 16 ? decoded : null;
+            if (strip == null)
+                decoded.recycle();
+        }
+    }
+
+    /**
+     *   Releases the decoder and its strip Bitmap.
+     */
+
+    public void recycle()
+    {
+        decoder.recycle();
+
+        if (strip != null)
+        {
+            strip.recycle();
+            strip = null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.simplecamera.application.simplecamera;
+
+import android.graphics.Bitmap;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.StripSink;
+
+/**
+ *   A StripSink which keeps every factor-th pixel of every factor-th row
+ *   of a streamed result in a Bitmap drawn from a BitmapPool, so that a
+ *   capture too large to be analyzed in full still yields a result the
+ *   size it is displayed at.
+ */
+
+class SubsampledBitmapSink implements StripSink
+{
+    private final BitmapPool pool;
+    private final int factor;
+    private final Bitmap.Config config;
+    private Bitmap bitmap;
+    private int [] row;
+    private int rowsSeen;
+
+    /**
+     *   @param pool
+     *       The pool the result is drawn from.
+     *
+     *   @param factor
+     *       The subsampling factor in both directions, at least 1.
+     *
+     *   @param config
+     *       The Bitmap.Config of the result.
+     */
+
+    SubsampledBitmapSink(BitmapPool pool, int factor, Bitmap.Config config)
+    {
+        this.pool = pool;
+        this.factor = factor;
+        this.config = config;
+    }
+
+    public void start(int width, int height)
+    {
+        bitmap = pool.acquire((width + factor - 1) / factor, (height + factor - 1) / factor, config);
+        row = new int[bitmap.getWidth()];
+        rowsSeen = 0;
+    }
+
+    public void write(ArgbImage strip)
+    {
+        int [] pixels = strip.getPixels();
+        int stride = strip.getStride(), outWidth = row.length;
+
+        for (int y = 0; y < strip.getHeight(); y++, rowsSeen++)
+        {
+            if (rowsSeen % factor != 0)
+                continue;
+
+            for (int x = 0, in = y * stride; x < outWidth; x++, in += factor)
+                row[x] = pixels[in];
+
+            bitmap.setPixels(row, 0, outWidth, 0, rowsSeen / factor, outWidth, 1);
+        }
+    }
+
+    public void finish() {}
+
+    /**
+     *   @return
+     *       The result, owned by the caller, or null before start().
+     */
+
+    public Bitmap getBitmap() { return bitmap; }
+
+    /**
+     *   Hands an unfinished result back to the pool.
+     */
+
+    public void discard()
+    {
+        if (bitmap != null)
+            pool.release(bitmap);
+        bitmap = null;
+    }
+}
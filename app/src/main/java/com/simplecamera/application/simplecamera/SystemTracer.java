@@ -0,0 +1,30 @@
+package com.simplecamera.application.simplecamera;
+
+import android.os.Build;
+import android.os.Trace;
+
+import com.simplecamera.application.simplecamera.kernel.Metrics;
+
+/**
+ *   Mirrors the sections timed by Metrics into android.os.Trace, so that
+ *   they show up in systrace captures next to the framework's own
+ *   sections. Trace only exists from API level 18, below which sections
+ *   are dropped.
+ */
+
+final class SystemTracer implements Metrics.Tracer
+{
+    private static final boolean AVAILABLE = Build.VERSION.SDK_INT >= 18;
+
+    public void beginSection(String name)
+    {
+        if (AVAILABLE)
+            Trace.beginSection(name);
+    }
+
+    public void endSection()
+    {
+        if (AVAILABLE)
+            Trace.endSection();
+    }
+}
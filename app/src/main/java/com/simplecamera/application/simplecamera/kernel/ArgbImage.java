@@ -0,0 +1,94 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   A platform-independent image made of packed ARGB pixels, laid
+ *   out exactly as android.graphics.Bitmap.getPixels() lays them out:
+ *   the pixel at (x, y) is stored at index y * stride + x of the
+ *   backing int array, with alpha in the top byte followed by the
+ *   red, green and blue channels.
+ *
+ *   The kernels in this package operate only on this representation
+ *   so that they can be exercised and measured on a plain JVM, away
+ *   from the android.graphics types used by BitmapManager.
+ */
+
+public class ArgbImage implements ImageBuffer
+{
+    private final int [] pixels;
+    private final int width, height, stride;
+
+    /**
+     *   Allocates a new, fully transparent image whose stride is
+     *   equal to its width.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     */
+
+    public ArgbImage(int width, int height)
+    {
+        this(new int[width * height], width, height, width);
+    }
+
+    /**
+     *   Wraps an existing array of packed ARGB pixels without copying it.
+     *
+     *   @param pixels
+     *       The backing array, which must hold at least
+     *       (height - 1) * stride + width values.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @param stride
+     *       The number of array entries between the starts of two
+     *       consecutive rows, which must be at least width.
+     */
+
+    public ArgbImage(int [] pixels, int width, int height, int stride)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Image dimensions must be positive: " + width + "x" + height);
+        if (stride < width)
+            throw new IllegalArgumentException("Stride " + stride + " is smaller than width " + width);
+        if (pixels.length < (height - 1) * stride + width)
+            throw new IllegalArgumentException("Pixel array is too small for a " + width + "x" + height + " image");
+
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+
+    public int [] getPixels() { return pixels; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getStride() { return stride; }
+    public int getByteCount() { return pixels.length * 4; }
+
+    public int getPixel(int x, int y) { return pixels[y * stride + x]; }
+    public void setPixel(int x, int y, int argb) { pixels[y * stride + x] = argb; }
+
+    /**
+     *   Determines whether another image has the same width and height
+     *   as this one, which every kernel requires of its source and
+     *   destination.
+     *
+     *   @param other
+     *       The image to compare against.
+     *
+     *   @return
+     *       true if both images have identical dimensions.
+     */
+
+    public boolean sameSize(ArgbImage other)
+    {
+        return width == other.width && height == other.height;
+    }
+}
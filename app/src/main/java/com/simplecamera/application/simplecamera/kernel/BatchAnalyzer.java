@@ -0,0 +1,582 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *   Runs a set of Pipeline compositions over every image of a directory,
+ *   such as the /sdcard/SimpleCamera capture directory, writing each
+ *   result next to its source as "<name>.analysis-<operation>.<ext>" and
+ *   one line of image statistics per source to SUMMARY_NAME.
+ *
+ *   Images move through three stages: decoding and encoding run on a
+ *   pool of I/O threads while the pipelines run one image at a time on
+ *   a TiledExecutor, so that reading and writing overlap with the
+ *   processing of other images. At most maxInFlight images are between
+ *   the start of their decode and the end of their encode, which bounds
+ *   the memory a batch holds however large the directory is.
+ *
+ *   A batch is restartable: the summary line of an image is written
+ *   only after all of its outputs have been renamed into place, and a
+ *   source which already has a summary line is skipped, so a batch
+ *   which was interrupted picks up where it stopped.
+ *
+ *   Nothing here depends on Android; a batch runs just as well on a
+ *   desktop JVM with PnmCodec or an ImageIO based codec.
+ */
+
+public class BatchAnalyzer
+{
+    public static final String SUMMARY_NAME = "analysis-summary.csv";
+    public static final String OUTPUT_INFIX = ".analysis-";
+
+    private static final String SUMMARY_HEADER =
+            "width,height,gray_mean,gray_deviation,gray_median,l_mean,a_mean,b_mean,milliseconds,image";
+    private static final int SUMMARY_FIELDS = 10;
+    private static final String WRITE_METRIC = "batch.write";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     *   Told about every image of a batch, on the thread which finished
+     *   with it, so an implementation must be thread safe.
+     */
+
+    public interface Listener
+    {
+        void onAnalyzed(File source, int done, int total);
+        void onFailed(File source, Exception error);
+    }
+
+    /**
+     *   The outcome of a batch.
+     */
+
+    public static final class Report
+    {
+        private final int analyzed, skipped, failed;
+        private final long elapsedNanos;
+
+        Report(int analyzed, int skipped, int failed, long elapsedNanos)
+        {
+            this.analyzed = analyzed;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getAnalyzed() { return analyzed; }
+        public int getSkipped() { return skipped; }
+        public int getFailed() { return failed; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        /**
+         *   @return
+         *       The number of images analyzed per second of the batch,
+         *       not counting the ones which were skipped.
+         */
+
+        public double getImagesPerSecond()
+        {
+            return elapsedNanos > 0 ? analyzed * 1e9 / elapsedNanos : 0;
+        }
+
+        public String toString()
+        {
+            return String.format(Locale.US, "%d analyzed, %d skipped, %d failed, %.2f images/s",
+                    analyzed, skipped, failed, getImagesPerSecond());
+        }
+    }
+
+    private final ImageCodec codec;
+    private final Map<String, Pipeline.Composition> operations;
+    private final TiledExecutor executor;
+    private final int ioThreads, maxInFlight;
+
+    /**
+     *   @param codec
+     *       The codec which reads the sources and writes the results.
+     *
+     *   @param operations
+     *       The compositions to run on every image, by the name used in
+     *       their output files, which may only hold lower case letters,
+     *       digits and dashes. The map is copied.
+     *
+     *   @param executor
+     *       The executor which runs the pipelines.
+     *
+     *   @param ioThreads
+     *       The number of threads decoding and encoding images.
+     *
+     *   @param maxInFlight
+     *       The largest number of images held in memory at once.
+     */
+
+    public BatchAnalyzer(ImageCodec codec, Map<String, ? extends Pipeline.Composition> operations,
+                         TiledExecutor executor, int ioThreads, int maxInFlight)
+    {
+        if (ioThreads < 1)
+            throw new IllegalArgumentException("At least one I/O thread is required, got " + ioThreads);
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("At least one image must be in flight, got " + maxInFlight);
+
+        for (Map.Entry<String, ? extends Pipeline.Composition> operation : operations.entrySet())
+        {
+            if (!operation.getKey().matches("[a-z0-9-]+"))
+                throw new IllegalArgumentException("Operation name " + operation.getKey() + " is not a valid file name part");
+            if (operation.getValue().compose(new Pipeline().source()) == null)
+                throw new IllegalArgumentException("Operation " + operation.getKey() + " has no composition");
+        }
+
+        this.codec = codec;
+        this.operations = new LinkedHashMap<String, Pipeline.Composition>(operations);
+        this.executor = executor;
+        this.ioThreads = ioThreads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     *   Analyzes every image of a directory which has not been analyzed
+     *   yet, in order of file name. An image which cannot be decoded,
+     *   processed or encoded is reported to the listener and left for
+     *   the next run.
+     *
+     *   @param directory
+     *       The directory holding the sources.
+     *
+     *   @param listener
+     *       The listener told about every image, or null.
+     *
+     *   @param token
+     *       A token which stops the batch once cancelled, or null.
+     *
+     *   @return
+     *       The outcome of the batch.
+     *
+     *   @throws IOException
+     *       If the directory cannot be listed or the summary cannot be
+     *       read or written.
+     *
+     *   @throws CancellationException
+     *       If token is cancelled before the batch completes. The images
+     *       finished by then are recorded and are skipped next time.
+     */
+
+    public Report run(File directory, final Listener listener, CancellationToken token) throws IOException
+    {
+        File [] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Unable to list " + directory);
+        Arrays.sort(files);
+
+        File summaryFile = new File(directory, SUMMARY_NAME);
+        Set<String> done = readSummary(summaryFile);
+        final List<File> pending = new ArrayList<>();
+        int skipped = 0;
+
+        for (File file : files)
+        {
+            String name = file.getName();
+
+            if (!file.isFile() || name.contains(OUTPUT_INFIX) || !codec.canDecode(name))
+                continue;
+            if (done.contains(name))
+                skipped++;
+            else
+                pending.add(file);
+        }
+
+        final Writer summary = openSummary(summaryFile);
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final AtomicInteger analyzed = new AtomicInteger(), failed = new AtomicInteger();
+        final IOException [] summaryFailure = new IOException[1];
+        ExecutorService io = Executors.newFixedThreadPool(ioThreads, new BatchFactory("BatchAnalyzer-io"));
+        ExecutorService processor = Executors.newSingleThreadExecutor(new BatchFactory("BatchAnalyzer-process"));
+        long start = System.nanoTime();
+        boolean interrupted = false;
+
+        try
+        {
+            for (File source : pending)
+            {
+                if (token != null && token.isCancelled() || summaryFailure[0] != null)
+                    break;
+
+                try
+                {
+                    inFlight.acquire();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                    break;
+                }
+
+                new Job(source, io, processor, inFlight, token)
+                {
+                    void finished(File source, long nanos, String line)
+                    {
+                        synchronized (summary)
+                        {
+                            try
+                            {
+                                summary.write(line);
+                                summary.flush();
+                            }
+                            catch (IOException e)
+                            {
+                                summaryFailure[0] = e;
+                                return;
+                            }
+                        }
+
+                        int count = analyzed.incrementAndGet();
+                        if (listener != null)
+                            listener.onAnalyzed(source, count, pending.size());
+                    }
+
+                    void failed(File source, Exception error)
+                    {
+                        failed.incrementAndGet();
+                        if (listener != null)
+                            listener.onFailed(source, error);
+                    }
+                }.start();
+            }
+
+            /*
+
+                Every job gives its permit back however it ends, so
+                holding all of them means the batch has drained.
+
+            */
+
+            inFlight.acquireUninterruptibly(maxInFlight);
+        }
+        finally
+        {
+            io.shutdown();
+            processor.shutdown();
+            summary.close();
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (summaryFailure[0] != null)
+            throw summaryFailure[0];
+        if (interrupted || token != null && token.isCancelled())
+            throw new CancellationException();
+
+        return new Report(analyzed.get(), skipped, failed.get(), System.nanoTime() - start);
+    }
+
+    /**
+     *   Gives the file a result of an operation on a source is written to.
+     *
+     *   @param source
+     *       The source image.
+     *
+     *   @param operation
+     *       The name of the operation.
+     *
+     *   @param gray
+     *       Whether the result is gray.
+     *
+     *   @return
+     *       The output file, in the directory of source.
+     */
+
+    public File getOutputFile(File source, String operation, boolean gray)
+    {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+
+        return new File(source.getParentFile(), base + OUTPUT_INFIX + operation + "." + codec.getExtension(gray));
+    }
+
+    /**
+     *   Reads the names of the images a summary already covers. A line
+     *   cut short by an interrupted batch does not count.
+     */
+
+    private static Set<String> readSummary(File summaryFile) throws IOException
+    {
+        Set<String> done = new HashSet<>();
+        if (!summaryFile.exists())
+            return done;
+
+        StringBuilder text = new StringBuilder();
+        Reader in = new InputStreamReader(new FileInputStream(summaryFile), UTF_8);
+
+        try
+        {
+            char [] buffer = new char[8192];
+            for (int count; (count = in.read(buffer)) != -1; )
+                text.append(buffer, 0, count);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        int lineStart = 0;
+
+        for (int end = text.indexOf("\n"); end != -1; lineStart = end + 1, end = text.indexOf("\n", lineStart))
+        {
+            String [] fields = text.substring(lineStart, end).split(",", SUMMARY_FIELDS);
+
+            if (fields.length == SUMMARY_FIELDS && !fields[SUMMARY_FIELDS - 1].isEmpty())
+                done.add(fields[SUMMARY_FIELDS - 1]);
+        }
+
+        return done;
+    }
+
+    /**
+     *   Opens a summary for appending, writing its header if it is new
+     *   and ending a line cut short by an interrupted batch.
+     */
+
+    private static Writer openSummary(File summaryFile) throws IOException
+    {
+        boolean exists = summaryFile.length() > 0;
+        boolean cutShort = false;
+
+        if (exists)
+        {
+            FileInputStream in = new FileInputStream(summaryFile);
+
+            try
+            {
+                in.skip(summaryFile.length() - 1);
+                cutShort = in.read() != '\n';
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(summaryFile, true), UTF_8);
+
+        if (!exists)
+            out.write(SUMMARY_HEADER + "\n");
+        else if (cutShort)
+            out.write("\n");
+        out.flush();
+
+        return out;
+    }
+
+    /**
+     *   One image on its way through decode, process and encode. Each
+     *   stage hands the image to the next one's executor, and the permit
+     *   taken for the image is given back when it leaves, whether it
+     *   finished, failed or was cancelled.
+     */
+
+    private abstract class Job
+    {
+        private final File source;
+        private final ExecutorService io, processor;
+        private final Semaphore inFlight;
+        private final CancellationToken token;
+        private final long start = System.nanoTime();
+
+        Job(File source, ExecutorService io, ExecutorService processor, Semaphore inFlight, CancellationToken token)
+        {
+            this.source = source;
+            this.io = io;
+            this.processor = processor;
+            this.inFlight = inFlight;
+            this.token = token;
+        }
+
+        abstract void finished(File source, long nanos, String line);
+        abstract void failed(File source, Exception error);
+
+        void start()
+        {
+            io.execute(new Stage()
+            {
+                void runStage() throws IOException
+                {
+                    final ArgbImage image = codec.decode(source);
+
+                    processor.execute(new Stage()
+                    {
+                        void runStage()
+                        {
+                            final Results results = process(image);
+
+                            io.execute(new Stage()
+                            {
+                                void runStage() throws IOException
+                                {
+                                    encode(results);
+                                }
+                            });
+                        }
+                    });
+                }
+            });
+        }
+
+        private Results process(ArgbImage image)
+        {
+            Pipeline pipeline = new Pipeline();
+            Results results = new Results(image.getWidth(), image.getHeight());
+
+            for (Map.Entry<String, Pipeline.Composition> operation : operations.entrySet())
+            {
+                Pipeline.Node node = operation.getValue().compose(pipeline.source());
+                boolean gray = node.getFormat() == Pipeline.Format.GRAY || node.getFormat() == Pipeline.Format.BINARY;
+
+                results.names.add(operation.getKey());
+                results.gray.add(gray);
+                results.outputs.add(node.toArgb());
+            }
+
+            pipeline.run(image, executor, token);
+            results.statistics = statistics(image);
+
+            return results;
+        }
+
+        private ImageStatistics statistics(final ArgbImage image)
+        {
+            final ImageStatistics statistics = new ImageStatistics();
+
+            executor.execute(image.getHeight(), new RowKernel()
+            {
+                public void processRows(int firstRow, int lastRow)
+                {
+                    ImageStatistics band = new ImageStatistics();
+                    band.accumulate(image, null, firstRow, lastRow);
+
+                    synchronized (statistics)
+                    {
+                        statistics.merge(band);
+                    }
+                }
+            }, token);
+
+            return statistics;
+        }
+
+        private void encode(Results results) throws IOException
+        {
+            for (int i = 0; i < results.names.size(); i++)
+            {
+                boolean gray = results.gray.get(i);
+                byte [] data = codec.encode(results.outputs.get(i).get(), gray);
+
+                CaptureWriter.writeFully(getOutputFile(source, results.names.get(i), gray), data, WRITE_METRIC);
+            }
+
+            ImageStatistics statistics = results.statistics;
+            long nanos = System.nanoTime() - start;
+            String line = String.format(Locale.US, "%d,%d,%.2f,%.2f,%d,%.2f,%.2f,%.2f,%d,%s\n",
+                    results.width, results.height,
+                    statistics.getMean(ImageStatistics.Channel.GRAY),
+                    statistics.getStandardDeviation(ImageStatistics.Channel.GRAY),
+                    statistics.getPercentile(ImageStatistics.Channel.GRAY, 0.5),
+                    statistics.getMean(ImageStatistics.Channel.L),
+                    statistics.getMean(ImageStatistics.Channel.A),
+                    statistics.getMean(ImageStatistics.Channel.B),
+                    nanos / 1000000, source.getName());
+
+            finished(source, nanos, line);
+            inFlight.release();
+        }
+
+        /**
+         *   A stage of the job, which gives the permit of the job back if
+         *   it does not hand the image on.
+         */
+
+        private abstract class Stage implements Runnable
+        {
+            abstract void runStage() throws IOException;
+
+            public void run()
+            {
+                boolean handedOn = false;
+
+                try
+                {
+                    runStage();
+                    handedOn = true;
+                }
+                catch (CancellationException e)
+                {
+                    // Left for the next run, like the images never started.
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    failed(source, e);
+                }
+                finally
+                {
+                    if (!handedOn)
+                        inFlight.release();
+                }
+            }
+        }
+    }
+
+    /**
+     *   The outputs of the pipeline of one image and its statistics.
+     */
+
+    private static final class Results
+    {
+        final int width, height;
+        final List<String> names = new ArrayList<>();
+        final List<Boolean> gray = new ArrayList<>();
+        final List<Pipeline.Output<ArgbImage>> outputs = new ArrayList<>();
+        ImageStatistics statistics;
+
+        Results(int width, int height)
+        {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static class BatchFactory implements ThreadFactory
+    {
+        private final String name;
+
+        BatchFactory(String name) { this.name = name; }
+
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
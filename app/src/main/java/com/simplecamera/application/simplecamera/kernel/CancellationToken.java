@@ -0,0 +1,31 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ *   A flag shared between the code that starts a long running image
+ *   operation and the threads that carry it out. Cancelling the token
+ *   does not interrupt any thread; the work checks it between bands of
+ *   rows and stops by throwing a CancellationException.
+ */
+
+public class CancellationToken
+{
+    private volatile boolean cancelled;
+
+    public void cancel() { cancelled = true; }
+    public boolean isCancelled() { return cancelled; }
+
+    /**
+     *   Stops the calling operation if this token has been cancelled.
+     *
+     *   @throws CancellationException
+     *       If cancel() has been called.
+     */
+
+    public void throwIfCancelled()
+    {
+        if (cancelled)
+            throw new CancellationException();
+    }
+}
@@ -0,0 +1,286 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *   Persists captured images on a background thread, so that the thread
+ *   which took the picture never waits for storage.
+ *
+ *   Every image is written through a FileChannel into a temporary file
+ *   next to its target, which is renamed into place once all of its
+ *   bytes are on disk, so a reader never sees a partially written
+ *   image. Writes are carried out one at a time in the order they were
+ *   submitted.
+ *
+ *   The queue of pending writes may be bounded, in which case a producer
+ *   that outpaces storage either waits for room (BLOCK) or has its image
+ *   discarded (DROP). The depth of the queue and the number of written
+ *   and dropped images are tracked so that a burst can be reported on,
+ *   and every write is timed by Metrics.
+ */
+
+public class CaptureWriter
+{
+    /**
+     *   Told about the outcome of every write, on the writer thread.
+     */
+
+    public interface Listener
+    {
+        void onWritten(File file);
+        void onFailed(File file, IOException error);
+    }
+
+    /**
+     *   What write() does when the queue of pending writes is full: BLOCK
+     *   waits until the writer has made room, DROP discards the new image.
+     */
+
+    public enum OverflowPolicy { BLOCK, DROP }
+
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private static final String WRITE_METRIC = "capture.write", BYTES_METRIC = "capture.bytes";
+    private static final String QUEUE_METRIC = "capture.queueDepth", DROPPED_METRIC = "capture.dropped";
+
+    private static CaptureWriter defaultWriter;
+
+    private final ThreadPoolExecutor worker;
+    private final OverflowPolicy policy;
+    private final AtomicInteger written = new AtomicInteger(), dropped = new AtomicInteger();
+    private volatile int maxQueueDepth;
+
+    /**
+     *   Creates a writer with an unbounded queue.
+     */
+
+    public CaptureWriter() { this(UNBOUNDED, OverflowPolicy.BLOCK); }
+
+    /**
+     *   @param capacity
+     *       The largest number of images waiting to be written, besides
+     *       the one being written, or UNBOUNDED.
+     *
+     *   @param policy
+     *       What to do with an image submitted while the queue is full.
+     */
+
+    public CaptureWriter(int capacity, OverflowPolicy policy)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The queue must hold at least one image, got " + capacity);
+
+        this.policy = policy;
+        this.worker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(capacity), new WriterFactory(),
+                policy == OverflowPolicy.BLOCK ? new BlockWhenFull() : new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     *   Returns a writer shared by the whole process, creating it on
+     *   first use.
+     *
+     *   @return
+     *       The shared CaptureWriter.
+     */
+
+    public static synchronized CaptureWriter getDefault()
+    {
+        if (defaultWriter == null)
+            defaultWriter = new CaptureWriter();
+
+        return defaultWriter;
+    }
+
+    /**
+     *   Queues an image to be written to a file, creating its directory if
+     *   necessary.
+     *
+     *   @param file
+     *       The file to write.
+     *
+     *   @param data
+     *       The encoded image, which is written as is and must not be
+     *       modified until the write has finished.
+     *
+     *   @param listener
+     *       The listener told about the outcome, or null.
+     *
+     *   @return
+     *       A Future which completes with file once it has been written,
+     *       or null if the queue was full and the policy is DROP.
+     */
+
+    public Future<File> write(final File file, final byte [] data, final Listener listener)
+    {
+        Future<File> pending;
+
+        try
+        {
+            pending = worker.submit(new Callable<File>()
+            {
+                public File call() throws IOException
+                {
+                    try
+                    {
+                        writeFully(file, data);
+                    }
+                    catch (IOException e)
+                    {
+                        if (listener != null)
+                            listener.onFailed(file, e);
+                        throw e;
+                    }
+
+                    written.incrementAndGet();
+                    if (listener != null)
+                        listener.onWritten(file);
+
+                    return file;
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            if (policy == OverflowPolicy.DROP && !worker.isShutdown())
+            {
+                dropped.incrementAndGet();
+                Metrics.count(DROPPED_METRIC, 1);
+                return null;
+            }
+            throw e;
+        }
+
+        int depth = worker.getQueue().size();
+        if (depth > maxQueueDepth)
+            maxQueueDepth = depth;
+        Metrics.gauge(QUEUE_METRIC, depth);
+
+        return pending;
+    }
+
+    public int getQueueDepth() { return worker.getQueue().size(); }
+    public int getMaxQueueDepth() { return maxQueueDepth; }
+    public int getWrittenCount() { return written.get(); }
+    public int getDroppedCount() { return dropped.get(); }
+
+    /**
+     *   Stops the writer once every queued image has been written.
+     */
+
+    public void shutdown()
+    {
+        worker.shutdown();
+    }
+
+    /**
+     *   Writes a captured picture to a file as writeFully(File, byte [],
+     *   String) does, timed and sized as a capture write.
+     */
+
+    public static void writeFully(File file, byte [] data) throws IOException
+    {
+        writeFully(file, data, WRITE_METRIC);
+        Metrics.gauge(BYTES_METRIC, data.length);
+    }
+
+    /**
+     *   Writes a byte array to a file through a FileChannel, by way of a
+     *   temporary file which replaces the target once it is complete.
+     *
+     *   @param file
+     *       The file to write.
+     *
+     *   @param data
+     *       The bytes to write.
+     *
+     *   @param metric
+     *       The name under which the write is timed.
+     *
+     *   @throws IOException
+     *       If the directory cannot be created or the file cannot be
+     *       written.
+     */
+
+    public static void writeFully(File file, byte [] data, String metric) throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory);
+
+        File partial = new File(file.getPath() + ".part");
+        long start = Metrics.start(metric);
+        FileOutputStream out = null;
+
+        try
+        {
+            out = new FileOutputStream(partial);
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        finally
+        {
+            if (out != null)
+                out.close();
+            Metrics.stop(metric, start);
+        }
+
+        if (!partial.renameTo(file))
+        {
+            partial.delete();
+            throw new IOException("Unable to rename " + partial + " to " + file);
+        }
+    }
+
+    private static class WriterFactory implements ThreadFactory
+    {
+        public Thread newThread(Runnable task)
+        {
+            Thread writer = new Thread(task, "CaptureWriter");
+            writer.setDaemon(true);
+
+            return writer;
+        }
+    }
+
+    /**
+     *   Makes the submitting thread wait for room in the queue rather
+     *   than rejecting its image.
+     */
+
+    private static class BlockWhenFull implements RejectedExecutionHandler
+    {
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("The writer has been shut down");
+
+            try
+            {
+                executor.getQueue().put(task);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        }
+    }
+}
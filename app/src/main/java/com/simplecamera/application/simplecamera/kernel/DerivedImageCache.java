@@ -0,0 +1,220 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *   A least-recently-used cache of images derived from a source image,
+ *   bounded by the total number of bytes the cached images hold rather
+ *   than by their count.
+ *
+ *   Entries are keyed by the generation of the source they were derived
+ *   from, the name of the operation and its integer parameters, so that
+ *   results for an old source can never be returned for a new one even
+ *   if they have not been evicted yet. Cached images are shared and must
+ *   not be modified by whoever retrieves them.
+ */
+
+public class DerivedImageCache
+{
+    /**
+     *   Identifies one derived image.
+     */
+
+    public static final class Key
+    {
+        private final long generation;
+        private final String operation;
+        private final int [] parameters;
+
+        /**
+         *   @param generation
+         *       The generation of the source image.
+         *
+         *   @param operation
+         *       The name of the operation which derived the image.
+         *
+         *   @param parameters
+         *       The parameters of the operation, such as a threshold.
+         */
+
+        public Key(long generation, String operation, int... parameters)
+        {
+            this.generation = generation;
+            this.operation = operation;
+            this.parameters = parameters.clone();
+        }
+
+        public long getGeneration() { return generation; }
+        public String getOperation() { return operation; }
+        public int [] getParameters() { return parameters.clone(); }
+
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key))
+                return false;
+
+            Key key = (Key) other;
+
+            return generation == key.generation && operation.equals(key.operation)
+                    && Arrays.equals(parameters, key.parameters);
+        }
+
+        public int hashCode()
+        {
+            return (int)(generation ^ (generation >>> 32)) * 31 * 31
+                    + operation.hashCode() * 31 + Arrays.hashCode(parameters);
+        }
+
+        public String toString()
+        {
+            return operation + Arrays.toString(parameters) + "@" + generation;
+        }
+    }
+
+    /**
+     *   Told about every image that leaves the cache, so that whoever
+     *   created it can reuse its memory.
+     */
+
+    public interface EvictionListener
+    {
+        void onEvicted(Key key, ImageBuffer image);
+    }
+
+    private final LinkedHashMap<Key, ImageBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long bytes;
+    private EvictionListener evictionListener;
+
+    /**
+     *   @param maxBytes
+     *       The largest number of bytes the cached images may hold in
+     *       total.
+     */
+
+    public DerivedImageCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void setEvictionListener(EvictionListener listener) { evictionListener = listener; }
+
+    /**
+     *   Looks up an image, marking it as the most recently used.
+     *
+     *   @param key
+     *       The key of the image.
+     *
+     *   @return
+     *       The cached image, or null if it is not cached.
+     */
+
+    public synchronized ImageBuffer get(Key key)
+    {
+        return entries.get(key);
+    }
+
+    /**
+     *   Determines whether an image is cached without marking it as used.
+     *
+     *   @param key
+     *       The key of the image.
+     *
+     *   @return
+     *       true if the image is cached.
+     */
+
+    public synchronized boolean contains(Key key)
+    {
+        return entries.containsKey(key);
+    }
+
+    /**
+     *   Caches an image, evicting least recently used images until the
+     *   cache fits within its byte limit. Images larger than the whole
+     *   limit are not cached at all, and remain owned by the caller.
+     *
+     *   @param key
+     *       The key of the image.
+     *
+     *   @param image
+     *       The image to cache.
+     *
+     *   @return
+     *       true if the image was cached.
+     */
+
+    public synchronized boolean put(Key key, ImageBuffer image)
+    {
+        if (image.getByteCount() > maxBytes)
+            return false;
+
+        ImageBuffer previous = entries.put(key, image);
+        if (previous != null)
+        {
+            bytes -= previous.getByteCount();
+            if (previous != image)
+                evicted(key, previous);
+        }
+        bytes += image.getByteCount();
+
+        Iterator<Map.Entry<Key, ImageBuffer>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes)
+        {
+            Map.Entry<Key, ImageBuffer> entry = eldest.next();
+
+            bytes -= entry.getValue().getByteCount();
+            eldest.remove();
+            evicted(entry.getKey(), entry.getValue());
+        }
+
+        return true;
+    }
+
+    /**
+     *   Removes every image derived from a generation older than the
+     *   given one.
+     *
+     *   @param generation
+     *       The oldest generation to keep.
+     */
+
+    public synchronized void evictOlderThan(long generation)
+    {
+        Iterator<Map.Entry<Key, ImageBuffer>> iterator = entries.entrySet().iterator();
+
+        while (iterator.hasNext())
+        {
+            Map.Entry<Key, ImageBuffer> entry = iterator.next();
+
+            if (entry.getKey().generation < generation)
+            {
+                bytes -= entry.getValue().getByteCount();
+                iterator.remove();
+                evicted(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     *   Removes every image from the cache.
+     */
+
+    public synchronized void evictAll()
+    {
+        evictOlderThan(Long.MAX_VALUE);
+    }
+
+    private void evicted(Key key, ImageBuffer image)
+    {
+        if (evictionListener != null)
+            evictionListener.onEvicted(key, image);
+    }
+
+    public synchronized int size() { return entries.size(); }
+    public synchronized long byteCount() { return bytes; }
+    public long getMaxBytes() { return maxBytes; }
+}
@@ -0,0 +1,589 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *   A least-recently-used cache of derived images and statistics kept in
+ *   a directory, so that results outlive the process which computed them
+ *   and reopening an analyzed capture costs a read instead of a pass.
+ *
+ *   Entries are content addressed: the file of an entry is named by the
+ *   SHA-256 of the digest of the encoded source, the operation and its
+ *   parameters, so the same capture finds its results however it was
+ *   reached, and a changed file can never be served stale results. The
+ *   generation of a DerivedImageCache.Key plays no part.
+ *
+ *   Every entry holds a 16 byte header, giving its type and dimensions,
+ *   followed by the raw little-endian payload: packed ARGB ints, gray
+ *   bytes, mask words or histogram bins. Entries are read and written
+ *   through memory-mapped FileChannels with bulk copies, and written by
+ *   way of a temporary file which is renamed into place, so a reader
+ *   never sees a partial entry. The last modified time of a
+ *   file records its last use, which orders eviction across restarts.
+ *
+ *   One instance should own a directory at a time. Its methods may be
+ *   called from several threads.
+ */
+
+public class DiskResultCache
+{
+    private static final int MAGIC = 0x31524353;
+    private static final int HEADER_BYTES = 16;
+    private static final int ARGB = 1, GRAY = 2, MASK = 3, STATISTICS = 4;
+    private static final String SUFFIX = ".raw", PARTIAL_SUFFIX = ".part";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     *   The size of every entry by file name, in access order.
+     */
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     *   Opens a cache directory, creating it if need be. Entries left by
+     *   an earlier instance are adopted in the order they were last used,
+     *   and partial entries are deleted.
+     *
+     *   @param directory
+     *       The directory which holds the entries and nothing else.
+     *
+     *   @param maxBytes
+     *       The largest number of bytes the entries may hold in total.
+     *
+     *   @throws IOException
+     *       If the directory cannot be created or listed.
+     */
+
+    public DiskResultCache(File directory, long maxBytes) throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory);
+
+        File [] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Unable to list " + directory);
+
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        final long [] lastUsed = new long[files.length];
+        Integer [] order = new Integer[files.length];
+
+        for (int i = 0; i < files.length; i++)
+        {
+            lastUsed[i] = files[i].lastModified();
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return lastUsed[a] < lastUsed[b] ? -1 : lastUsed[a] == lastUsed[b] ? 0 : 1;
+            }
+        });
+
+        for (int i : order)
+        {
+            File file = files[i];
+
+            if (file.getName().endsWith(PARTIAL_SUFFIX))
+                file.delete();
+            else if (file.getName().endsWith(SUFFIX))
+            {
+                entries.put(file.getName(), file.length());
+                bytes += file.length();
+            }
+        }
+
+        synchronized (this)
+        {
+            trim();
+        }
+    }
+
+    /**
+     *   Computes the digest which identifies a source in the keys of the
+     *   cache.
+     *
+     *   @param data
+     *       The encoded source, such as the bytes of a JPEG.
+     *
+     *   @return
+     *       The SHA-256 of data in lower case hexadecimal.
+     */
+
+    public static String digest(byte [] data)
+    {
+        MessageDigest sha = sha256();
+        sha.update(data);
+
+        return hex(sha.digest());
+    }
+
+    /**
+     *   Variant of digest(byte[]) which reads a file.
+     *
+     *   @throws IOException
+     *       If the file cannot be read.
+     */
+
+    public static String digest(File file) throws IOException
+    {
+        MessageDigest sha = sha256();
+        InputStream in = new FileInputStream(file);
+
+        try
+        {
+            byte [] buffer = new byte[64 * 1024];
+            int count;
+
+            while ((count = in.read(buffer)) != -1)
+                sha.update(buffer, 0, count);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return hex(sha.digest());
+    }
+
+    /**
+     *   Loads a cached image, marking it as the most recently used. An
+     *   entry which cannot be read or is not an image is dropped.
+     *
+     *   @param source
+     *       The digest of the source the image was derived from.
+     *
+     *   @param key
+     *       The operation and parameters which derived the image.
+     *
+     *   @return
+     *       A new ArgbImage, GrayImage or BitMask owned by the caller, or
+     *       null if the image is not cached.
+     */
+
+    public ImageBuffer getImage(String source, DerivedImageCache.Key key)
+    {
+        String name = entryName(source, key);
+        ByteBuffer entry = open(name);
+        if (entry == null)
+            return null;
+
+        int type = entry.getInt(4), width = entry.getInt(8), height = entry.getInt(12);
+        entry.position(HEADER_BYTES);
+
+        try
+        {
+            if (type == ARGB && entry.remaining() == (long) width * height * 4)
+            {
+                ArgbImage image = new ArgbImage(width, height);
+                entry.asIntBuffer().get(image.getPixels());
+                return image;
+            }
+            if (type == GRAY && entry.remaining() == (long) width * height)
+            {
+                GrayImage image = new GrayImage(width, height);
+                entry.get(image.getPixels());
+                return image;
+            }
+            if (type == MASK && entry.remaining() == (long) ((width + 63) >>> 6) * height * 8)
+            {
+                BitMask mask = new BitMask(width, height);
+                entry.asLongBuffer().get(mask.getWords());
+                return mask;
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            // The dimensions are corrupt; the entry is dropped below.
+        }
+
+        remove(name);
+        return null;
+    }
+
+    /**
+     *   Stores an image, evicting least recently used entries until the
+     *   cache fits within its byte limit. Images larger than the whole
+     *   limit are not stored.
+     *
+     *   @param source
+     *       The digest of the source the image was derived from.
+     *
+     *   @param key
+     *       The operation and parameters which derived the image.
+     *
+     *   @param image
+     *       An ArgbImage, GrayImage or BitMask, which is left unchanged.
+     *
+     *   @return
+     *       true if the image was stored.
+     */
+
+    public boolean putImage(String source, DerivedImageCache.Key key, ImageBuffer image)
+    {
+        int width = image.getWidth(), height = image.getHeight();
+        long size = HEADER_BYTES;
+        int type;
+
+        if (image instanceof ArgbImage)
+        {
+            type = ARGB;
+            size += (long) width * height * 4;
+        }
+        else if (image instanceof GrayImage)
+        {
+            type = GRAY;
+            size += (long) width * height;
+        }
+        else if (image instanceof BitMask)
+        {
+            type = MASK;
+            size += image.getByteCount();
+        }
+        else
+            throw new IllegalArgumentException("Unsupported image " + image.getClass().getName());
+
+        String name = entryName(source, key);
+        if (size > maxBytes || size > Integer.MAX_VALUE)
+            return false;
+
+        RandomAccessFile file = null;
+        File partial = new File(directory, name + PARTIAL_SUFFIX);
+
+        try
+        {
+            file = new RandomAccessFile(partial, "rw");
+            ByteBuffer entry = header(file, type, width, height, size);
+
+            if (image instanceof ArgbImage)
+            {
+                ArgbImage argb = (ArgbImage) image;
+                IntBuffer pixels = entry.asIntBuffer();
+
+                for (int y = 0; y < height; y++)
+                    pixels.put(argb.getPixels(), y * argb.getStride(), width);
+            }
+            else if (image instanceof GrayImage)
+            {
+                GrayImage gray = (GrayImage) image;
+
+                for (int y = 0; y < height; y++)
+                    entry.put(gray.getPixels(), y * gray.getStride(), width);
+            }
+            else
+                entry.asLongBuffer().put(((BitMask) image).getWords());
+        }
+        catch (IOException e)
+        {
+            return discard(file, partial);
+        }
+
+        return commit(file, partial, name, size);
+    }
+
+    /**
+     *   Loads cached statistics, marking them as the most recently used.
+     *
+     *   @param source
+     *       The digest of the source the statistics were gathered from.
+     *
+     *   @param key
+     *       The operation and parameters which gathered them.
+     *
+     *   @return
+     *       New statistics owned by the caller, or null if they are not
+     *       cached.
+     */
+
+    public ImageStatistics getStatistics(String source, DerivedImageCache.Key key)
+    {
+        String name = entryName(source, key);
+        ByteBuffer entry = open(name);
+        if (entry == null)
+            return null;
+
+        int [] bins = new int[ImageStatistics.BIN_COUNT];
+
+        if (entry.getInt(4) == STATISTICS && entry.capacity() == HEADER_BYTES + 8 + bins.length * 4)
+        {
+            long pixelCount = entry.getLong(HEADER_BYTES);
+
+            entry.position(HEADER_BYTES + 8);
+            entry.asIntBuffer().get(bins);
+
+            return new ImageStatistics(bins, pixelCount);
+        }
+
+        remove(name);
+        return null;
+    }
+
+    /**
+     *   Stores statistics, evicting least recently used entries until
+     *   the cache fits within its byte limit.
+     *
+     *   @param source
+     *       The digest of the source the statistics were gathered from.
+     *
+     *   @param key
+     *       The operation and parameters which gathered them.
+     *
+     *   @param statistics
+     *       The statistics, which are left unchanged.
+     *
+     *   @return
+     *       true if the statistics were stored.
+     */
+
+    public boolean putStatistics(String source, DerivedImageCache.Key key, ImageStatistics statistics)
+    {
+        int [] bins = statistics.getBins();
+        long size = HEADER_BYTES + 8 + bins.length * 4;
+        String name = entryName(source, key);
+
+        if (size > maxBytes)
+            return false;
+
+        RandomAccessFile file = null;
+        File partial = new File(directory, name + PARTIAL_SUFFIX);
+
+        try
+        {
+            file = new RandomAccessFile(partial, "rw");
+            ByteBuffer entry = header(file, STATISTICS, 0, 0, size);
+
+            entry.putLong(statistics.getPixelCount());
+            entry.asIntBuffer().put(bins);
+        }
+        catch (IOException e)
+        {
+            return discard(file, partial);
+        }
+
+        return commit(file, partial, name, size);
+    }
+
+    /**
+     *   Deletes every entry.
+     */
+
+    public synchronized void clear()
+    {
+        for (String name : entries.keySet())
+            new File(directory, name).delete();
+
+        entries.clear();
+        bytes = 0;
+    }
+
+    public File getDirectory() { return directory; }
+    public synchronized int size() { return entries.size(); }
+    public synchronized long byteCount() { return bytes; }
+    public long getMaxBytes() { return maxBytes; }
+
+    /**
+     *   Maps an entry for reading and marks it as the most recently used.
+     *
+     *   @return
+     *       The little-endian contents of the entry, positioned after its
+     *       magic number, or null if there is no valid entry.
+     */
+
+    private ByteBuffer open(String name)
+    {
+        synchronized (this)
+        {
+            if (entries.get(name) == null)
+                return null;
+        }
+
+        File file = new File(directory, name);
+        ByteBuffer entry;
+
+        try
+        {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+
+            try
+            {
+                entry = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            remove(name);
+            return null;
+        }
+
+        entry.order(ByteOrder.LITTLE_ENDIAN);
+        if (entry.capacity() < HEADER_BYTES || entry.getInt(0) != MAGIC)
+        {
+            remove(name);
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        entry.position(4);
+
+        return entry;
+    }
+
+    /**
+     *   Sizes a new entry and maps it for writing, with its header filled
+     *   in.
+     *
+     *   @return
+     *       The little-endian contents of the entry, positioned after its
+     *       header.
+     */
+
+    private static ByteBuffer header(RandomAccessFile file, int type, int width, int height, long size)
+            throws IOException
+    {
+        file.setLength(size);
+
+        ByteBuffer entry = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        entry.order(ByteOrder.LITTLE_ENDIAN);
+        entry.putInt(MAGIC).putInt(type).putInt(width).putInt(height);
+
+        return entry;
+    }
+
+    /**
+     *   Renames a complete entry into place and accounts for it.
+     */
+
+    private boolean commit(RandomAccessFile file, File partial, String name, long size)
+    {
+        try
+        {
+            file.close();
+        }
+        catch (IOException e)
+        {
+            return discard(null, partial);
+        }
+
+        synchronized (this)
+        {
+            if (!partial.renameTo(new File(directory, name)))
+                return discard(null, partial);
+
+            Long previous = entries.put(name, size);
+            if (previous != null)
+                bytes -= previous;
+            bytes += size;
+
+            trim();
+        }
+
+        return true;
+    }
+
+    private static boolean discard(RandomAccessFile file, File partial)
+    {
+        if (file != null)
+        {
+            try
+            {
+                file.close();
+            }
+            catch (IOException e)
+            {
+                // The partial file is deleted either way.
+            }
+        }
+
+        partial.delete();
+        return false;
+    }
+
+    private synchronized void remove(String name)
+    {
+        Long size = entries.remove(name);
+        if (size != null)
+            bytes -= size;
+
+        new File(directory, name).delete();
+    }
+
+    /**
+     *   Deletes least recently used entries until the cache fits within
+     *   its byte limit. Must be called while holding the lock.
+     */
+
+    private void trim()
+    {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+
+        while (bytes > maxBytes)
+        {
+            Map.Entry<String, Long> entry = eldest.next();
+
+            bytes -= entry.getValue();
+            eldest.remove();
+            new File(directory, entry.getKey()).delete();
+        }
+    }
+
+    private static String entryName(String source, DerivedImageCache.Key key)
+    {
+        try
+        {
+            String identity = source + "/" + key.getOperation() + Arrays.toString(key.getParameters());
+
+            return digest(identity.getBytes("UTF-8")) + SUFFIX;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte [] bytes)
+    {
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes)
+            text.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+
+        return text.toString();
+    }
+}
@@ -0,0 +1,53 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   Measures the sustained rate of a sequence of events, such as the
+ *   frames of a burst, from the time of the first event to the time of
+ *   the last one.
+ */
+
+public class FrameRateMeter
+{
+    private int frames;
+    private long firstNanos, lastNanos;
+
+    /**
+     *   Records a frame at the current time.
+     */
+
+    public void frame() { frame(System.nanoTime()); }
+
+    /**
+     *   Records a frame.
+     *
+     *   @param nanos
+     *       The time of the frame, as given by System.nanoTime().
+     */
+
+    public void frame(long nanos)
+    {
+        if (frames == 0)
+            firstNanos = nanos;
+        lastNanos = nanos;
+        frames++;
+    }
+
+    public void reset() { frames = 0; }
+    public int getFrameCount() { return frames; }
+
+    /**
+     *   Returns the number of frames per second between the first and
+     *   the last recorded frame.
+     *
+     *   @return
+     *       The frame rate, or 0 if fewer than two frames were recorded.
+     */
+
+    public double getFramesPerSecond()
+    {
+        if (frames < 2 || lastNanos == firstNanos)
+            return 0;
+
+        return (frames - 1) * 1e9 / (lastNanos - firstNanos);
+    }
+}
@@ -0,0 +1,104 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   A platform-independent single-channel image with one unsigned
+ *   byte per pixel. The pixel at (x, y) is stored at index
+ *   y * stride + x of the backing byte array.
+ *
+ *   Single-channel results, such as the a* and b* channels of a
+ *   CIE L*a*b* conversion, need a quarter of the memory of the
+ *   equivalent ArgbImage in this form.
+ */
+
+public class GrayImage implements ImageBuffer
+{
+    private final byte [] pixels;
+    private final int width, height, stride;
+
+    /**
+     *   Allocates a new, all black image whose stride is equal to its
+     *   width.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     */
+
+    public GrayImage(int width, int height)
+    {
+        this(new byte[width * height], width, height, width);
+    }
+
+    /**
+     *   Wraps an existing array of gray levels without copying it.
+     *
+     *   @param pixels
+     *       The backing array, which must hold at least
+     *       (height - 1) * stride + width values.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @param stride
+     *       The number of array entries between the starts of two
+     *       consecutive rows, which must be at least width.
+     */
+
+    public GrayImage(byte [] pixels, int width, int height, int stride)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Image dimensions must be positive: " + width + "x" + height);
+        if (stride < width)
+            throw new IllegalArgumentException("Stride " + stride + " is smaller than width " + width);
+        if (pixels.length < (height - 1) * stride + width)
+            throw new IllegalArgumentException("Pixel array is too small for a " + width + "x" + height + " image");
+
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+
+    public byte [] getPixels() { return pixels; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getStride() { return stride; }
+    public int getByteCount() { return pixels.length; }
+
+    public int getPixel(int x, int y) { return pixels[y * stride + x] & 0xFF; }
+    public void setPixel(int x, int y, int gray) { pixels[y * stride + x] = (byte) gray; }
+
+    /**
+     *   Expands a strip of rows into opaque gray pixels, for display.
+     *
+     *   @param top
+     *       The first row of the strip.
+     *
+     *   @param strip
+     *       The destination, which must be as wide as this image. Its
+     *       height sets the number of rows expanded.
+     */
+
+    public void toArgbStrip(int top, ArgbImage strip)
+    {
+        if (strip.getWidth() != width || top < 0 || top + strip.getHeight() > height)
+            throw new IllegalArgumentException("A " + strip.getWidth() + "x" + strip.getHeight() + " strip at row "
+                    + top + " does not fit a " + width + "x" + height + " image");
+
+        int [] out = strip.getPixels();
+        int outStride = strip.getStride();
+
+        for (int y = 0; y < strip.getHeight(); y++)
+        {
+            int inRow = (top + y) * stride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = 0xFF000000 | (pixels[inRow + x] & 0xFF) * 0x010101;
+        }
+    }
+}
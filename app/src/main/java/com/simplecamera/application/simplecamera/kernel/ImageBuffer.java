@@ -0,0 +1,23 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   The common view of every image representation in this package,
+ *   exposing just enough for containers such as DerivedImageCache to
+ *   account for the memory an image holds.
+ */
+
+public interface ImageBuffer
+{
+    int getWidth();
+    int getHeight();
+
+    /**
+     *   Returns the number of bytes held by the backing array of this
+     *   image, in the spirit of android.graphics.Bitmap.getByteCount().
+     *
+     *   @return
+     *       The size of the pixel storage in bytes.
+     */
+
+    int getByteCount();
+}
@@ -0,0 +1,64 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *   Reads and writes image files for BatchAnalyzer, so that the same
+ *   batch runs over JPEGs through BitmapFactory on a device and over
+ *   any format a desktop JVM can read in tests and benchmarks.
+ *   Implementations are called from several threads at once.
+ */
+
+public interface ImageCodec
+{
+    /**
+     *   @param fileName
+     *       The name of a file in the batch directory.
+     *
+     *   @return
+     *       true if the file is an image this codec decodes.
+     */
+
+    boolean canDecode(String fileName);
+
+    /**
+     *   @param file
+     *       The image file.
+     *
+     *   @return
+     *       The pixels of the image.
+     *
+     *   @throws IOException
+     *       If the file cannot be read or decoded.
+     */
+
+    ArgbImage decode(File file) throws IOException;
+
+    /**
+     *   @param image
+     *       The pixels to encode.
+     *
+     *   @param gray
+     *       true if every pixel is gray, which a codec may use to store a
+     *       single channel.
+     *
+     *   @return
+     *       The encoded image.
+     *
+     *   @throws IOException
+     *       If the image cannot be encoded.
+     */
+
+    byte [] encode(ArgbImage image, boolean gray) throws IOException;
+
+    /**
+     *   @param gray
+     *       Whether the image was encoded as gray.
+     *
+     *   @return
+     *       The file name extension of an encoded image, without a dot.
+     */
+
+    String getExtension(boolean gray);
+}
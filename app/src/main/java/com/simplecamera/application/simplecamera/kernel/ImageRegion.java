@@ -0,0 +1,111 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   An immutable rectangle of pixels, from the column left and the row
+ *   top (inclusive) to the column right and the row bottom (exclusive),
+ *   which restricts an operation to a region of interest.
+ */
+
+public final class ImageRegion
+{
+    private final int left, top, right, bottom;
+
+    /**
+     *   @param left
+     *       The first column of the region.
+     *
+     *   @param top
+     *       The first row of the region.
+     *
+     *   @param right
+     *       The column just past the region.
+     *
+     *   @param bottom
+     *       The row just past the region.
+     */
+
+    public ImageRegion(int left, int top, int right, int bottom)
+    {
+        if (left < 0 || top < 0 || right <= left || bottom <= top)
+            throw new IllegalArgumentException("Invalid region (" + left + ", " + top + ") to ("
+                    + right + ", " + bottom + ")");
+
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     *   Creates the region covering a whole image.
+     *
+     *   @param image
+     *       The image.
+     *
+     *   @return
+     *       A region from (0, 0) to (width, height).
+     */
+
+    public static ImageRegion of(ImageBuffer image)
+    {
+        return new ImageRegion(0, 0, image.getWidth(), image.getHeight());
+    }
+
+    public int getLeft() { return left; }
+    public int getTop() { return top; }
+    public int getRight() { return right; }
+    public int getBottom() { return bottom; }
+    public int getWidth() { return right - left; }
+    public int getHeight() { return bottom - top; }
+    public long getPixelCount() { return (long) getWidth() * getHeight(); }
+
+    /**
+     *   Checks whether this region lies within an image.
+     *
+     *   @param image
+     *       The image.
+     *
+     *   @return
+     *       True if every pixel of the region is a pixel of image.
+     */
+
+    public boolean fitsWithin(ImageBuffer image)
+    {
+        return right <= image.getWidth() && bottom <= image.getHeight();
+    }
+
+    /**
+     *   Checks whether this region covers a whole image.
+     *
+     *   @param image
+     *       The image.
+     *
+     *   @return
+     *       True if the region is exactly the bounds of image.
+     */
+
+    public boolean covers(ImageBuffer image)
+    {
+        return left == 0 && top == 0 && right == image.getWidth() && bottom == image.getHeight();
+    }
+
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof ImageRegion))
+            return false;
+
+        ImageRegion region = (ImageRegion) other;
+
+        return left == region.left && top == region.top && right == region.right && bottom == region.bottom;
+    }
+
+    public int hashCode()
+    {
+        return ((left * 31 + top) * 31 + right) * 31 + bottom;
+    }
+
+    public String toString()
+    {
+        return "(" + left + ", " + top + ") to (" + right + ", " + bottom + ")";
+    }
+}
@@ -0,0 +1,281 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   Histograms of the gray levels and of the encoded CIE L*a*b* channels
+ *   of an image, or of a region of it, from which means, variances,
+ *   extremes and percentiles are derived.
+ *
+ *   All four histograms are gathered in a single pass over the pixels,
+ *   which can also write the L*a*b* image at the same time, so that the
+ *   statistics of a conversion cost no extra trip through memory. The
+ *   histograms of disjoint bands of rows add up to those of their union,
+ *   so every band of a TiledExecutor can fill its own ImageStatistics
+ *   and merge() them afterwards.
+ *
+ *   Every value is in the encoded 0 to 255 range of its channel: gray as
+ *   computed by PixelKernels.luma(), L* scaled from [0, 100], and a* and
+ *   b* offset by 128, as in LabConverter.
+ */
+
+public class ImageStatistics
+{
+    /**
+     *   The channels which statistics are gathered for.
+     */
+
+    public enum Channel { GRAY, L, A, B }
+
+    private static final int LEVELS = 256;
+
+    /**
+     *   The number of bins of all four histograms together.
+     */
+
+    static final int BIN_COUNT = Channel.values().length * LEVELS;
+
+    /**
+     *   The four histograms, one after the other in the order of Channel.
+     */
+
+    private final int [] bins;
+    private long pixelCount;
+
+    public ImageStatistics()
+    {
+        bins = new int[BIN_COUNT];
+    }
+
+    /**
+     *   Restores statistics saved from getBins() and getPixelCount(), as
+     *   DiskResultCache does.
+     *
+     *   @param bins
+     *       The BIN_COUNT bins, which are adopted without copying.
+     *
+     *   @param pixelCount
+     *       The number of pixels counted in each histogram.
+     */
+
+    ImageStatistics(int [] bins, long pixelCount)
+    {
+        if (bins.length != BIN_COUNT)
+            throw new IllegalArgumentException("Expected " + BIN_COUNT + " bins, not " + bins.length);
+
+        this.bins = bins;
+        this.pixelCount = pixelCount;
+    }
+
+    /**
+     *   Adds the pixels of a band of rows of src that lie in a region to
+     *   the statistics, converting them to L*a*b* on the way.
+     *
+     *   @param src
+     *       The sRGB source image.
+     *
+     *   @param region
+     *       The region to gather statistics for, or null for all of src.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public void accumulate(ArgbImage src, ImageRegion region, int firstRow, int lastRow)
+    {
+        accumulate(src, null, false, region, firstRow, lastRow);
+    }
+
+    /**
+     *   Fused variant of accumulate() which also writes the encoded
+     *   L*a*b* representation of every pixel of the band into lab, like
+     *   LabConverter.toLab(), whether or not it lies in the region.
+     *
+     *   @param lab
+     *       The destination image, which must be the same size as src.
+     */
+
+    public void accumulateAndConvert(ArgbImage src, ArgbImage lab, ImageRegion region, int firstRow, int lastRow)
+    {
+        PixelKernels.checkSizes(src, lab);
+        accumulate(src, lab, true, region, firstRow, lastRow);
+    }
+
+    /**
+     *   Variant of accumulate() which reads the L*a*b* channels from an
+     *   image already converted by LabConverter.toLab() rather than
+     *   converting src again.
+     *
+     *   @param lab
+     *       The encoded L*a*b* image of src.
+     */
+
+    public void accumulateFromLab(ArgbImage src, ArgbImage lab, ImageRegion region, int firstRow, int lastRow)
+    {
+        PixelKernels.checkSizes(src, lab);
+        accumulate(src, lab, false, region, firstRow, lastRow);
+    }
+
+    private void accumulate(ArgbImage src, ArgbImage lab, boolean convert, ImageRegion region,
+                            int firstRow, int lastRow)
+    {
+        PixelKernels.checkRows(src, firstRow, lastRow);
+        if (region == null)
+            region = ImageRegion.of(src);
+        else if (!region.fitsWithin(src))
+            throw new IllegalArgumentException("Region " + region + " is outside of a "
+                    + src.getWidth() + "x" + src.getHeight() + " image");
+
+        int width = src.getWidth();
+        int [] in = src.getPixels(), labPixels = lab != null ? lab.getPixels() : null;
+        int inStride = src.getStride(), labStride = lab != null ? lab.getStride() : 0;
+        int left = region.getLeft(), right = region.getRight();
+        int [] bins = this.bins;
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, labRow = y * labStride;
+            boolean inside = y >= region.getTop() && y < region.getBottom();
+
+            if (convert)
+                for (int x = 0; x < width; x++)
+                {
+                    int argb = in[inRow + x], encoded = LabConverter.labPixel(argb);
+
+                    labPixels[labRow + x] = encoded;
+                    if (inside && x >= left && x < right)
+                        count(bins, argb, encoded);
+                }
+            else if (inside)
+                for (int x = left; x < right; x++)
+                {
+                    int argb = in[inRow + x];
+                    count(bins, argb, lab != null ? labPixels[labRow + x] : LabConverter.labPixel(argb));
+                }
+
+            if (inside)
+                pixelCount += right - left;
+        }
+    }
+
+    private static void count(int [] bins, int argb, int lab)
+    {
+        bins[PixelKernels.luma(argb)]++;
+        bins[LEVELS + ((lab >> 16) & 0xFF)]++;
+        bins[2 * LEVELS + ((lab >> 8) & 0xFF)]++;
+        bins[3 * LEVELS + (lab & 0xFF)]++;
+    }
+
+    /**
+     *   Adds the statistics of another, disjoint set of pixels to these.
+     *
+     *   @param other
+     *       The statistics to add, which are left unchanged.
+     */
+
+    public void merge(ImageStatistics other)
+    {
+        for (int i = 0; i < bins.length; i++)
+            bins[i] += other.bins[i];
+
+        pixelCount += other.pixelCount;
+    }
+
+    public long getPixelCount() { return pixelCount; }
+
+    /**
+     *   Exposes the four histograms, one after the other in the order of
+     *   Channel, without copying them.
+     */
+
+    int [] getBins() { return bins; }
+
+    /**
+     *   Copies the histogram of a channel.
+     *
+     *   @param channel
+     *       The channel.
+     *
+     *   @return
+     *       A new array of 256 pixel counts, indexed by encoded value.
+     */
+
+    public int [] getHistogram(Channel channel)
+    {
+        int [] histogram = new int[LEVELS];
+        System.arraycopy(bins, channel.ordinal() * LEVELS, histogram, 0, LEVELS);
+
+        return histogram;
+    }
+
+    public int getMin(Channel channel) { return getPercentile(channel, 0); }
+    public int getMax(Channel channel) { return getPercentile(channel, 1); }
+
+    public double getMean(Channel channel)
+    {
+        checkNotEmpty();
+
+        int offset = channel.ordinal() * LEVELS;
+        long sum = 0;
+
+        for (int level = 0; level < LEVELS; level++)
+            sum += (long) level * bins[offset + level];
+
+        return (double) sum / pixelCount;
+    }
+
+    public double getVariance(Channel channel)
+    {
+        double mean = getMean(channel), squares = 0;
+        int offset = channel.ordinal() * LEVELS;
+
+        for (int level = 0; level < LEVELS; level++)
+            squares += (level - mean) * (level - mean) * bins[offset + level];
+
+        return squares / pixelCount;
+    }
+
+    public double getStandardDeviation(Channel channel) { return Math.sqrt(getVariance(channel)); }
+
+    /**
+     *   Finds the value below which a given fraction of the pixels lie,
+     *   by the nearest-rank method.
+     *
+     *   @param channel
+     *       The channel.
+     *
+     *   @param fraction
+     *       The fraction, from 0 for the minimum to 1 for the maximum;
+     *       0.5 gives the median.
+     *
+     *   @return
+     *       The smallest value v such that at least fraction of the
+     *       pixels have a value of v or less, but at least the minimum.
+     */
+
+    public int getPercentile(Channel channel, double fraction)
+    {
+        checkNotEmpty();
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Fraction " + fraction + " is not between 0 and 1");
+
+        int offset = channel.ordinal() * LEVELS;
+        long rank = Math.max(1, (long) Math.ceil(fraction * pixelCount)), seen = 0;
+
+        for (int level = 0; level < LEVELS; level++)
+        {
+            seen += bins[offset + level];
+            if (seen >= rank)
+                return level;
+        }
+
+        return LEVELS - 1;
+    }
+
+    private void checkNotEmpty()
+    {
+        if (pixelCount == 0)
+            throw new IllegalStateException("No pixels have been accumulated");
+    }
+}
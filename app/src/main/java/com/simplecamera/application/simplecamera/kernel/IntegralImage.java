@@ -0,0 +1,195 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   A summed-area table of a GrayImage, from which the sum of the gray
+ *   levels in any rectangle, and optionally the sum of their squares,
+ *   can be read in constant time.
+ *
+ *   The table has one more row and column than the image; entry
+ *   (x, y) holds the sum over every pixel above and to the left of
+ *   (x, y). The entries are ints and are allowed to overflow: since a
+ *   rectangle sum is a difference of four entries, two's complement
+ *   wraparound still gives the exact result as long as the rectangle's
+ *   own sum fits in an int. That holds for rectangles of up to
+ *   MAX_SUM_AREA pixels, and of up to MAX_SQUARE_AREA pixels for sums
+ *   of squares, and keeps the table at four bytes per pixel even for
+ *   full resolution captures.
+ */
+
+public class IntegralImage
+{
+    public static final int MAX_SUM_AREA = Integer.MAX_VALUE / 255;
+    public static final int MAX_SQUARE_AREA = Integer.MAX_VALUE / (255 * 255);
+
+    private final int [] sums, squares;
+    private final int width, height;
+
+    /**
+     *   Allocates a table for images of a given size.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @param withSquares
+     *       Whether sums of squares are needed as well, as they are for
+     *       standard deviations.
+     */
+
+    public IntegralImage(int width, int height, boolean withSquares)
+    {
+        this(new int[getTableSize(width, height)], withSquares ? new int[getTableSize(width, height)] : null,
+                width, height);
+    }
+
+    /**
+     *   Wraps existing arrays, for example ones drawn from a
+     *   PixelBufferPool, without clearing them.
+     *
+     *   @param sums
+     *       The table of sums, holding at least getTableSize() entries.
+     *
+     *   @param squares
+     *       The table of sums of squares, holding at least getTableSize()
+     *       entries, or null.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     */
+
+    public IntegralImage(int [] sums, int [] squares, int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Image dimensions must be positive: " + width + "x" + height);
+        if (sums.length < getTableSize(width, height) || (squares != null && squares.length < sums.length))
+            throw new IllegalArgumentException("Tables are too small for a " + width + "x" + height + " image");
+
+        this.sums = sums;
+        this.squares = squares;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     *   Computes the number of entries in the table of an image.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @return
+     *       (width + 1) * (height + 1).
+     */
+
+    public static int getTableSize(int width, int height)
+    {
+        return (width + 1) * (height + 1);
+    }
+
+    public int [] getSums() { return sums; }
+    public int [] getSquares() { return squares; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public boolean hasSquares() { return squares != null; }
+
+    /**
+     *   Fills the table from an image in a single pass.
+     *
+     *   @param src
+     *       The image, which must be the size of the table.
+     */
+
+    public void compute(GrayImage src)
+    {
+        if (src.getWidth() != width || src.getHeight() != height)
+            throw new IllegalArgumentException("Image is " + src.getWidth() + "x" + src.getHeight()
+                    + " but the table is for " + width + "x" + height);
+
+        int tableStride = width + 1, inStride = src.getStride();
+        byte [] in = src.getPixels();
+
+        for (int x = 0; x <= width; x++)
+            sums[x] = 0;
+        if (squares != null)
+            for (int x = 0; x <= width; x++)
+                squares[x] = 0;
+
+        for (int y = 0; y < height; y++)
+        {
+            int inRow = y * inStride, above = y * tableStride, row = above + tableStride;
+            int rowSum = 0, rowSquares = 0;
+
+            sums[row] = 0;
+            if (squares != null)
+                squares[row] = 0;
+
+            for (int x = 0; x < width; x++)
+            {
+                int value = in[inRow + x] & 0xFF;
+
+                rowSum += value;
+                sums[row + x + 1] = sums[above + x + 1] + rowSum;
+
+                if (squares != null)
+                {
+                    rowSquares += value * value;
+                    squares[row + x + 1] = squares[above + x + 1] + rowSquares;
+                }
+            }
+        }
+    }
+
+    /**
+     *   Sums the gray levels of a rectangle.
+     *
+     *   @param left
+     *       The first column of the rectangle.
+     *
+     *   @param top
+     *       The first row of the rectangle.
+     *
+     *   @param right
+     *       The column just past the rectangle.
+     *
+     *   @param bottom
+     *       The row just past the rectangle.
+     *
+     *   @return
+     *       The sum, which is exact for rectangles of up to MAX_SUM_AREA
+     *       pixels.
+     */
+
+    public int sum(int left, int top, int right, int bottom)
+    {
+        return rectangle(sums, left, top, right, bottom);
+    }
+
+    /**
+     *   Sums the squared gray levels of a rectangle.
+     *
+     *   @return
+     *       The sum, which is exact for rectangles of up to
+     *       MAX_SQUARE_AREA pixels.
+     *
+     *   @see #sum(int, int, int, int)
+     */
+
+    public int sumOfSquares(int left, int top, int right, int bottom)
+    {
+        return rectangle(squares, left, top, right, bottom);
+    }
+
+    private int rectangle(int [] table, int left, int top, int right, int bottom)
+    {
+        int stride = width + 1, upper = top * stride, lower = bottom * stride;
+
+        return table[lower + right] - table[lower + left] - table[upper + right] + table[upper + left];
+    }
+}
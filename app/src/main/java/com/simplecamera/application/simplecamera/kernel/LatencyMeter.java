@@ -0,0 +1,87 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.Locale;
+
+/**
+ *   Measures the latency of a recurring operation, such as opening the
+ *   camera or waiting for a picture, from the intervals between its start
+ *   and its end. Intervals may be recorded from any thread.
+ */
+
+public class LatencyMeter
+{
+    private final String name;
+    private int count;
+    private long lastNanos, totalNanos, minNanos = Long.MAX_VALUE, maxNanos;
+
+    /**
+     *   @param name
+     *       The name of the operation, which heads toString().
+     */
+
+    public LatencyMeter(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     *   Records an interval which ends at the current time.
+     *
+     *   @param startNanos
+     *       The start of the interval, as given by System.nanoTime().
+     *
+     *   @return
+     *       The length of the interval in nanoseconds.
+     */
+
+    public long stop(long startNanos) { return record(System.nanoTime() - startNanos); }
+
+    /**
+     *   Records an interval.
+     *
+     *   @param nanos
+     *       The length of the interval in nanoseconds.
+     *
+     *   @return
+     *       nanos.
+     */
+
+    public synchronized long record(long nanos)
+    {
+        count++;
+        lastNanos = nanos;
+        totalNanos += nanos;
+        minNanos = Math.min(minNanos, nanos);
+        maxNanos = Math.max(maxNanos, nanos);
+
+        return nanos;
+    }
+
+    public synchronized void reset()
+    {
+        count = 0;
+        lastNanos = totalNanos = maxNanos = 0;
+        minNanos = Long.MAX_VALUE;
+    }
+
+    public String getName() { return name; }
+    public synchronized int getCount() { return count; }
+
+    /*
+
+        Every latency below is in milliseconds, and 0 until an interval
+        has been recorded.
+
+    */
+
+    public synchronized double getLastMillis() { return lastNanos / 1e6; }
+    public synchronized double getMinMillis() { return count == 0 ? 0 : minNanos / 1e6; }
+    public synchronized double getMaxMillis() { return maxNanos / 1e6; }
+    public synchronized double getMeanMillis() { return count == 0 ? 0 : totalNanos / 1e6 / count; }
+
+    public synchronized String toString()
+    {
+        return String.format(Locale.US, "%s: last %.1f ms, mean %.1f ms, min %.1f ms, max %.1f ms over %d",
+                name, getLastMillis(), getMeanMillis(), getMinMillis(), getMaxMillis(), count);
+    }
+}
@@ -0,0 +1,389 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ *   A process-wide registry of named timers, counters and gauges for the
+ *   hot paths of capture and analysis, with a ring buffer of the most
+ *   recent events which can be dumped, and an optional Tracer which
+ *   mirrors every timed section, such as android.os.Trace.
+ *
+ *   Metrics are off until setEnabled(true). While they are off every
+ *   method returns after reading a single volatile field, and callers
+ *   pass names which are compile-time constants, so instrumentation
+ *   costs next to nothing and can stay in production code. A section is
+ *   timed with
+ *
+ *       long start = Metrics.start(NAME);
+ *       ...
+ *       Metrics.stop(NAME, start);
+ *
+ *   where a start of 0 stands for a section begun while metrics were
+ *   off, which stop() ignores. Sections must nest on each thread, as
+ *   they do for android.os.Trace. Every method may be called from any
+ *   thread.
+ */
+
+public final class Metrics
+{
+    /**
+     *   Receives the timed sections, on the thread which runs them.
+     */
+
+    public interface Tracer
+    {
+        void beginSection(String name);
+        void endSection();
+    }
+
+    /**
+     *   The number of recent events kept for dump().
+     */
+
+    public static final int RING_SIZE = 256;
+
+    private static final byte TIMER = 0, COUNTER = 1, GAUGE = 2;
+
+    private static volatile boolean enabled;
+    private static volatile Tracer tracer;
+
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Gauge> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    /*
+
+        The ring buffer is held in parallel arrays, so that recording an
+        event allocates nothing.
+
+    */
+
+    private static final String [] eventNames = new String[RING_SIZE];
+    private static final byte [] eventKinds = new byte[RING_SIZE];
+    private static final long [] eventTimes = new long[RING_SIZE], eventValues = new long[RING_SIZE],
+            eventPixels = new long[RING_SIZE];
+    private static long eventCount;
+
+    private Metrics() {}
+
+    /**
+     *   The accumulated durations of a timed section.
+     */
+
+    public static final class Timer
+    {
+        private final String name;
+        private long count, totalNanos, maxNanos, pixels;
+
+        Timer(String name) { this.name = name; }
+
+        synchronized void record(long nanos, long pixelCount)
+        {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            pixels += pixelCount;
+        }
+
+        public String getName() { return name; }
+        public synchronized long getCount() { return count; }
+        public synchronized long getTotalNanos() { return totalNanos; }
+        public synchronized long getMaxNanos() { return maxNanos; }
+        public synchronized long getPixels() { return pixels; }
+        public synchronized double getMeanMillis() { return count == 0 ? 0 : totalNanos / 1e6 / count; }
+
+        /**
+         *   @return
+         *       The pixels processed per second of the section, in
+         *       millions, or 0 if it was timed without a pixel count.
+         */
+
+        public synchronized double getMegapixelsPerSecond()
+        {
+            return totalNanos == 0 ? 0 : pixels * 1e3 / totalNanos;
+        }
+
+        public synchronized String toString()
+        {
+            String text = String.format(Locale.US, "%s: %d, mean %.2f ms, max %.2f ms, total %.1f ms",
+                    name, count, getMeanMillis(), maxNanos / 1e6, totalNanos / 1e6);
+
+            return pixels == 0 ? text : text + String.format(Locale.US, ", %.1f MP/s", getMegapixelsPerSecond());
+        }
+    }
+
+    /**
+     *   The running total of a counter, or the last and largest values
+     *   of a gauge.
+     */
+
+    public static final class Gauge
+    {
+        private final String name;
+        private long value, max;
+
+        Gauge(String name) { this.name = name; }
+
+        synchronized void add(long delta)
+        {
+            value += delta;
+            max = Math.max(max, value);
+        }
+
+        synchronized void set(long newValue)
+        {
+            value = newValue;
+            max = Math.max(max, newValue);
+        }
+
+        public String getName() { return name; }
+        public synchronized long getValue() { return value; }
+        public synchronized long getMax() { return max; }
+
+        public synchronized String toString() { return name + ": " + value + ", max " + max; }
+    }
+
+    public static void setEnabled(boolean on) { enabled = on; }
+    public static boolean isEnabled() { return enabled; }
+
+    /**
+     *   @param newTracer
+     *       The tracer which every timed section is mirrored to, or null.
+     */
+
+    public static void setTracer(Tracer newTracer) { tracer = newTracer; }
+
+    /**
+     *   Begins a timed section.
+     *
+     *   @param name
+     *       The name of the section.
+     *
+     *   @return
+     *       The start time to hand to stop(), or 0 if metrics are off.
+     */
+
+    public static long start(String name)
+    {
+        if (!enabled)
+            return 0;
+
+        Tracer current = tracer;
+        if (current != null)
+            current.beginSection(name);
+
+        return System.nanoTime();
+    }
+
+    /**
+     *   Ends a timed section begun by start().
+     *
+     *   @param name
+     *       The name of the section.
+     *
+     *   @param startNanos
+     *       The value returned by start().
+     */
+
+    public static void stop(String name, long startNanos)
+    {
+        stop(name, startNanos, 0);
+    }
+
+    /**
+     *   Ends a timed section which processed a number of pixels, so that
+     *   its rate in megapixels per second is tracked as well.
+     *
+     *   @param pixels
+     *       The number of pixels the section processed.
+     */
+
+    public static void stop(String name, long startNanos, long pixels)
+    {
+        if (startNanos == 0)
+            return;
+
+        long nanos = System.nanoTime() - startNanos;
+
+        Tracer current = tracer;
+        if (current != null)
+            current.endSection();
+
+        timer(name).record(nanos, pixels);
+        log(TIMER, name, nanos, pixels);
+    }
+
+    /**
+     *   Records an interval which was measured elsewhere, such as one
+     *   which begins and ends in different callbacks and so cannot be a
+     *   nested section. It is not mirrored to the tracer.
+     *
+     *   @param name
+     *       The name of the timer.
+     *
+     *   @param nanos
+     *       The length of the interval in nanoseconds.
+     */
+
+    public static void record(String name, long nanos)
+    {
+        if (!enabled)
+            return;
+
+        timer(name).record(nanos, 0);
+        log(TIMER, name, nanos, 0);
+    }
+
+    /**
+     *   Adds to a counter.
+     *
+     *   @param name
+     *       The name of the counter.
+     *
+     *   @param delta
+     *       The amount to add, such as 1 for an event or a number of bytes.
+     */
+
+    public static void count(String name, long delta)
+    {
+        if (!enabled)
+            return;
+
+        gauge(counters, name).add(delta);
+        log(COUNTER, name, delta, 0);
+    }
+
+    /**
+     *   Sets a gauge, such as the size of an allocation, keeping track of
+     *   its largest value.
+     *
+     *   @param name
+     *       The name of the gauge.
+     *
+     *   @param value
+     *       The current value.
+     */
+
+    public static void gauge(String name, long value)
+    {
+        if (!enabled)
+            return;
+
+        gauge(gauges, name).set(value);
+        log(GAUGE, name, value, 0);
+    }
+
+    public static Timer getTimer(String name) { return timers.get(name); }
+    public static Gauge getCounter(String name) { return counters.get(name); }
+    public static Gauge getGauge(String name) { return gauges.get(name); }
+
+    /**
+     *   Describes every timer, counter and gauge, followed by the most
+     *   recent events with their times relative to the last one.
+     *
+     *   @return
+     *       A multi-line report.
+     */
+
+    public static String dump()
+    {
+        StringBuilder report = new StringBuilder();
+
+        for (Timer timer : new TreeMap<>(timers).values())
+            report.append(timer).append('\n');
+        for (Gauge counter : new TreeMap<>(counters).values())
+            report.append(counter).append('\n');
+        for (Gauge gauge : new TreeMap<>(gauges).values())
+            report.append(gauge).append('\n');
+
+        List<String> events = getRecentEvents();
+        if (!events.isEmpty())
+            report.append("Recent events:\n");
+        for (String event : events)
+            report.append(event).append('\n');
+
+        return report.toString();
+    }
+
+    /**
+     *   @return
+     *       Up to RING_SIZE of the most recent events, oldest first.
+     */
+
+    public static synchronized List<String> getRecentEvents()
+    {
+        int size = (int) Math.min(eventCount, RING_SIZE);
+        List<String> events = new ArrayList<>(size);
+        long last = size == 0 ? 0 : eventTimes[(int)((eventCount - 1) % RING_SIZE)];
+
+        for (long i = eventCount - size; i < eventCount; i++)
+        {
+            int slot = (int)(i % RING_SIZE);
+            double ago = (last - eventTimes[slot]) / 1e6;
+
+            if (eventKinds[slot] == TIMER)
+                events.add(String.format(Locale.US, "-%.1f ms %s %.2f ms%s", ago, eventNames[slot],
+                        eventValues[slot] / 1e6, eventPixels[slot] == 0 ? ""
+                                : String.format(Locale.US, " %.2f MP", eventPixels[slot] / 1e6)));
+            else
+                events.add(String.format(Locale.US, "-%.1f ms %s %s %d", ago, eventNames[slot],
+                        eventKinds[slot] == COUNTER ? "+" : "=", eventValues[slot]));
+        }
+
+        return events;
+    }
+
+    /**
+     *   Forgets every metric and event.
+     */
+
+    public static synchronized void reset()
+    {
+        timers.clear();
+        counters.clear();
+        gauges.clear();
+        eventCount = 0;
+    }
+
+    private static Timer timer(String name)
+    {
+        Timer timer = timers.get(name);
+
+        if (timer == null)
+        {
+            timers.putIfAbsent(name, new Timer(name));
+            timer = timers.get(name);
+        }
+
+        return timer;
+    }
+
+    private static Gauge gauge(ConcurrentMap<String, Gauge> map, String name)
+    {
+        Gauge gauge = map.get(name);
+
+        if (gauge == null)
+        {
+            map.putIfAbsent(name, new Gauge(name));
+            gauge = map.get(name);
+        }
+
+        return gauge;
+    }
+
+    private static synchronized void log(byte kind, String name, long value, long pixels)
+    {
+        int slot = (int)(eventCount++ % RING_SIZE);
+
+        eventKinds[slot] = kind;
+        eventNames[slot] = name;
+        eventTimes[slot] = System.nanoTime();
+        eventValues[slot] = value;
+        eventPixels[slot] = pixels;
+    }
+}
@@ -0,0 +1,99 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   A platform-independent YUV 4:2:0 image in the NV21 layout delivered
+ *   by android.hardware.Camera preview callbacks: a full resolution plane
+ *   of luma (Y) bytes, followed by a plane of interleaved V and U bytes
+ *   subsampled by two in both directions.
+ *
+ *   The luma of the pixel at (x, y) is stored at index y * width + x, and
+ *   its V and U samples at getChromaOffset() + (y / 2) * getChromaStride()
+ *   + (x & ~1) and the index just after it.
+ */
+
+public class Nv21Image implements ImageBuffer
+{
+    private final byte [] data;
+    private final int width, height;
+
+    /**
+     *   Allocates a new image.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     */
+
+    public Nv21Image(int width, int height)
+    {
+        this(new byte[getBufferSize(width, height)], width, height);
+    }
+
+    /**
+     *   Wraps an existing NV21 buffer without copying it.
+     *
+     *   @param data
+     *       The backing array, which must hold at least
+     *       getBufferSize(width, height) bytes.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     */
+
+    public Nv21Image(byte [] data, int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Image dimensions must be positive: " + width + "x" + height);
+        if (data.length < getBufferSize(width, height))
+            throw new IllegalArgumentException("NV21 buffer is too small for a " + width + "x" + height + " image");
+
+        this.data = data;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     *   Computes the number of bytes an NV21 image of a given size needs.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @return
+     *       The size of the luma plane plus the interleaved chroma plane.
+     */
+
+    public static int getBufferSize(int width, int height)
+    {
+        return width * height + ((width + 1) / 2) * ((height + 1) / 2) * 2;
+    }
+
+    public byte [] getData() { return data; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getByteCount() { return data.length; }
+    public int getChromaOffset() { return width * height; }
+    public int getChromaStride() { return ((width + 1) / 2) * 2; }
+
+    public int getLuma(int x, int y) { return data[y * width + x] & 0xFF; }
+
+    /**
+     *   Wraps the luma plane as a GrayImage, without copying it, so that
+     *   the kernels for single-channel images can read it directly.
+     *
+     *   @return
+     *       A GrayImage sharing the data of this image.
+     */
+
+    public GrayImage getLumaPlane()
+    {
+        return new GrayImage(data, width, height, width);
+    }
+}
@@ -0,0 +1,782 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *   A lazily evaluated graph of per-pixel operations on an ArgbImage,
+ *   such as source, L*a*b*, a* channel, threshold and histogram, built
+ *   with the chainable methods of Node and only run by run().
+ *
+ *   Nothing is computed while the graph is built. When it runs, only the
+ *   nodes which lead to an Output are evaluated, a row at a time: every
+ *   row of the source is copied into a row buffer and passed through all
+ *   the stages before the next row is read, and a chain of stages with
+ *   no branches or outputs in between works in place on the same buffer.
+ *   Adjacent stages which have a combined form are fused into one, so
+ *   L*a*b* followed by a channel becomes the single-channel conversion of
+ *   LabConverter and consecutive lookups become a single table. Only the
+ *   outputs are written to image-sized memory.
+ *
+ *   A graph may be run any number of times; outputs of the same size as
+ *   the previous run are reused.
+ */
+
+public class Pipeline
+{
+    /**
+     *   The kind of value a node holds for every pixel.
+     */
+
+    public enum Format
+    {
+        /** A packed ARGB pixel. */
+        COLOR,
+
+        /** A packed, encoded L*a*b* pixel as written by LabConverter. */
+        LAB,
+
+        /** A single level between 0 and 255. */
+        GRAY,
+
+        /** A GRAY level which is either 0 or 255. */
+        BINARY
+    }
+
+    /**
+     *   A recipe which builds a result from the source of any Pipeline,
+     *   so that the same operation can be run over many images.
+     */
+
+    public interface Composition
+    {
+        /**
+         *   @param source
+         *       The source node of a Pipeline.
+         *
+         *   @return
+         *       The node holding the result, or null if there is none.
+         */
+
+        Node compose(Node source);
+    }
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Output<?>> outputs = new ArrayList<>();
+    private final Node source;
+    private Program program;
+
+    public Pipeline()
+    {
+        source = new Node(this, null, Format.COLOR, null);
+    }
+
+    /**
+     *   @return
+     *       The node holding the pixels of the image the graph runs on.
+     */
+
+    public Node source() { return source; }
+
+    /**
+     *   Runs the graph on an image with the default TiledExecutor.
+     *
+     *   @param src
+     *       The source image.
+     */
+
+    public void run(ArgbImage src) { run(src, TiledExecutor.getDefault(), null); }
+
+    /**
+     *   Runs the graph on an image, filling every Output.
+     *
+     *   @param src
+     *       The source image.
+     *
+     *   @param executor
+     *       The executor which processes the rows of the image.
+     *
+     *   @param token
+     *       A token which abandons the run once cancelled, or null.
+     *
+     *   @throws IllegalStateException
+     *       If the graph has no outputs.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the run completes. The outputs
+     *       are only partly written in that case.
+     */
+
+    public void run(final ArgbImage src, TiledExecutor executor, CancellationToken token)
+    {
+        if (outputs.isEmpty())
+            throw new IllegalStateException("The pipeline has no outputs");
+
+        if (program == null)
+            program = new Program(this, outputs);
+
+        for (Output<?> output : outputs)
+            output.prepare(src.getWidth(), src.getHeight());
+
+        final Program runProgram = program;
+
+        executor.execute(src.getHeight(), new RowKernel()
+        {
+            public void processRows(int firstRow, int lastRow)
+            {
+                runProgram.processRows(src, null, firstRow, lastRow);
+            }
+        }, token);
+    }
+
+    private Node add(Node parent, Format format, Stage stage)
+    {
+        if (parent.pipeline != this)
+            throw new IllegalArgumentException("The node belongs to another pipeline");
+
+        program = null;
+
+        return new Node(this, parent, format, stage);
+    }
+
+    private <T> Output<T> add(Output<T> output)
+    {
+        if (output.node.pipeline != this)
+            throw new IllegalArgumentException("The node belongs to another pipeline");
+
+        program = null;
+        outputs.add(output);
+
+        return output;
+    }
+
+    /**
+     *   A value of every pixel of the source, computed from its parent by
+     *   a single per-pixel stage. The methods which add a stage return a
+     *   new Node and leave this one as it is, so a node may feed several
+     *   branches.
+     */
+
+    public static final class Node
+    {
+        private final Pipeline pipeline;
+        private final Node parent;
+        private final Format format;
+        private final Stage stage;
+        private final int index;
+
+        private Node(Pipeline pipeline, Node parent, Format format, Stage stage)
+        {
+            this.pipeline = pipeline;
+            this.parent = parent;
+            this.format = format;
+            this.stage = stage;
+            this.index = pipeline.nodes.size();
+            pipeline.nodes.add(this);
+        }
+
+        public Pipeline getPipeline() { return pipeline; }
+        public Format getFormat() { return format; }
+
+        /**
+         *   @return
+         *       The gray level of every COLOR pixel, as PixelKernels.luma()
+         *       computes it.
+         */
+
+        public Node gray() { return channel(ImageStatistics.Channel.GRAY); }
+
+        /**
+         *   @return
+         *       The encoded L*a*b* value of every COLOR pixel.
+         */
+
+        public Node lab()
+        {
+            require("lab()", Format.COLOR);
+
+            return pipeline.add(this, Format.LAB, new LabStage());
+        }
+
+        /**
+         *   Extracts a single channel. The GRAY channel is computed from
+         *   COLOR pixels; L*, a* and b* from LAB pixels, or straight from
+         *   COLOR pixels with only the components they need.
+         *
+         *   @param channel
+         *       The channel to extract.
+         *
+         *   @return
+         *       The channel as GRAY levels.
+         */
+
+        public Node channel(ImageStatistics.Channel channel)
+        {
+            if (channel == ImageStatistics.Channel.GRAY)
+            {
+                require("channel(GRAY)", Format.COLOR);
+                return pipeline.add(this, Format.GRAY, new LumaStage());
+            }
+
+            if (format == Format.LAB)
+                return pipeline.add(this, Format.GRAY, new LabChannelStage(channel));
+
+            require("channel(" + channel + ")", Format.COLOR);
+
+            return pipeline.add(this, Format.GRAY, new ColorChannelStage(channel));
+        }
+
+        /**
+         *   @param level
+         *       The level at and above which a pixel becomes white.
+         *
+         *   @return
+         *       255 for every GRAY level of at least level, 0 otherwise.
+         */
+
+        public Node threshold(int level)
+        {
+            int [] table = new int[256];
+
+            for (int value = Math.max(0, level); value < 256; value++)
+                table[value] = 255;
+
+            return lookup("threshold()", table, Format.BINARY);
+        }
+
+        /**
+         *   @return
+         *       255 minus every GRAY level, which keeps a BINARY node
+         *       BINARY.
+         */
+
+        public Node invert()
+        {
+            int [] table = new int[256];
+
+            for (int value = 0; value < 256; value++)
+                table[value] = 255 - value;
+
+            return lookup("invert()", table, format);
+        }
+
+        /**
+         *   @param table
+         *       The new level of every GRAY level, 256 values between 0
+         *       and 255. The table is copied.
+         *
+         *   @return
+         *       table[level] for every GRAY level.
+         */
+
+        public Node map(int [] table)
+        {
+            if (table.length != 256)
+                throw new IllegalArgumentException("A lookup table needs 256 entries, got " + table.length);
+
+            for (int value : table)
+                if (value < 0 || value > 255)
+                    throw new IllegalArgumentException("Lookup table value " + value + " is not a gray level");
+
+            return lookup("map()", table.clone(), Format.GRAY);
+        }
+
+        /**
+         *   @return
+         *       An output holding every COLOR or LAB pixel as it is, and
+         *       every GRAY level as an opaque gray pixel.
+         */
+
+        public Output<ArgbImage> toArgb() { return pipeline.add(new ArgbOutput(this)); }
+
+        /**
+         *   @return
+         *       An output holding every GRAY level in one byte.
+         */
+
+        public Output<GrayImage> toGray()
+        {
+            require("toGray()", Format.GRAY);
+
+            return pipeline.add(new GrayOutput(this));
+        }
+
+        /**
+         *   @return
+         *       An output holding every BINARY level in one bit, set for
+         *       255.
+         */
+
+        public Output<BitMask> toMask()
+        {
+            require("toMask()", Format.BINARY);
+
+            return pipeline.add(new MaskOutput(this));
+        }
+
+        /**
+         *   @return
+         *       An output counting the pixels of every GRAY level, in
+         *       256 bins.
+         */
+
+        public Output<int []> histogram()
+        {
+            require("histogram()", Format.GRAY);
+
+            return pipeline.add(new HistogramOutput(this));
+        }
+
+        /**
+         *   Evaluates this node alone over the strips of a StripStreamer,
+         *   writing it into every destination strip as toArgb() would.
+         *   The kernel holds a snapshot of the graph as it is now.
+         *
+         *   @return
+         *       A StripKernel which writes this node into dst.
+         */
+
+        public StripKernel asStripKernel()
+        {
+            List<Output<?>> strip = new ArrayList<>();
+            strip.add(new ArgbOutput(this));
+            final Program stripProgram = new Program(pipeline, strip);
+
+            return new StripKernel()
+            {
+                public void processRows(ArgbImage src, ArgbImage dst, int firstRow, int lastRow)
+                {
+                    if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight())
+                        throw new IllegalArgumentException("Source is " + src.getWidth() + "x" + src.getHeight()
+                                + " but destination is " + dst.getWidth() + "x" + dst.getHeight());
+
+                    stripProgram.processRows(src, dst, firstRow, lastRow);
+                }
+            };
+        }
+
+        private Node lookup(String operation, int [] table, Format result)
+        {
+            require(operation, Format.GRAY);
+
+            return pipeline.add(this, result, new LookupStage(table));
+        }
+
+        private void require(String operation, Format required)
+        {
+            boolean matches = format == required || required == Format.GRAY && format == Format.BINARY;
+
+            if (!matches)
+                throw new IllegalStateException(operation + " needs a " + required + " node, not " + format);
+        }
+    }
+
+    /**
+     *   A result of the graph, which is only written when the graph runs.
+     *
+     *   @param <T>
+     *       The type of the result.
+     */
+
+    public abstract static class Output<T>
+    {
+        final Node node;
+        T result;
+
+        Output(Node node) { this.node = node; }
+
+        /**
+         *   @return
+         *       The result of the last run, or null before the first one.
+         */
+
+        public T get() { return result; }
+
+        /**
+         *   Makes the result ready for an image of the given size.
+         */
+
+        abstract void prepare(int width, int height);
+
+        /**
+         *   Starts a band of rows, which may run on any thread.
+         *
+         *   @param strip
+         *       The destination passed to a StripKernel, or null.
+         *
+         *   @return
+         *       The state passed to write() and closeBand() for the band.
+         */
+
+        abstract Object openBand(ArgbImage strip);
+
+        abstract void write(Object band, int [] values, int width, int y);
+
+        void closeBand(Object band) {}
+    }
+
+    private static final class ArgbOutput extends Output<ArgbImage>
+    {
+        ArgbOutput(Node node) { super(node); }
+
+        void prepare(int width, int height)
+        {
+            if (result == null || result.getWidth() != width || result.getHeight() != height)
+                result = new ArgbImage(width, height);
+        }
+
+        Object openBand(ArgbImage strip) { return strip != null ? strip : result; }
+
+        void write(Object band, int [] values, int width, int y)
+        {
+            ArgbImage image = (ArgbImage) band;
+            int [] out = image.getPixels();
+            int outRow = y * image.getStride();
+
+            if (node.format == Format.COLOR || node.format == Format.LAB)
+                System.arraycopy(values, 0, out, outRow, width);
+            else
+                for (int x = 0; x < width; x++)
+                    out[outRow + x] = 0xFF000000 | values[x] * 0x010101;
+        }
+    }
+
+    private static final class GrayOutput extends Output<GrayImage>
+    {
+        GrayOutput(Node node) { super(node); }
+
+        void prepare(int width, int height)
+        {
+            if (result == null || result.getWidth() != width || result.getHeight() != height)
+                result = new GrayImage(width, height);
+        }
+
+        Object openBand(ArgbImage strip) { return result; }
+
+        void write(Object band, int [] values, int width, int y)
+        {
+            byte [] out = result.getPixels();
+            int outRow = y * result.getStride();
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = (byte) values[x];
+        }
+    }
+
+    private static final class MaskOutput extends Output<BitMask>
+    {
+        MaskOutput(Node node) { super(node); }
+
+        void prepare(int width, int height)
+        {
+            if (result == null || result.getWidth() != width || result.getHeight() != height)
+                result = new BitMask(width, height);
+        }
+
+        Object openBand(ArgbImage strip) { return result; }
+
+        void write(Object band, int [] values, int width, int y)
+        {
+            long [] out = result.getWords();
+            int wordsPerRow = result.getWordsPerRow(), outRow = y * wordsPerRow;
+
+            for (int word = 0; word < wordsPerRow; word++)
+            {
+                int start = word << 6, end = Math.min(start + 64, width);
+                long bits = 0;
+
+                for (int x = start; x < end; x++)
+                    bits |= (long)(values[x] >>> 7) << x;
+
+                out[outRow + word] = bits;
+            }
+        }
+    }
+
+    private static final class HistogramOutput extends Output<int []>
+    {
+        HistogramOutput(Node node) { super(node); }
+
+        void prepare(int width, int height)
+        {
+            result = new int[256];
+        }
+
+        Object openBand(ArgbImage strip) { return new int[256]; }
+
+        void write(Object band, int [] values, int width, int y)
+        {
+            int [] bins = (int []) band;
+
+            for (int x = 0; x < width; x++)
+                bins[values[x]]++;
+        }
+
+        void closeBand(Object band)
+        {
+            int [] bins = (int []) band;
+
+            synchronized (this)
+            {
+                for (int level = 0; level < 256; level++)
+                    result[level] += bins[level];
+            }
+        }
+    }
+
+    /**
+     *   A per-pixel operation which replaces every value of a row buffer.
+     */
+
+    private abstract static class Stage
+    {
+        abstract void apply(int [] values, int width);
+
+        /**
+         *   @return
+         *       A single stage equivalent to this one followed by next, or
+         *       null if there is none.
+         */
+
+        Stage fuse(Stage next) { return null; }
+    }
+
+    private static final class LumaStage extends Stage
+    {
+        void apply(int [] values, int width)
+        {
+            for (int x = 0; x < width; x++)
+                values[x] = PixelKernels.luma(values[x]);
+        }
+    }
+
+    private static final class LabStage extends Stage
+    {
+        void apply(int [] values, int width)
+        {
+            for (int x = 0; x < width; x++)
+                values[x] = LabConverter.labPixel(values[x]);
+        }
+
+        Stage fuse(Stage next)
+        {
+            return next instanceof LabChannelStage ? new ColorChannelStage(((LabChannelStage) next).channel) : null;
+        }
+    }
+
+    private static final class LabChannelStage extends Stage
+    {
+        final ImageStatistics.Channel channel;
+        final int shift;
+
+        LabChannelStage(ImageStatistics.Channel channel)
+        {
+            this.channel = channel;
+            this.shift = channel == ImageStatistics.Channel.L ? 16 : channel == ImageStatistics.Channel.A ? 8 : 0;
+        }
+
+        void apply(int [] values, int width)
+        {
+            for (int x = 0; x < width; x++)
+                values[x] = (values[x] >> shift) & 0xFF;
+        }
+    }
+
+    /**
+     *   The L*, a* or b* channel computed straight from sRGB, evaluating
+     *   only the XYZ components the channel needs.
+     */
+
+    private static final class ColorChannelStage extends Stage
+    {
+        final ImageStatistics.Channel channel;
+
+        ColorChannelStage(ImageStatistics.Channel channel) { this.channel = channel; }
+
+        void apply(int [] values, int width)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int argb = values[x];
+                int red = (argb >> 16) & 0xFF, green = (argb >> 8) & 0xFF, blue = argb & 0xFF;
+                int fy = LabConverter.fY(red, green, blue);
+
+                if (channel == ImageStatistics.Channel.L)
+                    values[x] = LabConverter.encodeL(fy);
+                else if (channel == ImageStatistics.Channel.A)
+                    values[x] = LabConverter.encodeA(LabConverter.fX(red, green, blue), fy);
+                else
+                    values[x] = LabConverter.encodeB(fy, LabConverter.fZ(red, green, blue));
+            }
+        }
+    }
+
+    private static final class LookupStage extends Stage
+    {
+        final int [] table;
+
+        LookupStage(int [] table) { this.table = table; }
+
+        void apply(int [] values, int width)
+        {
+            for (int x = 0; x < width; x++)
+                values[x] = table[values[x]];
+        }
+
+        Stage fuse(Stage next)
+        {
+            if (!(next instanceof LookupStage))
+                return null;
+
+            int [] composed = new int[256], second = ((LookupStage) next).table;
+
+            for (int value = 0; value < 256; value++)
+                composed[value] = second[table[value]];
+
+            return new LookupStage(composed);
+        }
+    }
+
+    /**
+     *   A run of stages which reads one row buffer and leaves its result
+     *   in another, or in the same one.
+     */
+
+    private static final class Step
+    {
+        final int from, to;
+        final List<Stage> stages = new ArrayList<>();
+
+        Step(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        void append(Stage stage)
+        {
+            int last = stages.size() - 1;
+            Stage fused = last >= 0 ? stages.get(last).fuse(stage) : null;
+
+            if (fused != null)
+                stages.set(last, fused);
+            else
+                stages.add(stage);
+        }
+    }
+
+    /**
+     *   The graph compiled for a set of outputs: the steps which compute
+     *   every needed node from its parent, in an order in which a parent
+     *   always comes first, and the row buffer every output reads.
+     */
+
+    private static final class Program
+    {
+        private final Step [] steps;
+        private final Stage [][] stages;
+        private final Output<?> [] outputs;
+        private final int [] outputBuffers;
+        private final int bufferCount;
+
+        Program(Pipeline pipeline, List<Output<?>> outputList)
+        {
+            int count = pipeline.nodes.size();
+            int [] consumers = new int[count];
+            boolean [] needed = new boolean[count];
+
+            for (Output<?> output : outputList)
+            {
+                consumers[output.node.index]++;
+                for (Node node = output.node; node != null && !needed[node.index]; node = node.parent)
+                    needed[node.index] = true;
+            }
+
+            for (Node node : pipeline.nodes)
+                if (needed[node.index] && node.parent != null)
+                    consumers[node.parent.index]++;
+
+            /*
+
+                A node whose parent has no other consumer works in place on
+                the buffer of its parent, joining its step if it has one;
+                any other node starts a new step with a buffer of its own,
+                so the values of a branching node stay intact for every
+                branch.
+
+            */
+
+            List<Step> stepList = new ArrayList<>();
+            Step [] stepOf = new Step[count];
+            int [] bufferOf = new int[count];
+            int buffers = 1;
+
+            for (Node node : pipeline.nodes)
+            {
+                if (!needed[node.index] || node.parent == null)
+                    continue;
+
+                int parent = node.parent.index;
+                boolean inPlace = consumers[parent] == 1;
+                Step step = inPlace ? stepOf[parent] : null;
+
+                if (step == null)
+                {
+                    step = new Step(bufferOf[parent], inPlace ? bufferOf[parent] : buffers++);
+                    stepList.add(step);
+                }
+
+                step.append(node.stage);
+                stepOf[node.index] = step;
+                bufferOf[node.index] = step.to;
+            }
+
+            steps = stepList.toArray(new Step[stepList.size()]);
+            stages = new Stage[steps.length][];
+            for (int i = 0; i < steps.length; i++)
+                stages[i] = steps[i].stages.toArray(new Stage[steps[i].stages.size()]);
+
+            outputs = outputList.toArray(new Output<?>[outputList.size()]);
+            outputBuffers = new int[outputs.length];
+            for (int i = 0; i < outputs.length; i++)
+                outputBuffers[i] = bufferOf[outputs[i].node.index];
+
+            bufferCount = buffers;
+        }
+
+        void processRows(ArgbImage src, ArgbImage strip, int firstRow, int lastRow)
+        {
+            PixelKernels.checkRows(src, firstRow, lastRow);
+
+            int width = src.getWidth();
+            int [] in = src.getPixels();
+            int inStride = src.getStride();
+            int [][] rows = new int[bufferCount][width];
+            Object [] bands = new Object[outputs.length];
+
+            for (int i = 0; i < outputs.length; i++)
+                bands[i] = outputs[i].openBand(strip);
+
+            for (int y = firstRow; y < lastRow; y++)
+            {
+                System.arraycopy(in, y * inStride, rows[0], 0, width);
+
+                for (int i = 0; i < steps.length; i++)
+                {
+                    int [] values = rows[steps[i].to];
+
+                    if (steps[i].from != steps[i].to)
+                        System.arraycopy(rows[steps[i].from], 0, values, 0, width);
+                    for (Stage stage : stages[i])
+                        stage.apply(values, width);
+                }
+
+                for (int i = 0; i < outputs.length; i++)
+                    outputs[i].write(bands[i], rows[outputBuffers[i]], width, y);
+            }
+
+            for (int i = 0; i < outputs.length; i++)
+                outputs[i].closeBand(bands[i]);
+        }
+    }
+}
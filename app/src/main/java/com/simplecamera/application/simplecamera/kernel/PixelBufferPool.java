@@ -0,0 +1,194 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.ArrayList;
+
+/**
+ *   A pool of pixel arrays which lets repeated transforms of images of
+ *   the same size reuse their buffers instead of allocating new ones.
+ *
+ *   Ownership is explicit: a buffer handed out by one of the acquire
+ *   methods belongs to the caller until it is passed back to release(),
+ *   after which the caller must not touch it again. Buffers are matched
+ *   by exact length, and their contents are undefined when acquired.
+ *
+ *   Free buffers are kept in small lists which are searched linearly,
+ *   so that neither acquiring nor releasing allocates once the pool has
+ *   warmed up.
+ */
+
+public class PixelBufferPool
+{
+    public static final int DEFAULT_MAX_FREE = 4;
+
+    private final ArrayList<int []> freeInts = new ArrayList<>();
+    private final ArrayList<byte []> freeBytes = new ArrayList<>();
+    private final int maxFree;
+    private long allocations;
+
+    /**
+     *   @param maxFree
+     *       The largest number of free buffers of each element type the
+     *       pool holds on to. Buffers released beyond this are left to
+     *       the garbage collector, oldest first.
+     */
+
+    public PixelBufferPool(int maxFree)
+    {
+        if (maxFree < 0)
+            throw new IllegalArgumentException("The pool cannot hold " + maxFree + " buffers");
+
+        this.maxFree = maxFree;
+    }
+
+    public PixelBufferPool() { this(DEFAULT_MAX_FREE); }
+
+    /**
+     *   Hands out an int array of exactly the given length, reusing a
+     *   free one if there is one.
+     *
+     *   @param length
+     *       The number of elements required.
+     *
+     *   @return
+     *       An array of the given length with undefined contents.
+     */
+
+    public synchronized int [] acquireInts(int length)
+    {
+        for (int i = freeInts.size() - 1; i >= 0; i--)
+            if (freeInts.get(i).length == length)
+                return freeInts.remove(i);
+
+        allocations++;
+        return new int[length];
+    }
+
+    /**
+     *   Hands out a byte array of exactly the given length, reusing a
+     *   free one if there is one.
+     *
+     *   @param length
+     *       The number of elements required.
+     *
+     *   @return
+     *       An array of the given length with undefined contents.
+     */
+
+    public synchronized byte [] acquireBytes(int length)
+    {
+        for (int i = freeBytes.size() - 1; i >= 0; i--)
+            if (freeBytes.get(i).length == length)
+                return freeBytes.remove(i);
+
+        allocations++;
+        return new byte[length];
+    }
+
+    /**
+     *   Hands out an ArgbImage whose stride is equal to its width,
+     *   backed by a pooled array.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @return
+     *       An image with undefined pixels.
+     */
+
+    public ArgbImage acquireArgb(int width, int height)
+    {
+        return new ArgbImage(acquireInts(width * height), width, height, width);
+    }
+
+    /**
+     *   Hands out a GrayImage whose stride is equal to its width, backed
+     *   by a pooled array.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @return
+     *       An image with undefined pixels.
+     */
+
+    public GrayImage acquireGray(int width, int height)
+    {
+        return new GrayImage(acquireBytes(width * height), width, height, width);
+    }
+
+    /**
+     *   Returns an array to the pool.
+     *
+     *   @param buffer
+     *       The array, which must not be used afterwards.
+     */
+
+    public synchronized void release(int [] buffer)
+    {
+        if (maxFree == 0)
+            return;
+        if (freeInts.size() == maxFree)
+            freeInts.remove(0);
+        freeInts.add(buffer);
+    }
+
+    /**
+     *   Returns an array to the pool.
+     *
+     *   @param buffer
+     *       The array, which must not be used afterwards.
+     */
+
+    public synchronized void release(byte [] buffer)
+    {
+        if (maxFree == 0)
+            return;
+        if (freeBytes.size() == maxFree)
+            freeBytes.remove(0);
+        freeBytes.add(buffer);
+    }
+
+    /**
+     *   Returns the array backing an image to the pool. Images of other
+     *   types than ArgbImage and GrayImage are ignored.
+     *
+     *   @param image
+     *       The image, which must not be used afterwards.
+     */
+
+    public void release(ImageBuffer image)
+    {
+        if (image instanceof ArgbImage)
+            release(((ArgbImage) image).getPixels());
+        else if (image instanceof GrayImage)
+            release(((GrayImage) image).getPixels());
+    }
+
+    /**
+     *   Drops every free buffer.
+     */
+
+    public synchronized void clear()
+    {
+        freeInts.clear();
+        freeBytes.clear();
+    }
+
+    public synchronized int getFreeCount() { return freeInts.size() + freeBytes.size(); }
+
+    /**
+     *   Returns the number of arrays the pool had to allocate because no
+     *   free one matched, which stays constant in a steady state.
+     *
+     *   @return
+     *       The number of allocations since the pool was created.
+     */
+
+    public synchronized long getAllocationCount() { return allocations; }
+}
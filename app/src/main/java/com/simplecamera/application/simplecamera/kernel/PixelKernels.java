@@ -0,0 +1,578 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   Pure-Java implementations of the per-pixel transforms offered by
+ *   BitmapManager, written against ArgbImage so that they can be unit
+ *   tested and benchmarked without an Android device.
+ *
+ *   Every kernel walks its images in row-major order and may be given
+ *   the same image as both source and destination.
+ */
+
+public final class PixelKernels
+{
+    /*
+
+        Fixed-point (16.16) luma weights used by
+        android.graphics.ColorMatrix.setSaturation(0), which is what
+        BitmapManager.turnGray() historically drew through. They sum
+        to exactly 1 << 16 so that white stays white.
+
+    */
+
+    static final int LUMA_RED = 13959, LUMA_GREEN = 46858, LUMA_BLUE = 4719;
+
+    private static final double XYZ_WHITE_REFERENCE_X = 95.047;
+    private static final double XYZ_WHITE_REFERENCE_Y = 100.0;
+    private static final double XYZ_WHITE_REFERENCE_Z = 108.883;
+    private static final double XYZ_EPSILON = 0.008856;
+    private static final double XYZ_KAPPA = 903.3;
+
+    private PixelKernels() {}
+
+    /**
+     *   Computes the gray level of a packed ARGB pixel with the same
+     *   weights as a zero-saturation ColorMatrix.
+     *
+     *   @param argb
+     *       The packed ARGB pixel.
+     *
+     *   @return
+     *       The gray level of the pixel, between 0 and 255.
+     */
+
+    public static int luma(int argb)
+    {
+        return (LUMA_RED * ((argb >> 16) & 0xFF) + LUMA_GREEN * ((argb >> 8) & 0xFF)
+                + LUMA_BLUE * (argb & 0xFF) + 0x8000) >> 16;
+    }
+
+    /**
+     *   Writes a grayscale (or intensity) copy of src into dst, keeping
+     *   the alpha channel of every pixel.
+     *
+     *   @param src
+     *       The truecolor source image.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     */
+
+    public static void toGray(ArgbImage src, ArgbImage dst)
+    {
+        toGray(src, dst, 0, src.getHeight());
+    }
+
+    /**
+     *   Row-band variant of toGray(), which only processes the rows
+     *   from firstRow (inclusive) to lastRow (exclusive) so that
+     *   TiledExecutor can split the work.
+     */
+
+    public static void toGray(ArgbImage src, ArgbImage dst, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        int [] in = src.getPixels(), out = dst.getPixels();
+        int inStride = src.getStride(), outStride = dst.getStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+            {
+                int argb = in[inRow + x];
+                int gray = luma(argb);
+
+                out[outRow + x] = (argb & 0xFF000000) | (gray << 16) | (gray << 8) | gray;
+            }
+        }
+    }
+
+    /**
+     *   Writes a binary copy of the grayscale image src into dst, where
+     *   a pixel becomes white if its red channel is greater than or
+     *   equal to threshold and black otherwise.
+     *
+     *   @param gray
+     *       A grayscale source image, such as the output of toGray().
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as gray.
+     *
+     *   @param threshold
+     *       The gray value at and above which pixels become white.
+     */
+
+    public static void threshold(ArgbImage gray, ArgbImage dst, int threshold)
+    {
+        checkSizes(gray, dst);
+
+        int width = gray.getWidth(), height = gray.getHeight();
+        int [] in = gray.getPixels(), out = dst.getPixels();
+        int inStride = gray.getStride(), outStride = dst.getStride();
+
+        for (int y = 0; y < height; y++)
+        {
+            int inRow = y * inStride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = ((in[inRow + x] >> 16) & 0xFF) < threshold ? 0xFF000000 : 0xFFFFFFFF;
+        }
+    }
+
+    /**
+     *   Writes the gray level of every pixel of a band of rows of src
+     *   into the single-channel image dst, which needs a quarter of the
+     *   memory of the ArgbImage toGray() writes.
+     *
+     *   @param src
+     *       The truecolor source image.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void toGray(ArgbImage src, GrayImage dst, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        int [] in = src.getPixels();
+        byte [] out = dst.getPixels();
+        int inStride = src.getStride(), outStride = dst.getStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = (byte) luma(in[inRow + x]);
+        }
+    }
+
+    /**
+     *   Writes a binary copy of the truecolor image src into dst in a
+     *   single row-major pass, computing the gray level of each pixel
+     *   inline instead of materialising a grayscale image first.
+     *
+     *   The output is identical to thresholding the RGB_565 image that
+     *   BitmapManager.turnGray() produces: the 5-bit quantisation of
+     *   that round trip is folded into a precomputed luma cutoff, so
+     *   the inner loop is a single comparison.
+     *
+     *   @param src
+     *       The truecolor source image.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param threshold
+     *       The gray value at and above which pixels become white.
+     */
+
+    public static void binarize(ArgbImage src, ArgbImage dst, int threshold)
+    {
+        binarize(src, dst, threshold, 0, src.getHeight());
+    }
+
+    /**
+     *   Row-band variant of binarize(), which only processes the rows
+     *   from firstRow (inclusive) to lastRow (exclusive) so that
+     *   TiledExecutor can split the work.
+     */
+
+    public static void binarize(ArgbImage src, ArgbImage dst, int threshold, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        int [] in = src.getPixels(), out = dst.getPixels();
+        int inStride = src.getStride(), outStride = dst.getStride();
+        int cutoff = rgb565Cutoff(threshold);
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = luma(in[inRow + x]) < cutoff ? 0xFF000000 : 0xFFFFFFFF;
+        }
+    }
+
+    /**
+     *   Finds the smallest gray level which, after being stored in an
+     *   RGB_565 Bitmap and read back, is at least threshold.
+     *
+     *   @param threshold
+     *       The gray value threshold applied to the read-back value.
+     *
+     *   @return
+     *       The equivalent threshold on the unquantised gray level,
+     *       which is 256 if no gray level reaches threshold.
+     */
+
+    static int rgb565Cutoff(int threshold)
+    {
+        for (int gray = 0; gray < 256; gray++)
+        {
+            int red5 = gray >> 3;
+
+            if (((red5 << 3) | (red5 >> 2)) >= threshold)
+                return gray;
+        }
+
+        return 256;
+    }
+
+    /**
+     *   Writes a binary copy of a grayscale image produced by toGray()
+     *   into dst, with exactly the same output binarize() would give
+     *   for the truecolor image the gray one came from. This lets an
+     *   already computed grayscale image be reused for thresholding.
+     *
+     *   @param gray
+     *       The output of toGray().
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as gray.
+     *
+     *   @param threshold
+     *       The gray value at and above which pixels become white.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void binarizeGray(ArgbImage gray, ArgbImage dst, int threshold, int firstRow, int lastRow)
+    {
+        checkSizes(gray, dst);
+        checkRows(gray, firstRow, lastRow);
+
+        int width = gray.getWidth();
+        int [] in = gray.getPixels(), out = dst.getPixels();
+        int inStride = gray.getStride(), outStride = dst.getStride();
+        int cutoff = rgb565Cutoff(threshold);
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = (in[inRow + x] & 0xFF) < cutoff ? 0xFF000000 : 0xFFFFFFFF;
+        }
+    }
+
+    /**
+     *   Packs a binary image of a band of rows of src into dst, with the
+     *   same pixels binarize() would make white.
+     *
+     *   @param src
+     *       The truecolor source image.
+     *
+     *   @param dst
+     *       The destination mask, which must be the same size as src.
+     *
+     *   @param threshold
+     *       The gray value at and above which pixels become white.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void binarize(ArgbImage src, BitMask dst, int threshold, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth(), wordsPerRow = dst.getWordsPerRow();
+        int [] in = src.getPixels();
+        long [] out = dst.getWords();
+        int inStride = src.getStride();
+        int cutoff = rgb565Cutoff(threshold);
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, outRow = y * wordsPerRow;
+
+            for (int word = 0; word < wordsPerRow; word++)
+            {
+                int start = word << 6, end = Math.min(start + 64, width);
+                long bits = 0;
+
+                for (int x = start; x < end; x++)
+                    bits |= (long)(~(luma(in[inRow + x]) - cutoff) >>> 31) << x;
+
+                out[outRow + word] = bits;
+            }
+        }
+    }
+
+    /**
+     *   Packs a binary image of a band of rows of a single-channel gray
+     *   image into dst, with exactly the same output binarize() would
+     *   give for the truecolor image the gray one came from.
+     *
+     *   @param gray
+     *       The gray levels, as written by toGray().
+     *
+     *   @param dst
+     *       The destination mask, which must be the same size as gray.
+     *
+     *   @param threshold
+     *       The gray value at and above which pixels become white.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void binarize(GrayImage gray, BitMask dst, int threshold, int firstRow, int lastRow)
+    {
+        checkSizes(gray, dst);
+        if (firstRow < 0 || lastRow > gray.getHeight() || firstRow > lastRow)
+            throw new IllegalArgumentException("Rows " + firstRow + " to " + lastRow
+                    + " are outside of an image of height " + gray.getHeight());
+
+        int width = gray.getWidth(), wordsPerRow = dst.getWordsPerRow();
+        byte [] in = gray.getPixels();
+        long [] out = dst.getWords();
+        int inStride = gray.getStride();
+        int cutoff = rgb565Cutoff(threshold);
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, outRow = y * wordsPerRow;
+
+            for (int word = 0; word < wordsPerRow; word++)
+            {
+                int start = word << 6, end = Math.min(start + 64, width);
+                long bits = 0;
+
+                for (int x = start; x < end; x++)
+                    bits |= (long)(~((in[inRow + x] & 0xFF) - cutoff) >>> 31) << x;
+
+                out[outRow + word] = bits;
+            }
+        }
+    }
+
+    /**
+     *   Writes the CIE L*a*b* representation of src into dst. The L*
+     *   channel is scaled from [0, 100] to [0, 255] and stored in red,
+     *   while a* and b* are offset by 128 and stored in green and blue,
+     *   respectively. Alpha is carried over unchanged.
+     *
+     *   This is the double precision reference implementation, which
+     *   matches android.support.v4.graphics.ColorUtils.colorToLAB().
+     *
+     *   @param src
+     *       The sRGB source image.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     */
+
+    public static void toLab(ArgbImage src, ArgbImage dst)
+    {
+        checkSizes(src, dst);
+
+        int width = src.getWidth(), height = src.getHeight();
+        int [] in = src.getPixels(), out = dst.getPixels();
+        int inStride = src.getStride(), outStride = dst.getStride();
+
+        for (int y = 0; y < height; y++)
+        {
+            int inRow = y * inStride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = labPixel(in[inRow + x]);
+        }
+    }
+
+    /**
+     *   Converts a single packed sRGB pixel to the encoded L*a*b* pixel
+     *   described in toLab().
+     *
+     *   @param argb
+     *       The packed ARGB pixel.
+     *
+     *   @return
+     *       The packed, encoded L*a*b* pixel.
+     */
+
+    public static int labPixel(int argb)
+    {
+        double sr = linearize(((argb >> 16) & 0xFF) / 255.0);
+        double sg = linearize(((argb >> 8) & 0xFF) / 255.0);
+        double sb = linearize((argb & 0xFF) / 255.0);
+
+        double fx = pivot(100 * (sr * 0.4124 + sg * 0.3576 + sb * 0.1805) / XYZ_WHITE_REFERENCE_X);
+        double fy = pivot(100 * (sr * 0.2126 + sg * 0.7152 + sb * 0.0722) / XYZ_WHITE_REFERENCE_Y);
+        double fz = pivot(100 * (sr * 0.0193 + sg * 0.1192 + sb * 0.9505) / XYZ_WHITE_REFERENCE_Z);
+
+        double l = Math.max(0, 116 * fy - 16);
+        double a = 500 * (fx - fy);
+        double b = 200 * (fy - fz);
+
+        return (argb & 0xFF000000) | ((int)(l * 255 / 100.0) << 16) | ((int)(a + 128) << 8) | (int)(b + 128);
+    }
+
+    /**
+     *   Copies the a* (or Red-Green) channel of an encoded L*a*b* image
+     *   into the red, green and blue channels of dst.
+     *
+     *   @param lab
+     *       An encoded L*a*b* image, such as the output of toLab().
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as lab.
+     */
+
+    public static void extractA(ArgbImage lab, ArgbImage dst)
+    {
+        spreadChannel(lab, dst, 8, 0, lab.getHeight());
+    }
+
+    /**
+     *   Row-band variant of extractA(ArgbImage, ArgbImage).
+     */
+
+    public static void extractA(ArgbImage lab, ArgbImage dst, int firstRow, int lastRow)
+    {
+        spreadChannel(lab, dst, 8, firstRow, lastRow);
+    }
+
+    /**
+     *   Copies the b* (or Blue-Yellow) channel of an encoded L*a*b* image
+     *   into the red, green and blue channels of dst.
+     *
+     *   @param lab
+     *       An encoded L*a*b* image, such as the output of toLab().
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as lab.
+     */
+
+    public static void extractB(ArgbImage lab, ArgbImage dst)
+    {
+        spreadChannel(lab, dst, 0, 0, lab.getHeight());
+    }
+
+    /**
+     *   Row-band variant of extractB(ArgbImage, ArgbImage).
+     */
+
+    public static void extractB(ArgbImage lab, ArgbImage dst, int firstRow, int lastRow)
+    {
+        spreadChannel(lab, dst, 0, firstRow, lastRow);
+    }
+
+    /**
+     *   Copies one 8-bit channel of a packed image into a single-channel
+     *   image, for example the a* channel of an encoded L*a*b* image.
+     *
+     *   @param src
+     *       The packed source image.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param shift
+     *       The bit position of the channel: 16 for red, 8 for green and
+     *       0 for blue.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void copyChannel(ArgbImage src, GrayImage dst, int shift, int firstRow, int lastRow)
+    {
+        if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight())
+            throw new IllegalArgumentException("Source is " + src.getWidth() + "x" + src.getHeight()
+                    + " but destination is " + dst.getWidth() + "x" + dst.getHeight());
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        int [] in = src.getPixels();
+        byte [] out = dst.getPixels();
+        int inStride = src.getStride(), outStride = dst.getStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = (byte)(in[inRow + x] >> shift);
+        }
+    }
+
+    private static void spreadChannel(ArgbImage src, ArgbImage dst, int shift, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        int [] in = src.getPixels(), out = dst.getPixels();
+        int inStride = src.getStride(), outStride = dst.getStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+            {
+                int argb = in[inRow + x];
+                int value = (argb >> shift) & 0xFF;
+
+                out[outRow + x] = (argb & 0xFF000000) | (value << 16) | (value << 8) | value;
+            }
+        }
+    }
+
+    private static double linearize(double component)
+    {
+        return component < 0.04045 ? component / 12.92 : Math.pow((component + 0.055) / 1.055, 2.4);
+    }
+
+    private static double pivot(double component)
+    {
+        return component > XYZ_EPSILON ? Math.pow(component, 1 / 3.0) : (XYZ_KAPPA * component + 16) / 116;
+    }
+
+    static void checkRows(ImageBuffer image, int firstRow, int lastRow)
+    {
+        if (firstRow < 0 || lastRow > image.getHeight() || firstRow > lastRow)
+            throw new IllegalArgumentException("Rows " + firstRow + " to " + lastRow
+                    + " are outside of an image of height " + image.getHeight());
+    }
+
+    static void checkSizes(ImageBuffer src, ImageBuffer dst)
+    {
+        if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight())
+            throw new IllegalArgumentException("Source is " + src.getWidth() + "x" + src.getHeight()
+                    + " but destination is " + dst.getWidth() + "x" + dst.getHeight());
+    }
+}
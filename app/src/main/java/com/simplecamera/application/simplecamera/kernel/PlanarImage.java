@@ -0,0 +1,189 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   A platform-independent four-channel image laid out as a structure
+ *   of arrays: the alpha, red, green and blue channels are held in
+ *   separate byte planes, and the pixel at (x, y) is at index
+ *   y * width + x of each of them.
+ *
+ *   Kernels over planes read every channel with a plain byte load
+ *   rather than shifting and masking it out of a packed ARGB int, so
+ *   their loops are simple enough for the JIT of ART or HotSpot to
+ *   vectorise. unpack() and pack() convert to and from the packed
+ *   layout of ArgbImage in a single bulk pass each.
+ */
+
+public class PlanarImage implements ImageBuffer
+{
+    private final byte [] alpha, red, green, blue;
+    private final int width, height;
+
+    /**
+     *   Allocates a new, fully transparent image.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     */
+
+    public PlanarImage(int width, int height)
+    {
+        this(new byte[width * height], new byte[width * height], new byte[width * height], new byte[width * height],
+                width, height);
+    }
+
+    /**
+     *   Wraps existing planes without copying them.
+     *
+     *   @param alpha
+     *       The alpha plane, which like every other plane must hold at
+     *       least width * height values.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     */
+
+    public PlanarImage(byte [] alpha, byte [] red, byte [] green, byte [] blue, int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Image dimensions must be positive: " + width + "x" + height);
+
+        int size = width * height;
+        if (alpha.length < size || red.length < size || green.length < size || blue.length < size)
+            throw new IllegalArgumentException("A plane is too small for a " + width + "x" + height + " image");
+
+        this.alpha = alpha;
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        this.width = width;
+        this.height = height;
+    }
+
+    public byte [] getAlpha() { return alpha; }
+    public byte [] getRed() { return red; }
+    public byte [] getGreen() { return green; }
+    public byte [] getBlue() { return blue; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getByteCount() { return alpha.length + red.length + green.length + blue.length; }
+
+    public int getPixel(int x, int y)
+    {
+        int i = y * width + x;
+
+        return (alpha[i] & 0xFF) << 24 | (red[i] & 0xFF) << 16 | (green[i] & 0xFF) << 8 | (blue[i] & 0xFF);
+    }
+
+    public void setPixel(int x, int y, int argb)
+    {
+        int i = y * width + x;
+
+        alpha[i] = (byte)(argb >>> 24);
+        red[i] = (byte)(argb >> 16);
+        green[i] = (byte)(argb >> 8);
+        blue[i] = (byte) argb;
+    }
+
+    /**
+     *   Wraps one plane as a single-channel image without copying it, so
+     *   that the GrayImage kernels can work on it directly.
+     *
+     *   @param plane
+     *       One of the planes of this image.
+     *
+     *   @return
+     *       A GrayImage backed by plane.
+     */
+
+    public GrayImage asGray(byte [] plane)
+    {
+        if (plane != alpha && plane != red && plane != green && plane != blue)
+            throw new IllegalArgumentException("The array is not a plane of this image");
+
+        return new GrayImage(plane, width, height, width);
+    }
+
+    /**
+     *   Splits the packed pixels of src into the planes of this image.
+     *
+     *   @param src
+     *       The packed source image, which must be the same size as this
+     *       one.
+     */
+
+    public void unpack(ArgbImage src)
+    {
+        unpack(src, 0, height);
+    }
+
+    /**
+     *   Row-band variant of unpack(ArgbImage), which only converts the
+     *   rows from firstRow (inclusive) to lastRow (exclusive) so that
+     *   TiledExecutor can split the work.
+     */
+
+    public void unpack(ArgbImage src, int firstRow, int lastRow)
+    {
+        PixelKernels.checkSizes(src, this);
+        PixelKernels.checkRows(this, firstRow, lastRow);
+
+        int [] in = src.getPixels();
+        int inStride = src.getStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * inStride - y * width;
+
+            for (int i = y * width, end = i + width; i < end; i++)
+            {
+                int argb = in[inRow + i];
+
+                alpha[i] = (byte)(argb >>> 24);
+                red[i] = (byte)(argb >> 16);
+                green[i] = (byte)(argb >> 8);
+                blue[i] = (byte) argb;
+            }
+        }
+    }
+
+    /**
+     *   Interleaves the planes of this image into the packed pixels of dst.
+     *
+     *   @param dst
+     *       The packed destination image, which must be the same size as
+     *       this one.
+     */
+
+    public void pack(ArgbImage dst)
+    {
+        pack(dst, 0, height);
+    }
+
+    /**
+     *   Row-band variant of pack(ArgbImage).
+     */
+
+    public void pack(ArgbImage dst, int firstRow, int lastRow)
+    {
+        PixelKernels.checkSizes(this, dst);
+        PixelKernels.checkRows(this, firstRow, lastRow);
+
+        int [] out = dst.getPixels();
+        int outStride = dst.getStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int outRow = y * outStride - y * width;
+
+            for (int i = y * width, end = i + width; i < end; i++)
+                out[outRow + i] = (alpha[i] & 0xFF) << 24 | (red[i] & 0xFF) << 16 | (green[i] & 0xFF) << 8
+                        | (blue[i] & 0xFF);
+        }
+    }
+}
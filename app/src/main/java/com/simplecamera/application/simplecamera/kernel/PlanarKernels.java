@@ -0,0 +1,163 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   Gray, threshold and CIE L*a*b* kernels written against PlanarImage,
+ *   with exactly the output of their packed counterparts in PixelKernels
+ *   and LabConverter.
+ *
+ *   Every inner loop walks the planes with a single index and reads each
+ *   channel with a plain byte load, so the gray and threshold loops are
+ *   straight-line arithmetic which the JIT can vectorise. The L*a*b*
+ *   conversion still goes through the tables of LabConverter, which do
+ *   not vectorise, and gains only the unpacking it no longer does.
+ */
+
+public final class PlanarKernels
+{
+    private PlanarKernels() {}
+
+    /**
+     *   Writes the gray levels of a band of rows of src into dst, as
+     *   PixelKernels.toGray(ArgbImage, GrayImage, int, int) does for a
+     *   packed image.
+     *
+     *   @param src
+     *       The truecolor source image.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void toGray(PlanarImage src, GrayImage dst, int firstRow, int lastRow)
+    {
+        PixelKernels.checkSizes(src, dst);
+        PixelKernels.checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth(), outStride = dst.getStride();
+        byte [] red = src.getRed(), green = src.getGreen(), blue = src.getBlue(), out = dst.getPixels();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int outRow = y * outStride - y * width;
+
+            for (int i = y * width, end = i + width; i < end; i++)
+                out[outRow + i] = (byte)((PixelKernels.LUMA_RED * (red[i] & 0xFF)
+                        + PixelKernels.LUMA_GREEN * (green[i] & 0xFF)
+                        + PixelKernels.LUMA_BLUE * (blue[i] & 0xFF) + 0x8000) >> 16);
+        }
+    }
+
+    /**
+     *   Packs a binary image of a band of rows of src into dst, with
+     *   exactly the output of PixelKernels.binarize(ArgbImage, BitMask,
+     *   int, int, int). Each row is first compared with the cutoff into
+     *   a scratch row of 0s and 1s, a loop which vectorises, and only
+     *   then gathered into bits.
+     *
+     *   @param src
+     *       The truecolor source image.
+     *
+     *   @param dst
+     *       The destination mask, which must be the same size as src.
+     *
+     *   @param threshold
+     *       The gray value at and above which pixels become white.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void binarize(PlanarImage src, BitMask dst, int threshold, int firstRow, int lastRow)
+    {
+        PixelKernels.checkSizes(src, dst);
+        PixelKernels.checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth(), wordsPerRow = dst.getWordsPerRow();
+        byte [] red = src.getRed(), green = src.getGreen(), blue = src.getBlue();
+        long [] out = dst.getWords();
+        int [] white = new int[width];
+
+        /*
+
+            luma >= cutoff exactly when (luma << 16) + 0x8000 reaches
+            cutoff << 16, which spares the shift in the inner loop.
+
+        */
+
+        int scaledCutoff = (PixelKernels.rgb565Cutoff(threshold) << 16) - 0x8000;
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * width, outRow = y * wordsPerRow;
+
+            for (int x = 0; x < width; x++)
+                white[x] = ~(PixelKernels.LUMA_RED * (red[inRow + x] & 0xFF)
+                        + PixelKernels.LUMA_GREEN * (green[inRow + x] & 0xFF)
+                        + PixelKernels.LUMA_BLUE * (blue[inRow + x] & 0xFF) - scaledCutoff) >>> 31;
+
+            for (int word = 0; word < wordsPerRow; word++)
+            {
+                int start = word << 6, end = Math.min(start + 64, width);
+                long bits = 0;
+
+                for (int x = start; x < end; x++)
+                    bits |= (long) white[x] << x;
+
+                out[outRow + word] = bits;
+            }
+        }
+    }
+
+    /**
+     *   Writes the encoded CIE L*a*b* representation of a band of rows
+     *   of src into dst, with L* in the red plane, a* in the green plane
+     *   and b* in the blue plane, exactly as LabConverter.labPixel()
+     *   encodes them. Alpha is carried over unchanged, and src and dst
+     *   may be the same image.
+     *
+     *   @param src
+     *       The sRGB source image.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void toLab(PlanarImage src, PlanarImage dst, int firstRow, int lastRow)
+    {
+        PixelKernels.checkSizes(src, dst);
+        PixelKernels.checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        byte [] red = src.getRed(), green = src.getGreen(), blue = src.getBlue();
+        byte [] lightness = dst.getRed(), a = dst.getGreen(), b = dst.getBlue();
+
+        if (dst != src)
+            System.arraycopy(src.getAlpha(), firstRow * width, dst.getAlpha(), firstRow * width,
+                    (lastRow - firstRow) * width);
+
+        for (int i = firstRow * width, end = lastRow * width; i < end; i++)
+        {
+            int r = red[i] & 0xFF, g = green[i] & 0xFF, bl = blue[i] & 0xFF;
+            int fx = LabConverter.fX(r, g, bl), fy = LabConverter.fY(r, g, bl), fz = LabConverter.fZ(r, g, bl);
+
+            lightness[i] = (byte) LabConverter.encodeL(fy);
+            a[i] = (byte) LabConverter.encodeA(fx, fy);
+            b[i] = (byte) LabConverter.encodeB(fy, fz);
+        }
+    }
+}
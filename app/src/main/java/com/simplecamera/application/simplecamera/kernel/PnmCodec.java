@@ -0,0 +1,128 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ *   An ImageCodec for binary portable anymaps with 8-bit samples: PGM
+ *   (P5) and PPM (P6). The format needs no library, so batches can be
+ *   run and checked on any JVM. Gray images are written as PGM and
+ *   everything else as PPM, through PnmWriter.
+ */
+
+public class PnmCodec implements ImageCodec
+{
+    public boolean canDecode(String fileName)
+    {
+        String name = fileName.toLowerCase();
+
+        return name.endsWith(".pgm") || name.endsWith(".ppm") || name.endsWith(".pnm");
+    }
+
+    public ArgbImage decode(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try
+        {
+            String magic = readToken(in);
+            boolean gray = magic.equals("P5");
+
+            if (!gray && !magic.equals("P6"))
+                throw new IOException(file + " is not a binary PGM or PPM");
+
+            int width = readNumber(in), height = readNumber(in), maxValue = readNumber(in);
+            if (width < 1 || height < 1 || maxValue != 255)
+                throw new IOException(file + " is " + width + "x" + height + " with maximum " + maxValue
+                        + "; only 8-bit images are supported");
+
+            ArgbImage image = new ArgbImage(width, height);
+            int [] pixels = image.getPixels();
+            byte [] row = new byte[gray ? width : width * 3];
+
+            for (int y = 0; y < height; y++)
+            {
+                in.readFully(row);
+
+                int outRow = y * image.getStride();
+                if (gray)
+                    for (int x = 0; x < width; x++)
+                        pixels[outRow + x] = 0xFF000000 | (row[x] & 0xFF) * 0x010101;
+                else
+                    for (int x = 0, i = 0; x < width; x++, i += 3)
+                        pixels[outRow + x] = 0xFF000000 | (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8
+                                | (row[i + 2] & 0xFF);
+            }
+
+            return image;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public byte [] encode(ArgbImage image, boolean gray) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.getWidth() * image.getHeight() * (gray ? 1 : 3) + 32);
+        PnmWriter writer = new PnmWriter(out, gray);
+
+        writer.start(image.getWidth(), image.getHeight());
+        writer.write(image);
+        writer.finish();
+
+        return out.toByteArray();
+    }
+
+    public String getExtension(boolean gray) { return gray ? "pgm" : "ppm"; }
+
+    /**
+     *   Reads a header field, skipping white space and comments. The
+     *   single white space character after the last field is consumed.
+     */
+
+    private static String readToken(InputStream in) throws IOException
+    {
+        StringBuilder token = new StringBuilder();
+        int c = in.read();
+
+        while (c == '#' || Character.isWhitespace(c))
+        {
+            if (c == '#')
+                while (c != '\n' && c != -1)
+                    c = in.read();
+            c = in.read();
+        }
+
+        while (c != -1 && !Character.isWhitespace(c))
+        {
+            token.append((char) c);
+            c = in.read();
+        }
+
+        if (token.length() == 0)
+            throw new EOFException("The header ends early");
+
+        return token.toString();
+    }
+
+    private static int readNumber(InputStream in) throws IOException
+    {
+        String token = readToken(in);
+
+        try
+        {
+            return Integer.parseInt(token);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("Header field " + token + " is not a number");
+        }
+    }
+}
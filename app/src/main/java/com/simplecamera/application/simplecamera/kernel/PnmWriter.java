@@ -0,0 +1,89 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ *   A StripSink which writes a binary portable anymap: a PPM (P6) with
+ *   8-bit red, green and blue samples, or a PGM (P5) with one 8-bit gray
+ *   sample per pixel. Both formats are a short text header followed by
+ *   the raw rows, so every strip is written as soon as it arrives and
+ *   nothing but a single row is buffered.
+ */
+
+public class PnmWriter implements StripSink
+{
+    private final OutputStream out;
+    private final boolean gray;
+    private int width, height, rowsWritten;
+    private byte [] row;
+
+    /**
+     *   @param out
+     *       The stream to write to, which the caller closes.
+     *
+     *   @param gray
+     *       true for a PGM holding the blue channel of every pixel, which
+     *       is the gray level of a grayscale, binary or channel image;
+     *       false for a PPM.
+     */
+
+    public PnmWriter(OutputStream out, boolean gray)
+    {
+        this.out = out;
+        this.gray = gray;
+    }
+
+    public void start(int newWidth, int newHeight) throws IOException
+    {
+        width = newWidth;
+        height = newHeight;
+        rowsWritten = 0;
+        row = new byte[gray ? width : width * 3];
+
+        String header = (gray ? "P5" : "P6") + "\n" + width + " " + height + "\n255\n";
+        out.write(header.getBytes(Charset.forName("US-ASCII")));
+    }
+
+    public void write(ArgbImage strip) throws IOException
+    {
+        if (strip.getWidth() != width)
+            throw new IllegalArgumentException("Strip is " + strip.getWidth() + " pixels wide, not " + width);
+        if (rowsWritten + strip.getHeight() > height)
+            throw new IllegalStateException("The image only has " + height + " rows");
+
+        int [] pixels = strip.getPixels();
+        int stride = strip.getStride();
+
+        for (int y = 0; y < strip.getHeight(); y++)
+        {
+            int inRow = y * stride;
+
+            if (gray)
+                for (int x = 0; x < width; x++)
+                    row[x] = (byte) pixels[inRow + x];
+            else
+                for (int x = 0, i = 0; x < width; x++, i += 3)
+                {
+                    int argb = pixels[inRow + x];
+
+                    row[i] = (byte) (argb >> 16);
+                    row[i + 1] = (byte) (argb >> 8);
+                    row[i + 2] = (byte) argb;
+                }
+
+            out.write(row);
+        }
+
+        rowsWritten += strip.getHeight();
+    }
+
+    public void finish() throws IOException
+    {
+        if (rowsWritten != height)
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+
+        out.flush();
+    }
+}
@@ -0,0 +1,23 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   Receives progress reports from TiledExecutor as bands of rows are
+ *   completed. Reports may arrive from several worker threads at once
+ *   and out of order, so an implementation must be thread safe and
+ *   should treat rowsDone as a lower bound.
+ */
+
+public interface ProgressListener
+{
+    /**
+     *   Called after a band of rows has been processed.
+     *
+     *   @param rowsDone
+     *       The number of rows processed so far.
+     *
+     *   @param totalRows
+     *       The number of rows in the image.
+     */
+
+    void onProgress(int rowsDone, int totalRows);
+}
@@ -0,0 +1,209 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *   Chooses one of the picture or preview sizes a camera supports, so
+ *   that only as many pixels are captured as will be processed, since
+ *   every extra pixel costs capture, storage and analysis time alike.
+ *
+ *   Sizes are compared regardless of orientation: a 1920x1080 camera
+ *   size matches a 1080x1920 portrait view, and "detail" is measured
+ *   along the shorter and the longer side.
+ */
+
+public abstract class ResolutionPolicy
+{
+    /**
+     *   The relative difference between two aspect ratios below which
+     *   they count as the same, so that 1920x1088 matches 16:9.
+     */
+
+    public static final double ASPECT_TOLERANCE = 0.02;
+
+    /**
+     *   A width and height in pixels.
+     */
+
+    public static final class Size
+    {
+        private final int width, height;
+
+        public Size(int width, int height)
+        {
+            if (width <= 0 || height <= 0)
+                throw new IllegalArgumentException("Size dimensions must be positive: " + width + "x" + height);
+
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+        public int getShortSide() { return Math.min(width, height); }
+        public int getLongSide() { return Math.max(width, height); }
+        public long getPixelCount() { return (long) width * height; }
+
+        /**
+         *   @return
+         *       The longer side divided by the shorter one, which is at
+         *       least 1 whatever the orientation.
+         */
+
+        public double getAspectRatio() { return (double) getLongSide() / getShortSide(); }
+
+        public boolean equals(Object other)
+        {
+            return other instanceof Size && ((Size) other).width == width && ((Size) other).height == height;
+        }
+
+        public int hashCode() { return width * 31 + height; }
+        public String toString() { return width + "x" + height; }
+    }
+
+    /**
+     *   Chooses a size.
+     *
+     *   @param supported
+     *       The sizes to choose from, in any order.
+     *
+     *   @return
+     *       One of the supported sizes, or null if there are none.
+     */
+
+    public abstract Size choose(List<Size> supported);
+
+    /**
+     *   @return
+     *       A policy which chooses the size with the fewest pixels.
+     */
+
+    public static ResolutionPolicy smallest()
+    {
+        return minimumDetail(0, 0);
+    }
+
+    /**
+     *   @param megapixels
+     *       The number of pixels wanted, in millions.
+     *
+     *   @return
+     *       A policy which chooses the size whose pixel count is nearest
+     *       to megapixels by ratio, so that 4 MP is as far from 2 MP as
+     *       1 MP is.
+     */
+
+    public static ResolutionPolicy targetMegapixels(final double megapixels)
+    {
+        if (!(megapixels > 0))
+            throw new IllegalArgumentException("Target of " + megapixels + " megapixels is not positive");
+
+        return new ResolutionPolicy()
+        {
+            public Size choose(List<Size> supported)
+            {
+                Size best = null;
+                double bestDistance = Double.MAX_VALUE;
+
+                for (Size size : supported)
+                {
+                    double distance = Math.abs(Math.log(size.getPixelCount() / (megapixels * 1e6)));
+
+                    if (distance < bestDistance)
+                    {
+                        best = size;
+                        bestDistance = distance;
+                    }
+                }
+
+                return best;
+            }
+        };
+    }
+
+    /**
+     *   @param shortSide
+     *       The least number of pixels needed along the shorter side.
+     *
+     *   @param longSide
+     *       The least number of pixels needed along the longer side.
+     *
+     *   @return
+     *       A policy which chooses the size with the fewest pixels that
+     *       has at least the required detail along both sides, or the
+     *       largest size if none has.
+     */
+
+    public static ResolutionPolicy minimumDetail(final int shortSide, final int longSide)
+    {
+        return new ResolutionPolicy()
+        {
+            public Size choose(List<Size> supported)
+            {
+                Size smallestEnough = null, largest = null;
+
+                for (Size size : supported)
+                {
+                    if (largest == null || size.getPixelCount() > largest.getPixelCount())
+                        largest = size;
+
+                    if (size.getShortSide() >= shortSide && size.getLongSide() >= longSide
+                            && (smallestEnough == null || size.getPixelCount() < smallestEnough.getPixelCount()))
+                        smallestEnough = size;
+                }
+
+                return smallestEnough != null ? smallestEnough : largest;
+            }
+        };
+    }
+
+    /**
+     *   Restricts this policy to the sizes whose aspect ratio matches
+     *   that of a view or of another size, so that the picture frames
+     *   what the preview shows and the preview fills its view without
+     *   being stretched.
+     *
+     *   @param width
+     *       The width of the view or size to match, in either orientation.
+     *
+     *   @param height
+     *       The height of the view or size to match.
+     *
+     *   @return
+     *       A policy which applies this one to the supported sizes within
+     *       ASPECT_TOLERANCE of the aspect ratio of width and height, or
+     *       to those nearest to it if none is within the tolerance.
+     */
+
+    public ResolutionPolicy matchingAspect(int width, int height)
+    {
+        final double target = new Size(width, height).getAspectRatio();
+        final ResolutionPolicy policy = this;
+
+        return new ResolutionPolicy()
+        {
+            public Size choose(List<Size> supported)
+            {
+                double nearest = Double.MAX_VALUE;
+
+                for (Size size : supported)
+                    nearest = Math.min(nearest, aspectDifference(size, target));
+
+                double limit = Math.max(nearest, ASPECT_TOLERANCE);
+                List<Size> matching = new ArrayList<>();
+
+                for (Size size : supported)
+                    if (aspectDifference(size, target) <= limit)
+                        matching.add(size);
+
+                return policy.choose(matching);
+            }
+        };
+    }
+
+    private static double aspectDifference(Size size, double target)
+    {
+        return Math.abs(size.getAspectRatio() - target) / target;
+    }
+}
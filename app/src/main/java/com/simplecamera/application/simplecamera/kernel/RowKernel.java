@@ -0,0 +1,24 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   A unit of per-pixel work which can be applied to any band of rows
+ *   of an image independently of every other band. TiledExecutor calls
+ *   processRows() for disjoint bands, possibly from several threads at
+ *   once, so an implementation must only write to the rows it is given.
+ */
+
+public interface RowKernel
+{
+    /**
+     *   Processes the rows from firstRow (inclusive) to lastRow
+     *   (exclusive).
+     *
+     *   @param firstRow
+     *       The first row of the band.
+     *
+     *   @param lastRow
+     *       The row just past the end of the band.
+     */
+
+    void processRows(int firstRow, int lastRow);
+}
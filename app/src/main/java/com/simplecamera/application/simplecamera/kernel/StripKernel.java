@@ -0,0 +1,32 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   A unit of per-pixel work applied to every strip of a streamed image.
+ *   Like a RowKernel it may be called for disjoint bands of rows of the
+ *   same strip from several threads at once, so an implementation must
+ *   only write to the rows it is given. The banded methods of
+ *   PixelKernels and LabConverter have exactly this shape.
+ */
+
+public interface StripKernel
+{
+    /**
+     *   Processes the rows from firstRow (inclusive) to lastRow
+     *   (exclusive) of a strip.
+     *
+     *   @param src
+     *       The strip as read from the StripSource.
+     *
+     *   @param dst
+     *       The strip to be passed to the StripSink, which is the same
+     *       size as src.
+     *
+     *   @param firstRow
+     *       The first row of the band, counted from the top of the strip.
+     *
+     *   @param lastRow
+     *       The row just past the end of the band.
+     */
+
+    void processRows(ArgbImage src, ArgbImage dst, int firstRow, int lastRow);
+}
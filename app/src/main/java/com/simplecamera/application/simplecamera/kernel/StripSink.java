@@ -0,0 +1,48 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.IOException;
+
+/**
+ *   Receives a processed image a strip of whole rows at a time, from
+ *   top to bottom, for example to write it to a file incrementally.
+ */
+
+public interface StripSink
+{
+    /**
+     *   Called once before the first strip.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @throws IOException
+     *       If the image cannot be started.
+     */
+
+    void start(int width, int height) throws IOException;
+
+    /**
+     *   Called for every strip, in order.
+     *
+     *   @param strip
+     *       The next rows of the image. Its pixels are only valid until
+     *       this method returns.
+     *
+     *   @throws IOException
+     *       If the rows cannot be written.
+     */
+
+    void write(ArgbImage strip) throws IOException;
+
+    /**
+     *   Called once after the last strip.
+     *
+     *   @throws IOException
+     *       If the image cannot be completed.
+     */
+
+    void finish() throws IOException;
+}
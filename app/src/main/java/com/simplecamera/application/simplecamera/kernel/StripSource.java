@@ -0,0 +1,31 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.IOException;
+
+/**
+ *   An image which is read a strip of whole rows at a time, so that it
+ *   never has to be held in memory in full. StripStreamer reads the
+ *   strips from top to bottom.
+ */
+
+public interface StripSource
+{
+    int getWidth();
+    int getHeight();
+
+    /**
+     *   Reads a strip of rows into an image.
+     *
+     *   @param top
+     *       The first row of the strip.
+     *
+     *   @param strip
+     *       The image to fill, which is getWidth() pixels wide and as
+     *       high as the strip.
+     *
+     *   @throws IOException
+     *       If the rows cannot be read.
+     */
+
+    void read(int top, ArgbImage strip) throws IOException;
+}
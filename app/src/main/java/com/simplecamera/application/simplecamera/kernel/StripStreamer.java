@@ -0,0 +1,125 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.io.IOException;
+
+/**
+ *   Processes an image too large to be held in memory by reading it from
+ *   a StripSource a strip of rows at a time, running a StripKernel over
+ *   each strip and handing the result to a StripSink before the next
+ *   strip is read.
+ *
+ *   The only pixel memory used is one input and one output strip, which
+ *   are reused for every strip, so the peak memory of a stream depends
+ *   on the width of the image and the height of the strips but not on
+ *   the height of the image. Each strip is spread over the threads of a
+ *   TiledExecutor like any other image.
+ *
+ *   Only kernels which compute every output pixel from the same input
+ *   pixel can be streamed this way; a kernel which looks at neighbouring
+ *   rows would see the edges of the strips.
+ */
+
+public class StripStreamer
+{
+    public static final int DEFAULT_STRIP_ROWS = 256;
+
+    private final TiledExecutor executor;
+    private final int stripRows;
+
+    public StripStreamer() { this(TiledExecutor.getDefault(), DEFAULT_STRIP_ROWS); }
+
+    /**
+     *   @param executor
+     *       The executor which processes the rows of every strip.
+     *
+     *   @param stripRows
+     *       The number of rows in a strip.
+     */
+
+    public StripStreamer(TiledExecutor executor, int stripRows)
+    {
+        if (stripRows < 1)
+            throw new IllegalArgumentException("A strip must hold at least one row, got " + stripRows);
+
+        this.executor = executor;
+        this.stripRows = stripRows;
+    }
+
+    public int getStripRows() { return stripRows; }
+
+    /**
+     *   Computes the pixel memory a stream of an image of a given width
+     *   needs.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @return
+     *       The size of the input and output strips in bytes.
+     */
+
+    public long getStripBytes(int width)
+    {
+        return 2L * 4 * width * stripRows;
+    }
+
+    /**
+     *   Streams an image through a kernel.
+     *
+     *   @param source
+     *       The image to read.
+     *
+     *   @param kernel
+     *       The kernel to run on every strip.
+     *
+     *   @param sink
+     *       The receiver of the processed strips, or null for a kernel
+     *       which only gathers information about the image.
+     *
+     *   @param token
+     *       A token which abandons the stream once cancelled, or null.
+     *
+     *   @throws IOException
+     *       If the source cannot be read or the sink cannot be written.
+     *
+     *   @throws java.util.concurrent.CancellationException
+     *       If token is cancelled before the stream completes. The sink
+     *       is not finished in that case.
+     */
+
+    public void stream(StripSource source, final StripKernel kernel, StripSink sink, CancellationToken token)
+            throws IOException
+    {
+        int width = source.getWidth(), height = source.getHeight();
+        int rows = Math.min(stripRows, height);
+        int [] in = new int[width * rows], out = new int[width * rows];
+
+        if (sink != null)
+            sink.start(width, height);
+
+        for (int top = 0; top < height; top += rows)
+        {
+            if (token != null)
+                token.throwIfCancelled();
+
+            int stripHeight = Math.min(rows, height - top);
+            final ArgbImage src = new ArgbImage(in, width, stripHeight, width);
+            final ArgbImage dst = new ArgbImage(out, width, stripHeight, width);
+
+            source.read(top, src);
+            executor.execute(stripHeight, new RowKernel()
+            {
+                public void processRows(int firstRow, int lastRow)
+                {
+                    kernel.processRows(src, dst, firstRow, lastRow);
+                }
+            }, token);
+
+            if (sink != null)
+                sink.write(dst);
+        }
+
+        if (sink != null)
+            sink.finish();
+    }
+}
@@ -0,0 +1,297 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   Binarizations whose threshold is derived from the image itself
+ *   rather than chosen up front, so that they hold up under lighting
+ *   which varies between captures or across a single capture.
+ *
+ *   Otsu's method picks one global threshold from a 256-bin histogram,
+ *   which is gathered in a single pass over the image. The adaptive
+ *   methods compare every pixel with the statistics of the window
+ *   around it, read from an IntegralImage, so that they cost the same
+ *   per pixel whatever the size of the window.
+ */
+
+public final class ThresholdKernels
+{
+    /**
+     *   The largest window radius supported by sauvola(), whose windows
+     *   must stay within IntegralImage.MAX_SQUARE_AREA pixels.
+     */
+
+    public static final int MAX_SAUVOLA_RADIUS = 90;
+
+    /**
+     *   The dynamic range of the standard deviation in Sauvola's
+     *   formula, for 8-bit gray levels.
+     */
+
+    private static final double SAUVOLA_RANGE = 128;
+
+    private ThresholdKernels() {}
+
+    /**
+     *   Adds the gray levels of a band of rows of an image to a
+     *   histogram. Histograms of disjoint bands can be summed into the
+     *   histogram of their union.
+     *
+     *   @param src
+     *       The image.
+     *
+     *   @param bins
+     *       The 256 bins to add to, indexed by gray level.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void histogram(GrayImage src, int [] bins, int firstRow, int lastRow)
+    {
+        checkRows(src, firstRow, lastRow);
+        if (bins.length < 256)
+            throw new IllegalArgumentException("A histogram needs 256 bins, got " + bins.length);
+
+        int width = src.getWidth(), stride = src.getStride();
+        byte [] in = src.getPixels();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int row = y * stride;
+
+            for (int x = 0; x < width; x++)
+                bins[in[row + x] & 0xFF]++;
+        }
+    }
+
+    /**
+     *   Variant of histogram() which adds the gray levels of a truecolor
+     *   image, as computed by PixelKernels.luma(), without materialising
+     *   a gray image first.
+     */
+
+    public static void histogram(ArgbImage src, int [] bins, int firstRow, int lastRow)
+    {
+        PixelKernels.checkRows(src, firstRow, lastRow);
+        if (bins.length < 256)
+            throw new IllegalArgumentException("A histogram needs 256 bins, got " + bins.length);
+
+        int width = src.getWidth(), stride = src.getStride();
+        int [] in = src.getPixels();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int row = y * stride;
+
+            for (int x = 0; x < width; x++)
+                bins[PixelKernels.luma(in[row + x])]++;
+        }
+    }
+
+    /**
+     *   Chooses the threshold which maximizes the between-class variance
+     *   of the black and white pixels, by Otsu's method.
+     *
+     *   @param histogram
+     *       The 256-bin histogram of the image.
+     *
+     *   @return
+     *       The gray level at and above which pixels become white, or 0
+     *       if the histogram holds fewer than two distinct levels.
+     */
+
+    public static int otsu(int [] histogram)
+    {
+        long total = 0, totalSum = 0;
+
+        for (int level = 0; level < 256; level++)
+        {
+            total += histogram[level];
+            totalSum += (long) level * histogram[level];
+        }
+
+        long blackCount = 0, blackSum = 0;
+        double bestVariance = 0;
+        int threshold = 0;
+
+        for (int level = 0; level < 255; level++)
+        {
+            blackCount += histogram[level];
+            blackSum += (long) level * histogram[level];
+
+            long whiteCount = total - blackCount;
+            if (blackCount == 0)
+                continue;
+            if (whiteCount == 0)
+                break;
+
+            double difference = (double) blackSum / blackCount - (double) (totalSum - blackSum) / whiteCount;
+            double variance = (double) blackCount * whiteCount * difference * difference;
+
+            if (variance > bestVariance)
+            {
+                bestVariance = variance;
+                threshold = level + 1;
+            }
+        }
+
+        return threshold;
+    }
+
+    /**
+     *   Packs a binary image of a band of rows of src into dst, whose
+     *   white pixels are at least the mean of the surrounding window
+     *   minus offset.
+     *
+     *   @param src
+     *       The gray image.
+     *
+     *   @param integral
+     *       The IntegralImage of src.
+     *
+     *   @param dst
+     *       The destination mask, which must be the same size as src.
+     *
+     *   @param radius
+     *       The distance from a pixel to the edges of its window, which is
+     *       2 * radius + 1 pixels wide and high and clipped to the image.
+     *
+     *   @param offset
+     *       The amount by which a pixel may fall below the mean of its
+     *       window and still become white.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void adaptiveMean(GrayImage src, IntegralImage integral, BitMask dst, int radius, int offset,
+                                    int firstRow, int lastRow)
+    {
+        checkWindow(src, integral, dst, radius, IntegralImage.MAX_SUM_AREA);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth(), height = src.getHeight();
+        int inStride = src.getStride(), wordsPerRow = dst.getWordsPerRow();
+        byte [] in = src.getPixels();
+        long [] out = dst.getWords();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int top = Math.max(0, y - radius), bottom = Math.min(height, y + radius + 1);
+            int inRow = y * inStride, outRow = y * wordsPerRow;
+
+            for (int word = 0; word < wordsPerRow; word++)
+            {
+                int start = word << 6, end = Math.min(start + 64, width);
+                long bits = 0;
+
+                for (int x = start; x < end; x++)
+                {
+                    int left = Math.max(0, x - radius), right = Math.min(width, x + radius + 1);
+                    long area = (right - left) * (bottom - top);
+                    long sum = integral.sum(left, top, right, bottom);
+
+                    if ((in[inRow + x] & 0xFF) * area >= sum - offset * area)
+                        bits |= 1L << x;
+                }
+
+                out[outRow + word] = bits;
+            }
+        }
+    }
+
+    /**
+     *   Packs a binary image of a band of rows of src into dst by
+     *   Sauvola's method, under which a pixel becomes white if it is at
+     *   least mean * (1 + k * (deviation / 128 - 1)), where mean and
+     *   deviation are the statistics of the surrounding window. Unlike
+     *   adaptiveMean(), this keeps flat regions of the background white.
+     *
+     *   @param src
+     *       The gray image.
+     *
+     *   @param integral
+     *       The IntegralImage of src, with sums of squares.
+     *
+     *   @param dst
+     *       The destination mask, which must be the same size as src.
+     *
+     *   @param radius
+     *       The distance from a pixel to the edges of its window, which is
+     *       2 * radius + 1 pixels wide and high and clipped to the image.
+     *       At most MAX_SAUVOLA_RADIUS.
+     *
+     *   @param k
+     *       The sensitivity to the local contrast, typically 0.2 to 0.5.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void sauvola(GrayImage src, IntegralImage integral, BitMask dst, int radius, double k,
+                               int firstRow, int lastRow)
+    {
+        checkWindow(src, integral, dst, radius, IntegralImage.MAX_SQUARE_AREA);
+        checkRows(src, firstRow, lastRow);
+        if (!integral.hasSquares())
+            throw new IllegalArgumentException("Sauvola's method needs an IntegralImage with sums of squares");
+
+        int width = src.getWidth(), height = src.getHeight();
+        int inStride = src.getStride(), wordsPerRow = dst.getWordsPerRow();
+        byte [] in = src.getPixels();
+        long [] out = dst.getWords();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int top = Math.max(0, y - radius), bottom = Math.min(height, y + radius + 1);
+            int inRow = y * inStride, outRow = y * wordsPerRow;
+
+            for (int word = 0; word < wordsPerRow; word++)
+            {
+                int start = word << 6, end = Math.min(start + 64, width);
+                long bits = 0;
+
+                for (int x = start; x < end; x++)
+                {
+                    int left = Math.max(0, x - radius), right = Math.min(width, x + radius + 1);
+                    double area = (right - left) * (bottom - top);
+                    double mean = integral.sum(left, top, right, bottom) / area;
+                    double variance = integral.sumOfSquares(left, top, right, bottom) / area - mean * mean;
+                    double deviation = variance > 0 ? Math.sqrt(variance) : 0;
+
+                    if ((in[inRow + x] & 0xFF) >= mean * (1 + k * (deviation / SAUVOLA_RANGE - 1)))
+                        bits |= 1L << x;
+                }
+
+                out[outRow + word] = bits;
+            }
+        }
+    }
+
+    private static void checkWindow(GrayImage src, IntegralImage integral, BitMask dst, int radius, int maxArea)
+    {
+        if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight())
+            throw new IllegalArgumentException("Source is " + src.getWidth() + "x" + src.getHeight()
+                    + " but destination is " + dst.getWidth() + "x" + dst.getHeight());
+        if (src.getWidth() != integral.getWidth() || src.getHeight() != integral.getHeight())
+            throw new IllegalArgumentException("Source is " + src.getWidth() + "x" + src.getHeight()
+                    + " but the integral image is " + integral.getWidth() + "x" + integral.getHeight());
+        if (radius < 0 || (2L * radius + 1) * (2L * radius + 1) > maxArea)
+            throw new IllegalArgumentException("Unsupported window radius " + radius);
+    }
+
+    private static void checkRows(GrayImage image, int firstRow, int lastRow)
+    {
+        if (firstRow < 0 || lastRow > image.getHeight() || firstRow > lastRow)
+            throw new IllegalArgumentException("Rows " + firstRow + " to " + lastRow
+                    + " are outside of an image of height " + image.getHeight());
+    }
+}
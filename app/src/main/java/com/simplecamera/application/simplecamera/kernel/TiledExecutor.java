@@ -0,0 +1,267 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *   Runs a RowKernel over an image by splitting it into bands of
+ *   tileRows rows and handing the bands out to a fixed pool of worker
+ *   threads, with the calling thread working alongside them.
+ *
+ *   Since every band covers different rows, the result does not depend
+ *   on how the bands are scheduled, and is identical to running the
+ *   kernel over the whole image on one thread. An executor built with a
+ *   single thread never starts a pool and simply runs the bands in
+ *   order on the calling thread.
+ */
+
+public class TiledExecutor
+{
+    public static final int DEFAULT_TILE_ROWS = 64;
+
+    private static TiledExecutor defaultExecutor;
+
+    private final ExecutorService pool;
+    private final int threads, tileRows;
+
+    /**
+     *   Creates an executor with its own pool of worker threads.
+     *
+     *   @param threads
+     *       The total number of threads working on an image, including
+     *       the calling thread. 1 runs everything on the calling thread.
+     *
+     *   @param tileRows
+     *       The number of rows in each band.
+     */
+
+    public TiledExecutor(int threads, int tileRows)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is required, got " + threads);
+        if (tileRows < 1)
+            throw new IllegalArgumentException("Bands must hold at least one row, got " + tileRows);
+
+        this.threads = threads;
+        this.tileRows = tileRows;
+        this.pool = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, new WorkerFactory());
+    }
+
+    /**
+     *   Returns a shared executor with one thread per available core and
+     *   bands of DEFAULT_TILE_ROWS rows, creating it on first use.
+     *
+     *   @return
+     *       The shared TiledExecutor.
+     */
+
+    public static synchronized TiledExecutor getDefault()
+    {
+        if (defaultExecutor == null)
+            defaultExecutor = new TiledExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_ROWS);
+
+        return defaultExecutor;
+    }
+
+    public int getThreads() { return threads; }
+    public int getTileRows() { return tileRows; }
+
+    /**
+     *   Applies kernel to every row of an image and waits for all of the
+     *   work to finish.
+     *
+     *   @param height
+     *       The number of rows in the image.
+     *
+     *   @param kernel
+     *       The work to apply to each band.
+     *
+     *   @param token
+     *       A token which stops the work between bands once cancelled,
+     *       or null if the work cannot be cancelled.
+     *
+     *   @throws CancellationException
+     *       If token was cancelled or the calling thread was interrupted
+     *       before every band was processed. Rows which were not reached
+     *       are left untouched.
+     */
+
+    public void execute(int height, RowKernel kernel, CancellationToken token)
+    {
+        execute(height, kernel, token, null);
+    }
+
+    /**
+     *   Variant of execute() which also reports progress after each band.
+     *
+     *   @param height
+     *       The number of rows in the image.
+     *
+     *   @param kernel
+     *       The work to apply to each band.
+     *
+     *   @param token
+     *       A token which stops the work between bands once cancelled,
+     *       or null if the work cannot be cancelled.
+     *
+     *   @param listener
+     *       The listener to notify as bands complete, or null.
+     *
+     *   @throws CancellationException
+     *       If token was cancelled or the calling thread was interrupted
+     *       before every band was processed.
+     */
+
+    public void execute(int height, RowKernel kernel, CancellationToken token, ProgressListener listener)
+    {
+        int bands = (height + tileRows - 1) / tileRows;
+        BandWorker worker = new BandWorker(height, bands, kernel, token, listener);
+
+        if (pool == null || bands < 2)
+        {
+            worker.run();
+            throwIfStopped(token, false);
+            return;
+        }
+
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = Math.min(threads, bands) - 1; i > 0; i--)
+            helpers.add(pool.submit(worker));
+
+        Throwable failure = null;
+        boolean interrupted = false;
+
+        try
+        {
+            worker.run();
+        }
+        catch (RuntimeException | Error e)
+        {
+            failure = e;
+            worker.stop();
+        }
+
+        /*
+
+            Always wait for every helper, even after a failure or an
+            interrupt, so that no thread is still writing into the
+            caller's buffers once this method returns.
+
+        */
+
+        for (Future<?> helper : helpers)
+            while (true)
+            {
+                try
+                {
+                    helper.get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                    worker.stop();
+                }
+                catch (ExecutionException e)
+                {
+                    if (failure == null)
+                        failure = e.getCause();
+                    worker.stop();
+                    break;
+                }
+            }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure != null)
+            throw new RuntimeException(failure);
+
+        throwIfStopped(token, interrupted);
+    }
+
+    /**
+     *   Stops the worker threads of this executor. Work already handed
+     *   to execute() is allowed to finish.
+     */
+
+    public void shutdown()
+    {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    private static void throwIfStopped(CancellationToken token, boolean interrupted)
+    {
+        if (interrupted)
+            throw new CancellationException("Interrupted while processing an image");
+        if (token != null)
+            token.throwIfCancelled();
+    }
+
+    /**
+     *   Claims bands one at a time from a shared counter until none are
+     *   left, the token is cancelled or the work is stopped.
+     */
+
+    private class BandWorker implements Runnable
+    {
+        private final AtomicInteger nextBand = new AtomicInteger(), rowsDone = new AtomicInteger();
+        private final int height, bands;
+        private final RowKernel kernel;
+        private final CancellationToken token;
+        private final ProgressListener listener;
+
+        BandWorker(int height, int bands, RowKernel kernel, CancellationToken token, ProgressListener listener)
+        {
+            this.height = height;
+            this.bands = bands;
+            this.kernel = kernel;
+            this.token = token;
+            this.listener = listener;
+        }
+
+        public void run()
+        {
+            int band;
+
+            while ((band = nextBand.getAndIncrement()) < bands)
+            {
+                if (token != null && token.isCancelled())
+                    return;
+
+                int firstRow = band * tileRows, lastRow = Math.min(firstRow + tileRows, height);
+                kernel.processRows(firstRow, lastRow);
+
+                if (listener != null)
+                    listener.onProgress(rowsDone.addAndGet(lastRow - firstRow), height);
+            }
+        }
+
+        void stop() { nextBand.set(bands); }
+    }
+
+    private static class WorkerFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable task)
+        {
+            Thread worker = new Thread(task, "TiledExecutor-" + count.incrementAndGet());
+            worker.setDaemon(true);
+
+            return worker;
+        }
+    }
+}
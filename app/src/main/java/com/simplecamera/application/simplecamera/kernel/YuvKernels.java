@@ -0,0 +1,356 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+/**
+ *   Kernels which work directly on NV21 camera frames, without a JPEG or
+ *   Bitmap conversion in between, and write displayable ARGB results.
+ *
+ *   Grayscale and binary results come straight from the luma plane: a
+ *   grayscale GrayImage is a plain copy of it, and a binary result can be
+ *   packed one bit per pixel into a BitMask in a single pass. The
+ *   CIE L*a*b* results convert each row to sRGB with the full range
+ *   BT.601 equations used by the camera's JPEG encoder, and then apply
+ *   the same LabConverter kernels as BitmapManager while the row is
+ *   still in the cache.
+ *
+ *   Like the kernels of PixelKernels, every method comes in a row-band
+ *   form so that TiledExecutor can split the work.
+ */
+
+public final class YuvKernels
+{
+    /*
+
+        Full range BT.601 YCbCr to RGB coefficients in 16.16 fixed point.
+
+    */
+
+    private static final int RED_V = 91881;
+    private static final int GREEN_U = 22554, GREEN_V = 46802;
+    private static final int BLUE_U = 116130;
+
+    private YuvKernels() {}
+
+    /**
+     *   Converts one full range YCbCr sample to an opaque ARGB pixel.
+     *
+     *   @param luma
+     *       The Y sample, from 0 to 255.
+     *
+     *   @param u
+     *       The U (Cb) sample, from 0 to 255.
+     *
+     *   @param v
+     *       The V (Cr) sample, from 0 to 255.
+     *
+     *   @return
+     *       The packed ARGB pixel.
+     */
+
+    public static int argb(int luma, int u, int v)
+    {
+        int base = (luma << 16) + (1 << 15);
+        u -= 128;
+        v -= 128;
+
+        int red = clamp((base + RED_V * v) >> 16);
+        int green = clamp((base - GREEN_U * u - GREEN_V * v) >> 16);
+        int blue = clamp((base + BLUE_U * u) >> 16);
+
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     *   Writes the luma plane of src into the red, green and blue channels
+     *   of dst.
+     *
+     *   @param src
+     *       The NV21 frame.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void toGray(Nv21Image src, ArgbImage dst, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        byte [] in = src.getData();
+        int [] out = dst.getPixels();
+        int outStride = dst.getStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * width, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = 0xFF000000 | ((in[inRow + x] & 0xFF) * 0x010101);
+        }
+    }
+
+    /**
+     *   Copies the luma plane of src into a single-channel image, one row
+     *   at a time with System.arraycopy().
+     *
+     *   @param src
+     *       The NV21 frame.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void toGray(Nv21Image src, GrayImage dst, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth(), outStride = dst.getStride();
+        byte [] in = src.getData(), out = dst.getPixels();
+
+        if (outStride == width)
+            System.arraycopy(in, firstRow * width, out, firstRow * width, (lastRow - firstRow) * width);
+        else
+            for (int y = firstRow; y < lastRow; y++)
+                System.arraycopy(in, y * width, out, y * outStride, width);
+    }
+
+    /**
+     *   Packs a binary image of src into dst in one pass over the luma
+     *   plane. A pixel is white, or set, if its luma is greater than or
+     *   equal to threshold.
+     *
+     *   @param src
+     *       The NV21 frame.
+     *
+     *   @param dst
+     *       The destination mask, which must be the same size as src.
+     *
+     *   @param threshold
+     *       The luma at and above which pixels become white.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void threshold(Nv21Image src, BitMask dst, int threshold, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth(), wordsPerRow = dst.getWordsPerRow();
+        byte [] in = src.getData();
+        long [] out = dst.getWords();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * width, outRow = y * wordsPerRow;
+
+            for (int word = 0; word < wordsPerRow; word++)
+            {
+                int start = word << 6, end = Math.min(start + 64, width);
+                long bits = 0;
+
+                for (int x = start; x < end; x++)
+                    bits |= (long)(~((in[inRow + x] & 0xFF) - threshold) >>> 31) << x;
+
+                out[outRow + word] = bits;
+            }
+        }
+    }
+
+    /**
+     *   Writes a byte mask of src into dst in one pass over the luma plane:
+     *   255 where the luma is greater than or equal to threshold, and 0
+     *   elsewhere.
+     *
+     *   @param src
+     *       The NV21 frame.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param threshold
+     *       The luma at and above which pixels become white.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void threshold(Nv21Image src, GrayImage dst, int threshold, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth(), outStride = dst.getStride();
+        byte [] in = src.getData(), out = dst.getPixels();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * width, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = (byte)(((in[inRow + x] & 0xFF) - threshold) >> 31 ^ -1);
+        }
+    }
+
+    /**
+     *   Writes a binary image of src into dst, whose white pixels have a
+     *   luma greater than or equal to threshold and whose black pixels
+     *   have a lower luma.
+     *
+     *   @param src
+     *       The NV21 frame.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param threshold
+     *       The luma at and above which pixels become white.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void binarize(Nv21Image src, ArgbImage dst, int threshold, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        byte [] in = src.getData();
+        int [] out = dst.getPixels();
+        int outStride = dst.getStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * width, outRow = y * outStride;
+
+            for (int x = 0; x < width; x++)
+                out[outRow + x] = (in[inRow + x] & 0xFF) < threshold ? 0xFF000000 : 0xFFFFFFFF;
+        }
+    }
+
+    /**
+     *   Converts src to opaque sRGB pixels in dst.
+     *
+     *   @param src
+     *       The NV21 frame.
+     *
+     *   @param dst
+     *       The destination image, which must be the same size as src.
+     *
+     *   @param firstRow
+     *       The first row to process.
+     *
+     *   @param lastRow
+     *       The row just past the last one to process.
+     */
+
+    public static void toArgb(Nv21Image src, ArgbImage dst, int firstRow, int lastRow)
+    {
+        checkSizes(src, dst);
+        checkRows(src, firstRow, lastRow);
+
+        int width = src.getWidth();
+        byte [] in = src.getData();
+        int [] out = dst.getPixels();
+        int outStride = dst.getStride();
+        int chromaOffset = src.getChromaOffset(), chromaStride = src.getChromaStride();
+
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            int inRow = y * width, outRow = y * outStride;
+            int chromaRow = chromaOffset + (y >> 1) * chromaStride;
+
+            for (int x = 0; x < width; x++)
+            {
+                int chroma = chromaRow + (x & ~1);
+
+                out[outRow + x] = argb(in[inRow + x] & 0xFF, in[chroma + 1] & 0xFF, in[chroma] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     *   Writes the encoded CIE L*a*b* representation of src into dst, as
+     *   LabConverter.toLab() does for an sRGB image.
+     */
+
+    public static void toLab(Nv21Image src, ArgbImage dst, int firstRow, int lastRow)
+    {
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            toArgb(src, dst, y, y + 1);
+            LabConverter.toLab(dst, dst, y, y + 1);
+        }
+    }
+
+    /**
+     *   Writes the encoded a* channel of src into the red, green and blue
+     *   channels of dst, as LabConverter.extractA() does for an sRGB image.
+     */
+
+    public static void extractA(Nv21Image src, ArgbImage dst, int firstRow, int lastRow)
+    {
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            toArgb(src, dst, y, y + 1);
+            LabConverter.extractA(dst, dst, y, y + 1);
+        }
+    }
+
+    /**
+     *   Writes the encoded b* channel of src into the red, green and blue
+     *   channels of dst, as LabConverter.extractB() does for an sRGB image.
+     */
+
+    public static void extractB(Nv21Image src, ArgbImage dst, int firstRow, int lastRow)
+    {
+        for (int y = firstRow; y < lastRow; y++)
+        {
+            toArgb(src, dst, y, y + 1);
+            LabConverter.extractB(dst, dst, y, y + 1);
+        }
+    }
+
+    static void checkSizes(Nv21Image src, ImageBuffer dst)
+    {
+        if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight())
+            throw new IllegalArgumentException("Source is " + src.getWidth() + "x" + src.getHeight()
+                    + " but destination is " + dst.getWidth() + "x" + dst.getHeight());
+    }
+
+    static void checkRows(Nv21Image src, int firstRow, int lastRow)
+    {
+        if (firstRow < 0 || lastRow > src.getHeight() || firstRow > lastRow)
+            throw new IllegalArgumentException("Rows " + firstRow + " to " + lastRow
+                    + " are outside of an image of height " + src.getHeight());
+    }
+
+    private static int clamp(int value)
+    {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
@@ -0,0 +1,131 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Runs batches over a local folder of PNM images, as on a desktop JVM.
+ */
+
+public class BatchAnalyzerTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Pipeline.Composition GRAY = new Pipeline.Composition()
+    {
+        public Pipeline.Node compose(Pipeline.Node source) { return source.gray(); }
+    };
+
+    private static final Pipeline.Composition LAB = new Pipeline.Composition()
+    {
+        public Pipeline.Node compose(Pipeline.Node source) { return source.lab(); }
+    };
+
+    private BatchAnalyzer analyzer()
+    {
+        Map<String, Pipeline.Composition> operations = new LinkedHashMap<>();
+        operations.put("gray", GRAY);
+        operations.put("lab", LAB);
+
+        return new BatchAnalyzer(new PnmCodec(), operations, new TiledExecutor(1, 4), 2, 2);
+    }
+
+    private ArgbImage writeImage(String name, int seed) throws IOException
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(9, 7, seed);
+        CaptureWriter.writeFully(new File(folder.getRoot(), name), new PnmCodec().encode(image, false));
+
+        return image;
+    }
+
+    private static void append(File file, String text) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file, true);
+
+        try
+        {
+            out.write(text.getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    @Test
+    public void batch_writesOutputsAndSummary() throws IOException
+    {
+        ArgbImage first = writeImage("1.ppm", 1);
+        writeImage("2.ppm", 2);
+        writeImage("3.ppm", 3);
+
+        BatchAnalyzer.Report report = analyzer().run(folder.getRoot(), null, null);
+
+        assertEquals(3, report.getAnalyzed());
+        assertEquals(0, report.getFailed());
+
+        File grayFile = new File(folder.getRoot(), "1.analysis-gray.pgm");
+        ArgbImage gray = new PnmCodec().decode(grayFile);
+        ArgbImage lab = new PnmCodec().decode(new File(folder.getRoot(), "1.analysis-lab.ppm"));
+
+        assertEquals(grayFile, analyzer().getOutputFile(new File(folder.getRoot(), "1.ppm"), "gray", true));
+        for (int y = 0; y < 7; y++)
+            for (int x = 0; x < 9; x++)
+            {
+                assertEquals(PixelKernels.luma(first.getPixel(x, y)), gray.getPixel(x, y) & 0xFF);
+                assertEquals(LabConverter.labPixel(first.getPixel(x, y)), lab.getPixel(x, y));
+            }
+    }
+
+    @Test
+    public void restartedBatch_skipsFinishedImages() throws IOException
+    {
+        writeImage("1.ppm", 1);
+        writeImage("2.ppm", 2);
+        analyzer().run(folder.getRoot(), null, null);
+
+        File summary = new File(folder.getRoot(), BatchAnalyzer.SUMMARY_NAME);
+        append(summary, "9,7,1.00,1.00,1,1.00,1.00,1.00,3,3.pp");
+        writeImage("3.ppm", 3);
+
+        BatchAnalyzer.Report report = analyzer().run(folder.getRoot(), null, null);
+
+        assertEquals(1, report.getAnalyzed());
+        assertEquals(2, report.getSkipped());
+        assertEquals(0, analyzer().run(folder.getRoot(), null, null).getAnalyzed());
+    }
+
+    @Test
+    public void unreadableImage_failsAloneAndIsRetried() throws IOException
+    {
+        writeImage("1.ppm", 1);
+        CaptureWriter.writeFully(new File(folder.getRoot(), "2.ppm"), new byte[] {'P', '6', ' ', '9'});
+
+        final int [] failures = new int[1];
+        BatchAnalyzer.Report report = analyzer().run(folder.getRoot(), new BatchAnalyzer.Listener()
+        {
+            public void onAnalyzed(File source, int done, int total) {}
+
+            public synchronized void onFailed(File source, Exception error)
+            {
+                assertEquals("2.ppm", source.getName());
+                failures[0]++;
+            }
+        }, null);
+
+        assertEquals(1, report.getAnalyzed());
+        assertEquals(1, report.getFailed());
+        assertEquals(1, failures[0]);
+        assertEquals(1, analyzer().run(folder.getRoot(), null, null).getFailed());
+    }
+}
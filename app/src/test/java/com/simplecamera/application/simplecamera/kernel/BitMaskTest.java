@@ -0,0 +1,51 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks the bit layout of BitMask.
+ */
+
+public class BitMaskTest
+{
+    @Test
+    public void rows_startOnTheirOwnWord()
+    {
+        BitMask mask = new BitMask(65, 3);
+
+        assertEquals(2, mask.getWordsPerRow());
+        assertEquals(48, mask.getByteCount());
+
+        mask.set(64, 0, true);
+        mask.set(0, 1, true);
+        mask.set(63, 2, true);
+
+        assertEquals(1L, mask.getWords()[1]);
+        assertEquals(1L, mask.getWords()[2]);
+        assertEquals(Long.MIN_VALUE, mask.getWords()[4]);
+        assertEquals(3, mask.countWhite());
+
+        assertTrue(mask.get(64, 0));
+        assertFalse(mask.get(63, 0));
+
+        mask.set(64, 0, false);
+        assertFalse(mask.get(64, 0));
+        assertEquals(2, mask.countWhite());
+    }
+
+    @Test
+    public void toArgb_expandsToBlackAndWhite()
+    {
+        BitMask mask = new BitMask(3, 1);
+        ArgbImage image = new ArgbImage(3, 1);
+
+        mask.set(1, 0, true);
+        mask.toArgb(image, 0, 1);
+
+        assertEquals(0xFF000000, image.getPixel(0, 0));
+        assertEquals(0xFFFFFFFF, image.getPixel(1, 0));
+        assertEquals(0xFF000000, image.getPixel(2, 0));
+    }
+}
@@ -0,0 +1,155 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks that CaptureWriter persists captures completely and reports
+ *   failures.
+ */
+
+public class CaptureWriterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte [] readFile(File file) throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try
+        {
+            byte [] data = new byte[(int) in.length()];
+            in.readFully(data);
+
+            return data;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test
+    public void write_createsTheDirectoryAndWritesEveryByte() throws Exception
+    {
+        byte [] data = new byte[300000];
+        new Random(5).nextBytes(data);
+        File target = new File(folder.getRoot(), "SimpleCamera/1.jpg");
+        final AtomicReference<File> written = new AtomicReference<>();
+
+        CaptureWriter writer = new CaptureWriter();
+        File result = writer.write(target, data, new CaptureWriter.Listener()
+        {
+            public void onWritten(File file) { written.set(file); }
+            public void onFailed(File file, IOException error) { fail(error.toString()); }
+        }).get();
+        writer.shutdown();
+
+        assertEquals(target, result);
+        assertEquals(target, written.get());
+        assertArrayEquals(data, readFile(target));
+        assertFalse(new File(target.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void write_reportsFailures() throws Exception
+    {
+        File blocker = folder.newFile("blocker");
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        CaptureWriter writer = new CaptureWriter();
+
+        try
+        {
+            writer.write(new File(blocker, "1.jpg"), new byte[10], new CaptureWriter.Listener()
+            {
+                public void onWritten(File file) { fail("Wrote into a regular file"); }
+                public void onFailed(File file, IOException error) { failure.set(error); }
+            }).get();
+            fail("Expected an ExecutionException");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+
+        assertNotNull(failure.get());
+    }
+
+    @Test
+    public void dropPolicy_discardsImagesBeyondTheQueue() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        CaptureWriter writer = new CaptureWriter(2, CaptureWriter.OverflowPolicy.DROP);
+
+        Future<File> first = writer.write(folder.newFile("0.jpg"), new byte[1], new CaptureWriter.Listener()
+        {
+            public void onWritten(File file)
+            {
+                try
+                {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            public void onFailed(File file, IOException error) {}
+        });
+
+        Future<File> second = writer.write(new File(folder.getRoot(), "1.jpg"), new byte[1], null);
+        Future<File> third = writer.write(new File(folder.getRoot(), "2.jpg"), new byte[1], null);
+        Future<File> fourth = writer.write(new File(folder.getRoot(), "3.jpg"), new byte[1], null);
+
+        assertNotNull(second);
+        assertNotNull(third);
+        assertNull(fourth);
+        assertEquals(2, writer.getMaxQueueDepth());
+        assertEquals(1, writer.getDroppedCount());
+
+        release.countDown();
+        first.get();
+        third.get();
+        writer.shutdown();
+
+        assertEquals(3, writer.getWrittenCount());
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void blockPolicy_writesEveryImage() throws Exception
+    {
+        CaptureWriter writer = new CaptureWriter(1, CaptureWriter.OverflowPolicy.BLOCK);
+        Future<File> last = null;
+
+        for (int i = 0; i < 20; i++)
+            last = writer.write(new File(folder.getRoot(), i + ".jpg"), new byte[1000], null);
+
+        last.get();
+        writer.shutdown();
+
+        assertEquals(20, writer.getWrittenCount());
+        assertEquals(0, writer.getDroppedCount());
+        assertTrue(writer.getMaxQueueDepth() <= 1);
+    }
+}
@@ -0,0 +1,123 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks the keying, byte-bounded LRU eviction and invalidation of
+ *   DerivedImageCache.
+ */
+
+public class DerivedImageCacheTest
+{
+    private static DerivedImageCache.Key key(long generation, String operation, int... parameters)
+    {
+        return new DerivedImageCache.Key(generation, operation, parameters);
+    }
+
+    @Test
+    public void keys_compareGenerationOperationAndParameters()
+    {
+        assertEquals(key(1, "binary", 119), key(1, "binary", 119));
+        assertEquals(key(1, "binary", 119).hashCode(), key(1, "binary", 119).hashCode());
+
+        assertNotEquals(key(1, "binary", 119), key(1, "binary", 120));
+        assertNotEquals(key(1, "binary", 119), key(2, "binary", 119));
+        assertNotEquals(key(1, "gray"), key(1, "lab"));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedByBytes()
+    {
+        DerivedImageCache cache = new DerivedImageCache(3 * 400);
+        ArgbImage a = new ArgbImage(10, 10), b = new ArgbImage(10, 10), c = new ArgbImage(10, 10);
+
+        cache.put(key(1, "a"), a);
+        cache.put(key(1, "b"), b);
+        cache.put(key(1, "c"), c);
+        assertEquals(1200, cache.byteCount());
+
+        assertSame(a, cache.get(key(1, "a")));
+        cache.put(key(1, "d"), new GrayImage(20, 20));
+
+        assertNull(cache.get(key(1, "b")));
+        assertSame(a, cache.get(key(1, "a")));
+        assertSame(c, cache.get(key(1, "c")));
+        assertEquals(1200, cache.byteCount());
+    }
+
+    @Test
+    public void put_refusesImagesLargerThanTheCache()
+    {
+        DerivedImageCache cache = new DerivedImageCache(100);
+
+        assertFalse(cache.put(key(1, "big"), new ArgbImage(10, 10)));
+        assertTrue(cache.put(key(1, "small"), new GrayImage(10, 10)));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void put_replacesAnExistingEntry()
+    {
+        DerivedImageCache cache = new DerivedImageCache(1000);
+        GrayImage second = new GrayImage(5, 5);
+
+        cache.put(key(1, "gray"), new GrayImage(10, 10));
+        cache.put(key(1, "gray"), second);
+
+        assertSame(second, cache.get(key(1, "gray")));
+        assertEquals(25, cache.byteCount());
+    }
+
+    @Test
+    public void evictOlderThan_dropsOnlyEarlierGenerations()
+    {
+        DerivedImageCache cache = new DerivedImageCache(10000);
+
+        cache.put(key(1, "gray"), new GrayImage(10, 10));
+        cache.put(key(2, "gray"), new GrayImage(10, 10));
+        cache.put(key(3, "lab"), new GrayImage(10, 10));
+        cache.evictOlderThan(3);
+
+        assertNull(cache.get(key(1, "gray")));
+        assertNull(cache.get(key(2, "gray")));
+        assertNotNull(cache.get(key(3, "lab")));
+        assertEquals(100, cache.byteCount());
+
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.byteCount());
+    }
+
+    @Test
+    public void evictionListener_seesEveryImageThatLeaves()
+    {
+        DerivedImageCache cache = new DerivedImageCache(200);
+        final List<ImageBuffer> evicted = new ArrayList<>();
+        GrayImage a = new GrayImage(10, 10), b = new GrayImage(10, 10), c = new GrayImage(10, 10);
+
+        cache.setEvictionListener(new DerivedImageCache.EvictionListener()
+        {
+            public void onEvicted(DerivedImageCache.Key key, ImageBuffer image) { evicted.add(image); }
+        });
+
+        cache.put(key(1, "a"), a);
+        cache.put(key(1, "b"), b);
+        cache.put(key(2, "c"), c);
+        assertEquals(1, evicted.size());
+        assertSame(a, evicted.get(0));
+
+        cache.evictOlderThan(2);
+        assertSame(b, evicted.get(1));
+
+        assertFalse(cache.put(key(2, "big"), new GrayImage(20, 20)));
+        assertEquals(2, evicted.size());
+
+        cache.evictAll();
+        assertSame(c, evicted.get(2));
+    }
+}
@@ -0,0 +1,146 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Stores results in a temporary directory and reads them back, through
+ *   the same and through a newly opened cache.
+ */
+
+public class DiskResultCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String SOURCE = DiskResultCache.digest(new byte[] {1, 2, 3});
+
+    private static DerivedImageCache.Key key(String operation, int... parameters)
+    {
+        return new DerivedImageCache.Key(1, operation, parameters);
+    }
+
+    @Test
+    public void digest_matchesKnownValueForBytesAndFiles() throws IOException
+    {
+        File file = folder.newFile("abc");
+        CaptureWriter.writeFully(file, "abc".getBytes("UTF-8"));
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                DiskResultCache.digest("abc".getBytes("UTF-8")));
+        assertEquals(DiskResultCache.digest("abc".getBytes("UTF-8")), DiskResultCache.digest(file));
+    }
+
+    @Test
+    public void results_roundTripAcrossInstances() throws IOException
+    {
+        File directory = new File(folder.getRoot(), "results");
+        DiskResultCache cache = new DiskResultCache(directory, 1 << 20);
+
+        ArgbImage argb = TestImages.randomImage(13, 5, 16, 1);
+        GrayImage gray = new GrayImage(9, 4);
+        BitMask mask = new BitMask(70, 3);
+        ImageStatistics statistics = new ImageStatistics();
+
+        for (int i = 0; i < gray.getPixels().length; i++)
+            gray.getPixels()[i] = (byte)(i * 7);
+        mask.set(0, 0, true);
+        mask.set(69, 2, true);
+        statistics.accumulate(argb, null, 0, argb.getHeight());
+
+        assertTrue(cache.putImage(SOURCE, key("lab"), argb));
+        assertTrue(cache.putImage(SOURCE, key("gray"), gray));
+        assertTrue(cache.putImage(SOURCE, key("binary", 128), mask));
+        assertTrue(cache.putStatistics(SOURCE, key("statistics"), statistics));
+
+        DiskResultCache reopened = new DiskResultCache(directory, 1 << 20);
+        assertEquals(4, reopened.size());
+        assertEquals(cache.byteCount(), reopened.byteCount());
+
+        ArgbImage argbBack = (ArgbImage) reopened.getImage(SOURCE, key("lab"));
+        GrayImage grayBack = (GrayImage) reopened.getImage(SOURCE, key("gray"));
+        BitMask maskBack = (BitMask) reopened.getImage(SOURCE, key("binary", 128));
+        ImageStatistics statisticsBack = reopened.getStatistics(SOURCE, key("statistics"));
+
+        for (int y = 0; y < argb.getHeight(); y++)
+            for (int x = 0; x < argb.getWidth(); x++)
+                assertEquals(argb.getPixel(x, y), argbBack.getPixel(x, y));
+        assertArrayEquals(gray.getPixels(), grayBack.getPixels());
+        assertArrayEquals(mask.getWords(), maskBack.getWords());
+        assertEquals(70, maskBack.getWidth());
+        assertEquals(statistics.getPixelCount(), statisticsBack.getPixelCount());
+        for (ImageStatistics.Channel channel : ImageStatistics.Channel.values())
+            assertArrayEquals(statistics.getHistogram(channel), statisticsBack.getHistogram(channel));
+    }
+
+    /**
+     *   A capture analyzed while it was still in memory is reopened from
+     *   its file after a restart, whose digest finds the same results.
+     */
+
+    @Test
+    public void reopenedCaptureFile_findsResultsOfItsBytes() throws IOException
+    {
+        byte [] jpeg = {(byte) 0xFF, (byte) 0xD8, 42, 7, (byte) 0xFF, (byte) 0xD9};
+        File directory = new File(folder.getRoot(), "results");
+        File capture = new File(folder.getRoot(), "capture.jpg");
+        GrayImage gray = new GrayImage(4, 4);
+        gray.setPixel(1, 2, 200);
+
+        DiskResultCache cache = new DiskResultCache(directory, 1 << 20);
+        assertTrue(cache.putImage(DiskResultCache.digest(jpeg), key("gray"), gray));
+        CaptureWriter.writeFully(capture, jpeg);
+
+        DiskResultCache reopened = new DiskResultCache(directory, 1 << 20);
+        GrayImage back = (GrayImage) reopened.getImage(DiskResultCache.digest(capture),
+                new DerivedImageCache.Key(2, "gray"));
+
+        assertNotNull(back);
+        assertEquals(200, back.getPixel(1, 2));
+    }
+
+    @Test
+    public void keys_includeSourceOperationAndParameters() throws IOException
+    {
+        DiskResultCache cache = new DiskResultCache(folder.getRoot(), 1 << 20);
+        cache.putImage(SOURCE, key("binary", 128), new BitMask(8, 8));
+
+        assertNotNull(cache.getImage(SOURCE, new DerivedImageCache.Key(99, "binary", 128)));
+        assertNull(cache.getImage(SOURCE, key("binary", 127)));
+        assertNull(cache.getImage(SOURCE, key("gray", 128)));
+        assertNull(cache.getImage(DiskResultCache.digest(new byte[] {4}), key("binary", 128)));
+        assertNull(cache.getStatistics(SOURCE, key("binary", 128)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedEntries() throws IOException
+    {
+        GrayImage image = new GrayImage(100, 10);
+        long entryBytes = 16 + 1000;
+        DiskResultCache cache = new DiskResultCache(folder.getRoot(), 3 * entryBytes);
+
+        cache.putImage(SOURCE, key("a"), image);
+        cache.putImage(SOURCE, key("b"), image);
+        cache.putImage(SOURCE, key("c"), image);
+        assertNotNull(cache.getImage(SOURCE, key("a")));
+        cache.putImage(SOURCE, key("d"), image);
+
+        assertEquals(3, cache.size());
+        assertEquals(3 * entryBytes, cache.byteCount());
+        assertEquals(3, folder.getRoot().listFiles().length);
+        assertNull(cache.getImage(SOURCE, key("b")));
+        assertNotNull(cache.getImage(SOURCE, key("a")));
+        assertFalse(cache.putImage(SOURCE, key("e"), new GrayImage(100, 100)));
+
+        DiskResultCache smaller = new DiskResultCache(folder.getRoot(), entryBytes);
+        assertEquals(1, smaller.size());
+        assertEquals(1, folder.getRoot().listFiles().length);
+    }
+}
@@ -0,0 +1,31 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks the frame rate reported by FrameRateMeter.
+ */
+
+public class FrameRateMeterTest
+{
+    @Test
+    public void framesPerSecond_coversFirstToLastFrame()
+    {
+        FrameRateMeter meter = new FrameRateMeter();
+        assertEquals(0, meter.getFramesPerSecond(), 0);
+
+        meter.frame(1000000000L);
+        assertEquals(0, meter.getFramesPerSecond(), 0);
+
+        for (int i = 1; i <= 10; i++)
+            meter.frame(1000000000L + i * 250000000L);
+
+        assertEquals(11, meter.getFrameCount());
+        assertEquals(4, meter.getFramesPerSecond(), 1e-9);
+
+        meter.reset();
+        assertEquals(0, meter.getFrameCount());
+    }
+}
@@ -0,0 +1,93 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks that ImageStatistics agrees with direct computations, across
+ *   bands, regions and its fused L*a*b* conversion.
+ */
+
+public class ImageStatisticsTest
+{
+    @Test
+    public void derivedValues_matchKnownPixels()
+    {
+        ArgbImage image = new ArgbImage(new int[] {0xFF000000, 0xFF0A0A0A, 0xFF141414, 0xFFFFFFFF}, 4, 1, 4);
+        ImageStatistics statistics = new ImageStatistics();
+
+        statistics.accumulate(image, null, 0, 1);
+
+        assertEquals(4, statistics.getPixelCount());
+        assertEquals(0, statistics.getMin(ImageStatistics.Channel.GRAY));
+        assertEquals(255, statistics.getMax(ImageStatistics.Channel.GRAY));
+        assertEquals(71.25, statistics.getMean(ImageStatistics.Channel.GRAY), 1e-9);
+        assertEquals((71.25 * 71.25 + 61.25 * 61.25 + 51.25 * 51.25 + 183.75 * 183.75) / 4,
+                statistics.getVariance(ImageStatistics.Channel.GRAY), 1e-9);
+        assertEquals(10, statistics.getPercentile(ImageStatistics.Channel.GRAY, 0.5));
+        assertEquals(20, statistics.getPercentile(ImageStatistics.Channel.GRAY, 0.75));
+        assertEquals(128, statistics.getMin(ImageStatistics.Channel.A));
+        assertEquals(255, statistics.getMax(ImageStatistics.Channel.L));
+    }
+
+    @Test
+    public void mergedBands_equalOnePass()
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(13, 9, 31);
+        ImageStatistics whole = new ImageStatistics(), top = new ImageStatistics(), bottom = new ImageStatistics();
+
+        whole.accumulate(image, null, 0, 9);
+        top.accumulate(image, null, 0, 4);
+        bottom.accumulate(image, null, 4, 9);
+        top.merge(bottom);
+
+        assertEquals(whole.getPixelCount(), top.getPixelCount());
+        for (ImageStatistics.Channel channel : ImageStatistics.Channel.values())
+            assertArrayEquals(whole.getHistogram(channel), top.getHistogram(channel));
+    }
+
+    @Test
+    public void fusedConversion_matchesLabConverter()
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(13, 9, 31);
+        ArgbImage expected = new ArgbImage(13, 9), fused = new ArgbImage(13, 9);
+        ImageStatistics separate = new ImageStatistics(), converted = new ImageStatistics();
+        ImageStatistics fromLab = new ImageStatistics();
+
+        LabConverter.toLab(image, expected);
+        separate.accumulate(image, null, 0, 9);
+        converted.accumulateAndConvert(image, fused, null, 0, 9);
+        fromLab.accumulateFromLab(image, expected, null, 0, 9);
+
+        assertArrayEquals(expected.getPixels(), fused.getPixels());
+        for (ImageStatistics.Channel channel : ImageStatistics.Channel.values())
+        {
+            assertArrayEquals(separate.getHistogram(channel), converted.getHistogram(channel));
+            assertArrayEquals(separate.getHistogram(channel), fromLab.getHistogram(channel));
+        }
+    }
+
+    @Test
+    public void region_limitsThePixelsCounted()
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(13, 9, 31);
+        ImageRegion region = new ImageRegion(2, 3, 7, 8);
+        ImageStatistics statistics = new ImageStatistics();
+        int [] expected = new int[256];
+
+        statistics.accumulate(image, region, 0, 9);
+        for (int y = 3; y < 8; y++)
+            for (int x = 2; x < 7; x++)
+                expected[PixelKernels.luma(image.getPixel(x, y))]++;
+
+        assertEquals(25, statistics.getPixelCount());
+        assertArrayEquals(expected, statistics.getHistogram(ImageStatistics.Channel.GRAY));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyStatistics_haveNoMean()
+    {
+        new ImageStatistics().getMean(ImageStatistics.Channel.L);
+    }
+}
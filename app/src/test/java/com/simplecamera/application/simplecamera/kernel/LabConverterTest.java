@@ -0,0 +1,89 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks the table-driven LabConverter against the double precision
+ *   reference in PixelKernels.
+ */
+
+public class LabConverterTest
+{
+    @Test
+    public void labPixel_staysWithinOneOfReference()
+    {
+        int pixels = 0, exact = 0;
+
+        for (int red = 0; red < 256; red += 3)
+            for (int green = 0; green < 256; green += 3)
+                for (int blue = 0; blue < 256; blue += 3)
+                {
+                    int argb = 0xFF000000 | (red << 16) | (green << 8) | blue;
+                    int expected = PixelKernels.labPixel(argb), actual = LabConverter.labPixel(argb);
+
+                    for (int shift = 0; shift < 24; shift += 8)
+                        assertTrue(String.format("%06X", argb & 0xFFFFFF),
+                                Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF)) <= 1);
+
+                    pixels++;
+                    if (expected == actual)
+                        exact++;
+                }
+
+        assertTrue(exact + " of " + pixels + " exact", exact >= pixels * 0.999);
+    }
+
+    @Test
+    public void labPixel_hitsEndpointsExactly()
+    {
+        assertEquals(PixelKernels.labPixel(0xFFFFFFFF), LabConverter.labPixel(0xFFFFFFFF));
+        assertEquals(PixelKernels.labPixel(0xFF000000), LabConverter.labPixel(0xFF000000));
+        assertEquals(0x12000000, LabConverter.labPixel(0x12000000) & 0xFF000000);
+    }
+
+    @Test
+    public void toLab_convertsWholeImage()
+    {
+        ArgbImage src = new ArgbImage(new int[] {0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0xFF808080}, 2, 2, 2);
+        ArgbImage dst = new ArgbImage(2, 2);
+
+        LabConverter.toLab(src, dst);
+
+        for (int i = 0; i < 4; i++)
+            assertEquals(LabConverter.labPixel(src.getPixels()[i]), dst.getPixels()[i]);
+    }
+
+    @Test
+    public void extractChannels_matchFullConversion()
+    {
+        int [] pixels = new int[256];
+
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = (i << 24) | (i * 0x9E3779B1 >>> 8);
+
+        ArgbImage src = new ArgbImage(pixels, 16, 16, 16);
+        ArgbImage lab = new ArgbImage(16, 16), spreadA = new ArgbImage(16, 16), spreadB = new ArgbImage(16, 16);
+        ArgbImage expectedA = new ArgbImage(16, 16), expectedB = new ArgbImage(16, 16);
+        GrayImage a = new GrayImage(16, 16), b = new GrayImage(16, 16);
+
+        LabConverter.toLab(src, lab);
+        PixelKernels.extractA(lab, expectedA);
+        PixelKernels.extractB(lab, expectedB);
+
+        LabConverter.extractA(src, a);
+        LabConverter.extractB(src, b);
+        LabConverter.extractA(src, spreadA);
+        LabConverter.extractB(src, spreadB);
+
+        assertArrayEquals(expectedA.getPixels(), spreadA.getPixels());
+        assertArrayEquals(expectedB.getPixels(), spreadB.getPixels());
+
+        for (int i = 0; i < pixels.length; i++)
+        {
+            assertEquals((lab.getPixels()[i] >> 8) & 0xFF, a.getPixels()[i] & 0xFF);
+            assertEquals(lab.getPixels()[i] & 0xFF, b.getPixels()[i] & 0xFF);
+        }
+    }
+}
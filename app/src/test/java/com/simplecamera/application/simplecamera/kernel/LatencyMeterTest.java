@@ -0,0 +1,36 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks the latencies reported by LatencyMeter.
+ */
+
+public class LatencyMeterTest
+{
+    @Test
+    public void latencies_summarizeRecordedIntervals()
+    {
+        LatencyMeter meter = new LatencyMeter("open");
+        assertEquals(0, meter.getMeanMillis(), 0);
+        assertEquals(0, meter.getMinMillis(), 0);
+
+        meter.record(30000000L);
+        meter.record(10000000L);
+        assertEquals(20000000L, meter.record(20000000L));
+
+        assertEquals(3, meter.getCount());
+        assertEquals(20, meter.getLastMillis(), 1e-9);
+        assertEquals(20, meter.getMeanMillis(), 1e-9);
+        assertEquals(10, meter.getMinMillis(), 1e-9);
+        assertEquals(30, meter.getMaxMillis(), 1e-9);
+        assertTrue(meter.toString().startsWith("open: last 20.0 ms"));
+        assertTrue(meter.stop(System.nanoTime() - 1000000L) >= 1000000L);
+
+        meter.reset();
+        assertEquals(0, meter.getCount());
+        assertEquals(0, meter.getMaxMillis(), 0);
+    }
+}
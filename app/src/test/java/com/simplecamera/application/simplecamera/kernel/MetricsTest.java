@@ -0,0 +1,119 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks the timers, counters, gauges, tracing and event ring of Metrics.
+ */
+
+public class MetricsTest
+{
+    @After
+    public void tearDown()
+    {
+        Metrics.setEnabled(false);
+        Metrics.setTracer(null);
+        Metrics.reset();
+    }
+
+    @Test
+    public void disabled_recordsNothing()
+    {
+        Metrics.setEnabled(false);
+        long start = Metrics.start("decode");
+        assertEquals(0, start);
+
+        Metrics.stop("decode", start, 100);
+        Metrics.count("hits", 1);
+        Metrics.gauge("bytes", 10);
+
+        assertNull(Metrics.getTimer("decode"));
+        assertNull(Metrics.getCounter("hits"));
+        assertNull(Metrics.getGauge("bytes"));
+        assertTrue(Metrics.getRecentEvents().isEmpty());
+    }
+
+    @Test
+    public void enabled_accumulatesAndTraces()
+    {
+        final List<String> sections = new ArrayList<>();
+        Metrics.setTracer(new Metrics.Tracer()
+        {
+            public void beginSection(String name) { sections.add("begin " + name); }
+            public void endSection() { sections.add("end"); }
+        });
+        Metrics.setEnabled(true);
+
+        for (int i = 0; i < 2; i++)
+            Metrics.stop("gray", Metrics.start("gray"), 1000000);
+        Metrics.count("hits", 2);
+        Metrics.count("hits", 3);
+        Metrics.gauge("bytes", 40);
+        Metrics.gauge("bytes", 10);
+
+        Metrics.Timer timer = Metrics.getTimer("gray");
+        assertEquals(2, timer.getCount());
+        assertEquals(2000000, timer.getPixels());
+        assertTrue(timer.getMaxNanos() * 2 >= timer.getTotalNanos());
+        assertEquals(5, Metrics.getCounter("hits").getValue());
+        assertEquals(10, Metrics.getGauge("bytes").getValue());
+        assertEquals(40, Metrics.getGauge("bytes").getMax());
+        assertEquals(4, sections.size());
+        assertEquals("begin gray", sections.get(0));
+        assertEquals("end", sections.get(1));
+
+        String dump = Metrics.dump();
+        assertTrue(dump.contains("gray: 2"));
+        assertTrue(dump.contains("hits: 5"));
+        assertTrue(dump.contains("bytes: 10, max 40"));
+    }
+
+    @Test
+    public void record_addsIntervalsWithoutTracing()
+    {
+        final List<String> sections = new ArrayList<>();
+        Metrics.setTracer(new Metrics.Tracer()
+        {
+            public void beginSection(String name) { sections.add("begin " + name); }
+            public void endSection() { sections.add("end"); }
+        });
+
+        Metrics.record("shutter", 1000000);
+        assertNull(Metrics.getTimer("shutter"));
+
+        Metrics.setEnabled(true);
+        Metrics.record("shutter", 3000000);
+        Metrics.record("shutter", 1000000);
+
+        Metrics.Timer timer = Metrics.getTimer("shutter");
+        assertEquals(2, timer.getCount());
+        assertEquals(4000000, timer.getTotalNanos());
+        assertEquals(3000000, timer.getMaxNanos());
+        assertTrue(sections.isEmpty());
+        assertTrue(Metrics.getRecentEvents().get(1).endsWith("shutter 1.00 ms"));
+    }
+
+    @Test
+    public void ring_keepsMostRecentEvents()
+    {
+        Metrics.setEnabled(true);
+
+        for (int i = 0; i < Metrics.RING_SIZE + 10; i++)
+            Metrics.gauge("level", i);
+
+        List<String> events = Metrics.getRecentEvents();
+        assertEquals(Metrics.RING_SIZE, events.size());
+        assertTrue(events.get(0).endsWith("level = 10"));
+        assertTrue(events.get(events.size() - 1).endsWith("level = " + (Metrics.RING_SIZE + 9)));
+
+        Metrics.reset();
+        assertTrue(Metrics.getRecentEvents().isEmpty());
+        assertNull(Metrics.getGauge("level"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks that a fused Pipeline gives the same results as running the
+ *   separate kernels one full image at a time.
+ */
+
+public class PipelineTest
+{
+    @Test
+    public void fusedChannel_matchesLabConverter()
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(37, 11, 53);
+        GrayImage expected = new GrayImage(37, 11);
+        Pipeline pipeline = new Pipeline();
+        Pipeline.Output<GrayImage> viaLab = pipeline.source().lab().channel(ImageStatistics.Channel.A).toGray();
+        Pipeline.Output<GrayImage> direct = pipeline.source().channel(ImageStatistics.Channel.A).toGray();
+
+        LabConverter.extractA(image, expected);
+        pipeline.run(image, new TiledExecutor(2, 3), null);
+
+        assertArrayEquals(expected.getPixels(), viaLab.get().getPixels());
+        assertArrayEquals(expected.getPixels(), direct.get().getPixels());
+    }
+
+    @Test
+    public void branches_shareOnePass()
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(70, 9, 53), gray = new ArgbImage(70, 9);
+        Pipeline pipeline = new Pipeline();
+        Pipeline.Node luma = pipeline.source().gray();
+        Pipeline.Output<ArgbImage> grayOutput = luma.toArgb();
+        Pipeline.Output<BitMask> mask = luma.threshold(100).toMask();
+        Pipeline.Output<int []> histogram = luma.histogram();
+        Pipeline.Output<ArgbImage> lab = pipeline.source().lab().toArgb();
+        int [] expected = new int[256];
+
+        pipeline.run(image, new TiledExecutor(2, 4), null);
+        PixelKernels.toGray(image, gray);
+        ThresholdKernels.histogram(image, expected, 0, 9);
+
+        assertArrayEquals(gray.getPixels(), grayOutput.get().getPixels());
+        assertArrayEquals(expected, histogram.get());
+        for (int y = 0; y < 9; y++)
+            for (int x = 0; x < 70; x++)
+            {
+                assertEquals((gray.getPixel(x, y) & 0xFF) >= 100, mask.get().get(x, y));
+                assertEquals(LabConverter.labPixel(image.getPixel(x, y)), lab.get().getPixel(x, y));
+            }
+    }
+
+    @Test
+    public void lookups_composeAndOutputsAreReused()
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(13, 5, 53);
+        Pipeline pipeline = new Pipeline();
+        Pipeline.Output<GrayImage> output = pipeline.source().gray().invert().threshold(200).invert().toGray();
+
+        pipeline.run(image);
+        GrayImage first = output.get();
+        pipeline.run(image);
+
+        assertSame(first, output.get());
+        for (int y = 0; y < 5; y++)
+            for (int x = 0; x < 13; x++)
+                assertEquals(255 - PixelKernels.luma(image.getPixel(x, y)) >= 200 ? 0 : 255, first.getPixel(x, y));
+    }
+
+    @Test
+    public void stripKernel_writesInPlace()
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(6, 4, 53), expected = new ArgbImage(6, 4);
+        StripKernel kernel = new Pipeline().source().channel(ImageStatistics.Channel.B).threshold(129).asStripKernel();
+
+        LabConverter.extractB(image, expected);
+        kernel.processRows(image, image, 0, 4);
+
+        for (int i = 0; i < expected.getPixels().length; i++)
+            assertEquals((expected.getPixels()[i] & 0xFF) >= 129 ? 0xFFFFFFFF : 0xFF000000, image.getPixels()[i]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stages_checkTheirInputFormat()
+    {
+        new Pipeline().source().lab().threshold(10);
+    }
+}
@@ -0,0 +1,63 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks that PixelBufferPool reuses released buffers of matching
+ *   length and stays bounded.
+ */
+
+public class PixelBufferPoolTest
+{
+    @Test
+    public void acquire_reusesReleasedBuffersOfTheSameLength()
+    {
+        PixelBufferPool pool = new PixelBufferPool(4);
+        int [] ints = pool.acquireInts(100);
+        byte [] bytes = pool.acquireBytes(100);
+
+        pool.release(ints);
+        pool.release(bytes);
+
+        assertNotSame(ints, pool.acquireInts(99));
+        assertSame(ints, pool.acquireInts(100));
+        assertSame(bytes, pool.acquireBytes(100));
+        assertEquals(3, pool.getAllocationCount());
+    }
+
+    @Test
+    public void acquire_reachesSteadyStateWithoutAllocating()
+    {
+        PixelBufferPool pool = new PixelBufferPool();
+
+        for (int i = 0; i < 100; i++)
+        {
+            ArgbImage argb = pool.acquireArgb(16, 8);
+            GrayImage gray = pool.acquireGray(16, 8);
+
+            pool.release(argb);
+            pool.release(gray);
+        }
+
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(2, pool.getFreeCount());
+    }
+
+    @Test
+    public void release_dropsTheOldestBeyondTheLimit()
+    {
+        PixelBufferPool pool = new PixelBufferPool(2);
+        int [] first = new int[1], second = new int[2], third = new int[3];
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        assertEquals(2, pool.getFreeCount());
+        assertSame(third, pool.acquireInts(3));
+        assertSame(second, pool.acquireInts(2));
+        assertNotSame(first, pool.acquireInts(1));
+    }
+}
@@ -0,0 +1,185 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Regression tests for the reference kernels behind BitmapManager.
+ */
+
+public class PixelKernelsTest
+{
+    private static ArgbImage imageOf(int width, int height, int... pixels)
+    {
+        return new ArgbImage(pixels.clone(), width, height, width);
+    }
+
+    @Test
+    public void gray_keepsExtremesAndAlpha()
+    {
+        ArgbImage src = imageOf(3, 1, 0xFFFFFFFF, 0xFF000000, 0x80FF0000);
+        ArgbImage dst = new ArgbImage(3, 1);
+
+        PixelKernels.toGray(src, dst);
+
+        assertEquals(0xFFFFFFFF, dst.getPixel(0, 0));
+        assertEquals(0xFF000000, dst.getPixel(1, 0));
+        assertEquals(0x80363636, dst.getPixel(2, 0));
+    }
+
+    @Test
+    public void gray_usesColorMatrixWeights()
+    {
+        assertEquals(54, PixelKernels.luma(0xFFFF0000));
+        assertEquals(182, PixelKernels.luma(0xFF00FF00));
+        assertEquals(18, PixelKernels.luma(0xFF0000FF));
+    }
+
+    @Test
+    public void threshold_splitsOnRedChannel()
+    {
+        ArgbImage gray = imageOf(3, 1, 0xFF767676, 0xFF777777, 0xFF787878);
+
+        PixelKernels.threshold(gray, gray, 119);
+
+        assertEquals(0xFF000000, gray.getPixel(0, 0));
+        assertEquals(0xFFFFFFFF, gray.getPixel(1, 0));
+        assertEquals(0xFFFFFFFF, gray.getPixel(2, 0));
+    }
+
+    @Test
+    public void threshold_honoursStride()
+    {
+        int [] pixels = {0xFF000000, 0xFFFFFFFF, 0x12345678, 0xFFFFFFFF, 0xFF000000, 0x12345678};
+        ArgbImage image = new ArgbImage(pixels, 2, 2, 3);
+
+        PixelKernels.threshold(image, image, 128);
+
+        assertEquals(0x12345678, pixels[2]);
+        assertEquals(0x12345678, pixels[5]);
+        assertEquals(0xFFFFFFFF, image.getPixel(0, 1));
+    }
+
+    @Test
+    public void binarize_matchesGrayThenThresholdThroughRgb565()
+    {
+        ArgbImage src = TestImages.randomOpaqueImage(64, 64, 7);
+
+        for (int threshold = -1; threshold <= 257; threshold++)
+        {
+            ArgbImage fused = new ArgbImage(64, 64), twoPass = new ArgbImage(64, 64);
+
+            PixelKernels.binarize(src, fused, threshold);
+
+            PixelKernels.toGray(src, twoPass);
+            for (int i = 0; i < twoPass.getPixels().length; i++)
+            {
+                int red5 = (twoPass.getPixels()[i] >> 19) & 0x1F;
+                twoPass.getPixels()[i] = 0xFF000000 | ((red5 << 3) | (red5 >> 2)) << 16;
+            }
+            PixelKernels.threshold(twoPass, twoPass, threshold);
+
+            assertArrayEquals("threshold " + threshold, twoPass.getPixels(), fused.getPixels());
+        }
+    }
+
+    @Test
+    public void lab_matchesKnownColors()
+    {
+        ArgbImage src = imageOf(4, 1, 0xFFFFFFFF, 0xFF000000, 0xFFFF0000, 0xFF0000FF);
+
+        PixelKernels.toLab(src, src);
+
+        // White lands a hair below b* = 0 and is truncated to 127, exactly as ColorUtils does.
+        assertEquals(0xFFFF807F, src.getPixel(0, 0));
+        assertEquals(0xFF008080, src.getPixel(1, 0));
+
+        // sRGB red is L* 53.24, a* 80.09, b* 67.20; blue is L* 32.30, a* 79.19, b* -107.86.
+        assertEquals(0xFF87D0C3, src.getPixel(2, 0));
+        assertEquals(0xFF52CF14, src.getPixel(3, 0));
+    }
+
+    @Test
+    public void extractChannels_spreadIntoGray()
+    {
+        ArgbImage lab = imageOf(1, 1, 0xFF87D0C3);
+        ArgbImage a = new ArgbImage(1, 1), b = new ArgbImage(1, 1);
+
+        PixelKernels.extractA(lab, a);
+        PixelKernels.extractB(lab, b);
+
+        assertEquals(0xFFD0D0D0, a.getPixel(0, 0));
+        assertEquals(0xFFC3C3C3, b.getPixel(0, 0));
+    }
+
+    @Test
+    public void binarizeGray_matchesBinarizeOfTheSource()
+    {
+        ArgbImage src = TestImages.randomOpaqueImage(64, 16, 11);
+        ArgbImage gray = new ArgbImage(64, 16);
+        ArgbImage expected = new ArgbImage(64, 16), actual = new ArgbImage(64, 16);
+        PixelKernels.toGray(src, gray);
+
+        for (int threshold : new int[] {0, 1, 119, 200, 255})
+        {
+            PixelKernels.binarize(src, expected, threshold);
+            PixelKernels.binarizeGray(gray, actual, threshold, 0, 16);
+
+            assertArrayEquals("threshold " + threshold, expected.getPixels(), actual.getPixels());
+        }
+    }
+
+    @Test
+    public void cachedLab_feedsTheSameChannelsAsTheFusedKernels()
+    {
+        ArgbImage src = TestImages.randomOpaqueImage(32, 8, 13), lab = new ArgbImage(32, 8);
+        LabConverter.toLab(src, lab);
+
+        ArgbImage fused = new ArgbImage(32, 8), reused = new ArgbImage(32, 8);
+        LabConverter.extractA(src, fused);
+        PixelKernels.extractA(lab, reused, 0, 8);
+        assertArrayEquals(fused.getPixels(), reused.getPixels());
+
+        GrayImage fusedB = new GrayImage(32, 8), copiedB = new GrayImage(32, 8);
+        LabConverter.extractB(src, fusedB);
+        PixelKernels.copyChannel(lab, copiedB, 0, 0, 8);
+        assertArrayEquals(fusedB.getPixels(), copiedB.getPixels());
+    }
+
+    @Test
+    public void compactOutputs_matchTheArgbKernels()
+    {
+        ArgbImage src = TestImages.randomOpaqueImage(70, 5, 17);
+        ArgbImage gray = new ArgbImage(70, 5), binary = new ArgbImage(70, 5);
+
+        GrayImage compactGray = new GrayImage(70, 5);
+        BitMask fromSource = new BitMask(70, 5), fromGray = new BitMask(70, 5);
+
+        PixelKernels.toGray(src, gray);
+        PixelKernels.toGray(src, compactGray, 0, 5);
+        PixelKernels.binarize(src, binary, 128);
+        PixelKernels.binarize(src, fromSource, 128, 0, 2);
+        PixelKernels.binarize(src, fromSource, 128, 2, 5);
+        PixelKernels.binarize(compactGray, fromGray, 128, 0, 5);
+
+        ArgbImage expanded = new ArgbImage(70, 2);
+        compactGray.toArgbStrip(3, expanded);
+
+        for (int y = 0; y < 5; y++)
+            for (int x = 0; x < 70; x++)
+            {
+                assertEquals(gray.getPixel(x, y) & 0xFF, compactGray.getPixel(x, y));
+                assertEquals(binary.getPixel(x, y) == 0xFFFFFFFF, fromSource.get(x, y));
+                assertEquals(fromSource.get(x, y), fromGray.get(x, y));
+                if (y >= 3)
+                    assertEquals(gray.getPixel(x, y), expanded.getPixel(x, y - 3));
+            }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void kernels_rejectMismatchedSizes()
+    {
+        PixelKernels.toGray(new ArgbImage(2, 2), new ArgbImage(2, 3));
+    }
+}
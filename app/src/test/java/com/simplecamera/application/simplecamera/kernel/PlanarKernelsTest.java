@@ -0,0 +1,75 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks PlanarImage packing and that the PlanarKernels match their
+ *   packed counterparts.
+ */
+
+public class PlanarKernelsTest
+{
+    @Test
+    public void unpackAndPack_roundTrip()
+    {
+        ArgbImage src = TestImages.randomImage(67, 5, 70, 1);
+        PlanarImage planar = new PlanarImage(67, 5);
+        ArgbImage dst = new ArgbImage(67, 5);
+
+        planar.unpack(src);
+        planar.pack(dst);
+
+        for (int y = 0; y < 5; y++)
+            for (int x = 0; x < 67; x++)
+            {
+                assertEquals(src.getPixel(x, y), planar.getPixel(x, y));
+                assertEquals(src.getPixel(x, y), dst.getPixel(x, y));
+            }
+
+        assertEquals((src.getPixel(3, 2) >> 8) & 0xFF, planar.asGray(planar.getGreen()).getPixel(3, 2));
+        assertEquals(4 * 67 * 5, planar.getByteCount());
+    }
+
+    @Test
+    public void grayAndBinarize_matchPackedKernels()
+    {
+        ArgbImage src = TestImages.randomImage(130, 4, 130, 2);
+        PlanarImage planar = new PlanarImage(130, 4);
+        planar.unpack(src);
+
+        GrayImage expectedGray = new GrayImage(130, 4), gray = new GrayImage(130, 4);
+        PixelKernels.toGray(src, expectedGray, 0, 4);
+        PlanarKernels.toGray(planar, gray, 0, 2);
+        PlanarKernels.toGray(planar, gray, 2, 4);
+        assertArrayEquals(expectedGray.getPixels(), gray.getPixels());
+
+        for (int threshold : new int[] {0, 1, 119, 200, 255})
+        {
+            BitMask expected = new BitMask(130, 4), actual = new BitMask(130, 4);
+            PixelKernels.binarize(src, expected, threshold, 0, 4);
+            PlanarKernels.binarize(planar, actual, threshold, 0, 4);
+            assertArrayEquals("threshold " + threshold, expected.getWords(), actual.getWords());
+        }
+    }
+
+    @Test
+    public void toLab_matchesLabConverter()
+    {
+        ArgbImage src = TestImages.randomImage(40, 6, 40, 3);
+        ArgbImage expected = new ArgbImage(40, 6), actual = new ArgbImage(40, 6);
+        LabConverter.toLab(src, expected);
+
+        PlanarImage planar = new PlanarImage(40, 6), lab = new PlanarImage(40, 6);
+        planar.unpack(src);
+        PlanarKernels.toLab(planar, lab, 0, 3);
+        PlanarKernels.toLab(planar, lab, 3, 6);
+        lab.pack(actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+
+        PlanarKernels.toLab(planar, planar, 0, 6);
+        planar.pack(actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+}
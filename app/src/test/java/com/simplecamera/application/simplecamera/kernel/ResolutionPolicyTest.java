@@ -0,0 +1,57 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Chooses among the picture sizes of a typical 4:3 sensor which also
+ *   offers 16:9 crops.
+ */
+
+public class ResolutionPolicyTest
+{
+    private static final List<ResolutionPolicy.Size> SIZES = Arrays.asList(
+            size(4000, 3000), size(3840, 2160), size(2592, 1944), size(1920, 1080), size(1600, 1200),
+            size(1280, 720), size(640, 480), size(320, 240));
+
+    private static ResolutionPolicy.Size size(int width, int height)
+    {
+        return new ResolutionPolicy.Size(width, height);
+    }
+
+    @Test
+    public void smallestAndTargetMegapixels_chooseByPixelCount()
+    {
+        assertEquals(size(320, 240), ResolutionPolicy.smallest().choose(SIZES));
+        assertEquals(size(1920, 1080), ResolutionPolicy.targetMegapixels(2).choose(SIZES));
+        assertEquals(size(2592, 1944), ResolutionPolicy.targetMegapixels(5).choose(SIZES));
+        assertEquals(size(4000, 3000), ResolutionPolicy.targetMegapixels(40).choose(SIZES));
+        assertNull(ResolutionPolicy.targetMegapixels(2).choose(Collections.<ResolutionPolicy.Size>emptyList()));
+    }
+
+    @Test
+    public void minimumDetail_choosesSmallestSizeWithEnoughPixels()
+    {
+        assertEquals(size(1280, 720), ResolutionPolicy.minimumDetail(720, 0).choose(SIZES));
+        assertEquals(size(1600, 1200), ResolutionPolicy.minimumDetail(1000, 1500).choose(SIZES));
+        assertEquals(size(4000, 3000), ResolutionPolicy.minimumDetail(5000, 0).choose(SIZES));
+    }
+
+    @Test
+    public void matchingAspect_ignoresOrientationAndFallsBackToNearestRatio()
+    {
+        ResolutionPolicy portraitWide = ResolutionPolicy.minimumDetail(720, 0).matchingAspect(1080, 1920);
+        ResolutionPolicy fourThirds = ResolutionPolicy.smallest().matchingAspect(1200, 1600);
+        ResolutionPolicy ultraWide = ResolutionPolicy.targetMegapixels(8).matchingAspect(2560, 1080);
+
+        assertEquals(size(1280, 720), portraitWide.choose(SIZES));
+        assertEquals(size(320, 240), fourThirds.choose(SIZES));
+        assertEquals(size(3840, 2160), ultraWide.choose(SIZES));
+        assertEquals(size(1920, 1088), portraitWide.choose(Arrays.asList(size(1920, 1088), size(640, 480))));
+    }
+}
@@ -0,0 +1,103 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks that streaming an image in strips gives the same result as
+ *   processing it whole, and the output of PnmWriter.
+ */
+
+public class StripStreamerTest
+{
+    /**
+     *   Serves the rows of an in-memory image and records the strips asked for.
+     */
+
+    private static class ImageSource implements StripSource
+    {
+        final ArgbImage image;
+        final List<Integer> heights = new ArrayList<>();
+
+        ImageSource(ArgbImage image) { this.image = image; }
+
+        public int getWidth() { return image.getWidth(); }
+        public int getHeight() { return image.getHeight(); }
+
+        public void read(int top, ArgbImage strip)
+        {
+            heights.add(strip.getHeight());
+            for (int y = 0; y < strip.getHeight(); y++)
+                for (int x = 0; x < strip.getWidth(); x++)
+                    strip.setPixel(x, y, image.getPixel(x, top + y));
+        }
+    }
+
+    private static final StripKernel GRAY = new StripKernel()
+    {
+        public void processRows(ArgbImage src, ArgbImage dst, int firstRow, int lastRow)
+        {
+            PixelKernels.toGray(src, dst, firstRow, lastRow);
+        }
+    };
+
+    @Test
+    public void stream_matchesWholeImage() throws IOException
+    {
+        ArgbImage image = TestImages.randomOpaqueImage(5, 23, 41), expected = new ArgbImage(5, 23);
+        ImageSource source = new ImageSource(image);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        PixelKernels.toGray(image, expected);
+        new StripStreamer(new TiledExecutor(2, 3), 10).stream(source, GRAY, new PnmWriter(out, true), null);
+
+        assertEquals(3, source.heights.size());
+        assertEquals(Integer.valueOf(3), source.heights.get(2));
+
+        byte [] pgm = out.toByteArray();
+        byte [] header = "P5\n5 23\n255\n".getBytes(Charset.forName("US-ASCII"));
+
+        assertEquals(header.length + 5 * 23, pgm.length);
+        for (int i = 0; i < header.length; i++)
+            assertEquals(header[i], pgm[i]);
+        for (int y = 0; y < 23; y++)
+            for (int x = 0; x < 5; x++)
+                assertEquals(expected.getPixel(x, y) & 0xFF, pgm[header.length + y * 5 + x] & 0xFF);
+    }
+
+    @Test
+    public void pnmWriter_writesRgbTriples() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PnmWriter writer = new PnmWriter(out, false);
+
+        writer.start(2, 1);
+        writer.write(new ArgbImage(new int[] {0xFF102030, 0xFFA0B0C0}, 2, 1, 2));
+        writer.finish();
+
+        byte [] ppm = out.toByteArray();
+        int header = "P6\n2 1\n255\n".length();
+
+        assertEquals(header + 6, ppm.length);
+        assertEquals(0x10, ppm[header] & 0xFF);
+        assertEquals(0x30, ppm[header + 2] & 0xFF);
+        assertEquals(0xC0, ppm[header + 5] & 0xFF);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void pnmWriter_rejectsMissingRows() throws IOException
+    {
+        PnmWriter writer = new PnmWriter(new ByteArrayOutputStream(), true);
+
+        writer.start(2, 2);
+        writer.write(new ArgbImage(2, 1));
+        writer.finish();
+    }
+}
@@ -0,0 +1,64 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import java.util.Random;
+
+/**
+ *   Images of pseudo-random pixels shared by the kernel tests, which
+ *   compare fast paths against reference ones and so only need pixels
+ *   that are reproducible and varied.
+ */
+
+final class TestImages
+{
+    private TestImages() {}
+
+    /**
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @param stride
+     *       The distance between the starts of two rows. The array ends
+     *       with the last pixel of the last row, so a stride greater than
+     *       the width also tests that padding is never read past.
+     *
+     *   @param seed
+     *       The seed of the pixels.
+     *
+     *   @return
+     *       An image whose pixels, alpha included, are random.
+     */
+
+    static ArgbImage randomImage(int width, int height, int stride, long seed)
+    {
+        Random random = new Random(seed);
+        int [] pixels = new int[(height - 1) * stride + width];
+
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt();
+
+        return new ArgbImage(pixels, width, height, stride);
+    }
+
+    static ArgbImage randomImage(int width, int height, long seed)
+    {
+        return randomImage(width, height, width, seed);
+    }
+
+    /**
+     *   @return
+     *       An image of random colours which are all fully opaque.
+     */
+
+    static ArgbImage randomOpaqueImage(int width, int height, long seed)
+    {
+        ArgbImage image = randomImage(width, height, seed);
+
+        for (int i = 0; i < image.getPixels().length; i++)
+            image.getPixels()[i] |= 0xFF000000;
+
+        return image;
+    }
+}
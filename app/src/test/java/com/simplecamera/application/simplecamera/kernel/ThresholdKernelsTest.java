@@ -0,0 +1,146 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks IntegralImage and the automatic thresholds against direct
+ *   computations over every window.
+ */
+
+public class ThresholdKernelsTest
+{
+    private static GrayImage randomImage(int width, int height)
+    {
+        GrayImage image = new GrayImage(new byte[(height - 1) * (width + 3) + width], width, height, width + 3);
+        new Random(23).nextBytes(image.getPixels());
+
+        return image;
+    }
+
+    @Test
+    public void integralImage_sumsEveryRectangle()
+    {
+        GrayImage image = randomImage(7, 5);
+        IntegralImage integral = new IntegralImage(7, 5, true);
+        integral.compute(image);
+
+        for (int top = 0; top <= 5; top++)
+            for (int bottom = top; bottom <= 5; bottom++)
+                for (int left = 0; left <= 7; left++)
+                    for (int right = left; right <= 7; right++)
+                    {
+                        int sum = 0, squares = 0;
+
+                        for (int y = top; y < bottom; y++)
+                            for (int x = left; x < right; x++)
+                            {
+                                sum += image.getPixel(x, y);
+                                squares += image.getPixel(x, y) * image.getPixel(x, y);
+                            }
+
+                        assertEquals(sum, integral.sum(left, top, right, bottom));
+                        assertEquals(squares, integral.sumOfSquares(left, top, right, bottom));
+                    }
+    }
+
+    @Test
+    public void integralImage_survivesOverflow()
+    {
+        GrayImage image = new GrayImage(3000, 3000);
+        Arrays.fill(image.getPixels(), (byte) 255);
+
+        IntegralImage integral = new IntegralImage(3000, 3000, true);
+        integral.compute(image);
+
+        assertEquals(255 * 100, integral.sum(2900, 2990, 3000, 2991));
+        assertEquals(255 * 255 * 400, integral.sumOfSquares(2980, 2980, 3000, 3000));
+    }
+
+    @Test
+    public void otsu_splitsTwoModes()
+    {
+        int [] histogram = new int[256];
+        histogram[40] = 500;
+        histogram[45] = 300;
+        histogram[200] = 200;
+        histogram[210] = 400;
+
+        int threshold = ThresholdKernels.otsu(histogram);
+
+        assertTrue(threshold > 45 && threshold <= 200);
+        assertEquals(0, ThresholdKernels.otsu(new int[256]));
+    }
+
+    @Test
+    public void histogram_addsBands()
+    {
+        GrayImage image = randomImage(9, 6);
+        int [] whole = new int[256], bands = new int[256];
+
+        ThresholdKernels.histogram(image, whole, 0, 6);
+        ThresholdKernels.histogram(image, bands, 0, 2);
+        ThresholdKernels.histogram(image, bands, 2, 6);
+
+        assertArrayEquals(whole, bands);
+        assertEquals(54, sum(whole));
+    }
+
+    @Test
+    public void adaptiveThresholds_matchWindowStatistics()
+    {
+        int width = 11, height = 8, radius = 2;
+        GrayImage image = randomImage(width, height);
+        IntegralImage integral = new IntegralImage(width, height, true);
+        BitMask mean = new BitMask(width, height), sauvola = new BitMask(width, height);
+
+        integral.compute(image);
+        ThresholdKernels.adaptiveMean(image, integral, mean, radius, 5, 0, 3);
+        ThresholdKernels.adaptiveMean(image, integral, mean, radius, 5, 3, height);
+        ThresholdKernels.sauvola(image, integral, sauvola, radius, 0.3, 0, height);
+
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+            {
+                double sum = 0, squares = 0, area = 0;
+
+                for (int v = Math.max(0, y - radius); v < Math.min(height, y + radius + 1); v++)
+                    for (int u = Math.max(0, x - radius); u < Math.min(width, x + radius + 1); u++)
+                    {
+                        sum += image.getPixel(u, v);
+                        squares += image.getPixel(u, v) * image.getPixel(u, v);
+                        area++;
+                    }
+
+                double average = sum / area;
+                double deviation = Math.sqrt(Math.max(0, squares / area - average * average));
+                int value = image.getPixel(x, y);
+
+                assertEquals(value >= average - 5, mean.get(x, y));
+                assertEquals(value >= average * (1 + 0.3 * (deviation / 128 - 1)), sauvola.get(x, y));
+            }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sauvola_rejectsWindowsTooLargeForItsTables()
+    {
+        GrayImage image = new GrayImage(4, 4);
+        IntegralImage integral = new IntegralImage(4, 4, true);
+
+        ThresholdKernels.sauvola(image, integral, new BitMask(4, 4), ThresholdKernels.MAX_SAUVOLA_RADIUS + 1, 0.2, 0, 4);
+    }
+
+    private static int sum(int [] bins)
+    {
+        int total = 0;
+
+        for (int count : bins)
+            total += count;
+
+        return total;
+    }
+}
@@ -0,0 +1,151 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks that tiled execution is deterministic, cancellable and
+ *   reports failures from its worker threads.
+ */
+
+public class TiledExecutorTest
+{
+    private static RowKernel labKernel(final ArgbImage src, final ArgbImage dst)
+    {
+        return new RowKernel()
+        {
+            public void processRows(int firstRow, int lastRow)
+            {
+                LabConverter.toLab(src, dst, firstRow, lastRow);
+            }
+        };
+    }
+
+    @Test
+    public void execute_matchesSingleThreadForAnyTiling()
+    {
+        ArgbImage src = TestImages.randomImage(37, 101, 3);
+        ArgbImage expected = new ArgbImage(37, 101);
+        LabConverter.toLab(src, expected);
+
+        for (int threads = 1; threads <= 4; threads++)
+            for (int tileRows : new int[] {1, 7, 64, 200})
+            {
+                TiledExecutor executor = new TiledExecutor(threads, tileRows);
+                ArgbImage actual = new ArgbImage(37, 101);
+
+                executor.execute(101, labKernel(src, actual), null);
+                executor.shutdown();
+
+                assertArrayEquals(threads + " threads, " + tileRows + " rows", expected.getPixels(), actual.getPixels());
+            }
+    }
+
+    @Test
+    public void execute_singleThreadRunsOnCaller()
+    {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger rows = new AtomicInteger();
+
+        new TiledExecutor(1, 4).execute(10, new RowKernel()
+        {
+            public void processRows(int firstRow, int lastRow)
+            {
+                assertSame(caller, Thread.currentThread());
+                rows.addAndGet(lastRow - firstRow);
+            }
+        }, null);
+
+        assertEquals(10, rows.get());
+    }
+
+    @Test
+    public void execute_reportsProgressForEveryRow()
+    {
+        final AtomicInteger reports = new AtomicInteger(), lastTotal = new AtomicInteger();
+        final AtomicInteger maxDone = new AtomicInteger();
+        TiledExecutor executor = new TiledExecutor(3, 10);
+
+        executor.execute(95, new RowKernel()
+        {
+            public void processRows(int firstRow, int lastRow) {}
+        }, null, new ProgressListener()
+        {
+            public void onProgress(int rowsDone, int totalRows)
+            {
+                reports.incrementAndGet();
+                lastTotal.set(totalRows);
+
+                int max;
+                while ((max = maxDone.get()) < rowsDone && !maxDone.compareAndSet(max, rowsDone));
+            }
+        });
+        executor.shutdown();
+
+        assertEquals(10, reports.get());
+        assertEquals(95, lastTotal.get());
+        assertEquals(95, maxDone.get());
+    }
+
+    @Test
+    public void execute_stopsOnceCancelled()
+    {
+        final CancellationToken token = new CancellationToken();
+        final AtomicInteger bands = new AtomicInteger();
+        TiledExecutor executor = new TiledExecutor(3, 1);
+
+        try
+        {
+            executor.execute(1000, new RowKernel()
+            {
+                public void processRows(int firstRow, int lastRow)
+                {
+                    if (bands.incrementAndGet() == 10)
+                        token.cancel();
+                }
+            }, token);
+
+            fail("Expected a CancellationException");
+        }
+        catch (CancellationException e)
+        {
+            assertTrue(bands.get() < 1000);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void execute_rethrowsWorkerFailures()
+    {
+        TiledExecutor executor = new TiledExecutor(4, 1);
+
+        try
+        {
+            executor.execute(64, new RowKernel()
+            {
+                public void processRows(int firstRow, int lastRow)
+                {
+                    if (firstRow == 40)
+                        throw new IllegalStateException("band 40");
+                }
+            }, null);
+
+            fail("Expected an IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals("band 40", e.getMessage());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
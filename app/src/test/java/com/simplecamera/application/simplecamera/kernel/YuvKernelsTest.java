@@ -0,0 +1,140 @@
+package com.simplecamera.application.simplecamera.kernel;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ *   Checks the NV21 kernels against the equivalent sRGB kernels.
+ */
+
+public class YuvKernelsTest
+{
+    private static Nv21Image randomFrame(int width, int height)
+    {
+        Nv21Image frame = new Nv21Image(width, height);
+        new Random(17).nextBytes(frame.getData());
+
+        return frame;
+    }
+
+    @Test
+    public void argb_followsFullRangeBt601()
+    {
+        assertEquals(0xFF000000, YuvKernels.argb(0, 128, 128));
+        assertEquals(0xFFFFFFFF, YuvKernels.argb(255, 128, 128));
+        assertEquals(0xFF777777, YuvKernels.argb(0x77, 128, 128));
+
+        // JPEG encodes pure red as Y 76, Cb 85, Cr 255.
+        int red = YuvKernels.argb(76, 85, 255);
+        assertTrue(((red >> 16) & 0xFF) >= 253);
+        assertTrue(((red >> 8) & 0xFF) <= 1);
+        assertTrue((red & 0xFF) <= 1);
+    }
+
+    @Test
+    public void grayAndBinary_readTheLumaPlane()
+    {
+        Nv21Image frame = randomFrame(6, 4);
+        ArgbImage gray = new ArgbImage(6, 4), binary = new ArgbImage(6, 4);
+
+        YuvKernels.toGray(frame, gray, 0, 4);
+        YuvKernels.binarize(frame, binary, 119, 0, 4);
+
+        for (int y = 0; y < 4; y++)
+            for (int x = 0; x < 6; x++)
+            {
+                int luma = frame.getLuma(x, y);
+
+                assertEquals(0xFF000000 | luma * 0x010101, gray.getPixel(x, y));
+                assertEquals(luma < 119 ? 0xFF000000 : 0xFFFFFFFF, binary.getPixel(x, y));
+            }
+    }
+
+    @Test
+    public void toArgb_sharesChromaAcrossTwoByTwoBlocks()
+    {
+        Nv21Image frame = new Nv21Image(4, 2);
+        byte [] data = frame.getData();
+        for (int i = 0; i < 8; i++)
+            data[i] = (byte) 100;
+        data[8] = (byte) 200;   // V of the left block
+        data[9] = (byte) 60;    // U of the left block
+        data[10] = (byte) 128;
+        data[11] = (byte) 128;
+
+        ArgbImage argb = new ArgbImage(4, 2);
+        YuvKernels.toArgb(frame, argb, 0, 2);
+
+        int left = YuvKernels.argb(100, 60, 200);
+        assertEquals(left, argb.getPixel(0, 0));
+        assertEquals(left, argb.getPixel(1, 1));
+        assertEquals(0xFF646464, argb.getPixel(2, 0));
+        assertEquals(0xFF646464, argb.getPixel(3, 1));
+    }
+
+    @Test
+    public void labKernels_matchLabConverterOnTheDecodedFrame()
+    {
+        Nv21Image frame = randomFrame(10, 7);
+        ArgbImage argb = new ArgbImage(10, 7), expected = new ArgbImage(10, 7), actual = new ArgbImage(10, 7);
+        YuvKernels.toArgb(frame, argb, 0, 7);
+
+        LabConverter.toLab(argb, expected);
+        YuvKernels.toLab(frame, actual, 0, 7);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+
+        LabConverter.extractA(argb, expected);
+        YuvKernels.extractA(frame, actual, 0, 7);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+
+        LabConverter.extractB(argb, expected);
+        YuvKernels.extractB(frame, actual, 0, 7);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+
+    @Test
+    public void grayImage_isACopyOfTheLumaPlane()
+    {
+        Nv21Image frame = randomFrame(12, 6);
+        GrayImage packed = new GrayImage(12, 6);
+        GrayImage padded = new GrayImage(new byte[16 * 6], 12, 6, 16);
+
+        YuvKernels.toGray(frame, packed, 0, 3);
+        YuvKernels.toGray(frame, packed, 3, 6);
+        YuvKernels.toGray(frame, padded, 0, 6);
+
+        for (int y = 0; y < 6; y++)
+            for (int x = 0; x < 12; x++)
+            {
+                assertEquals(frame.getLuma(x, y), packed.getPixel(x, y));
+                assertEquals(frame.getLuma(x, y), padded.getPixel(x, y));
+            }
+    }
+
+    @Test
+    public void masks_matchTheArgbBinarization()
+    {
+        Nv21Image frame = randomFrame(70, 5);
+        ArgbImage binary = new ArgbImage(70, 5), expanded = new ArgbImage(70, 5);
+        BitMask bits = new BitMask(70, 5);
+        GrayImage bytes = new GrayImage(70, 5);
+
+        for (int threshold : new int[] {0, 1, 119, 255, 256})
+        {
+            YuvKernels.binarize(frame, binary, threshold, 0, 5);
+            YuvKernels.threshold(frame, bits, threshold, 0, 2);
+            YuvKernels.threshold(frame, bits, threshold, 2, 5);
+            YuvKernels.threshold(frame, bytes, threshold, 0, 5);
+            bits.toArgb(expanded, 0, 5);
+
+            assertArrayEquals("threshold " + threshold, binary.getPixels(), expanded.getPixels());
+
+            for (int y = 0; y < 5; y++)
+                for (int x = 0; x < 70; x++)
+                    assertEquals(binary.getPixel(x, y) == 0xFFFFFFFF ? 255 : 0, bytes.getPixel(x, y));
+        }
+    }
+}
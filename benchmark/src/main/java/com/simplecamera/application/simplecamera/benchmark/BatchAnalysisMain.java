@@ -0,0 +1,148 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.BatchAnalyzer;
+import com.simplecamera.application.simplecamera.kernel.CaptureWriter;
+import com.simplecamera.application.simplecamera.kernel.ImageStatistics;
+import com.simplecamera.application.simplecamera.kernel.Pipeline;
+import com.simplecamera.application.simplecamera.kernel.PnmCodec;
+import com.simplecamera.application.simplecamera.kernel.TiledExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ *   Runs a BatchAnalyzer headless over a local folder, the way the app
+ *   runs it over /sdcard/SimpleCamera, and prints the images per second
+ *   it reached:
+ *
+ *       ./gradlew :benchmark:batch -PbatchArgs="--synthetic 20 1920x1080 /tmp/captures gray red-green-binary"
+ *
+ *   --synthetic first fills the folder with that many SyntheticImages
+ *   PPMs. Running the same command again only analyzes the images the
+ *   previous run did not finish.
+ */
+
+public final class BatchAnalysisMain
+{
+    private static final Map<String, Pipeline.Composition> OPERATIONS = new LinkedHashMap<>();
+
+    static
+    {
+        OPERATIONS.put("gray", new Pipeline.Composition()
+        {
+            public Pipeline.Node compose(Pipeline.Node source) { return source.gray(); }
+        });
+        OPERATIONS.put("lab", new Pipeline.Composition()
+        {
+            public Pipeline.Node compose(Pipeline.Node source) { return source.lab(); }
+        });
+        OPERATIONS.put("red-green", new Pipeline.Composition()
+        {
+            public Pipeline.Node compose(Pipeline.Node source) { return source.channel(ImageStatistics.Channel.A); }
+        });
+        OPERATIONS.put("blue-yellow", new Pipeline.Composition()
+        {
+            public Pipeline.Node compose(Pipeline.Node source) { return source.channel(ImageStatistics.Channel.B); }
+        });
+        OPERATIONS.put("red-green-binary", new Pipeline.Composition()
+        {
+            public Pipeline.Node compose(Pipeline.Node source)
+            {
+                return source.channel(ImageStatistics.Channel.A).threshold(129);
+            }
+        });
+    }
+
+    private BatchAnalysisMain() {}
+
+    public static void main(String [] args) throws IOException
+    {
+        int threads = Runtime.getRuntime().availableProcessors(), ioThreads = 2, inFlight = 4;
+        int synthetic = 0;
+        String syntheticSize = null;
+        int next = 0;
+
+        for (; next < args.length && args[next].startsWith("--"); next++)
+        {
+            String option = args[next];
+
+            if (option.equals("--threads"))
+                threads = Integer.parseInt(args[++next]);
+            else if (option.equals("--io"))
+                ioThreads = Integer.parseInt(args[++next]);
+            else if (option.equals("--in-flight"))
+                inFlight = Integer.parseInt(args[++next]);
+            else if (option.equals("--synthetic"))
+            {
+                synthetic = Integer.parseInt(args[++next]);
+                syntheticSize = args[++next];
+            }
+            else
+                usage("Unknown option " + option);
+        }
+
+        if (args.length - next < 2)
+            usage("A directory and at least one operation are required");
+
+        File directory = new File(args[next++]);
+        Map<String, Pipeline.Composition> operations = new LinkedHashMap<>();
+
+        for (; next < args.length; next++)
+        {
+            Pipeline.Composition operation = OPERATIONS.get(args[next]);
+            if (operation == null)
+                usage("Unknown operation " + args[next]);
+            operations.put(args[next], operation);
+        }
+
+        if (synthetic > 0)
+        {
+            int [] dimensions = SyntheticImages.parseSize(syntheticSize);
+            PnmCodec pnm = new PnmCodec();
+
+            for (int i = 0; i < synthetic; i++)
+            {
+                File file = new File(directory, String.format(Locale.US, "synthetic_%04d.ppm", i));
+                if (!file.exists())
+                    CaptureWriter.writeFully(file, pnm.encode(SyntheticImages.create(dimensions[0], dimensions[1]), false));
+            }
+        }
+
+        TiledExecutor executor = new TiledExecutor(threads, TiledExecutor.DEFAULT_TILE_ROWS);
+
+        try
+        {
+            BatchAnalyzer batch = new BatchAnalyzer(new ImageIoCodec(), operations, executor, ioThreads, inFlight);
+            BatchAnalyzer.Report report = batch.run(directory, new BatchAnalyzer.Listener()
+            {
+                public void onAnalyzed(File source, int done, int total)
+                {
+                    System.out.println(done + "/" + total + " " + source.getName());
+                }
+
+                public void onFailed(File source, Exception error)
+                {
+                    System.err.println(source.getName() + ": " + error);
+                }
+            }, null);
+
+            System.out.println(report);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private static void usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("Usage: BatchAnalysisMain [--threads N] [--io N] [--in-flight N] [--synthetic COUNT WxH]"
+                + " DIRECTORY OPERATION...");
+        System.err.println("Operations: " + OPERATIONS.keySet());
+        System.exit(2);
+    }
+}
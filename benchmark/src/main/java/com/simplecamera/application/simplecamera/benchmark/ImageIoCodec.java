@@ -0,0 +1,88 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.ImageCodec;
+import com.simplecamera.application.simplecamera.kernel.PnmCodec;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ *   An ImageCodec for desktop batches, which decodes whatever ImageIO
+ *   reads, JPEG and PNG included, as well as the PNM files of PnmCodec,
+ *   and writes results as PNG: gray results as 8-bit gray, everything
+ *   else as 24-bit RGB.
+ */
+
+public class ImageIoCodec implements ImageCodec
+{
+    private final PnmCodec pnm = new PnmCodec();
+
+    public boolean canDecode(String fileName)
+    {
+        if (pnm.canDecode(fileName))
+            return true;
+
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0)
+            return false;
+
+        String suffix = fileName.substring(dot + 1).toLowerCase(Locale.US);
+
+        for (String readable : ImageIO.getReaderFileSuffixes())
+            if (readable.equalsIgnoreCase(suffix))
+                return true;
+
+        return false;
+    }
+
+    public ArgbImage decode(File file) throws IOException
+    {
+        if (pnm.canDecode(file.getName()))
+            return pnm.decode(file);
+
+        BufferedImage decoded = ImageIO.read(file);
+        if (decoded == null)
+            throw new IOException("Unable to decode " + file);
+
+        ArgbImage image = new ArgbImage(decoded.getWidth(), decoded.getHeight());
+        decoded.getRGB(0, 0, image.getWidth(), image.getHeight(), image.getPixels(), 0, image.getStride());
+
+        return image;
+    }
+
+    public byte [] encode(ArgbImage image, boolean gray) throws IOException
+    {
+        int width = image.getWidth(), height = image.getHeight();
+        BufferedImage encoded = new BufferedImage(width, height, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+
+        if (gray)
+        {
+            WritableRaster raster = encoded.getRaster();
+            int [] row = new int[width];
+
+            for (int y = 0; y < height; y++)
+            {
+                for (int x = 0; x < width; x++)
+                    row[x] = image.getPixel(x, y) & 0xFF;
+                raster.setSamples(0, y, width, 1, 0, row);
+            }
+        }
+        else
+            encoded.setRGB(0, 0, width, height, image.getPixels(), 0, image.getStride());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(encoded, "png", out))
+            throw new IOException("No PNG writer is available");
+
+        return out.toByteArray();
+    }
+
+    public String getExtension(boolean gray) { return "png"; }
+}
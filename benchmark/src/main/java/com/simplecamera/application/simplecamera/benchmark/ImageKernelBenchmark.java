@@ -0,0 +1,263 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.GrayImage;
+import com.simplecamera.application.simplecamera.kernel.ImageStatistics;
+import com.simplecamera.application.simplecamera.kernel.LabConverter;
+import com.simplecamera.application.simplecamera.kernel.PixelBufferPool;
+import com.simplecamera.application.simplecamera.kernel.PixelKernels;
+import com.simplecamera.application.simplecamera.kernel.RowKernel;
+import com.simplecamera.application.simplecamera.kernel.TiledExecutor;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Measures every BitmapManager transform, composed from the kernels
+ *   exactly as BitmapManager composes them, at the resolutions chosen
+ *   by CameraActivity.getLowResolutionParams() on typical devices and
+ *   at full 12 MP sensor size.
+ *
+ *   Besides operations per second, each benchmark reports a
+ *   "megapixels" secondary result, which JMH normalises to megapixels
+ *   per second, and the gc profiler enabled by the jmh task reports
+ *   the allocation rate of each transform.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ImageKernelBenchmark
+{
+    /**
+     *   The source and destination buffers for one benchmark thread.
+     */
+
+    @State(Scope.Thread)
+    public static class Images
+    {
+        @Param({"640x480", "1920x1080", "4000x3000"})
+        public String size;
+
+        ArgbImage source, target;
+        GrayImage channel;
+        PixelBufferPool pool;
+        double megapixels;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            int [] dimensions = SyntheticImages.parseSize(size);
+
+            source = SyntheticImages.create(dimensions[0], dimensions[1]);
+            target = new ArgbImage(dimensions[0], dimensions[1]);
+            channel = new GrayImage(dimensions[0], dimensions[1]);
+            pool = new PixelBufferPool();
+            megapixels = dimensions[0] * (double) dimensions[1] / 1e6;
+        }
+    }
+
+    /**
+     *   A TiledExecutor with a given number of threads, used by the
+     *   multi-core variants of the benchmarks.
+     */
+
+    @State(Scope.Benchmark)
+    public static class Tiles
+    {
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+
+        TiledExecutor executor;
+
+        @Setup(Level.Trial)
+        public void setUp() { executor = new TiledExecutor(threads, TiledExecutor.DEFAULT_TILE_ROWS); }
+
+        @TearDown(Level.Trial)
+        public void tearDown() { executor.shutdown(); }
+    }
+
+    /**
+     *   Counts processed megapixels; JMH turns the count into a rate.
+     */
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Pixels
+    {
+        public double megapixels;
+    }
+
+    @Benchmark
+    public ArgbImage gray(Images images, Pixels pixels)
+    {
+        PixelKernels.toGray(images.source, images.target);
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    /**
+     *   A grayscale transform into a freshly allocated result, as every
+     *   BitmapManager operation did before results were pooled. The gc
+     *   profiler shows width * height * 4 bytes allocated per operation.
+     */
+
+    @Benchmark
+    public ArgbImage grayAllocating(Images images, Pixels pixels)
+    {
+        ArgbImage target = new ArgbImage(images.source.getWidth(), images.source.getHeight());
+
+        PixelKernels.toGray(images.source, target);
+        pixels.megapixels += images.megapixels;
+
+        return target;
+    }
+
+    /**
+     *   A grayscale transform into a result drawn from a PixelBufferPool
+     *   and released afterwards, which allocates nothing once warmed up.
+     */
+
+    @Benchmark
+    public ArgbImage grayPooled(Images images, Pixels pixels)
+    {
+        ArgbImage target = images.pool.acquireArgb(images.source.getWidth(), images.source.getHeight());
+
+        PixelKernels.toGray(images.source, target);
+        images.pool.release(target);
+        pixels.megapixels += images.megapixels;
+
+        return target;
+    }
+
+    @Benchmark
+    public ArgbImage binary(Images images, Pixels pixels)
+    {
+        PixelKernels.binarize(images.source, images.target, 119);
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    /**
+     *   The gray-then-threshold composition turnBinary() used before the
+     *   fused binarize() kernel, kept as a point of comparison.
+     */
+
+    @Benchmark
+    public ArgbImage binaryTwoPass(Images images, Pixels pixels)
+    {
+        PixelKernels.toGray(images.source, images.target);
+        PixelKernels.threshold(images.target, images.target, 119);
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    @Benchmark
+    public ArgbImage lab(Images images, Pixels pixels)
+    {
+        LabConverter.toLab(images.source, images.target);
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    /**
+     *   An L*a*b* conversion which gathers ImageStatistics on the way,
+     *   to be compared with lab().
+     */
+
+    @Benchmark
+    public ImageStatistics labWithStatistics(Images images, Pixels pixels)
+    {
+        ImageStatistics statistics = new ImageStatistics();
+
+        statistics.accumulateAndConvert(images.source, images.target, null, 0, images.source.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return statistics;
+    }
+
+    /**
+     *   The double precision ColorUtils-equivalent conversion which
+     *   LabConverter replaced, kept as a point of comparison.
+     */
+
+    @Benchmark
+    public ArgbImage labReference(Images images, Pixels pixels)
+    {
+        PixelKernels.toLab(images.source, images.target);
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    @Benchmark
+    public ArgbImage labTiled(final Images images, Tiles tiles, Pixels pixels)
+    {
+        tiles.executor.execute(images.source.getHeight(), new RowKernel()
+        {
+            public void processRows(int firstRow, int lastRow)
+            {
+                LabConverter.toLab(images.source, images.target, firstRow, lastRow);
+            }
+        }, null);
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    @Benchmark
+    public ArgbImage extractRG(Images images, Pixels pixels)
+    {
+        LabConverter.extractA(images.source, images.target);
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    @Benchmark
+    public ArgbImage extractBY(Images images, Pixels pixels)
+    {
+        LabConverter.extractB(images.source, images.target);
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    @Benchmark
+    public GrayImage extractRGChannel(Images images, Pixels pixels)
+    {
+        LabConverter.extractA(images.source, images.channel);
+        pixels.megapixels += images.megapixels;
+
+        return images.channel;
+    }
+
+    @Benchmark
+    public GrayImage extractBYChannel(Images images, Pixels pixels)
+    {
+        LabConverter.extractB(images.source, images.channel);
+        pixels.megapixels += images.megapixels;
+
+        return images.channel;
+    }
+}
@@ -0,0 +1,82 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.Metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Measures what instrumenting an operation with Metrics costs, with
+ *   metrics on and off, as the time of a single timed section, counter
+ *   or gauge, so that it can be set against the milliseconds an
+ *   operation takes in ImageKernelBenchmark.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MetricsBenchmark
+{
+    private static final String NAME = "bitmap.gray";
+
+    /**
+     *   Whether metrics are on for the trial.
+     */
+
+    @State(Scope.Benchmark)
+    public static class Switch
+    {
+        @Param({"false", "true"})
+        public boolean enabled;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            Metrics.reset();
+            Metrics.setEnabled(enabled);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            Metrics.setEnabled(false);
+            Metrics.reset();
+        }
+    }
+
+    @Benchmark
+    public long section(Switch on)
+    {
+        long start = Metrics.start(NAME);
+        Metrics.stop(NAME, start, 1000000);
+
+        return start;
+    }
+
+    @Benchmark
+    public void counter(Switch on)
+    {
+        Metrics.count(NAME, 1);
+    }
+
+    @Benchmark
+    public void gauge(Switch on)
+    {
+        Metrics.gauge(NAME, 1000000);
+    }
+}
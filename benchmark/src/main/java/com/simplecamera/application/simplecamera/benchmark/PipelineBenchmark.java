@@ -0,0 +1,104 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.BitMask;
+import com.simplecamera.application.simplecamera.kernel.ImageStatistics;
+import com.simplecamera.application.simplecamera.kernel.LabConverter;
+import com.simplecamera.application.simplecamera.kernel.Pipeline;
+import com.simplecamera.application.simplecamera.kernel.PixelKernels;
+import com.simplecamera.application.simplecamera.kernel.ThresholdKernels;
+import com.simplecamera.application.simplecamera.kernel.TiledExecutor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Compares "Make R-G Binary" (L*a*b*, a* channel, threshold) and its
+ *   histogram as a fused Pipeline with the same chain run one full image
+ *   at a time, with every intermediate image materialised.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PipelineBenchmark
+{
+    /**
+     *   The source, intermediate images and pipeline for one benchmark
+     *   thread.
+     */
+
+    @State(Scope.Thread)
+    public static class Images
+    {
+        @Param({"640x480", "1920x1080", "4000x3000"})
+        public String size;
+
+        ArgbImage source, lab, channel, binary;
+        int [] histogram = new int[256];
+        Pipeline pipeline;
+        Pipeline.Output<BitMask> pipelineMask;
+        Pipeline.Output<int []> pipelineHistogram;
+        TiledExecutor executor;
+        double megapixels;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            int [] dimensions = SyntheticImages.parseSize(size);
+
+            source = SyntheticImages.create(dimensions[0], dimensions[1]);
+            lab = new ArgbImage(dimensions[0], dimensions[1]);
+            channel = new ArgbImage(dimensions[0], dimensions[1]);
+            binary = new ArgbImage(dimensions[0], dimensions[1]);
+            executor = new TiledExecutor(1, TiledExecutor.DEFAULT_TILE_ROWS);
+            megapixels = dimensions[0] * (double) dimensions[1] / 1e6;
+
+            pipeline = new Pipeline();
+            Pipeline.Node redGreen = pipeline.source().lab().channel(ImageStatistics.Channel.A);
+            pipelineMask = redGreen.threshold(129).toMask();
+            pipelineHistogram = redGreen.histogram();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() { executor.shutdown(); }
+    }
+
+    @Benchmark
+    public ArgbImage staged(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        LabConverter.toLab(images.source, images.lab);
+        PixelKernels.extractA(images.lab, images.channel);
+        Arrays.fill(images.histogram, 0);
+        ThresholdKernels.histogram(images.channel, images.histogram, 0, images.channel.getHeight());
+        PixelKernels.threshold(images.channel, images.binary, 129);
+        pixels.megapixels += images.megapixels;
+
+        return images.binary;
+    }
+
+    @Benchmark
+    public BitMask fused(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        images.pipeline.run(images.source, images.executor, null);
+        pixels.megapixels += images.megapixels;
+
+        return images.pipelineMask.get();
+    }
+}
@@ -0,0 +1,144 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.BitMask;
+import com.simplecamera.application.simplecamera.kernel.GrayImage;
+import com.simplecamera.application.simplecamera.kernel.LabConverter;
+import com.simplecamera.application.simplecamera.kernel.PixelKernels;
+import com.simplecamera.application.simplecamera.kernel.PlanarImage;
+import com.simplecamera.application.simplecamera.kernel.PlanarKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Compares the PlanarKernels with the packed kernels they mirror, at
+ *   the same sizes as ImageKernelBenchmark, together with the cost of
+ *   unpacking and packing, so that the gain of a planar kernel can be
+ *   weighed against the conversion it needs when the source is packed.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class PlanarKernelBenchmark
+{
+    /**
+     *   The packed and planar forms of a source image and the
+     *   destinations for one benchmark thread.
+     */
+
+    @State(Scope.Thread)
+    public static class Images
+    {
+        @Param({"640x480", "1920x1080", "4000x3000"})
+        public String size;
+
+        ArgbImage packed, packedTarget;
+        PlanarImage planar, planarTarget;
+        GrayImage gray;
+        BitMask mask;
+        double megapixels;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            int [] dimensions = SyntheticImages.parseSize(size);
+
+            packed = SyntheticImages.create(dimensions[0], dimensions[1]);
+            packedTarget = new ArgbImage(dimensions[0], dimensions[1]);
+            planar = new PlanarImage(dimensions[0], dimensions[1]);
+            planar.unpack(packed);
+            planarTarget = new PlanarImage(dimensions[0], dimensions[1]);
+            gray = new GrayImage(dimensions[0], dimensions[1]);
+            mask = new BitMask(dimensions[0], dimensions[1]);
+            megapixels = dimensions[0] * (double) dimensions[1] / 1e6;
+        }
+    }
+
+    @Benchmark
+    public GrayImage grayPacked(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        PixelKernels.toGray(images.packed, images.gray, 0, images.packed.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return images.gray;
+    }
+
+    @Benchmark
+    public GrayImage grayPlanar(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        PlanarKernels.toGray(images.planar, images.gray, 0, images.planar.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return images.gray;
+    }
+
+    @Benchmark
+    public BitMask binarizePacked(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        PixelKernels.binarize(images.packed, images.mask, 119, 0, images.packed.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return images.mask;
+    }
+
+    @Benchmark
+    public BitMask binarizePlanar(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        PlanarKernels.binarize(images.planar, images.mask, 119, 0, images.planar.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return images.mask;
+    }
+
+    @Benchmark
+    public ArgbImage labPacked(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        LabConverter.toLab(images.packed, images.packedTarget);
+        pixels.megapixels += images.megapixels;
+
+        return images.packedTarget;
+    }
+
+    @Benchmark
+    public PlanarImage labPlanar(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        PlanarKernels.toLab(images.planar, images.planarTarget, 0, images.planar.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return images.planarTarget;
+    }
+
+    @Benchmark
+    public PlanarImage unpack(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        images.planarTarget.unpack(images.packed);
+        pixels.megapixels += images.megapixels;
+
+        return images.planarTarget;
+    }
+
+    @Benchmark
+    public ArgbImage pack(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        images.planar.pack(images.packedTarget);
+        pixels.megapixels += images.megapixels;
+
+        return images.packedTarget;
+    }
+}
@@ -0,0 +1,114 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.Nv21Image;
+
+import java.util.Random;
+
+/**
+ *   Builds deterministic, camera-like test images for the benchmarks:
+ *   smooth colour gradients overlaid with sensor-style noise, so that
+ *   neither branch of a threshold is perfectly predictable and every
+ *   run of a benchmark sees exactly the same pixels.
+ */
+
+public final class SyntheticImages
+{
+    private SyntheticImages() {}
+
+    /**
+     *   Parses a "WIDTHxHEIGHT" size parameter.
+     *
+     *   @param size
+     *       The size string, for example "1920x1080".
+     *
+     *   @return
+     *       A two element array holding the width and the height.
+     */
+
+    public static int [] parseSize(String size)
+    {
+        int split = size.indexOf('x');
+
+        return new int[] {Integer.parseInt(size.substring(0, split)), Integer.parseInt(size.substring(split + 1))};
+    }
+
+    /**
+     *   Creates an opaque synthetic ARGB image.
+     *
+     *   @param width
+     *       The width of the image in pixels.
+     *
+     *   @param height
+     *       The height of the image in pixels.
+     *
+     *   @return
+     *       A new ArgbImage filled with gradients and noise.
+     */
+
+    public static ArgbImage create(int width, int height)
+    {
+        ArgbImage image = new ArgbImage(width, height);
+        int [] pixels = image.getPixels();
+        Random random = new Random(0x5CA1AB1E);
+
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+            {
+                int noise = random.nextInt(33) - 16;
+                int red = clamp(x * 255 / width + noise);
+                int green = clamp(y * 255 / height - noise);
+                int blue = clamp((x + y) * 255 / (width + height) + noise / 2);
+
+                pixels[y * width + x] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+            }
+
+        return image;
+    }
+
+    /**
+     *   Creates the NV21 camera frame of the image made by create(), using
+     *   the full range BT.601 equations of the camera's JPEG encoder and
+     *   the top left pixel of every 2x2 block for its chroma.
+     *
+     *   @param width
+     *       The width of the frame in pixels.
+     *
+     *   @param height
+     *       The height of the frame in pixels.
+     *
+     *   @return
+     *       A new Nv21Image.
+     */
+
+    public static Nv21Image createNv21(int width, int height)
+    {
+        ArgbImage image = create(width, height);
+        Nv21Image frame = new Nv21Image(width, height);
+        byte [] data = frame.getData();
+
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+            {
+                int argb = image.getPixel(x, y);
+                int red = (argb >> 16) & 0xFF, green = (argb >> 8) & 0xFF, blue = argb & 0xFF;
+
+                data[y * width + x] = (byte) clamp((int) Math.round(0.299 * red + 0.587 * green + 0.114 * blue));
+
+                if ((x & 1) == 0 && (y & 1) == 0)
+                {
+                    int chroma = frame.getChromaOffset() + (y >> 1) * frame.getChromaStride() + x;
+
+                    data[chroma] = (byte) clamp((int) Math.round(0.5 * red - 0.418688 * green - 0.081312 * blue + 128));
+                    data[chroma + 1] = (byte) clamp((int) Math.round(-0.168736 * red - 0.331264 * green + 0.5 * blue + 128));
+                }
+            }
+
+        return frame;
+    }
+
+    private static int clamp(int value)
+    {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
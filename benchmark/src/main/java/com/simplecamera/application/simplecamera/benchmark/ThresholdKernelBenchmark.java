@@ -0,0 +1,99 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.BitMask;
+import com.simplecamera.application.simplecamera.kernel.GrayImage;
+import com.simplecamera.application.simplecamera.kernel.IntegralImage;
+import com.simplecamera.application.simplecamera.kernel.ThresholdKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Measures the automatic thresholds, including the summed-area table
+ *   each adaptive one is built on. The megapixel rate of the adaptive
+ *   thresholds should not depend on the window radius.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ThresholdKernelBenchmark
+{
+    /**
+     *   The luma image and working buffers for one benchmark thread.
+     */
+
+    @State(Scope.Thread)
+    public static class Images
+    {
+        @Param({"640x480", "1920x1080", "4000x3000"})
+        public String size;
+
+        @Param({"7", "90"})
+        public int radius;
+
+        GrayImage luma;
+        IntegralImage integral;
+        BitMask target;
+        int [] histogram = new int[256];
+        double megapixels;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            int [] dimensions = SyntheticImages.parseSize(size);
+
+            luma = SyntheticImages.createNv21(dimensions[0], dimensions[1]).getLumaPlane();
+            integral = new IntegralImage(dimensions[0], dimensions[1], true);
+            target = new BitMask(dimensions[0], dimensions[1]);
+            megapixels = dimensions[0] * (double) dimensions[1] / 1e6;
+        }
+    }
+
+    @Benchmark
+    public int otsu(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        Arrays.fill(images.histogram, 0);
+        ThresholdKernels.histogram(images.luma, images.histogram, 0, images.luma.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return ThresholdKernels.otsu(images.histogram);
+    }
+
+    @Benchmark
+    public BitMask adaptiveMean(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        images.integral.compute(images.luma);
+        ThresholdKernels.adaptiveMean(images.luma, images.integral, images.target, images.radius, 5,
+                0, images.luma.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+
+    @Benchmark
+    public BitMask sauvola(Images images, ImageKernelBenchmark.Pixels pixels)
+    {
+        images.integral.compute(images.luma);
+        ThresholdKernels.sauvola(images.luma, images.integral, images.target, images.radius, 0.2,
+                0, images.luma.getHeight());
+        pixels.megapixels += images.megapixels;
+
+        return images.target;
+    }
+}
@@ -0,0 +1,120 @@
+package com.simplecamera.application.simplecamera.benchmark;
+
+import com.simplecamera.application.simplecamera.kernel.ArgbImage;
+import com.simplecamera.application.simplecamera.kernel.BitMask;
+import com.simplecamera.application.simplecamera.kernel.GrayImage;
+import com.simplecamera.application.simplecamera.kernel.Nv21Image;
+import com.simplecamera.application.simplecamera.kernel.YuvKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Measures the NV21 kernels used on camera frames, so that they can be
+ *   compared with the ARGB kernels of ImageKernelBenchmark at the same
+ *   sizes, and the compact GrayImage and BitMask outputs with the ARGB
+ *   ones.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class YuvKernelBenchmark
+{
+    /**
+     *   The source frame and destination images for one benchmark thread.
+     */
+
+    @State(Scope.Thread)
+    public static class Frames
+    {
+        @Param({"640x480", "1920x1080", "4000x3000"})
+        public String size;
+
+        Nv21Image frame;
+        ArgbImage argb;
+        GrayImage gray;
+        BitMask mask;
+        double megapixels;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            int [] dimensions = SyntheticImages.parseSize(size);
+
+            frame = SyntheticImages.createNv21(dimensions[0], dimensions[1]);
+            argb = new ArgbImage(dimensions[0], dimensions[1]);
+            gray = new GrayImage(dimensions[0], dimensions[1]);
+            mask = new BitMask(dimensions[0], dimensions[1]);
+            megapixels = dimensions[0] * (double) dimensions[1] / 1e6;
+        }
+    }
+
+    @Benchmark
+    public ArgbImage grayArgb(Frames frames, ImageKernelBenchmark.Pixels pixels)
+    {
+        YuvKernels.toGray(frames.frame, frames.argb, 0, frames.frame.getHeight());
+        pixels.megapixels += frames.megapixels;
+
+        return frames.argb;
+    }
+
+    @Benchmark
+    public GrayImage grayCopy(Frames frames, ImageKernelBenchmark.Pixels pixels)
+    {
+        YuvKernels.toGray(frames.frame, frames.gray, 0, frames.frame.getHeight());
+        pixels.megapixels += frames.megapixels;
+
+        return frames.gray;
+    }
+
+    @Benchmark
+    public ArgbImage binaryArgb(Frames frames, ImageKernelBenchmark.Pixels pixels)
+    {
+        YuvKernels.binarize(frames.frame, frames.argb, 119, 0, frames.frame.getHeight());
+        pixels.megapixels += frames.megapixels;
+
+        return frames.argb;
+    }
+
+    @Benchmark
+    public GrayImage binaryByteMask(Frames frames, ImageKernelBenchmark.Pixels pixels)
+    {
+        YuvKernels.threshold(frames.frame, frames.gray, 119, 0, frames.frame.getHeight());
+        pixels.megapixels += frames.megapixels;
+
+        return frames.gray;
+    }
+
+    @Benchmark
+    public BitMask binaryBitMask(Frames frames, ImageKernelBenchmark.Pixels pixels)
+    {
+        YuvKernels.threshold(frames.frame, frames.mask, 119, 0, frames.frame.getHeight());
+        pixels.megapixels += frames.megapixels;
+
+        return frames.mask;
+    }
+
+    @Benchmark
+    public ArgbImage labArgb(Frames frames, ImageKernelBenchmark.Pixels pixels)
+    {
+        YuvKernels.toLab(frames.frame, frames.argb, 0, frames.frame.getHeight());
+        pixels.megapixels += frames.megapixels;
+
+        return frames.argb;
+    }
+}